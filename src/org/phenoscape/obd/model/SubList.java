@@ -2,14 +2,25 @@ package org.phenoscape.obd.model;
 
 import java.util.List;
 
+import org.phenoscape.obd.query.SeekKey;
+
 public class SubList<T> {
 
     private final List<T> list;
     private final long total;
+    private final SeekKey lastKey;
 
     public SubList(List<T> list, long total) {
+        this(list, total, null);
+    }
+
+    /**
+     * @param lastKey The sort position of the last item in the list, from which the following page of results can be requested.
+     */
+    public SubList(List<T> list, long total, SeekKey lastKey) {
         this.list = list;
         this.total = total;
+        this.lastKey = lastKey;
     }
 
     public List<T> getList() {
@@ -20,4 +31,12 @@ public class SubList<T> {
         return this.total;
     }
 
+    /**
+     * The sort position of the last item in the list, or null if the list is empty 
+     * or the query does not support seeking.
+     */
+    public SeekKey getLastKey() {
+        return this.lastKey;
+    }
+
 }
@@ -1,6 +1,7 @@
 package org.phenoscape.obd.query;
 
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -48,6 +49,9 @@ public class AnnotatedGenesQueryBuilder extends QueryBuilder {
             }
         }
         if (!this.totalOnly) {
+            if (this.config.getSeekAfter() != null) {
+                index = this.config.getSeekAfter().fillStatement(statement, index);
+            }
             statement.setInt(index++, this.config.getLimit());
             statement.setInt(index++, this.config.getIndex());
         }
@@ -70,12 +74,25 @@ public class AnnotatedGenesQueryBuilder extends QueryBuilder {
         if (this.totalOnly) {
             query = "SELECT count(*) FROM (" + baseQuery + ") AS query";
         } else {
-            query = baseQuery + "ORDER BY " + COLUMNS.get(this.config.getSortColumn()) + " " + this.getSortText() + "LIMIT ? OFFSET ? " ;
+            final String sortColumn = COLUMNS.get(this.config.getSortColumn());
+            query = "SELECT *" + getTotalCountColumn(this.config) + " FROM (" + baseQuery + ") AS query " + this.getSeekText(sortColumn, "gene_node_id") + "ORDER BY " + sortColumn + " " + this.getSortText() + ", gene_node_id " + this.getSortText() + "LIMIT ? OFFSET ? " ;
         }
         log().debug("Query: " + query);
         return query;
     }
 
+    /**
+     * The sort position of the current row of this query's results.
+     */
+    public SeekKey getSeekKey(ResultSet result) throws SQLException {
+        return new SeekKey(result.getString(COLUMNS.get(this.config.getSortColumn())), result.getString("gene_node_id"));
+    }
+
+    private String getSeekText(String sortColumn, String idColumn) {
+        final SeekKey seekAfter = this.config.getSeekAfter();
+        return (seekAfter != null) ? "WHERE " + seekAfter.getSQLCondition(sortColumn, idColumn, this.config.sortDescending()) : "";
+    }
+
     private String getSortText() {
         return this.config.sortDescending() ? "DESC " : ""; 
     }
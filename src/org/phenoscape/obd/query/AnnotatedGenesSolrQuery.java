@@ -14,6 +14,7 @@ import org.apache.solr.client.solrj.SolrQuery.ORDER;
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocumentList;
 import org.phenoscape.obd.model.PhenotypeSpec;
 import org.phenoscape.obd.query.AnnotationsQueryConfig.SORT_COLUMN;
 
@@ -34,10 +35,15 @@ public class AnnotatedGenesSolrQuery {
 
     public QueryResponse executeQuery() throws SolrServerException {
         final SolrQuery query = new SolrQuery();
-        query.setQuery(this.getMainQuery());
+        SolrFilters.apply(query, this.getFilters());
         query.setRows(this.config.getLimit());
         query.setStart(this.config.getIndex());
-        query.setSortField(COLUMNS.get(this.config.getSortColumn()), (this.config.sortDescending() ? ORDER.desc : ORDER.asc));
+        final ORDER order = this.config.sortDescending() ? ORDER.desc : ORDER.asc;
+        query.setSortField(this.getSortField(), order);
+        query.addSortField("id", order);
+        if (this.config.getSeekAfter() != null) {
+            query.addFilterQuery(SolrFilters.uncached(this.config.getSeekAfter().getSolrFilter(this.getSortField(), "id", this.config.sortDescending())));
+        }
         query.setFields("label", "id", "full_name");
         if (!this.config.getPhenotypes().isEmpty()) {
             this.addPhenotypeFilter(query);
@@ -46,10 +52,22 @@ public class AnnotatedGenesSolrQuery {
         return this.solr.query(query);
     }
 
-    private String getMainQuery() {
-        final StringBuffer query = new StringBuffer();
-        query.append("type:\"gene\"");
-        return query.toString();
+    /**
+     * The sort position of the last document in the given results, to be used as the 
+     * seek key for the following page.
+     */
+    public SeekKey getLastKey(SolrDocumentList results) {
+        return SeekKey.lastKey(results, this.getSortField(), "id");
+    }
+
+    private String getSortField() {
+        return COLUMNS.get(this.config.getSortColumn());
+    }
+
+    private List<String> getFilters() {
+        final List<String> filters = new ArrayList<String>();
+        filters.add(SolrFilters.term("type", "gene"));
+        return filters;
     }
 
     private void addPhenotypeFilter(SolrQuery query) {
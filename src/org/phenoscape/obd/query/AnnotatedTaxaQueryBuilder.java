@@ -1,6 +1,7 @@
 package org.phenoscape.obd.query;
 
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -54,6 +55,9 @@ public class AnnotatedTaxaQueryBuilder extends QueryBuilder {
                 statement.setString(index++, publicationID);
             }
         }
+        if (!this.totalOnly && (this.config.getSeekAfter() != null)) {
+            index = this.config.getSeekAfter().fillStatement(statement, index);
+        }
         if (!this.totalOnly && this.hasLimit()) {
             statement.setInt(index++, this.config.getLimit());
             statement.setInt(index++, this.config.getIndex());
@@ -87,7 +91,8 @@ public class AnnotatedTaxaQueryBuilder extends QueryBuilder {
             }
 
         } else {
-            query = "(" + baseQuery + ") " + "ORDER BY " + COLUMNS.get(this.config.getSortColumn()) + " " + this.getSortText() + this.getLimitText();
+            final String sortColumn = COLUMNS.get(this.config.getSortColumn());
+            query = "SELECT *" + getTotalCountColumn(this.config) + " FROM (" + baseQuery + ") AS query " + this.getSeekText(sortColumn, "node_id") + "ORDER BY " + sortColumn + " " + this.getSortText() + ", node_id " + this.getSortText() + this.getLimitText();
         }
         return query;
     }
@@ -104,6 +109,18 @@ public class AnnotatedTaxaQueryBuilder extends QueryBuilder {
         }
     }
  
+    /**
+     * The sort position of the current row of this query's results.
+     */
+    public SeekKey getSeekKey(ResultSet result) throws SQLException {
+        return new SeekKey(result.getString(COLUMNS.get(this.config.getSortColumn())), result.getString("node_id"));
+    }
+
+    private String getSeekText(String sortColumn, String idColumn) {
+        final SeekKey seekAfter = this.config.getSeekAfter();
+        return (seekAfter != null) ? "WHERE " + seekAfter.getSQLCondition(sortColumn, idColumn, this.config.sortDescending()) : "";
+    }
+
     private String getSortText() {
         return this.config.sortDescending() ? "DESC " : ""; 
     }
@@ -14,6 +14,7 @@ import org.apache.solr.client.solrj.SolrQuery.ORDER;
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocumentList;
 import org.phenoscape.obd.model.PhenotypeSpec;
 import org.phenoscape.obd.query.AnnotationsQueryConfig.SORT_COLUMN;
 
@@ -34,35 +35,59 @@ public class AnnotatedTaxaSolrQuery {
     }
 
     public QueryResponse executeQuery() throws SolrServerException {
+        final SolrQuery query = this.createQuery();
+        log().debug(query.toString());
+        return this.solr.query(query);
+    }
+
+    /**
+     * The Solr query for the configured results, to be executed or streamed by the caller. A limit 
+     * of -1 requests all results.
+     */
+    public SolrQuery createQuery() {
         final SolrQuery query = new SolrQuery();
-        query.setQuery(this.getMainQuery());
-        query.setRows(this.config.getLimit());
+        SolrFilters.apply(query, this.getFilters());
+        if (this.config.getLimit() == -1) {
+            query.setRows(Integer.MAX_VALUE);
+        } else {
+            query.setRows(this.config.getLimit());
+        }
         query.setStart(this.config.getIndex());
-        query.setSortField(COLUMNS.get(this.config.getSortColumn()), (this.config.sortDescending() ? ORDER.desc : ORDER.asc));
+        final ORDER order = this.config.sortDescending() ? ORDER.desc : ORDER.asc;
+        query.setSortField(this.getSortField(), order);
+        query.addSortField("id", order);
+        if (this.config.getSeekAfter() != null) {
+            query.addFilterQuery(SolrFilters.uncached(this.config.getSeekAfter().getSolrFilter(this.getSortField(), "id", this.config.sortDescending())));
+        }
         if (!this.config.getPhenotypes().isEmpty()) {
             this.addPhenotypeFilter(query);
         }
         query.setFields("id", "label", "is_extinct", "rank", "rank_label", "family", "family_label", "family_is_extinct", "order", "order_label", "order_is_extinct");
-        log().debug(query.toString());
-        return this.solr.query(query);
+        return query;
     }
 
-    private String getMainQuery() {
-        final StringBuffer query = new StringBuffer();
-        query.append("type:\"taxon\"");
+    /**
+     * The sort position of the last document in the given results, to be used as the 
+     * seek key for the following page.
+     */
+    public SeekKey getLastKey(SolrDocumentList results) {
+        return SeekKey.lastKey(results, this.getSortField(), "id");
+    }
+
+    private String getSortField() {
+        return COLUMNS.get(this.config.getSortColumn());
+    }
+
+    private List<String> getFilters() {
+        final List<String> filters = new ArrayList<String>();
+        filters.add(SolrFilters.term("type", "taxon"));
         if (!this.config.getTaxonIDs().isEmpty()) {
-            query.append(" AND subtaxon_of:");
-            query.append("(");
-            query.append(StringUtils.join(CollectionUtils.collect(this.config.getTaxonIDs(), quoter), (this.config.matchAllTaxa() ? " AND " : " OR ")));
-            query.append(")");
+            filters.add(SolrFilters.terms("subtaxon_of", this.config.getTaxonIDs(), this.config.matchAllTaxa()));
         }
         if (!this.config.getPublicationIDs().isEmpty()) {
-            query.append(" AND publication:");
-            query.append("(");
-            query.append(StringUtils.join(CollectionUtils.collect(this.config.getPublicationIDs(), quoter), (this.config.matchAllPublications() ? " AND " : " OR ")));
-            query.append(")");
+            filters.add(SolrFilters.terms("publication", this.config.getPublicationIDs(), this.config.matchAllPublications()));
         }
-        return query.toString();
+        return filters;
     }
 
     private void addPhenotypeFilter(SolrQuery query) {
@@ -105,15 +130,6 @@ public class AnnotatedTaxaSolrQuery {
 
     };
 
-    private static Transformer quoter = new Transformer() {
-
-        @Override
-        public Object transform(Object taxonID) {
-            return String.format("\"%s\"", taxonID);
-        }
-
-    };
-
     private Logger log() {
         return Logger.getLogger(this.getClass());
     }
@@ -1,6 +1,7 @@
 package org.phenoscape.obd.query;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
@@ -13,6 +14,8 @@ public class AnnotationsQueryConfig {
     private SORT_COLUMN sortColumn = SORT_COLUMN.ENTITY;
     private int limit = -1;
     private int index = 0;
+    private SeekKey seekAfter = null;
+    private BackendPlanner.BACKEND backend = null;
     private boolean sortDescending = false;
     private final List<String> taxonIDs = new ArrayList<String>();
     private final List<String> geneIDs = new ArrayList<String>();
@@ -67,6 +70,30 @@ public class AnnotationsQueryConfig {
         this.index = index;
     }
 
+    /**
+     * If set, only results which sort after this key are returned. The index is then counted from 
+     * the first result after the key.
+     */
+    public SeekKey getSeekAfter() {
+        return this.seekAfter;
+    }
+
+    public void setSeekAfter(SeekKey key) {
+        this.seekAfter = key;
+    }
+
+    /**
+     * The backend which answered the previous chunk of this query, or null if none has. Seek keys 
+     * are only meaningful to the backend which produced them.
+     */
+    public BackendPlanner.BACKEND getBackend() {
+        return this.backend;
+    }
+
+    public void setBackend(BackendPlanner.BACKEND backend) {
+        this.backend = backend;
+    }
+
     public boolean sortDescending() {
         return this.sortDescending;
     }
@@ -175,4 +202,30 @@ public class AnnotationsQueryConfig {
         this.matchAllGeneClasses = matchAll;
     }
 
+    /**
+     * A string which is the same for any two configurations selecting the same results, regardless of the order 
+     * in which their IDs were added. Paging, sorting and postcomposition options are not included, so this 
+     * identifies the total count of results rather than any particular page of them.
+     */
+    public String getFilterKey() {
+        final List<String> phenotypeKeys = new ArrayList<String>();
+        for (PhenotypeSpec phenotype : this.phenotypes) {
+            phenotypeKeys.add(phenotype.getEntityID() + "/" + phenotype.getQualityID() + "/" + phenotype.getRelatedEntityID() + "/" + phenotype.includeEntityParts());
+        }
+        final StringBuffer key = new StringBuffer();
+        key.append("taxa").append(sorted(this.taxonIDs)).append(this.matchAllTaxa);
+        key.append("|genes").append(sorted(this.geneIDs)).append(this.matchAllGenes);
+        key.append("|gene_classes").append(sorted(this.geneClassIDs)).append(this.matchAllGeneClasses);
+        key.append("|phenotypes").append(sorted(phenotypeKeys)).append(this.matchAllPhenotypes);
+        key.append("|publications").append(sorted(this.publicationIDs)).append(this.matchAllPublications);
+        key.append("|inferred=").append(this.includeInferredAnnotations);
+        return key.toString();
+    }
+
+    private static List<String> sorted(Collection<String> values) {
+        final List<String> sortedValues = new ArrayList<String>(values);
+        Collections.sort(sortedValues);
+        return sortedValues;
+    }
+
 }
@@ -0,0 +1,177 @@
+package org.phenoscape.obd.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the complete candidate lists of recent autocomplete searches, so that the searches made as a user types
+ * can be answered without the backend. Any text containing "verte" also contains "vert", so the candidates for a
+ * longer search text are found by filtering those of its longest cached prefix. Candidates are kept per combination
+ * of namespaces and name and synonym matching, since those select different candidates.
+ *
+ * Short search texts usually have enough matches starting with the text to fill the limit, so only those prefix
+ * matches are looked up. They are remembered too, separately from complete candidates: any text starting with "verte"
+ * also starts with "vert", so they give the prefix matches of longer search texts in the same way.
+ *
+ * Memory is bounded by the number of searches remembered and by the number of candidates each may hold; searches
+ * with more candidates than that, typically one or two characters long, are not remembered. Entries expire after a
+ * time to live, and all entries are dropped when a new Knowledgebase is loaded. Searches begun before a load are
+ * not remembered.
+ *
+ * Searches answered from complete candidates are counted in QueryMetrics as autocomplete_cache.answered, and those
+ * whose prefix matches were found in the cache as autocomplete_cache.prefix_answered. Each search of the backend,
+ * for prefix matches or for all candidates, is counted by the caller as autocomplete_cache.backend_searches. Lookups
+ * of each prefix are counted under autocomplete_cache.prefixes.
+ */
+public class AutocompleteCache implements KBRefreshListener {
+
+    private final KBCache<String, Candidates> entries;
+    private final int maximumCandidates;
+    private final long timeToLiveMillis;
+    /**
+     * Incremented at each Knowledgebase load, so that candidates found against the previous Knowledgebase are not cached.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * @param maximumSize The number of searches to remember.
+     * @param maximumCandidates The most candidates a search may have to be remembered.
+     * @param timeToLiveMillis How long a search is remembered.
+     */
+    public AutocompleteCache(int maximumSize, int maximumCandidates, long timeToLiveMillis) {
+        this.entries = new KBCache<String, Candidates>("autocomplete_cache.prefixes", maximumSize);
+        this.maximumCandidates = maximumCandidates;
+        this.timeToLiveMillis = timeToLiveMillis;
+    }
+
+    @Override
+    public void knowledgebaseLoaded(Date loadDate) {
+        this.generation.incrementAndGet();
+        this.entries.clear();
+    }
+
+    /**
+     * A token to pass to putCandidates, identifying the Knowledgebase a search is made against. Must be obtained
+     * before the search is made.
+     */
+    public long getGeneration() {
+        return this.generation.get();
+    }
+
+    /**
+     * The candidates containing the search text of the given search, filtered from those of the longest remembered
+     * search with the same options whose text is a prefix of it, or null if there is none. The candidates are unranked.
+     */
+    public List<SearchHit> getCandidates(SearchConfig config) {
+        final List<SearchHit> candidates = this.find(config, true);
+        if (candidates != null) {
+            QueryMetrics.increment("autocomplete_cache.answered");
+        }
+        return candidates;
+    }
+
+    /**
+     * The candidates starting with the search text of the given search, filtered from the prefix matches of the longest
+     * remembered search with the same options whose text is a prefix of it, or null if there is none. The candidates
+     * are unranked.
+     */
+    public List<SearchHit> getPrefixMatches(SearchConfig config) {
+        final List<SearchHit> matches = this.find(config, false);
+        if (matches != null) {
+            QueryMetrics.increment("autocomplete_cache.prefix_answered");
+        }
+        return matches;
+    }
+
+    /**
+     * Remember the candidates of a search, which must be every name or synonym match, as configured, containing
+     * its search text. Ignored if there are too many candidates, or if a Knowledgebase has been loaded since the
+     * given generation was obtained.
+     */
+    public void putCandidates(SearchConfig config, List<SearchHit> candidates, long searchGeneration) {
+        this.put(config, candidates, true, searchGeneration);
+    }
+
+    /**
+     * Remember the prefix matches of a search, which must be every name or synonym match, as configured, starting
+     * with its search text. Ignored as for putCandidates, and also if complete candidates are already remembered.
+     */
+    public void putPrefixMatches(SearchConfig config, List<SearchHit> matches, long searchGeneration) {
+        this.put(config, matches, false, searchGeneration);
+    }
+
+    /**
+     * Find the hits of the given search, filtered from the longest remembered search whose text is a prefix of its
+     * own. Complete candidates are searched for if <code>complete</code> is true, and otherwise prefix matches, which
+     * are also taken from complete candidates.
+     */
+    private List<SearchHit> find(SearchConfig config, boolean complete) {
+        final String text = config.getSearchText().toLowerCase();
+        final String options = createOptionsKey(config);
+        final long lookupGeneration = this.generation.get();
+        final long now = System.currentTimeMillis();
+        for (int length = text.length(); length > 0; length--) {
+            final String key = options + text.substring(0, length);
+            final Candidates candidates = this.entries.get(key);
+            if ((candidates == null) || (complete && !candidates.complete)) { continue; }
+            if ((now - candidates.created) > this.timeToLiveMillis) {
+                this.entries.remove(key);
+                QueryMetrics.increment("autocomplete_cache.expirations");
+                continue;
+            }
+            if ((length == text.length()) && (candidates.complete == complete)) {
+                return candidates.hits;
+            }
+            final List<SearchHit> filtered = new ArrayList<SearchHit>();
+            for (SearchHit hit : candidates.hits) {
+                final String matchText = hit.getMatchText().toLowerCase();
+                if (complete ? matchText.contains(text) : matchText.startsWith(text)) {
+                    filtered.add(hit);
+                }
+            }
+            // the filtered hits are complete for this text too, so remember them to narrow further keystrokes
+            if ((length < text.length()) && (lookupGeneration == this.generation.get())) {
+                this.entries.put(options + text, new Candidates(filtered, candidates.created, complete));
+            }
+            return filtered;
+        }
+        return null;
+    }
+
+    private void put(SearchConfig config, List<SearchHit> hits, boolean complete, long searchGeneration) {
+        if ((hits.size() > this.maximumCandidates) || (searchGeneration != this.generation.get())) { return; }
+        final String key = createOptionsKey(config) + config.getSearchText().toLowerCase();
+        if (!complete) {
+            final Candidates existing = this.entries.get(key);
+            if ((existing != null) && existing.complete) { return; }
+        }
+        this.entries.put(key, new Candidates(new ArrayList<SearchHit>(hits), System.currentTimeMillis(), complete));
+    }
+
+    private static String createOptionsKey(SearchConfig config) {
+        final List<String> namespaces = new ArrayList<String>(config.getNamespaces());
+        Collections.sort(namespaces);
+        return namespaces + "|" + config.searchNames() + "|" + config.searchSynonyms() + "|";
+    }
+
+    private static class Candidates {
+
+        private final List<SearchHit> hits;
+        private final long created;
+        /**
+         * Whether the hits are every match containing the text, rather than only those starting with it.
+         */
+        private final boolean complete;
+
+        public Candidates(List<SearchHit> hits, long created, boolean complete) {
+            this.hits = Collections.unmodifiableList(hits);
+            this.created = created;
+            this.complete = complete;
+        }
+
+    }
+
+}
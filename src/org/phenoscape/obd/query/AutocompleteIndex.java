@@ -0,0 +1,417 @@
+package org.phenoscape.obd.query;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+import org.phenoscape.obd.model.DefaultTerm;
+import org.phenoscape.obd.model.SimpleTerm;
+import org.phenoscape.obd.query.SearchHit.MatchType;
+
+/**
+ * An in-memory copy of the names and synonyms of the non-obsolete terms in the searchable namespaces, so that
+ * autocomplete searches need not scan the node and alias tables with LIKE '%text%'. The index is rebuilt when a
+ * KBRefreshMonitor reports a new Knowledgebase load; the previous index serves searches until the new one is
+ * swapped in.
+ *
+ * Each namespace is indexed separately. Within a namespace, match texts are kept in lowercase sorted order for
+ * prefix searches, and each distinct three-character sequence maps to the entries containing it, so that a
+ * substring search only checks the entries listed for the rarest of the query's trigrams. Queries shorter than
+ * three characters check every entry in the namespace.
+ *
+ * Searches are counted in QueryMetrics as autocomplete.index_searches, and the size of the current index is
+ * reported as autocomplete.index_entries.
+ */
+public class AutocompleteIndex implements KBRefreshListener {
+
+    private static final int GRAM_LENGTH = 3;
+    private final DataSource dataSource;
+    private final Set<String> namespaces;
+    private volatile Entries entries = null;
+
+    /**
+     * @param dataSource The DataSource from which to load the terms.
+     * @param namespaces The source IDs of the terms to index.
+     */
+    public AutocompleteIndex(DataSource dataSource, Collection<String> namespaces) {
+        this.dataSource = dataSource;
+        this.namespaces = Collections.unmodifiableSet(new HashSet<String>(namespaces));
+    }
+
+    @Override
+    public void knowledgebaseLoaded(Date loadDate) throws SQLException {
+        this.load(loadDate);
+    }
+
+    /**
+     * Read the names and synonyms of all searchable terms from the database and replace the current index with them.
+     */
+    public void load(Date loadDate) throws SQLException {
+        final long start = System.currentTimeMillis();
+        final Entries newEntries = new Entries(loadDate);
+        final CloseableIterator<Void> names = (new StreamingQueryExecutor<Void>(this.dataSource, new NamesQueryBuilder(this.namespaces)) {
+            @Override
+            public Void processRow(ResultSet result) throws SQLException {
+                newEntries.addTerm(result.getInt("node_id"), result.getString("uid"), result.getString("label"),
+                        result.getInt("source_id"), result.getString("source_uid"), result.getString("source_label"));
+                return null;
+            }
+        }).executeQuery();
+        drain(names);
+        final CloseableIterator<Void> synonyms = (new StreamingQueryExecutor<Void>(this.dataSource, new SynonymsQueryBuilder(this.namespaces)) {
+            @Override
+            public Void processRow(ResultSet result) throws SQLException {
+                newEntries.addSynonym(result.getInt("node_id"), result.getString("synonym_label"));
+                return null;
+            }
+        }).executeQuery();
+        drain(synonyms);
+        newEntries.finish();
+        this.entries = newEntries;
+        final long millis = System.currentTimeMillis() - start;
+        QueryMetrics.increment("autocomplete.index_loads");
+        QueryMetrics.set("autocomplete.index_load_millis", millis);
+        QueryMetrics.set("autocomplete.index_entries", newEntries.entryCount);
+        log().info(String.format("Indexed %d autocomplete entries for Knowledgebase of %s in %d ms", newEntries.entryCount, loadDate, millis));
+    }
+
+    /**
+     * The Knowledgebase load date of the terms currently indexed, or null if none have been loaded.
+     */
+    public Date getLoadDate() {
+        final Entries current = this.entries;
+        return (current != null) ? current.loadDate : null;
+    }
+
+    /**
+     * Whether the index has been loaded and covers all of the given namespaces.
+     */
+    public boolean canSearch(Collection<String> searchNamespaces) {
+        return (this.entries != null) && this.namespaces.containsAll(searchNamespaces);
+    }
+
+    /**
+     * The terms in the configured namespaces whose name or synonym, as given by the match type, contains the search
+     * text, or starts with it if <code>startsWith</code> is true. Matching ignores case. Returns null if the index
+     * has not been loaded.
+     */
+    public List<SearchHit> search(SearchConfig config, MatchType type, boolean startsWith) {
+        final Entries current = this.entries;
+        if (current == null) { return null; }
+        QueryMetrics.increment("autocomplete.index_searches");
+        final String text = config.getSearchText().toLowerCase();
+        final List<SearchHit> hits = new ArrayList<SearchHit>();
+        for (String namespace : config.getNamespaces()) {
+            final Partition partition = current.partitions.get(namespace);
+            if (partition != null) {
+                partition.search(current, text, type == MatchType.SYNONYM, startsWith, hits);
+            }
+        }
+        return hits;
+    }
+
+    private static void drain(CloseableIterator<Void> rows) {
+        try {
+            while (rows.hasNext()) {
+                rows.next();
+            }
+        } finally {
+            rows.close();
+        }
+    }
+
+    /**
+     * The terms of one Knowledgebase, shared by all of its namespace partitions.
+     */
+    private static class Entries {
+
+        private final Date loadDate;
+        private final Map<String, Partition> partitions = new HashMap<String, Partition>();
+        private final Map<Integer, Integer> termIndexes = new HashMap<Integer, Integer>();
+        private final List<Partition> termPartitions = new ArrayList<Partition>();
+        private final IntList nodeIDList = new IntList();
+        private final List<String> uidList = new ArrayList<String>();
+        private final List<String> labelList = new ArrayList<String>();
+        private int[] nodeIDs;
+        private String[] uids;
+        private String[] labels;
+        private int entryCount = 0;
+
+        public Entries(Date loadDate) {
+            this.loadDate = loadDate;
+        }
+
+        public void addTerm(int nodeID, String uid, String label, int sourceID, String sourceUID, String sourceLabel) {
+            if ((uid == null) || (label == null) || this.termIndexes.containsKey(nodeID)) { return; }
+            Partition partition = this.partitions.get(sourceUID);
+            if (partition == null) {
+                partition = new Partition(new SimpleTerm(sourceUID, sourceLabel), sourceID);
+                this.partitions.put(sourceUID, partition);
+            }
+            final int term = this.uidList.size();
+            this.termIndexes.put(nodeID, term);
+            this.termPartitions.add(partition);
+            this.nodeIDList.add(nodeID);
+            this.uidList.add(uid);
+            this.labelList.add(label);
+            partition.add(term, label, false);
+            this.entryCount++;
+        }
+
+        /**
+         * Add a synonym for a term already added. Synonyms of unknown terms are ignored.
+         */
+        public void addSynonym(int nodeID, String synonym) {
+            final Integer term = this.termIndexes.get(nodeID);
+            if ((term == null) || (synonym == null)) { return; }
+            this.termPartitions.get(term).add(term, synonym, true);
+            this.entryCount++;
+        }
+
+        public void finish() {
+            this.nodeIDs = this.nodeIDList.toArray();
+            this.uids = this.uidList.toArray(new String[this.uidList.size()]);
+            this.labels = this.labelList.toArray(new String[this.labelList.size()]);
+            this.termIndexes.clear();
+            this.termPartitions.clear();
+            for (Partition partition : this.partitions.values()) {
+                partition.finish();
+            }
+        }
+
+        public SearchHit createHit(Partition partition, int entry) {
+            final int term = partition.terms[entry];
+            final DefaultTerm hit = new DefaultTerm(this.nodeIDs[term], partition.sourceID);
+            hit.setUID(this.uids[term]);
+            hit.setLabel(this.labels[term]);
+            hit.setSource(partition.source);
+            return new SearchHit(hit, partition.texts[entry], partition.synonyms.get(entry) ? MatchType.SYNONYM : MatchType.NAME);
+        }
+
+    }
+
+    /**
+     * The names and synonyms of the terms from one namespace.
+     */
+    private static class Partition {
+
+        private final SimpleTerm source;
+        private final int sourceID;
+        private IntList termList = new IntList();
+        private List<String> textList = new ArrayList<String>();
+        private int[] terms;
+        private String[] texts;
+        private String[] lowerTexts;
+        private final BitSet synonyms = new BitSet();
+        /**
+         * Entry numbers in order of their lowercase text.
+         */
+        private Integer[] sorted;
+        private Map<String, int[]> grams;
+
+        public Partition(SimpleTerm source, int sourceID) {
+            this.source = source;
+            this.sourceID = sourceID;
+        }
+
+        public void add(int term, String text, boolean isSynonym) {
+            if (isSynonym) {
+                this.synonyms.set(this.textList.size());
+            }
+            this.termList.add(term);
+            this.textList.add(text);
+        }
+
+        public void finish() {
+            this.terms = this.termList.toArray();
+            this.texts = this.textList.toArray(new String[this.textList.size()]);
+            this.termList = null;
+            this.textList = null;
+            this.lowerTexts = new String[this.texts.length];
+            this.sorted = new Integer[this.texts.length];
+            final Map<String, IntList> gramLists = new HashMap<String, IntList>();
+            for (int entry = 0; entry < this.texts.length; entry++) {
+                final String lowerText = this.texts[entry].toLowerCase();
+                this.lowerTexts[entry] = lowerText;
+                this.sorted[entry] = entry;
+                for (int i = 0; i + GRAM_LENGTH <= lowerText.length(); i++) {
+                    final String gram = lowerText.substring(i, i + GRAM_LENGTH);
+                    IntList entries = gramLists.get(gram);
+                    if (entries == null) {
+                        entries = new IntList();
+                        gramLists.put(gram, entries);
+                    }
+                    // entries are visited in order, so a repeated gram is always the last one added
+                    if ((entries.size() == 0) || (entries.get(entries.size() - 1) != entry)) {
+                        entries.add(entry);
+                    }
+                }
+            }
+            Arrays.sort(this.sorted, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return lowerTexts[a].compareTo(lowerTexts[b]);
+                }
+            });
+            this.grams = new HashMap<String, int[]>();
+            for (Map.Entry<String, IntList> gram : gramLists.entrySet()) {
+                this.grams.put(gram.getKey(), gram.getValue().toArray());
+            }
+        }
+
+        public void search(Entries entries, String text, boolean synonym, boolean startsWith, List<SearchHit> hits) {
+            if (startsWith) {
+                for (int i = this.firstSortedAtLeast(text); i < this.sorted.length; i++) {
+                    final int entry = this.sorted[i];
+                    if (!this.lowerTexts[entry].startsWith(text)) { break; }
+                    if (this.synonyms.get(entry) == synonym) {
+                        hits.add(entries.createHit(this, entry));
+                    }
+                }
+            } else if (text.length() < GRAM_LENGTH) {
+                for (int entry = 0; entry < this.lowerTexts.length; entry++) {
+                    if ((this.synonyms.get(entry) == synonym) && this.lowerTexts[entry].contains(text)) {
+                        hits.add(entries.createHit(this, entry));
+                    }
+                }
+            } else {
+                final int[] candidates = this.rarestGram(text);
+                if (candidates == null) { return; }
+                for (int entry : candidates) {
+                    if ((this.synonyms.get(entry) == synonym) && this.lowerTexts[entry].contains(text)) {
+                        hits.add(entries.createHit(this, entry));
+                    }
+                }
+            }
+        }
+
+        /**
+         * The entries containing whichever of the text's trigrams is in the fewest entries, or null if any of them
+         * is in none.
+         */
+        private int[] rarestGram(String text) {
+            int[] rarest = null;
+            for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+                final int[] entries = this.grams.get(text.substring(i, i + GRAM_LENGTH));
+                if (entries == null) {
+                    return null;
+                }
+                if ((rarest == null) || (entries.length < rarest.length)) {
+                    rarest = entries;
+                }
+            }
+            return rarest;
+        }
+
+        private int firstSortedAtLeast(String text) {
+            int low = 0;
+            int high = this.sorted.length;
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                if (this.lowerTexts[this.sorted[middle]].compareTo(text) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+    }
+
+    /**
+     * A growable list of ints without boxing.
+     */
+    private static class IntList {
+
+        private int[] values = new int[8];
+        private int size = 0;
+
+        public void add(int value) {
+            if (this.size == this.values.length) {
+                this.values = Arrays.copyOf(this.values, this.size * 2);
+            }
+            this.values[this.size++] = value;
+        }
+
+        public int get(int index) {
+            return this.values[index];
+        }
+
+        public int size() {
+            return this.size;
+        }
+
+        public int[] toArray() {
+            return Arrays.copyOf(this.values, this.size);
+        }
+
+    }
+
+    private static class NamesQueryBuilder extends QueryBuilder {
+
+        private final Collection<String> namespaces;
+
+        public NamesQueryBuilder(Collection<String> namespaces) {
+            this.namespaces = namespaces;
+        }
+
+        @Override
+        protected void fillStatement(PreparedStatement statement) throws SQLException {
+            statement.setString(1, this.createArrayLiteral(this.namespaces));
+        }
+
+        @Override
+        protected String getQuery() {
+            return "SELECT term.node_id, term.uid, term.label, source.node_id AS source_id, source.uid AS source_uid, source.label AS source_label " +
+            "FROM node term " +
+            "JOIN node source ON (term.source_id = source.node_id) " +
+            "WHERE source.uid = ANY(CAST(? AS TEXT[])) AND term.is_obsolete = false";
+        }
+
+    }
+
+    private static class SynonymsQueryBuilder extends QueryBuilder {
+
+        private final Collection<String> namespaces;
+
+        public SynonymsQueryBuilder(Collection<String> namespaces) {
+            this.namespaces = namespaces;
+        }
+
+        @Override
+        protected void fillStatement(PreparedStatement statement) throws SQLException {
+            statement.setString(1, this.createArrayLiteral(this.namespaces));
+        }
+
+        @Override
+        protected String getQuery() {
+            return "SELECT term.node_id, alias.label AS synonym_label " +
+            "FROM node term " +
+            "JOIN node source ON (term.source_id = source.node_id) " +
+            "JOIN alias ON (term.node_id = alias.node_id) " +
+            "WHERE source.uid = ANY(CAST(? AS TEXT[])) AND term.is_obsolete = false";
+        }
+
+    }
+
+    private Logger log() {
+        return Logger.getLogger(this.getClass());
+    }
+
+}
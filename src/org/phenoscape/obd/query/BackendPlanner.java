@@ -0,0 +1,241 @@
+package org.phenoscape.obd.query;
+
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrServerException;
+
+/**
+ * Chooses whether a listing query is answered from the database or from the Solr index, for the listings which
+ * have both implementations. Each choice weighs the recent latency of each backend for that listing against the
+ * shape of the query: Solr answers phenotype constraints on taxa, genes and publications with join filters, whose
+ * cost grows with the number of phenotypes, while the database computes a window count over every matching row,
+ * which is costly when nothing narrows the query. Solr is preferred until there is history to go on, as it was the
+ * only backend used before. Every so often the other backend is tried anyway to keep its latency current.
+ *
+ * A query that fails, or that takes longer than the slow threshold, counts against its backend; after several in a
+ * row the backend is skipped for a while. A failed query is retried on the other backend, except when it continues
+ * a paged result, since seek keys are only meaningful to the backend which produced them.
+ *
+ * Decisions, probes, fallbacks and failures are counted in QueryMetrics under planner.*, along with the current
+ * latency estimate for each listing and backend.
+ */
+public class BackendPlanner {
+
+    public static enum BACKEND { SQL, SOLR }
+
+    private static final long SLOW_MILLIS = Long.getLong("org.phenoscape.obd.planner-slow-millis", 10000);
+    private static final int FAILURES_BEFORE_DOWN = 3;
+    private static final long DOWN_MILLIS = Long.getLong("org.phenoscape.obd.planner-down-millis", 30000);
+    private static final int PROBE_INTERVAL = 50;
+    /**
+     * Weight given to the newest latency in the moving average.
+     */
+    private static final double LATENCY_WEIGHT = 0.2;
+    private static final long DEFAULT_SOLR_MILLIS = 50;
+    private static final long DEFAULT_SQL_MILLIS = 200;
+    private static final double JOIN_FILTER_COST = 0.5;
+    private static final double UNFILTERED_SQL_COST = 2.0;
+    private final ConcurrentMap<String, Latency> latencies = new ConcurrentHashMap<String, Latency>();
+    private final ConcurrentMap<String, AtomicLong> decisionCounts = new ConcurrentHashMap<String, AtomicLong>();
+    private final Health[] health = { new Health(), new Health() };
+
+    /**
+     * A listing which can be read from either backend.
+     * @param <R> The type of result.
+     */
+    public static abstract class Route<R> {
+
+        protected abstract R querySQL(AnnotationsQueryConfig config) throws SQLException;
+
+        protected abstract R querySolr(AnnotationsQueryConfig config) throws SQLException, SolrServerException;
+
+        /**
+         * Whether the database gives the same results, in the same order, as Solr for the given query. For a paged
+         * listing this includes the order of rows with equal sort values, since a client may request successive pages
+         * separately and each may be routed anew. If not, the database is only used when Solr is unavailable.
+         */
+        protected boolean isEquivalentInSQL(AnnotationsQueryConfig config) {
+            return true;
+        }
+
+        /**
+         * The number of join filters Solr needs for the given query.
+         */
+        protected int getSolrJoinCount(AnnotationsQueryConfig config) {
+            if (config.getPhenotypes().isEmpty()) {
+                return 0;
+            }
+            return config.matchAllPhenotypes() ? config.getPhenotypes().size() : 1;
+        }
+
+    }
+
+    /**
+     * Run the given query on the backend expected to answer it fastest, falling back to the other if it fails.
+     * @param listing The name of the listing, used to keep latency history and metrics separate.
+     */
+    public <R> R execute(String listing, AnnotationsQueryConfig config, Route<R> route) throws SQLException, SolrServerException {
+        final boolean continuing = (config.getSeekAfter() != null) && (config.getBackend() != null);
+        final BACKEND backend = continuing ? config.getBackend() : this.choose(listing, config, route);
+        QueryMetrics.increment(String.format("planner.%s.%s", listing, name(backend)));
+        try {
+            final R result = this.run(listing, backend, config, route);
+            config.setBackend(backend);
+            return result;
+        } catch (SQLException e) {
+            if (continuing) { throw e; }
+            return this.fallBack(listing, backend, config, route, e);
+        } catch (SolrServerException e) {
+            if (continuing) { throw e; }
+            return this.fallBack(listing, backend, config, route, e);
+        } catch (RuntimeException e) {
+            if (continuing) { throw e; }
+            return this.fallBack(listing, backend, config, route, e);
+        }
+    }
+
+    private <R> R fallBack(String listing, BACKEND failed, AnnotationsQueryConfig config, Route<R> route, Exception cause) throws SQLException, SolrServerException {
+        final BACKEND other = (failed == BACKEND.SOLR) ? BACKEND.SQL : BACKEND.SOLR;
+        log().warn(String.format("Query for %s failed on %s; retrying on %s", listing, failed, other), cause);
+        QueryMetrics.increment(String.format("planner.%s.fallbacks", listing));
+        final R result = this.run(listing, other, config, route);
+        config.setBackend(other);
+        return result;
+    }
+
+    private BACKEND choose(String listing, AnnotationsQueryConfig config, Route<?> route) {
+        final boolean solrUp = this.health[BACKEND.SOLR.ordinal()].isUp();
+        final boolean sqlUp = this.health[BACKEND.SQL.ordinal()].isUp();
+        if (!route.isEquivalentInSQL(config)) {
+            return (solrUp || sqlUp == solrUp) ? BACKEND.SOLR : BACKEND.SQL;
+        }
+        if (solrUp != sqlUp) {
+            return solrUp ? BACKEND.SOLR : BACKEND.SQL;
+        }
+        final double solrCost = this.getLatency(listing, BACKEND.SOLR).getMillis() * (1 + (JOIN_FILTER_COST * route.getSolrJoinCount(config)));
+        final double sqlCost = this.getLatency(listing, BACKEND.SQL).getMillis() * (isUnfiltered(config) ? UNFILTERED_SQL_COST : 1);
+        final BACKEND cheapest = (sqlCost < solrCost) ? BACKEND.SQL : BACKEND.SOLR;
+        if ((this.getDecisionCount(listing).incrementAndGet() % PROBE_INTERVAL) == 0) {
+            QueryMetrics.increment(String.format("planner.%s.probes", listing));
+            return (cheapest == BACKEND.SOLR) ? BACKEND.SQL : BACKEND.SOLR;
+        }
+        return cheapest;
+    }
+
+    private <R> R run(String listing, BACKEND backend, AnnotationsQueryConfig config, Route<R> route) throws SQLException, SolrServerException {
+        final Health backendHealth = this.health[backend.ordinal()];
+        final long start = System.currentTimeMillis();
+        boolean succeeded = false;
+        try {
+            final R result = (backend == BACKEND.SOLR) ? route.querySolr(config) : route.querySQL(config);
+            succeeded = true;
+            return result;
+        } finally {
+            final long millis = System.currentTimeMillis() - start;
+            if (succeeded) {
+                final Latency latency = this.getLatency(listing, backend);
+                latency.record(millis);
+                QueryMetrics.set(String.format("planner.%s.%s.latency_millis", listing, name(backend)), latency.getMillis());
+            }
+            if (succeeded && (millis < SLOW_MILLIS)) {
+                backendHealth.recordSuccess();
+            } else {
+                QueryMetrics.increment(String.format("planner.%s.%s", name(backend), succeeded ? "slow" : "failures"));
+                if (backendHealth.recordFailure()) {
+                    QueryMetrics.increment(String.format("planner.%s.outages", name(backend)));
+                    log().warn(String.format("Routing queries away from %s for %d ms", backend, DOWN_MILLIS));
+                }
+            }
+        }
+    }
+
+    private static boolean isUnfiltered(AnnotationsQueryConfig config) {
+        return config.getTaxonIDs().isEmpty() && config.getGeneIDs().isEmpty() && config.getGeneClassIDs().isEmpty() && config.getPhenotypes().isEmpty() && config.getPublicationIDs().isEmpty();
+    }
+
+    private Latency getLatency(String listing, BACKEND backend) {
+        final String key = listing + "." + name(backend);
+        final Latency latency = this.latencies.get(key);
+        if (latency != null) {
+            return latency;
+        }
+        final Latency newLatency = new Latency((backend == BACKEND.SOLR) ? DEFAULT_SOLR_MILLIS : DEFAULT_SQL_MILLIS);
+        final Latency existing = this.latencies.putIfAbsent(key, newLatency);
+        return (existing != null) ? existing : newLatency;
+    }
+
+    private AtomicLong getDecisionCount(String listing) {
+        final AtomicLong count = this.decisionCounts.get(listing);
+        if (count != null) {
+            return count;
+        }
+        final AtomicLong newCount = new AtomicLong();
+        final AtomicLong existing = this.decisionCounts.putIfAbsent(listing, newCount);
+        return (existing != null) ? existing : newCount;
+    }
+
+    private static String name(BACKEND backend) {
+        return backend.name().toLowerCase();
+    }
+
+    /**
+     * An exponentially weighted moving average of query times.
+     */
+    private static class Latency {
+
+        private double millis;
+
+        public Latency(long initialMillis) {
+            this.millis = initialMillis;
+        }
+
+        public synchronized void record(long queryMillis) {
+            this.millis += LATENCY_WEIGHT * (queryMillis - this.millis);
+        }
+
+        public synchronized long getMillis() {
+            return Math.round(this.millis);
+        }
+
+    }
+
+    /**
+     * Consecutive failures of a backend, and whether it is currently being avoided because of them.
+     */
+    private static class Health {
+
+        private int failures = 0;
+        private long downUntil = 0;
+
+        public synchronized boolean isUp() {
+            return System.currentTimeMillis() >= this.downUntil;
+        }
+
+        public synchronized void recordSuccess() {
+            this.failures = 0;
+        }
+
+        /**
+         * @return true if this failure takes the backend out of use.
+         */
+        public synchronized boolean recordFailure() {
+            this.failures++;
+            if (this.failures >= FAILURES_BEFORE_DOWN) {
+                this.failures = 0;
+                this.downUntil = System.currentTimeMillis() + DOWN_MILLIS;
+                return true;
+            }
+            return false;
+        }
+
+    }
+
+    private Logger log() {
+        return Logger.getLogger(this.getClass());
+    }
+
+}
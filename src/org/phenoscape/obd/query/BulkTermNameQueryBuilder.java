@@ -2,18 +2,22 @@ package org.phenoscape.obd.query;
 
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.Collection;
 
+/**
+ * Looks up the names, sources and any taxonomic details of a set of terms in a single query.
+ */
 public class BulkTermNameQueryBuilder extends QueryBuilder {
     
-    final String uid;
+    final Collection<String> uids;
     
-    public BulkTermNameQueryBuilder(String uid) {
-        this.uid = uid;
+    public BulkTermNameQueryBuilder(Collection<String> uids) {
+        this.uids = uids;
     }
 
     @Override
     protected void fillStatement(PreparedStatement statement) throws SQLException {
-        statement.setString(1, this.uid);
+        statement.setString(1, this.createArrayLiteral(this.uids));
     }
 
     @Override
@@ -22,7 +26,7 @@ public class BulkTermNameQueryBuilder extends QueryBuilder {
         " FROM node term " +
         " LEFT JOIN node source ON (term.source_id = source.node_id) " + 
         " LEFT JOIN taxon ON (taxon.node_id = term.node_id) " +
-        " WHERE term.uid = ?"; 
+        " WHERE term.uid = ANY(CAST(? AS TEXT[]))"; 
     }
 
 }
@@ -0,0 +1,20 @@
+package org.phenoscape.obd.query;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * An Iterator backed by a resource, such as an open database cursor, which must be released 
+ * when iteration stops. Implementations release the resource themselves once the last item 
+ * has been returned; close() only needs to be called if iteration is abandoned early, but 
+ * may safely be called more than once.
+ */
+public interface CloseableIterator<T> extends Iterator<T>, Closeable {
+
+    /**
+     * Release the resources held by this iterator. Any failure is logged rather than thrown.
+     */
+    @Override
+    public void close();
+
+}
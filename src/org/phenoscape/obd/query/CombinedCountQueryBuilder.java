@@ -0,0 +1,86 @@
+package org.phenoscape.obd.query;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Evaluates several count queries in a single statement, returning one row with a column for each count,
+ * in the order the queries were given. Each query must return a single row with a single column, as the
+ * count queries built with <code>totalOnly</code> do.
+ */
+public class CombinedCountQueryBuilder extends QueryBuilder {
+
+    private final List<QueryBuilder> countQueries;
+
+    public CombinedCountQueryBuilder(List<QueryBuilder> countQueries) {
+        this.countQueries = new ArrayList<QueryBuilder>(countQueries);
+    }
+
+    @Override
+    protected String getQuery() {
+        final StringBuffer query = new StringBuffer();
+        query.append("SELECT ");
+        for (int i = 0; i < this.countQueries.size(); i++) {
+            if (i > 0) {
+                query.append(", ");
+            }
+            query.append("(" + this.countQueries.get(i).getQuery() + ") AS count_" + i);
+        }
+        return query.toString();
+    }
+
+    /**
+     * Fills each query's parameters in turn, shifting the parameter indexes each query uses past those
+     * filled by the queries before it.
+     */
+    @Override
+    protected void fillStatement(PreparedStatement statement) throws SQLException {
+        int offset = 0;
+        for (QueryBuilder countQuery : this.countQueries) {
+            final OffsetParameters parameters = new OffsetParameters(statement, offset);
+            countQuery.fillStatement((PreparedStatement)(Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[] { PreparedStatement.class }, parameters)));
+            offset += parameters.getHighestIndex();
+        }
+    }
+
+    /**
+     * Passes calls through to a statement, adding an offset to the index of every parameter set.
+     */
+    private static class OffsetParameters implements InvocationHandler {
+
+        private final PreparedStatement statement;
+        private final int offset;
+        private int highestIndex = 0;
+
+        public OffsetParameters(PreparedStatement statement, int offset) {
+            this.statement = statement;
+            this.offset = offset;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().startsWith("set") && (args != null) && (args.length > 1) && (args[0] instanceof Integer)) {
+                final int index = (Integer)(args[0]);
+                this.highestIndex = Math.max(this.highestIndex, index);
+                args[0] = index + this.offset;
+            }
+            try {
+                return method.invoke(this.statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        public int getHighestIndex() {
+            return this.highestIndex;
+        }
+
+    }
+
+}
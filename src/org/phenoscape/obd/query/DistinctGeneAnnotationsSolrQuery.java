@@ -14,6 +14,7 @@ import org.apache.solr.client.solrj.SolrQuery.ORDER;
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocumentList;
 import org.phenoscape.obd.model.PhenotypeSpec;
 import org.phenoscape.obd.query.AnnotationsQueryConfig.SORT_COLUMN;
 
@@ -35,31 +36,56 @@ public class DistinctGeneAnnotationsSolrQuery {
     }
 
     public QueryResponse executeQuery() throws SolrServerException {
-        final SolrQuery query = new SolrQuery();
-        query.setQuery(this.getMainQuery());
-        query.setRows(this.config.getLimit());
-        query.setStart(this.config.getIndex());
-        query.setSortField(COLUMNS.get(this.config.getSortColumn()), (this.config.sortDescending() ? ORDER.desc : ORDER.asc));
-        query.setFields("direct_gene", "direct_gene_label", "direct_entity", "direct_entity_label", "direct_quality", "direct_quality_label", "direct_related_entity", "direct_related_entity_label");
+        final SolrQuery query = this.createQuery();
         log().debug(query.toString());
         return this.solr.query(query);
     }
 
-    private String getMainQuery() {
-        final StringBuffer query = new StringBuffer();
-        query.append("type:\"gene_annotation\"");
+    /**
+     * The Solr query for the configured results, to be executed or streamed by the caller. A limit 
+     * of -1 requests all results.
+     */
+    public SolrQuery createQuery() {
+        final SolrQuery query = new SolrQuery();
+        SolrFilters.apply(query, this.getFilters());
+        if (this.config.getLimit() == -1) {
+            query.setRows(Integer.MAX_VALUE);
+        } else {
+            query.setRows(this.config.getLimit());
+        }
+        query.setStart(this.config.getIndex());
+        final ORDER order = this.config.sortDescending() ? ORDER.desc : ORDER.asc;
+        query.setSortField(this.getSortField(), order);
+        query.addSortField("id", order);
+        if (this.config.getSeekAfter() != null) {
+            query.addFilterQuery(SolrFilters.uncached(this.config.getSeekAfter().getSolrFilter(this.getSortField(), "id", this.config.sortDescending())));
+        }
+        query.setFields("id", "direct_gene", "direct_gene_label", "direct_entity", "direct_entity_label", "direct_quality", "direct_quality_label", "direct_related_entity", "direct_related_entity_label");
+        return query;
+    }
+
+    /**
+     * The sort position of the last document in the given results, to be used as the 
+     * seek key for the following page.
+     */
+    public SeekKey getLastKey(SolrDocumentList results) {
+        return SeekKey.lastKey(results, this.getSortField(), "id");
+    }
+
+    private String getSortField() {
+        return COLUMNS.get(this.config.getSortColumn());
+    }
+
+    private List<String> getFilters() {
+        final List<String> filters = new ArrayList<String>();
+        filters.add(SolrFilters.term("type", "gene_annotation"));
         if (!this.config.getPhenotypes().isEmpty()) {
-            query.append(" AND (");
-            query.append(StringUtils.join(CollectionUtils.collect(this.config.getPhenotypes(), phenotypeTransformer), " OR "));
-            query.append(")");
+            filters.add("(" + StringUtils.join(CollectionUtils.collect(this.config.getPhenotypes(), phenotypeTransformer), " OR ") + ")");
         }
         if (!this.config.getGeneIDs().isEmpty()) {
-            query.append(" AND direct_gene:");
-            query.append("(");
-            query.append(StringUtils.join(CollectionUtils.collect(this.config.getGeneIDs(), quoter), " OR "));
-            query.append(")");
+            filters.add(SolrFilters.terms("direct_gene", this.config.getGeneIDs(), false));
         }
-        return query.toString();
+        return filters;
     }
 
     private static Transformer phenotypeTransformer = new Transformer() {
@@ -83,14 +109,6 @@ public class DistinctGeneAnnotationsSolrQuery {
 
     };
     
-    private static Transformer quoter = new Transformer() {
-
-        @Override
-        public Object transform(Object text) {
-            return String.format("\"%s\"", text);
-        }
-
-    };
 
     private Logger log() {
         return Logger.getLogger(this.getClass());
@@ -1,13 +1,16 @@
 package org.phenoscape.obd.query;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
-import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.FacetField;
+import org.apache.solr.client.solrj.response.FacetField.Count;
 import org.apache.solr.client.solrj.response.QueryResponse;
 
 public class DistinctPhenotypesCountSolrQuery {
@@ -31,32 +34,58 @@ public class DistinctPhenotypesCountSolrQuery {
     }
 
     public int getCount() throws SolrServerException {
+        final QueryResponse response = this.solr.query(this.createQuery());
+        return new Long(response.getResults().getNumFound()).intValue();
+    }
+
+    /**
+     * Count the matching phenotypes for every value of the given field, along with the total, in a single request.
+     * Since the term fields of a phenotype document hold all the superclasses of its terms, the count for a 
+     * term is the same as getCount() would return with that term added as a constraint on the field.
+     */
+    public FacetCounts getFacetCounts(String field) throws SolrServerException {
+        final SolrQuery query = this.createQuery();
+        query.setFacet(true);
+        query.addFacetField(field);
+        query.setFacetLimit(-1);
+        query.setFacetMinCount(1);
+        final QueryResponse response = this.solr.query(query);
+        final Map<String, Integer> counts = new HashMap<String, Integer>();
+        final FacetField facetField = response.getFacetField(field);
+        if ((facetField != null) && (facetField.getValues() != null)) {
+            for (Count count : facetField.getValues()) {
+                counts.put(count.getName(), (int)count.getCount());
+            }
+        }
+        return new FacetCounts((int)(response.getResults().getNumFound()), counts);
+    }
+
+    /**
+     * Each constraint is a separate filter query, so that Solr can reuse the document set for a constraint 
+     * across the many counts made while faceting.
+     */
+    SolrQuery createQuery() {
         final SolrQuery query = new SolrQuery();
-        final List<String> facets = new ArrayList<String>();
-        facets.add("type:\"phenotype\"");
+        final List<String> filters = new ArrayList<String>();
+        filters.add(SolrFilters.term("type", "phenotype"));
         if (this.taxonID != null) {
-            facets.add(String.format("taxon_asserted:\"%s\"", this.taxonID));
+            filters.add(SolrFilters.term("taxon_asserted", this.taxonID));
         }
         if (this.entityID != null) {
-        	if (includeParts) {
-        		facets.add(String.format("entity:\"%s\"", this.entityID));
-        	} else {
-        		facets.add(String.format("entity_strict_inheres_in:\"%s\"", this.entityID));	
-        	}
+            filters.add(SolrFilters.term(this.includeParts ? "entity" : "entity_strict_inheres_in", this.entityID));
         }
         if (this.qualityID != null) {
-            facets.add(String.format("quality:\"%s\"", this.qualityID));
+            filters.add(SolrFilters.term("quality", this.qualityID));
         }
         if (this.relatedEntityID != null) {
-            facets.add(String.format("related_entity:\"%s\"", this.relatedEntityID));
+            filters.add(SolrFilters.term("related_entity", this.relatedEntityID));
         }
         if (this.geneID != null) {
-            facets.add(String.format("gene:\"%s\"", this.geneID));
+            filters.add(SolrFilters.term("gene", this.geneID));
         }
-        query.setQuery(StringUtils.join(facets, " AND "));
+        SolrFilters.apply(query, filters);
         query.setRows(0);
-        final QueryResponse response = this.solr.query(query);
-        return new Long(response.getResults().getNumFound()).intValue();
+        return query;
     }
 
     @SuppressWarnings("unused")
@@ -14,6 +14,7 @@ import org.apache.solr.client.solrj.SolrQuery.ORDER;
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocumentList;
 import org.phenoscape.obd.model.PhenotypeSpec;
 import org.phenoscape.obd.query.AnnotationsQueryConfig.SORT_COLUMN;
 
@@ -35,49 +36,56 @@ public class DistinctPhenotypesSolrQuery {
 
     public QueryResponse executeQuery() throws SolrServerException {
         final SolrQuery query = new SolrQuery();
-        query.setQuery(this.getMainQuery());
+        SolrFilters.apply(query, this.getFilters());
         if (this.config.getLimit() == -1) {
             query.setRows(Integer.MAX_VALUE);
         } else {
             query.setRows(this.config.getLimit());
         }
         query.setStart(this.config.getIndex());
-        query.setSortField(COLUMNS.get(this.config.getSortColumn()), (this.config.sortDescending() ? ORDER.desc : ORDER.asc));
-        query.setFields("direct_entity", "direct_entity_label", "direct_quality", "direct_quality_label", "direct_related_entity", "direct_related_entity_label");
+        final ORDER order = this.config.sortDescending() ? ORDER.desc : ORDER.asc;
+        query.setSortField(this.getSortField(), order);
+        query.addSortField("id", order);
+        if (this.config.getSeekAfter() != null) {
+            query.addFilterQuery(SolrFilters.uncached(this.config.getSeekAfter().getSolrFilter(this.getSortField(), "id", this.config.sortDescending())));
+        }
+        query.setFields("id", "direct_entity", "direct_entity_label", "direct_quality", "direct_quality_label", "direct_related_entity", "direct_related_entity_label");
         log().debug(query.toString());
         return this.solr.query(query);
     }
 
-    private String getMainQuery() {
-        final StringBuffer query = new StringBuffer();
-        query.append("type:\"phenotype\"");
+    /**
+     * The sort position of the last document in the given results, to be used as the 
+     * seek key for the following page.
+     */
+    public SeekKey getLastKey(SolrDocumentList results) {
+        return SeekKey.lastKey(results, this.getSortField(), "id");
+    }
+
+    private String getSortField() {
+        return COLUMNS.get(this.config.getSortColumn());
+    }
+
+    private List<String> getFilters() {
+        final List<String> filters = new ArrayList<String>();
+        filters.add(SolrFilters.term("type", "phenotype"));
         if (!this.config.getPhenotypes().isEmpty()) {
-            query.append(" AND (");
-            query.append(StringUtils.join(CollectionUtils.collect(this.config.getPhenotypes(), phenotypeTransformer), " OR "));
-            query.append(")");
+            filters.add("(" + StringUtils.join(CollectionUtils.collect(this.config.getPhenotypes(), phenotypeTransformer), " OR ") + ")");
         }
         if (!this.config.getTaxonIDs().isEmpty()) {
             final String field = this.config.includeInferredAnnotations() ? "taxon" : "taxon_asserted";
-            query.append(String.format(" AND %s:", field));
-            query.append("(");
-            query.append(StringUtils.join(CollectionUtils.collect(this.config.getTaxonIDs(), quoter), (this.config.matchAllTaxa() ? " AND " : " OR ")));
-            query.append(")");
+            filters.add(SolrFilters.terms(field, this.config.getTaxonIDs(), this.config.matchAllTaxa()));
         }
         if (!this.config.getGeneIDs().isEmpty() || !this.config.getGeneClassIDs().isEmpty()) {
-            query.append(" AND gene:");
-            query.append("(");
-            query.append(StringUtils.join(CollectionUtils.collect(this.config.getGeneIDs(), quoter), (this.config.matchAllGenes() ? " AND " : " OR ")));
-            query.append(StringUtils.join(CollectionUtils.collect(this.config.getGeneClassIDs(), quoter), (this.config.matchAllGenes() ? " AND " : " OR ")));
-            
-            query.append(")");
+            final List<String> genes = new ArrayList<String>();
+            genes.addAll(this.config.getGeneIDs());
+            genes.addAll(this.config.getGeneClassIDs());
+            filters.add(SolrFilters.terms("gene", genes, this.config.matchAllGenes()));
         }
         if (!this.config.getPublicationIDs().isEmpty()) {
-            query.append(" AND publication:");
-            query.append("(");
-            query.append(StringUtils.join(CollectionUtils.collect(this.config.getPublicationIDs(), quoter), (this.config.matchAllPublications() ? " AND " : " OR ")));
-            query.append(")");
+            filters.add(SolrFilters.terms("publication", this.config.getPublicationIDs(), this.config.matchAllPublications()));
         }
-        return query.toString();
+        return filters;
     }
 
     private static Transformer phenotypeTransformer = new Transformer() {
@@ -101,15 +109,6 @@ public class DistinctPhenotypesSolrQuery {
 
     };
 
-    private static Transformer quoter = new Transformer() {
-
-        @Override
-        public Object transform(Object text) {
-            return String.format("\"%s\"", text);
-        }
-
-    };
-
     private Logger log() {
         return Logger.getLogger(this.getClass());
     }
@@ -14,6 +14,7 @@ import org.apache.solr.client.solrj.SolrQuery.ORDER;
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocumentList;
 import org.phenoscape.obd.model.PhenotypeSpec;
 import org.phenoscape.obd.query.AnnotationsQueryConfig.SORT_COLUMN;
 
@@ -35,11 +36,30 @@ public class DistinctTaxonomicAnnotationsSolrQuery {
     }
 
     public QueryResponse executeQuery() throws SolrServerException {
+        final SolrQuery query = this.createQuery();
+        log().debug(query.toString());
+        return this.solr.query(query);
+    }
+
+    /**
+     * The Solr query for the configured results, to be executed or streamed by the caller. A limit 
+     * of -1 requests all results.
+     */
+    public SolrQuery createQuery() {
         final SolrQuery query = new SolrQuery();
-        query.setQuery(this.getMainQuery());
-        query.setRows(this.config.getLimit());
+        SolrFilters.apply(query, this.getFilters());
+        if (this.config.getLimit() == -1) {
+            query.setRows(Integer.MAX_VALUE);
+        } else {
+            query.setRows(this.config.getLimit());
+        }
         query.setStart(this.config.getIndex());
-        query.setSortField(COLUMNS.get(this.config.getSortColumn()), (this.config.sortDescending() ? ORDER.desc : ORDER.asc));
+        final ORDER order = this.config.sortDescending() ? ORDER.desc : ORDER.asc;
+        query.setSortField(this.getSortField(), order);
+        query.addSortField("id", order);
+        if (this.config.getSeekAfter() != null) {
+            query.addFilterQuery(SolrFilters.uncached(this.config.getSeekAfter().getSolrFilter(this.getSortField(), "id", this.config.sortDescending())));
+        }
         if (!this.config.getPhenotypes().isEmpty()) {
             this.addPhenotypeFilter(query);
         }
@@ -49,18 +69,29 @@ public class DistinctTaxonomicAnnotationsSolrQuery {
         if (!this.config.getPublicationIDs().isEmpty()) {
             this.addPublicationFilter(query);
         }
-        query.setFields("direct_taxon", "direct_taxon_label", "is_extinct", "rank", "direct_entity", "direct_entity_label", "direct_quality", "direct_quality_label", "direct_related_entity", "direct_related_entity_label");
-        log().debug(query.toString());
-        return this.solr.query(query);
+        query.setFields("id", "direct_taxon", "direct_taxon_label", "is_extinct", "rank", "direct_entity", "direct_entity_label", "direct_quality", "direct_quality_label", "direct_related_entity", "direct_related_entity_label");
+        return query;
+    }
+
+    /**
+     * The sort position of the last document in the given results, to be used as the 
+     * seek key for the following page.
+     */
+    public SeekKey getLastKey(SolrDocumentList results) {
+        return SeekKey.lastKey(results, this.getSortField(), "id");
+    }
+
+    private String getSortField() {
+        return COLUMNS.get(this.config.getSortColumn());
     }
 
-    private String getMainQuery() {
-        final StringBuffer query = new StringBuffer();
-        query.append("type:\"taxon_phenotype_annotation\"");
+    private List<String> getFilters() {
+        final List<String> filters = new ArrayList<String>();
+        filters.add(SolrFilters.term("type", "taxon_phenotype_annotation"));
         if (!this.config.includeInferredAnnotations()) {
-            query.append("AND asserted:\"true\"");
+            filters.add(SolrFilters.term("asserted", "true"));
         }
-        return query.toString();
+        return filters;
     }
 
     private void addTaxonFilter(SolrQuery query) {
@@ -134,15 +165,6 @@ public class DistinctTaxonomicAnnotationsSolrQuery {
 
     };
 
-    private static Transformer quoter = new Transformer() {
-
-        @Override
-        public Object transform(Object taxonID) {
-            return String.format("\"%s\"", taxonID);
-        }
-
-    };
-
     private Logger log() {
         return Logger.getLogger(this.getClass());
     }
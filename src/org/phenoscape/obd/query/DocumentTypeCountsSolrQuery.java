@@ -0,0 +1,55 @@
+package org.phenoscape.obd.query;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.QueryResponse;
+
+/**
+ * Counts the documents of each of several types in the index with a single request, using one facet query per type.
+ */
+public class DocumentTypeCountsSolrQuery {
+
+    private final SolrServer solr;
+    private final Collection<String> types;
+
+    /**
+     * @param types The values of the type field to count.
+     */
+    public DocumentTypeCountsSolrQuery(SolrServer solr, Collection<String> types) {
+        this.solr = solr;
+        this.types = types;
+    }
+
+    /**
+     * The number of documents of each requested type. Types with no documents are reported as 0.
+     */
+    public Map<String, Integer> getCounts() throws SolrServerException {
+        final SolrQuery query = new SolrQuery();
+        query.setQuery(SolrFilters.ALL_DOCUMENTS);
+        query.setRows(0);
+        query.setFacet(true);
+        for (String type : this.types) {
+            query.addFacetQuery(SolrFilters.term("type", type));
+        }
+        log().debug(query.toString());
+        final QueryResponse response = this.solr.query(query);
+        final Map<String, Integer> facetCounts = response.getFacetQuery();
+        final Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (String type : this.types) {
+            final Integer count = (facetCounts != null) ? facetCounts.get(SolrFilters.term("type", type)) : null;
+            counts.put(type, (count != null) ? count : 0);
+        }
+        return counts;
+    }
+
+    private Logger log() {
+        return Logger.getLogger(this.getClass());
+    }
+
+}
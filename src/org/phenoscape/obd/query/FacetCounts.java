@@ -0,0 +1,41 @@
+package org.phenoscape.obd.query;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The number of matching documents for each value of a faceted field, along with the total number of matches.
+ */
+public class FacetCounts {
+
+    private final int total;
+    private final Map<String, Integer> counts;
+
+    public FacetCounts(int total, Map<String, Integer> counts) {
+        this.total = total;
+        this.counts = Collections.unmodifiableMap(counts);
+    }
+
+    /**
+     * The number of documents matching the query, regardless of the faceted field.
+     */
+    public int getTotal() {
+        return this.total;
+    }
+
+    /**
+     * The number of matching documents having the given value, or 0 if there are none.
+     */
+    public int getCount(String value) {
+        final Integer count = this.counts.get(value);
+        return (count != null) ? count.intValue() : 0;
+    }
+
+    /**
+     * The number of distinct values with a nonzero count.
+     */
+    public int size() {
+        return this.counts.size();
+    }
+
+}
@@ -15,6 +15,10 @@ public abstract class Faceter {
     private final PhenoscapeDataStore dataStore;
     private final int minimumSize;
     private final int maximumSize;
+    /**
+     * Counts already retrieved while partitioning, since the optimization revisits terms.
+     */
+    private final Map<String, Integer> dataCounts = new HashMap<String, Integer>();
 
     public Faceter(PhenoscapeDataStore dataStore, int minimum, int maximum) {
         this.dataStore = dataStore;
@@ -72,7 +76,7 @@ public abstract class Faceter {
     private List<Partition> getPartitions(String term) throws SQLException, SolrServerException {
         final List<Partition> partitions = new ArrayList<Partition>();
         for (String child : this.getChildren(term)) {
-            final int subCount = this.getDataCount(child);
+            final int subCount = this.getCachedDataCount(child);
             if (subCount > 0) {
                 partitions.add(new Partition(child, subCount));    
             }
@@ -80,6 +84,13 @@ public abstract class Faceter {
         return partitions;
     }
 
+    private int getCachedDataCount(String focalTermUID) throws SolrServerException {
+        if (!this.dataCounts.containsKey(focalTermUID)) {
+            this.dataCounts.put(focalTermUID, this.getDataCount(focalTermUID));
+        }
+        return this.dataCounts.get(focalTermUID);
+    }
+
     private Partition maxDepth(Partition upperPartition) throws SQLException, SolrServerException {
         log().debug("Checking max depth for: " + upperPartition.term);
         final List<Partition> partitions = this.getPartitions(upperPartition.getTerm());
@@ -1,6 +1,7 @@
 package org.phenoscape.obd.query;
 
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -50,6 +51,9 @@ public class GeneAnnotationsQueryBuilder extends QueryBuilder {
             }
         }
         if (!this.totalOnly) {
+            if (this.config.getSeekAfter() != null) {
+                index = this.config.getSeekAfter().fillStatement(statement, index);
+            }
             statement.setInt(index++, this.config.getLimit());
             statement.setInt(index++, this.config.getIndex());
         }
@@ -74,10 +78,23 @@ public class GeneAnnotationsQueryBuilder extends QueryBuilder {
         if (this.totalOnly) {
             query = "SELECT count(*) FROM (" + baseQuery + ") AS query";
         } else {
-            query = String.format("SELECT query.*, smart_node_label.simple_label AS sort_label FROM (%s) AS query JOIN smart_node_label ON (smart_node_label.node_id = %s) ORDER BY sort_label %s LIMIT ? OFFSET ? ", baseQuery, COLUMNS.get(this.config.getSortColumn()), this.getSortText());
+            // a distinct gene annotation is identified by its gene and phenotype together
+            query = String.format("SELECT query.*, smart_node_label.simple_label AS sort_label%s FROM (%s) AS query JOIN smart_node_label ON (smart_node_label.node_id = %s) %sORDER BY sort_label %s, query.gene_node_id %s, query.phenotype_node_id %sLIMIT ? OFFSET ? ", getTotalCountColumn(this.config), baseQuery, COLUMNS.get(this.config.getSortColumn()), this.getSeekText(), this.getSortText(), this.getSortText(), this.getSortText());
         }
         return query;
     }
+
+    /**
+     * The sort position of the current row of this query's results.
+     */
+    public SeekKey getSeekKey(ResultSet result) throws SQLException {
+        return new SeekKey(result.getString("sort_label"), new String[] {result.getString("gene_node_id"), result.getString("phenotype_node_id")});
+    }
+
+    private String getSeekText() {
+        final SeekKey seekAfter = this.config.getSeekAfter();
+        return (seekAfter != null) ? "WHERE " + seekAfter.getSQLCondition("smart_node_label.simple_label", "(query.gene_node_id, query.phenotype_node_id)", this.config.sortDescending()) : "";
+    }
     
     private String getSortText() {
         return this.config.sortDescending() ? "DESC " : ""; 
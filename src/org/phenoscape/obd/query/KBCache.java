@@ -0,0 +1,93 @@
+package org.phenoscape.obd.query;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size-bounded, least-recently-used cache of values computed from the Knowledgebase, which is emptied
+ * whenever a new Knowledgebase is loaded. Values computed while a load happens are kept out by a generation
+ * token: take it with getGeneration() before computing, and pass it to put(). Safe for use from concurrent requests. Hits, misses and evictions
+ * are counted in QueryMetrics under the cache's name, along with its current size.
+ * @param <K> The type of the cache keys.
+ * @param <V> The type of the cached values, which should be immutable.
+ */
+public class KBCache<K, V> implements KBRefreshListener {
+
+    private final String name;
+    private final Map<K, V> entries;
+    private long generation = 0;
+
+    /**
+     * @param name The prefix for this cache's metrics.
+     * @param maximumSize The number of entries above which the least recently used are evicted.
+     */
+    public KBCache(String name, final int maximumSize) {
+        this.name = name;
+        this.entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                if (this.size() > maximumSize) {
+                    QueryMetrics.increment(KBCache.this.name + ".evictions");
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * The cached value for the given key, or null if there is none.
+     */
+    public synchronized V get(K key) {
+        final V value = this.entries.get(key);
+        QueryMetrics.increment(this.name + ((value != null) ? ".hits" : ".misses"));
+        return value;
+    }
+
+    /**
+     * A token identifying the Knowledgebase the cached values are computed from. Must be obtained before 
+     * computing a value to be passed to put.
+     */
+    public synchronized long getGeneration() {
+        return this.generation;
+    }
+
+    /**
+     * Cache a value computed from the Knowledgebase current when the given generation was obtained. The value 
+     * is dropped if a new Knowledgebase has been loaded since.
+     */
+    public synchronized void put(K key, V value, long valueGeneration) {
+        if (valueGeneration != this.generation) {
+            QueryMetrics.increment(this.name + ".stale_puts");
+            return;
+        }
+        this.put(key, value);
+    }
+
+    /**
+     * Cache a value without checking when it was computed, for callers which guard against Knowledgebase loads themselves.
+     */
+    public synchronized void put(K key, V value) {
+        this.entries.put(key, value);
+        QueryMetrics.set(this.name + ".size", this.entries.size());
+    }
+
+    public synchronized void remove(K key) {
+        this.entries.remove(key);
+        QueryMetrics.set(this.name + ".size", this.entries.size());
+    }
+
+    public synchronized void clear() {
+        this.entries.clear();
+        QueryMetrics.set(this.name + ".size", 0);
+    }
+
+    @Override
+    public synchronized void knowledgebaseLoaded(Date loadDate) {
+        this.generation++;
+        this.clear();
+    }
+
+}
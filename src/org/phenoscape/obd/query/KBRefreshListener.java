@@ -0,0 +1,18 @@
+package org.phenoscape.obd.query;
+
+import java.util.Date;
+
+/**
+ * Implemented by in-memory copies of Knowledgebase data which must be rebuilt whenever a new
+ * Knowledgebase is loaded into the database.
+ */
+public interface KBRefreshListener {
+
+    /**
+     * Called by a KBRefreshMonitor when it first sees the given load date. Called again on the monitor's
+     * next check if an exception is thrown, so implementations should keep serving their previous data,
+     * if any, until a rebuild succeeds.
+     */
+    public void knowledgebaseLoaded(Date loadDate) throws Exception;
+
+}
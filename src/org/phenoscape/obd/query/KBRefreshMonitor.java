@@ -0,0 +1,124 @@
+package org.phenoscape.obd.query;
+
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Periodically checks the load date of the Knowledgebase and notifies its listeners when a new one
+ * has been loaded. The first check runs as soon as the monitor is started, so listeners are also
+ * notified once at startup. Each listener is tracked separately, so one which fails to rebuild is
+ * retried on the next check without affecting the others.
+ */
+public class KBRefreshMonitor {
+
+    public static final long DEFAULT_POLL_SECONDS = Long.getLong("org.phenoscape.obd.kb-poll-seconds", 300);
+    private final DataSource dataSource;
+    private final long pollSeconds;
+    private final CopyOnWriteArrayList<KBRefreshListener> listeners = new CopyOnWriteArrayList<KBRefreshListener>();
+    private final Map<KBRefreshListener, Date> listenerDates = new ConcurrentHashMap<KBRefreshListener, Date>();
+    private ScheduledExecutorService executor = null;
+    private volatile Date loadDate = null;
+
+    /**
+     * @param dataSource The DataSource from which to read the Knowledgebase load date.
+     * @param pollSeconds The number of seconds between checks.
+     */
+    public KBRefreshMonitor(DataSource dataSource, long pollSeconds) {
+        this.dataSource = dataSource;
+        this.pollSeconds = pollSeconds;
+    }
+
+    public void addListener(KBRefreshListener listener) {
+        this.listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(KBRefreshListener listener) {
+        this.listeners.remove(listener);
+        this.listenerDates.remove(listener);
+    }
+
+    /**
+     * The most recently seen Knowledgebase load date, or null if it has not yet been read.
+     */
+    public Date getLoadDate() {
+        return this.loadDate;
+    }
+
+    /**
+     * Begin checking the load date on a background daemon thread.
+     */
+    public synchronized void start() {
+        if (this.executor != null) { return; }
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "phenoscape-kb-monitor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    check();
+                } catch (SQLException e) {
+                    log().error("Unable to read Knowledgebase load date", e);
+                }
+            }
+        }, 0, this.pollSeconds, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stop() {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+            this.executor = null;
+        }
+    }
+
+    /**
+     * Read the current load date and notify every listener which has not yet been told of it.
+     */
+    public void check() throws SQLException {
+        final PhenoscapeDataStore dataStore = new PhenoscapeDataStore(this.dataSource, null);
+        final Date date;
+        try {
+            date = dataStore.getRefreshDate();
+        } finally {
+            dataStore.close();
+        }
+        if (!date.equals(this.loadDate)) {
+            log().info("Knowledgebase load date is now " + date);
+            this.loadDate = date;
+            QueryMetrics.set("kb.load_date", date.getTime());
+            QueryMetrics.increment("kb.refreshes");
+        }
+        for (KBRefreshListener listener : this.listeners) {
+            if (!date.equals(this.listenerDates.get(listener))) {
+                try {
+                    listener.knowledgebaseLoaded(date);
+                    this.listenerDates.put(listener, date);
+                } catch (Exception e) {
+                    QueryMetrics.increment("kb.refresh_failures");
+                    log().error("Unable to refresh " + listener.getClass().getSimpleName() + " for Knowledgebase loaded " + date, e);
+                }
+            }
+        }
+    }
+
+    private Logger log() {
+        return Logger.getLogger(this.getClass());
+    }
+
+}
@@ -0,0 +1,57 @@
+package org.phenoscape.obd.query;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrServer;
+
+/**
+ * A snapshot of the Knowledgebase summary counts shown on the home page, computed once for each Knowledgebase load
+ * so that requests for them need not query anything. A KBRefreshMonitor triggers recomputation when a new
+ * Knowledgebase is loaded; the previous snapshot is served until the new one is complete.
+ */
+public class KBStatistics implements KBRefreshListener {
+
+    private final DataSource dataSource;
+    private final SolrServer solr;
+    private volatile Map<String, Long> statistics = null;
+
+    public KBStatistics(DataSource dataSource, SolrServer solr) {
+        this.dataSource = dataSource;
+        this.solr = solr;
+    }
+
+    @Override
+    public void knowledgebaseLoaded(Date loadDate) throws SQLException {
+        final long start = System.currentTimeMillis();
+        final PhenoscapeDataStore dataStore = new PhenoscapeDataStore(this.dataSource, this.solr);
+        try {
+            this.statistics = Collections.unmodifiableMap(dataStore.getKnowledgebaseStatistics());
+        } finally {
+            dataStore.close();
+        }
+        final long millis = System.currentTimeMillis() - start;
+        QueryMetrics.increment("statistics.loads");
+        QueryMetrics.set("statistics.load_millis", millis);
+        log().info(String.format("Computed statistics for Knowledgebase of %s in %d ms", loadDate, millis));
+    }
+
+    /**
+     * The counts for the current Knowledgebase, keyed by name, or null if they have not yet been computed.
+     */
+    public Map<String, Long> getStatistics() {
+        final Map<String, Long> current = this.statistics;
+        QueryMetrics.increment((current != null) ? "statistics.hits" : "statistics.misses");
+        return current;
+    }
+
+    private Logger log() {
+        return Logger.getLogger(this.getClass());
+    }
+
+}
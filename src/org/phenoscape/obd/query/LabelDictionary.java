@@ -0,0 +1,231 @@
+package org.phenoscape.obd.query;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+import org.phenoscape.obd.model.SimpleTerm;
+import org.phenoscape.obd.model.Term;
+
+/**
+ * A process-wide copy of the label of every node, along with its semantic and simple labels from
+ * smart_node_label and its source, so that label lookups need not go to the database. These only change
+ * when a new Knowledgebase is loaded, at which point a KBRefreshMonitor triggers a rebuild. The new
+ * dictionary is built alongside the old one, which keeps serving lookups until it is swapped in.
+ *
+ * Entries are kept in parallel arrays indexed through a UIDIndex rather than as map entries, and equal
+ * label strings are shared, so that millions of nodes fit in a modest heap.
+ * Lookups are counted in QueryMetrics as labels.dictionary_hits and labels.dictionary_misses, and the size
+ * of the current dictionary is reported as labels.dictionary_entries and labels.dictionary_bytes.
+ */
+public class LabelDictionary implements KBRefreshListener {
+
+    private final DataSource dataSource;
+    private volatile Entries entries = null;
+
+    /**
+     * @param dataSource The DataSource from which to load the labels.
+     */
+    public LabelDictionary(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public void knowledgebaseLoaded(Date loadDate) throws SQLException {
+        this.load(loadDate);
+    }
+
+    /**
+     * Read all node labels from the database and replace the current dictionary with them.
+     */
+    public void load(Date loadDate) throws SQLException {
+        final long start = System.currentTimeMillis();
+        final Entries newEntries = new Entries(loadDate);
+        final CloseableIterator<Void> rows = (new StreamingQueryExecutor<Void>(this.dataSource, new LabelsQueryBuilder()) {
+            @Override
+            public Void processRow(ResultSet result) throws SQLException {
+                newEntries.add(result.getString("uid"), result.getString("label"), result.getString("source_uid"), 
+                        result.getString("semantic_label"), result.getString("simple_label"), result.getBoolean("is_taxon"));
+                return null;
+            }
+        }).executeQuery();
+        try {
+            while (rows.hasNext()) {
+                rows.next();
+            }
+        } finally {
+            rows.close();
+        }
+        newEntries.finish();
+        this.entries = newEntries;
+        final long millis = System.currentTimeMillis() - start;
+        QueryMetrics.increment("labels.dictionary_loads");
+        QueryMetrics.set("labels.dictionary_load_millis", millis);
+        QueryMetrics.set("labels.dictionary_entries", newEntries.size);
+        QueryMetrics.set("labels.dictionary_bytes", newEntries.bytes);
+        log().info(String.format("Loaded %d node labels for Knowledgebase of %s in %d ms, approximately %d bytes", newEntries.size, loadDate, millis, newEntries.bytes));
+    }
+
+    /**
+     * Whether the dictionary has been loaded and can answer lookups.
+     */
+    public boolean isLoaded() {
+        return this.entries != null;
+    }
+
+    /**
+     * The Knowledgebase load date of the labels currently served, or null if none have been loaded.
+     */
+    public Date getLoadDate() {
+        final Entries current = this.entries;
+        return (current != null) ? current.loadDate : null;
+    }
+
+    /**
+     * The semantic label of the given node, or its UID if it has none. Returns null if the node is unknown
+     * or the dictionary has not been loaded.
+     */
+    public String getSemanticLabel(String uid) {
+        final Entries current = this.entries;
+        final int index = this.lookup(current, uid);
+        if (index < 0) { return null; }
+        return (current.semanticLabels[index] != null) ? current.semanticLabels[index] : uid;
+    }
+
+    /**
+     * The simple label of the given node, or its UID if it has none. Returns null if the node is unknown
+     * or the dictionary has not been loaded.
+     */
+    public String getSimpleLabel(String uid) {
+        final Entries current = this.entries;
+        final int index = this.lookup(current, uid);
+        if (index < 0) { return null; }
+        return (current.simpleLabels[index] != null) ? current.simpleLabels[index] : uid;
+    }
+
+    /**
+     * A term for the given node carrying its node label and its source, as returned by BulkTermNameQueryBuilder.
+     * Returns null for taxa, which need additional taxonomic information, for unknown nodes, and if the
+     * dictionary has not been loaded.
+     */
+    public Term getTerm(String uid) {
+        final Entries current = this.entries;
+        final int index = this.lookup(current, uid);
+        if ((index < 0) || current.taxa.get(index)) { return null; }
+        final int sourceIndex = current.sources[index];
+        final Term source = (sourceIndex < 0) ? null : new SimpleTerm(current.uids.getUID(sourceIndex), current.labels[sourceIndex]);
+        return new SimpleTerm(uid, current.labels[index], source);
+    }
+
+    private int lookup(Entries current, String uid) {
+        final int index = (current != null) ? current.indexOf(uid) : -1;
+        QueryMetrics.increment((index < 0) ? "labels.dictionary_misses" : "labels.dictionary_hits");
+        return index;
+    }
+
+    private static class Entries {
+
+        private static final int ARRAY_OVERHEAD = 16;
+        private static final int REFERENCE_SIZE = 4;
+        private final Date loadDate;
+        private final Map<String, String> interned = new HashMap<String, String>();
+        private List<String> uidList = new ArrayList<String>();
+        private List<String> labelList = new ArrayList<String>();
+        private List<String> sourceList = new ArrayList<String>();
+        private List<String> semanticList = new ArrayList<String>();
+        private List<String> simpleList = new ArrayList<String>();
+        private UIDIndex uids;
+        private String[] labels;
+        private String[] semanticLabels;
+        private String[] simpleLabels;
+        private int[] sources;
+        private final BitSet taxa = new BitSet();
+        private int size = 0;
+        private long bytes = 0;
+
+        public Entries(Date loadDate) {
+            this.loadDate = loadDate;
+        }
+
+        public void add(String uid, String label, String sourceUID, String semanticLabel, String simpleLabel, boolean isTaxon) {
+            if (uid == null) { return; }
+            this.uidList.add(uid);
+            this.labelList.add(this.intern(label));
+            this.sourceList.add(this.intern(sourceUID));
+            this.semanticList.add(this.intern(semanticLabel));
+            this.simpleList.add(this.intern(simpleLabel));
+            if (isTaxon) {
+                this.taxa.set(this.size);
+            }
+            this.size++;
+        }
+
+        /**
+         * Compact the loaded entries into arrays and build the UID index. No entries may be added afterwards.
+         */
+        public void finish() {
+            this.uids = new UIDIndex(this.uidList);
+            this.labels = this.labelList.toArray(new String[this.size]);
+            this.semanticLabels = this.semanticList.toArray(new String[this.size]);
+            this.simpleLabels = this.simpleList.toArray(new String[this.size]);
+            this.uidList = null;
+            this.labelList = null;
+            this.semanticList = null;
+            this.simpleList = null;
+            this.interned.clear();
+            this.sources = new int[this.size];
+            for (int i = 0; i < this.size; i++) {
+                final String sourceUID = this.sourceList.get(i);
+                this.sources[i] = (sourceUID != null) ? this.uids.indexOf(sourceUID) : -1;
+            }
+            this.sourceList = null;
+            this.bytes += this.uids.getBytes() + (3L * (ARRAY_OVERHEAD + (long)REFERENCE_SIZE * this.size)) + (ARRAY_OVERHEAD + 4L * this.size) + (this.size / 8);
+        }
+
+        public int indexOf(String uid) {
+            return this.uids.indexOf(uid);
+        }
+
+        private String intern(String value) {
+            if (value == null) { return null; }
+            final String existing = this.interned.get(value);
+            if (existing != null) {
+                return existing;
+            }
+            this.interned.put(value, value);
+            this.bytes += UIDIndex.sizeOf(value);
+            return value;
+        }
+
+    }
+
+    private static class LabelsQueryBuilder extends QueryBuilder {
+
+        @Override
+        protected void fillStatement(PreparedStatement statement) throws SQLException {}
+
+        @Override
+        protected String getQuery() {
+            return "SELECT node.uid, node.label, source.uid AS source_uid, smart_node_label.semantic_label, smart_node_label.simple_label, (taxon.node_id IS NOT NULL) AS is_taxon " +
+            "FROM node " +
+            "LEFT JOIN node source ON (node.source_id = source.node_id) " +
+            "LEFT JOIN smart_node_label ON (smart_node_label.node_id = node.node_id) " +
+            "LEFT JOIN taxon ON (taxon.node_id = node.node_id)";
+        }
+
+    }
+
+    private Logger log() {
+        return Logger.getLogger(this.getClass());
+    }
+
+}
@@ -0,0 +1,43 @@
+package org.phenoscape.obd.query;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collection;
+
+/**
+ * Looks up the semantic or simple labels of a set of nodes from smart_node_label in a single query.
+ * The UIDs are passed as one text array parameter, so the SQL is the same regardless of how many are requested.
+ */
+public class NodeLabelsQueryBuilder extends QueryBuilder {
+
+    public static enum LABEL {
+
+        SEMANTIC("semantic_label"), SIMPLE("simple_label");
+
+        private final String column;
+
+        private LABEL(String column) {
+            this.column = column;
+        }
+
+    };
+
+    private final LABEL label;
+    private final Collection<String> uids;
+
+    public NodeLabelsQueryBuilder(LABEL label, Collection<String> uids) {
+        this.label = label;
+        this.uids = uids;
+    }
+
+    @Override
+    protected void fillStatement(PreparedStatement statement) throws SQLException {
+        statement.setString(1, this.createArrayLiteral(this.uids));
+    }
+
+    @Override
+    protected String getQuery() {
+        return "SELECT uid, " + this.label.column + " AS label FROM smart_node_label WHERE uid = ANY(CAST(? AS TEXT[]))";
+    }
+
+}
@@ -0,0 +1,311 @@
+package org.phenoscape.obd.query;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+import org.phenoscape.obd.model.Vocab.OBO;
+
+/**
+ * A read-only, process-wide copy of the is_a, part_of and inheres_in links between ontology terms, so that
+ * children, parents, ancestors and descendants can be found without querying the link table at every step.
+ * As in ChildrenUIDsQueryBuilder, only links asserted by the source ontology of their target are included.
+ *
+ * Each node is mapped to a dense int, and the links for each relation are held in compressed sparse row
+ * form: for the children of node i, childOffsets[i] to childOffsets[i + 1] delimit its entries in children,
+ * and likewise for parents. A KBRefreshMonitor triggers a rebuild when a new Knowledgebase is loaded; the
+ * new graph is built alongside the old one and swapped in once complete.
+ */
+public class OntologyGraph implements KBRefreshListener {
+
+    public static final List<String> RELATIONS = Collections.unmodifiableList(Arrays.asList(OBO.IS_A, OBO.PART_OF, OBO.INHERES_IN));
+    private final DataSource dataSource;
+    private volatile Graph graph = null;
+
+    /**
+     * @param dataSource The DataSource from which to load the links.
+     */
+    public OntologyGraph(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public void knowledgebaseLoaded(Date loadDate) throws SQLException {
+        this.load(loadDate);
+    }
+
+    /**
+     * Read all links for the supported relations from the database and replace the current graph with them.
+     */
+    public void load(Date loadDate) throws SQLException {
+        final long start = System.currentTimeMillis();
+        final GraphBuilder builder = new GraphBuilder();
+        final CloseableIterator<Void> rows = (new StreamingQueryExecutor<Void>(this.dataSource, new LinksQueryBuilder()) {
+            @Override
+            public Void processRow(ResultSet result) throws SQLException {
+                builder.add(result.getString("subject_uid"), result.getString("relation_uid"), result.getString("object_uid"));
+                return null;
+            }
+        }).executeQuery();
+        try {
+            while (rows.hasNext()) {
+                rows.next();
+            }
+        } finally {
+            rows.close();
+        }
+        final Graph newGraph = builder.build(loadDate);
+        this.graph = newGraph;
+        final long millis = System.currentTimeMillis() - start;
+        QueryMetrics.increment("graph.loads");
+        QueryMetrics.set("graph.load_millis", millis);
+        QueryMetrics.set("graph.nodes", newGraph.nodes.size());
+        QueryMetrics.set("graph.edges", newGraph.getEdgeCount());
+        QueryMetrics.set("graph.bytes", newGraph.getBytes());
+        log().info(String.format("Loaded ontology graph of %d nodes and %d links for Knowledgebase of %s in %d ms", newGraph.nodes.size(), newGraph.getEdgeCount(), loadDate, millis));
+    }
+
+    /**
+     * Whether the graph has been loaded and can answer queries about the given relation.
+     */
+    public boolean supports(String relationUID) {
+        return (this.graph != null) && RELATIONS.contains(relationUID);
+    }
+
+    /**
+     * The Knowledgebase load date of the graph currently served, or null if none has been loaded.
+     */
+    public Date getLoadDate() {
+        final Graph current = this.graph;
+        return (current != null) ? current.loadDate : null;
+    }
+
+    /**
+     * The UIDs of the terms directly linked to the given term by the given relation, or null if the
+     * graph cannot answer for this relation.
+     */
+    public List<String> getChildren(String termUID, String relationUID) {
+        return this.getNeighbors(termUID, relationUID, true, false);
+    }
+
+    /**
+     * The UIDs of the terms the given term is directly linked to by the given relation, or null if the
+     * graph cannot answer for this relation.
+     */
+    public List<String> getParents(String termUID, String relationUID) {
+        return this.getNeighbors(termUID, relationUID, false, false);
+    }
+
+    /**
+     * The UIDs of all terms reachable from the given term by following the given relation from child to
+     * parent, not including the term itself, or null if the graph cannot answer for this relation.
+     */
+    public List<String> getAncestors(String termUID, String relationUID) {
+        return this.getNeighbors(termUID, relationUID, false, true);
+    }
+
+    /**
+     * The UIDs of all terms from which the given term can be reached by following the given relation
+     * from child to parent, not including the term itself, or null if the graph cannot answer for this relation.
+     */
+    public List<String> getDescendants(String termUID, String relationUID) {
+        return this.getNeighbors(termUID, relationUID, true, true);
+    }
+
+    private List<String> getNeighbors(String termUID, String relationUID, boolean down, boolean transitive) {
+        final Graph current = this.graph;
+        if ((current == null) || !RELATIONS.contains(relationUID)) {
+            return null;
+        }
+        QueryMetrics.increment("graph.lookups");
+        final Adjacency adjacency = current.relations[RELATIONS.indexOf(relationUID)];
+        final int[] offsets = down ? adjacency.childOffsets : adjacency.parentOffsets;
+        final int[] targets = down ? adjacency.children : adjacency.parents;
+        final int node = current.nodes.indexOf(termUID);
+        final List<String> results = new ArrayList<String>();
+        if (node < 0) {
+            return results;
+        }
+        if (!transitive) {
+            for (int i = offsets[node]; i < offsets[node + 1]; i++) {
+                results.add(current.nodes.getUID(targets[i]));
+            }
+            return results;
+        }
+        final BitSet visited = new BitSet(current.nodes.size());
+        visited.set(node);
+        int[] stack = new int[16];
+        int top = 0;
+        stack[top++] = node;
+        while (top > 0) {
+            final int next = stack[--top];
+            for (int i = offsets[next]; i < offsets[next + 1]; i++) {
+                final int target = targets[i];
+                if (!visited.get(target)) {
+                    visited.set(target);
+                    results.add(current.nodes.getUID(target));
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, stack.length * 2);
+                    }
+                    stack[top++] = target;
+                }
+            }
+        }
+        return results;
+    }
+
+    private static class Graph {
+
+        private final Date loadDate;
+        private final UIDIndex nodes;
+        private final Adjacency[] relations;
+
+        public Graph(Date loadDate, UIDIndex nodes, Adjacency[] relations) {
+            this.loadDate = loadDate;
+            this.nodes = nodes;
+            this.relations = relations;
+        }
+
+        public long getEdgeCount() {
+            long edges = 0;
+            for (Adjacency adjacency : this.relations) {
+                edges += adjacency.children.length;
+            }
+            return edges;
+        }
+
+        public long getBytes() {
+            long bytes = this.nodes.getBytes();
+            for (Adjacency adjacency : this.relations) {
+                bytes += 4L * (adjacency.childOffsets.length + adjacency.children.length + adjacency.parentOffsets.length + adjacency.parents.length);
+            }
+            return bytes;
+        }
+
+    }
+
+    /**
+     * The links for one relation, indexed in both directions.
+     */
+    private static class Adjacency {
+
+        private final int[] childOffsets;
+        private final int[] children;
+        private final int[] parentOffsets;
+        private final int[] parents;
+
+        public Adjacency(int nodeCount, int[] subjects, int[] objects, int edgeCount) {
+            this.childOffsets = new int[nodeCount + 1];
+            this.children = new int[edgeCount];
+            fill(this.childOffsets, this.children, objects, subjects, edgeCount);
+            this.parentOffsets = new int[nodeCount + 1];
+            this.parents = new int[edgeCount];
+            fill(this.parentOffsets, this.parents, subjects, objects, edgeCount);
+        }
+
+        /**
+         * Counting sort of the edges by their from node into CSR offsets and targets.
+         */
+        private static void fill(int[] offsets, int[] targets, int[] from, int[] to, int edgeCount) {
+            for (int i = 0; i < edgeCount; i++) {
+                offsets[from[i] + 1]++;
+            }
+            for (int i = 1; i < offsets.length; i++) {
+                offsets[i] += offsets[i - 1];
+            }
+            final int[] positions = Arrays.copyOf(offsets, offsets.length - 1);
+            for (int i = 0; i < edgeCount; i++) {
+                targets[positions[from[i]]++] = to[i];
+            }
+        }
+
+    }
+
+    private static class GraphBuilder {
+
+        private final Map<String, Integer> nodeIDs = new HashMap<String, Integer>();
+        private final List<String> nodes = new ArrayList<String>();
+        private final int[][] subjects = new int[RELATIONS.size()][];
+        private final int[][] objects = new int[RELATIONS.size()][];
+        private final int[] edgeCounts = new int[RELATIONS.size()];
+
+        public GraphBuilder() {
+            for (int i = 0; i < RELATIONS.size(); i++) {
+                this.subjects[i] = new int[1024];
+                this.objects[i] = new int[1024];
+            }
+        }
+
+        public void add(String subjectUID, String relationUID, String objectUID) {
+            final int relation = RELATIONS.indexOf(relationUID);
+            if ((relation < 0) || (subjectUID == null) || (objectUID == null)) { return; }
+            final int count = this.edgeCounts[relation];
+            if (count == this.subjects[relation].length) {
+                this.subjects[relation] = Arrays.copyOf(this.subjects[relation], count * 2);
+                this.objects[relation] = Arrays.copyOf(this.objects[relation], count * 2);
+            }
+            this.subjects[relation][count] = this.nodeID(subjectUID);
+            this.objects[relation][count] = this.nodeID(objectUID);
+            this.edgeCounts[relation] = count + 1;
+        }
+
+        public Graph build(Date loadDate) {
+            final Adjacency[] relations = new Adjacency[RELATIONS.size()];
+            for (int i = 0; i < RELATIONS.size(); i++) {
+                relations[i] = new Adjacency(this.nodes.size(), this.subjects[i], this.objects[i], this.edgeCounts[i]);
+            }
+            return new Graph(loadDate, new UIDIndex(this.nodes), relations);
+        }
+
+        private int nodeID(String uid) {
+            final Integer existing = this.nodeIDs.get(uid);
+            if (existing != null) {
+                return existing;
+            }
+            final int id = this.nodes.size();
+            this.nodes.add(uid);
+            this.nodeIDs.put(uid, id);
+            return id;
+        }
+
+    }
+
+    private static class LinksQueryBuilder extends QueryBuilder {
+
+        @Override
+        protected void fillStatement(PreparedStatement statement) throws SQLException {
+            int index = 1;
+            for (String relation : RELATIONS) {
+                statement.setString(index++, relation);
+            }
+        }
+
+        @Override
+        protected String getQuery() {
+            final StringBuilder query = new StringBuilder();
+            query.append("SELECT DISTINCT subject.uid AS subject_uid, relation.uid AS relation_uid, object.uid AS object_uid ");
+            query.append("FROM link ");
+            query.append("JOIN node object ON (link.object_id = object.node_id AND link.source_id = object.source_id) ");
+            query.append("JOIN node subject ON (subject.node_id = link.node_id) ");
+            query.append(String.format("JOIN node relation ON (relation.node_id = link.predicate_id AND relation.uid IN %s)", this.createPlaceholdersList(RELATIONS.size())));
+            return query.toString();
+        }
+
+    }
+
+    private Logger log() {
+        return Logger.getLogger(this.getClass());
+    }
+
+}
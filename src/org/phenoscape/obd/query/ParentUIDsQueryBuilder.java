@@ -0,0 +1,35 @@
+package org.phenoscape.obd.query;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * The counterpart of ChildrenUIDsQueryBuilder, returning the terms the given term is directly linked to.
+ */
+public class ParentUIDsQueryBuilder extends QueryBuilder {
+
+    final String termUID;
+    final String relationUID;
+
+    public ParentUIDsQueryBuilder(String termUID, String relationUID) {
+        this.termUID = termUID;
+        this.relationUID = relationUID;
+    }
+
+    @Override
+    protected String getQuery() {
+        final StringBuilder query = new StringBuilder();
+        query.append("SELECT object.uid AS parent_uid ");
+        query.append("FROM link ");
+        query.append("JOIN node object ON (link.object_id = object.node_id AND link.source_id = object.source_id) ");
+        query.append(String.format("WHERE link.node_id = %s AND link.predicate_id = %s", NODE, NODE));
+        return query.toString();
+    }
+
+    @Override
+    protected void fillStatement(PreparedStatement statement) throws SQLException {
+        statement.setString(1, this.termUID);
+        statement.setString(2, this.relationUID);
+    }
+
+}
@@ -0,0 +1,81 @@
+package org.phenoscape.obd.query;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+import org.phenoscape.obd.model.Vocab;
+import org.phenoscape.obd.model.Vocab.OBO;
+
+/**
+ * Follows asserted is_a links from a term up to its root in a single recursive query, returning the same
+ * columns as TermQueryBuilder for every term along the way, ordered from the root down to the given term.
+ * As with the links of a LinkedTerm, only links asserted by the sources of the term's namespace group (see
+ * Vocab.NAMESPACE_GROUPS) are followed, so the path stays within the term's ontology. Where a term has more than
+ * one such is_a parent, the one with the lowest node_id is followed.
+ */
+public class PathToRootQueryBuilder extends QueryBuilder {
+
+    /**
+     * Guards against cycles in the is_a graph.
+     */
+    private static final int MAX_DEPTH = 100;
+    final String uid;
+
+    public PathToRootQueryBuilder(String uid) {
+        this.uid = uid;
+    }
+
+    @Override
+    protected void fillStatement(PreparedStatement statement) throws SQLException {
+        int index = 0;
+        statement.setString(++index, this.uid);
+        for (Map.Entry<String, List<String>> group : Vocab.NAMESPACE_GROUPS.entrySet()) {
+            statement.setString(++index, group.getKey());
+            statement.setString(++index, this.createArrayLiteral(group.getValue()));
+        }
+    }
+
+    @Override
+    protected String getQuery() {
+        final StringBuffer query = new StringBuffer();
+        query.append("WITH RECURSIVE path(node_id, source_uid, depth) AS ( ");
+        query.append("SELECT term.node_id, term_source.uid, 0 FROM node term LEFT OUTER JOIN node term_source ON (term_source.node_id = term.source_id) WHERE term.uid = ? ");
+        query.append("UNION ALL ");
+        query.append("SELECT parent.node_id, parent_source.uid, path.depth + 1 ");
+        query.append("FROM path ");
+        query.append("JOIN node parent ON (parent.node_id = (");
+        query.append("SELECT parent_link.object_id FROM link parent_link ");
+        query.append("JOIN node link_source ON (link_source.node_id = parent_link.source_id) ");
+        query.append(String.format("WHERE parent_link.node_id = path.node_id AND parent_link.predicate_id = %s AND parent_link.combinator = '' AND parent_link.is_inferred = false ", this.node(OBO.IS_A)));
+        query.append(String.format("AND link_source.uid = ANY(%s) ", this.getNamespaceGroupExpression()));
+        query.append("ORDER BY parent_link.object_id LIMIT 1)) ");
+        query.append("LEFT OUTER JOIN node parent_source ON (parent_source.node_id = parent.source_id) ");
+        query.append(String.format("WHERE path.depth < %d ", MAX_DEPTH));
+        query.append(") ");
+        query.append("SELECT term.*, description.label AS definition, tagval.val AS comment, source.uid AS source_uid, source.label AS source_label, path.depth ");
+        query.append("FROM path ");
+        query.append("JOIN node term ON (term.node_id = path.node_id) ");
+        query.append("LEFT OUTER JOIN description ON (description.node_id = term.node_id) ");
+        query.append("LEFT OUTER JOIN node comment_rel ON (comment_rel.uid = '" + OBO.COMMENT + "') ");
+        query.append("LEFT OUTER JOIN tagval ON (tagval.tag_id = comment_rel.node_id AND tagval.node_id = term.node_id) ");
+        query.append("LEFT OUTER JOIN node source ON (source.node_id = term.source_id) ");
+        query.append("ORDER BY path.depth DESC");
+        return query.toString();
+    }
+
+    /**
+     * An array expression giving the link sources of the namespace group of the current path term's source.
+     */
+    private String getNamespaceGroupExpression() {
+        final StringBuffer expression = new StringBuffer();
+        expression.append("CASE path.source_uid ");
+        for (int i = 0; i < Vocab.NAMESPACE_GROUPS.size(); i++) {
+            expression.append("WHEN ? THEN CAST(? AS TEXT[]) ");
+        }
+        expression.append("ELSE ARRAY[CAST(path.source_uid AS TEXT)] END");
+        return expression.toString();
+    }
+
+}
@@ -1,5 +1,6 @@
 package org.phenoscape.obd.query;
 
+import java.io.IOException;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -7,16 +8,19 @@ import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.sql.DataSource;
 
@@ -54,13 +58,25 @@ import org.phenoscape.obd.model.Vocab.PATO;
 import org.phenoscape.obd.model.Vocab.PHENOSCAPE;
 import org.phenoscape.obd.query.SearchHit.MatchType;
 
-import com.eekboom.utils.Strings;
-
 public class PhenoscapeDataStore {
 
 	private final DataSource dataSource;
+	private final QuerySession session;
 	private final SolrServer solr;
+	private LabelDictionary labelDictionary = null;
+	private OntologyGraph ontologyGraph = null;
+	private AutocompleteIndex autocompleteIndex = null;
+	private AutocompleteCache autocompleteCache = null;
+	private TermSearchIndex termSearchIndex = null;
 	public enum POSTCOMP_OPTION { STRUCTURE, SEMANTIC_LABEL, SIMPLE_LABEL, NONE };
+	/**
+	 * The maximum number of node UIDs whose labels are requested in one query.
+	 */
+	private static final int LABEL_BATCH_SIZE = Integer.getInteger("org.phenoscape.obd.label-batch-size", 1000);
+	/**
+	 * The number of streamed rows whose labels are resolved together.
+	 */
+	private static final int STREAMED_LABEL_BATCH_ROWS = Integer.getInteger("org.phenoscape.obd.streamed-label-batch-rows", 500);
 	/**
 	 * Mapping for how to represent relations used in post-comp differentia when generating a human-readable label.
 	 * If the relation is not in this map, use "of".
@@ -83,9 +99,61 @@ public class PhenoscapeDataStore {
 
 	public PhenoscapeDataStore(DataSource dataSource, SolrServer solrServer) {
 		this.dataSource = dataSource;
+		this.session = new QuerySession(dataSource);
 		this.solr = solrServer;
 	}
 
+	/**
+	 * Returns the database Connection held by this data store to the pool. All queries made through 
+	 * a data store share one Connection until it is closed; queries made afterwards check out a 
+	 * Connection of their own.
+	 */
+	public void close() throws SQLException {
+		this.session.close();
+	}
+
+	/**
+	 * Use the given dictionary, when it has been loaded, to look up node labels instead of querying for them.
+	 */
+	public void setLabelDictionary(LabelDictionary labelDictionary) {
+		this.labelDictionary = labelDictionary;
+	}
+
+	/**
+	 * Use the given graph, when it has been loaded, to traverse is_a, part_of and inheres_in links instead of querying for them.
+	 */
+	public void setOntologyGraph(OntologyGraph ontologyGraph) {
+		this.ontologyGraph = ontologyGraph;
+	}
+
+	/**
+	 * Use the given index, when it has been loaded, to search term names and synonyms instead of querying for them.
+	 */
+	public void setAutocompleteIndex(AutocompleteIndex autocompleteIndex) {
+		this.autocompleteIndex = autocompleteIndex;
+	}
+
+	/**
+	 * Use the given cache to answer autocomplete searches from the candidates of earlier searches where possible.
+	 */
+	public void setAutocompleteCache(AutocompleteCache autocompleteCache) {
+		this.autocompleteCache = autocompleteCache;
+	}
+
+	/**
+	 * Use the given index to suggest terms with names or synonyms similar to autocomplete search text.
+	 */
+	public void setTermSearchIndex(TermSearchIndex termSearchIndex) {
+		this.termSearchIndex = termSearchIndex;
+	}
+
+	/**
+	 * The QuerySession through which this data store runs its SQL queries.
+	 */
+	public QuerySession getQuerySession() {
+		return this.session;
+	}
+
 	/**
 	 * Returns the date on which the Knowledgebase data were loaded.
 	 */
@@ -93,7 +161,7 @@ public class PhenoscapeDataStore {
 		final DateFormat formatter = new SimpleDateFormat("yyyy-MM-dd_HH:mm:ss");
 		//TODO don't put date in "notes" column
 		final SimpleQuery query = new SimpleQuery("SELECT notes from obd_schema_metadata");
-		final QueryExecutor<Date> executor = new QueryExecutor<Date>(this.dataSource, query) {
+		final QueryExecutor<Date> executor = new QueryExecutor<Date>(this.session, query) {
 			@Override
 			public Date processResult(ResultSet result) throws SQLException {
 				try {
@@ -113,6 +181,33 @@ public class PhenoscapeDataStore {
 		return executor.executeQuery();
 	}
 
+	/**
+	 * The summary counts of annotated genes, gene annotations, annotated taxa, curated taxon annotations and 
+	 * annotated publications, keyed by name. All but the curated taxon annotations, which are not indexed, are 
+	 * counted by one Solr request; if Solr is unavailable they are counted in the database instead.
+	 */
+	public Map<String, Long> getKnowledgebaseStatistics() throws SQLException {
+		final AnnotationsQueryConfig defaultConfig = new AnnotationsQueryConfig();
+		defaultConfig.setLimit(0);
+		final Map<String, Long> statistics = new LinkedHashMap<String, Long>();
+		try {
+			final Map<String, Integer> typeCounts = new DocumentTypeCountsSolrQuery(this.solr, Arrays.asList("gene", "gene_annotation", "taxon", "publication")).getCounts();
+			statistics.put("annotated_genes", Long.valueOf(typeCounts.get("gene")));
+			statistics.put("gene_annotations", Long.valueOf(typeCounts.get("gene_annotation")));
+			statistics.put("annotated_taxa", Long.valueOf(typeCounts.get("taxon")));
+			statistics.put("taxon_annotations", Long.valueOf(this.getCountOfCuratedTaxonomicAnnotations(defaultConfig)));
+			statistics.put("annotated_publications", Long.valueOf(typeCounts.get("publication")));
+		} catch (SolrServerException e) {
+			log().error("Unable to count documents in Solr; counting in database", e);
+			statistics.put("annotated_genes", Long.valueOf(this.getCountOfAnnotatedGenes(defaultConfig)));
+			statistics.put("gene_annotations", Long.valueOf(this.getCountOfGeneAnnotations(defaultConfig)));
+			statistics.put("annotated_taxa", Long.valueOf(this.getCountOfAnnotatedTaxa(defaultConfig)));
+			statistics.put("taxon_annotations", Long.valueOf(this.getCountOfCuratedTaxonomicAnnotations(defaultConfig)));
+			statistics.put("annotated_publications", Long.valueOf(this.getCountOfAnnotatedPublications(defaultConfig)));
+		}
+		return statistics;
+	}
+
 	public Term getTerm(String uid) throws SQLException {
 		return this.queryForTerm(uid);
 	}
@@ -127,7 +222,7 @@ public class PhenoscapeDataStore {
 
 	private DefaultTerm queryForTerm(String uid) throws SQLException {
 		final QueryBuilder query = new TermQueryBuilder(uid);
-		return (new QueryExecutor<DefaultTerm>(this.dataSource, query) {
+		return (new QueryExecutor<DefaultTerm>(this.session, query) {
 			@Override
 			public DefaultTerm processResult(ResultSet result) throws SQLException {
 				while (result.next()) {
@@ -139,14 +234,19 @@ public class PhenoscapeDataStore {
 	}
 
 	private DefaultTerm createTerm(ResultSet result) throws SQLException {
+		final DefaultTerm term = this.createTermWithoutDetails(result);
+		this.addSynonymsToTerm(term);
+		this.addXrefsToTerm(term);
+		return term;
+	}
+
+	private DefaultTerm createTermWithoutDetails(ResultSet result) throws SQLException {
 		final DefaultTerm term = new DefaultTerm(result.getInt("node_id"), result.getInt("source_id"));
 		term.setUID(result.getString("uid"));
 		term.setLabel(result.getString("label"));
 		term.setDefinition(result.getString("definition"));
 		term.setComment(result.getString("comment"));
 		term.setSource(new SimpleTerm(result.getString("source_uid"), result.getString("source_label")));
-		this.addSynonymsToTerm(term);
-		this.addXrefsToTerm(term);
 		return term;
 	}
 
@@ -154,40 +254,58 @@ public class PhenoscapeDataStore {
 	 * This method returns only "existential restriction super-class links", not intersection (equivalent-class) links
 	 */
 	private void addLinksToTerm(DefaultTerm term) throws SQLException {
-		final Collection<String> namespaces;
-		if (Vocab.NAMESPACE_GROUPS.containsKey(term.getSource().getUID())) {
-			namespaces = Vocab.NAMESPACE_GROUPS.get(term.getSource().getUID());
-		} else {
-			namespaces = Collections.singleton(term.getSource().getUID());
-		}
-		final QueryBuilder parentsQuery = new TermLinkSubjectQueryBuilder(term, namespaces);
-		final Set<Relationship> parents = (new QueryExecutor<Set<Relationship>>(this.dataSource, parentsQuery) {
-			@Override
-			public Set<Relationship> processResult(ResultSet result) throws SQLException {
-				final Set<Relationship> parentResults = new HashSet<Relationship>();
-				while (result.next()) {
-					parentResults.add(createRelationship(result));
-				}
-				return parentResults;
+		this.addLinksToTerms(Collections.singletonList(term));
+	}
+
+	/**
+	 * Add the links of all the given terms using one parents query and one children query for each 
+	 * group of terms sharing the same source namespaces.
+	 */
+	private void addLinksToTerms(Collection<DefaultTerm> terms) throws SQLException {
+		final Map<Collection<String>, List<DefaultTerm>> termsByNamespaces = new HashMap<Collection<String>, List<DefaultTerm>>();
+		for (DefaultTerm term : terms) {
+			final Collection<String> namespaces;
+			if (Vocab.NAMESPACE_GROUPS.containsKey(term.getSource().getUID())) {
+				namespaces = Vocab.NAMESPACE_GROUPS.get(term.getSource().getUID());
+			} else {
+				namespaces = Collections.singleton(term.getSource().getUID());
 			}
-		}).executeQuery();
-		for (Relationship parent : parents) {
-			term.addSubjectLink(parent);
+			if (!termsByNamespaces.containsKey(namespaces)) {
+				termsByNamespaces.put(namespaces, new ArrayList<DefaultTerm>());
+			}
+			termsByNamespaces.get(namespaces).add(term);
 		}
-		final QueryBuilder childrenQuery = new TermLinkObjectQueryBuilder(term, namespaces);
-		final Set<Relationship> children = (new QueryExecutor<Set<Relationship>>(this.dataSource, childrenQuery) {
-			@Override
-			public Set<Relationship> processResult(ResultSet result) throws SQLException {
-				final Set<Relationship> childrenResults = new HashSet<Relationship>();
-				while (result.next()) {
-					childrenResults.add(createRelationship(result));
+		for (Entry<Collection<String>, List<DefaultTerm>> group : termsByNamespaces.entrySet()) {
+			final Map<Integer, DefaultTerm> termsByNodeID = this.indexByNodeID(group.getValue());
+			final QueryBuilder parentsQuery = new TermLinkSubjectQueryBuilder(group.getValue(), group.getKey());
+			(new QueryExecutor<Void>(this.session, parentsQuery) {
+				@Override
+				public Void processResult(ResultSet result) throws SQLException {
+					while (result.next()) {
+						termsByNodeID.get(result.getInt("term_node_id")).addSubjectLink(createRelationship(result));
+					}
+					return null;
 				}
-				return childrenResults;
-			}
-		}).executeQuery();
-		for (Relationship child : children) {
-			term.addObjectLink(child);
+			}).executeQuery();
+			final QueryBuilder childrenQuery = new TermLinkObjectQueryBuilder(group.getValue(), group.getKey());
+			(new QueryExecutor<Void>(this.session, childrenQuery) {
+				@Override
+				public Void processResult(ResultSet result) throws SQLException {
+					while (result.next()) {
+						termsByNodeID.get(result.getInt("term_node_id")).addObjectLink(createRelationship(result));
+					}
+					return null;
+				}
+			}).executeQuery();
+		}
+	}
+
+	private Map<Integer, DefaultTerm> indexByNodeID(Collection<? extends DefaultTerm> terms) {
+		final Map<Integer, DefaultTerm> termsByNodeID = new HashMap<Integer, DefaultTerm>();
+		for (DefaultTerm term : terms) {
+			termsByNodeID.put(term.getNodeID(), term);
 		}
+		return termsByNodeID;
 	}
 
 	private Relationship createRelationship(ResultSet result) throws SQLException {
@@ -210,7 +328,7 @@ public class PhenoscapeDataStore {
 	public TaxonTerm getTaxonTerm(final String uid, final boolean includeChildren, final boolean includeSynonymsAndXrefs) throws SQLException {
 		//TODO add order and family to TaxonTerms?
 		final QueryBuilder query = new TaxonQueryBuilder(uid);
-		final TaxonTerm taxonTerm = (new QueryExecutor<TaxonTerm>(this.dataSource, query) {
+		final TaxonTerm taxonTerm = (new QueryExecutor<TaxonTerm>(this.session, query) {
 			@Override
 			public TaxonTerm processResult(ResultSet result) throws SQLException {
 				while (result.next()) {
@@ -247,7 +365,7 @@ public class PhenoscapeDataStore {
 
 	public int getSpeciesCountForTaxon(String uid) throws SQLException {
 		final QueryBuilder query = new SpeciesCountQueryBuilder(uid);
-		return (new QueryExecutor<Integer>(this.dataSource, query) {
+		return (new QueryExecutor<Integer>(this.session, query) {
 			@Override
 			public Integer processResult(ResultSet result) throws SQLException {
 				while (result.next()) {
@@ -259,7 +377,7 @@ public class PhenoscapeDataStore {
 
 	private void addChildrenToTaxon(TaxonTerm taxon) throws SQLException {
 		final QueryBuilder childrenQuery = new TaxonChildrenQueryBuilder(taxon);
-		final Set<TaxonTerm> children = (new QueryExecutor<Set<TaxonTerm>>(dataSource, childrenQuery) {
+		final Set<TaxonTerm> children = (new QueryExecutor<Set<TaxonTerm>>(this.session, childrenQuery) {
 			@Override
 			public Set<TaxonTerm> processResult(ResultSet result) throws SQLException {
 				final Set<TaxonTerm> children = new HashSet<TaxonTerm>();
@@ -292,32 +410,38 @@ public class PhenoscapeDataStore {
 	}
 
 	private void addSynonymsToTerm(DefaultTerm term) throws SQLException {
-		final QueryBuilder query = new SynonymsQueryBuilder(term);
-		final Set<Synonym> synonyms = (new QueryExecutor<Set<Synonym>>(this.dataSource, query) {
+		this.addSynonymsToTerms(Collections.singletonList(term));
+	}
+
+	private void addSynonymsToTerms(Collection<? extends DefaultTerm> terms) throws SQLException {
+		final Map<Integer, DefaultTerm> termsByNodeID = this.indexByNodeID(terms);
+		final QueryBuilder query = new SynonymsQueryBuilder(terms);
+		(new QueryExecutor<Void>(this.session, query) {
 			@Override
-			public Set<Synonym> processResult(ResultSet result) throws SQLException {
-				final Set<Synonym> synonyms = new HashSet<Synonym>();
+			public Void processResult(ResultSet result) throws SQLException {
 				while (result.next()) {
-					synonyms.add(createSynonym(result));
+					termsByNodeID.get(result.getInt("node_id")).addSynonym(createSynonym(result));
 				}
-				return synonyms;
+				return null;
 			}
 		}).executeQuery();
-		for (Synonym synonym : synonyms) {
-			term.addSynonym(synonym);
-		}
+	}
+
+	/**
+	 * The synonym scope for the given code from the alias table, or null if there is none.
+	 */
+	static SCOPE parseSynonymScope(String scope) {
+		if ("B".equals(scope)) { return SCOPE.BROAD; }
+		else if ("N".equals(scope)) { return SCOPE.NARROW; }
+		else if ("E".equals(scope)) { return SCOPE.EXACT; }
+		else if ("R".equals(scope)) { return SCOPE.RELATED; }
+		return null;
 	}
 
 	private Synonym createSynonym(ResultSet result) throws SQLException {
 		final Synonym synonym = new Synonym();
 		synonym.setLabel(result.getString("label"));
-		if (result.getString("scope") != null) {
-			final String scope = result.getString("scope");
-			if (scope.equals("B")) { synonym.setScope(SCOPE.BROAD); }
-			else if (scope.equals("N")) { synonym.setScope(SCOPE.NARROW); }
-			else if (scope.equals("E")) { synonym.setScope(SCOPE.EXACT); }
-			else if (scope.equals("R")) { synonym.setScope(SCOPE.RELATED); }
-		}
+		synonym.setScope(parseSynonymScope(result.getString("scope")));
 		if (result.getString("type_uid") != null) {
 			synonym.setType(new SimpleTerm(result.getString("type_uid"), null));
 		}
@@ -325,43 +449,53 @@ public class PhenoscapeDataStore {
 	}
 
 	private void addXrefsToTerm(DefaultTerm term) throws SQLException {
-		final QueryBuilder query = new XrefsQueryBuilder(term);
-		final Set<Term> xrefs = (new QueryExecutor<Set<Term>>(this.dataSource, query) {
+		this.addXrefsToTerms(Collections.singletonList(term));
+	}
+
+	private void addXrefsToTerms(Collection<? extends DefaultTerm> terms) throws SQLException {
+		final Map<Integer, DefaultTerm> termsByNodeID = this.indexByNodeID(terms);
+		final QueryBuilder query = new XrefsQueryBuilder(terms);
+		(new QueryExecutor<Void>(this.session, query) {
 			@Override
-			public Set<Term> processResult(ResultSet result) throws SQLException {
-				final Set<Term> xrefs = new HashSet<Term>();
+			public Void processResult(ResultSet result) throws SQLException {
 				while (result.next()) {
-					xrefs.add(new SimpleTerm(result.getString("xref_uid"), null));
+					termsByNodeID.get(result.getInt("node_id")).addXref(new SimpleTerm(result.getString("xref_uid"), null));
 				}
-				return xrefs;
+				return null;
 			}
 		}).executeQuery();
-		for (Term xref : xrefs) {
-			term.addXref(xref);
-		}
 	}
 
+	/**
+	 * Returns the terms along the is_a path from the root of the given term's ontology down to the term, 
+	 * each with its synonyms, xrefs and links. The path is found with one recursive query, and the details of 
+	 * all its terms are then added together, so the number of queries does not grow with the depth of the term.
+	 * Returns an empty list if there is no term with the given UID.
+	 */
 	public List<LinkedTerm> getPathForTerm(String uid) throws SQLException {
-		final LinkedTerm term = this.getLinkedTerm(uid);
-		if (term != null) {
-			for (Relationship relationship : term.getSubjectLinks()) {
-				if (relationship.getPredicate().getUID().equals(OBO.IS_A)) {
-					final List<LinkedTerm> terms = this.getPathForTerm(relationship.getOther().getUID());
-					terms.add(term);
-					return terms;
+		final QueryBuilder query = new PathToRootQueryBuilder(uid);
+		final List<DefaultTerm> path = (new QueryExecutor<List<DefaultTerm>>(this.session, query) {
+			@Override
+			public List<DefaultTerm> processResult(ResultSet result) throws SQLException {
+				final List<DefaultTerm> terms = new ArrayList<DefaultTerm>();
+				while (result.next()) {
+					terms.add(createTermWithoutDetails(result));
 				}
+				return terms;
 			}
-			final List<LinkedTerm> terms = new ArrayList<LinkedTerm>();
-			terms.add(term);
-			return terms;
-		} else {
+		}).executeQuery();
+		if (path.isEmpty()) {
 			return Collections.emptyList();
 		}
+		this.addSynonymsToTerms(path);
+		this.addXrefsToTerms(path);
+		this.addLinksToTerms(path);
+		return new ArrayList<LinkedTerm>(path);
 	}
 
 	public PublicationTerm getPublicationTerm(String uid) throws SQLException {
 		final QueryBuilder query = new PublicationTermQueryBuilder(uid);
-		return (new QueryExecutor<PublicationTerm>(this.dataSource, query) {
+		return (new QueryExecutor<PublicationTerm>(this.session, query) {
 			@Override
 			public PublicationTerm processResult(ResultSet result) throws SQLException {
 				while (result.next()) {
@@ -381,7 +515,7 @@ public class PhenoscapeDataStore {
 
 	public int getCountOfCuratedTaxonomicAnnotations(AnnotationsQueryConfig config) throws SQLException {
 		final QueryBuilder query = new CuratedTaxonomicAnnotationsQueryBuilder(config, true);
-		return (new QueryExecutor<Integer>(this.dataSource, query) {
+		return (new QueryExecutor<Integer>(this.session, query) {
 			@Override
 			public Integer processResult(ResultSet result) throws SQLException {
 				while (result.next()) {
@@ -392,48 +526,86 @@ public class PhenoscapeDataStore {
 		}).executeQuery();
 	}
 
-	public List<Phenotype> getDistinctPhenotypes(final AnnotationsQueryConfig config) throws SQLException {
-		final QueryBuilder query = new PhenotypeQueryBuilder(config, false);
-		return (new QueryExecutor<List<Phenotype>>(this.dataSource, query) {
+	/**
+	 * Returns a page of distinct phenotypes together with the total number matching the query, 
+	 * both from a single execution of the query.
+	 */
+	public SubList<Phenotype> getDistinctPhenotypes(final AnnotationsQueryConfig config) throws SQLException {
+		final PhenotypeQueryBuilder query = new PhenotypeQueryBuilder(config, false);
+		return (new QueryExecutor<SubList<Phenotype>>(this.session, query) {
 			@Override
-			public List<Phenotype> processResult(ResultSet result) throws SQLException {
+			public SubList<Phenotype> processResult(ResultSet result) throws SQLException {
 				final List<Phenotype> phenotypes = new ArrayList<Phenotype>();
+				long total = -1;
+				SeekKey lastKey = null;
+				final LabelBatch labels = new LabelBatch(config.getPostcompositionOption());
 				while (result.next()) {
-					final Phenotype phenotype = new Phenotype();
-					phenotype.setEntity(createBasicTerm(result.getString("entity_uid"), result.getString("entity_label"), config.getPostcompositionOption(), null));
-					phenotype.setQuality(createBasicTerm(result.getString("quality_uid"), result.getString("quality_label"), config.getPostcompositionOption(), null));
-					final String relatedEntityUID = result.getString("related_entity_uid");
-					if (relatedEntityUID != null) {
-						phenotype.setRelatedEntity(createBasicTerm(relatedEntityUID, result.getString("related_entity_label"), config.getPostcompositionOption(), null));
+					if (QueryBuilder.hasTotalCount(config)) {
+						total = result.getLong(QueryBuilder.TOTAL_COUNT);
 					}
-					phenotypes.add(phenotype);
+					phenotypes.add(createPhenotype(result, labels));
+					lastKey = query.getSeekKey(result);
 				}
-				return phenotypes;
+				labels.resolve();
+				return new SubList<Phenotype>(phenotypes, getPageTotal(total, phenotypes, config), lastKey);
 			}
 		}).executeQuery();
 	}
 
+	/**
+	 * Stream all distinct phenotypes matching the query from a single database cursor. The returned 
+	 * iterator holds a database connection until it is exhausted or closed. Labels are resolved for 
+	 * each batch of rows together, as for a page.
+	 */
+	public CloseableIterator<Phenotype> streamDistinctPhenotypes(final AnnotationsQueryConfig config) throws SQLException {
+		final QueryBuilder query = new PhenotypeQueryBuilder(config, false);
+		return (new StreamingQueryExecutor<Phenotype>(this.dataSource, query, StreamingQueryExecutor.DEFAULT_FETCH_SIZE, STREAMED_LABEL_BATCH_ROWS) {
+			private final LabelBatch labels = new LabelBatch(config.getPostcompositionOption());
+			@Override
+			public Phenotype processRow(ResultSet result) throws SQLException {
+				return createPhenotype(result, this.labels);
+			}
+			@Override
+			protected void completeBatch() throws SQLException {
+				this.labels.resolve();
+			}
+		}).executeQuery();
+	}
+
+	private Phenotype createPhenotype(ResultSet result, LabelBatch labels) throws SQLException {
+		final Phenotype phenotype = new Phenotype();
+		phenotype.setEntity(labels.createTerm(result.getString("entity_uid"), result.getString("entity_label"), null));
+		phenotype.setQuality(labels.createTerm(result.getString("quality_uid"), result.getString("quality_label"), null));
+		final String relatedEntityUID = result.getString("related_entity_uid");
+		if (relatedEntityUID != null) {
+			phenotype.setRelatedEntity(labels.createTerm(relatedEntityUID, result.getString("related_entity_label"), null));
+		}
+		return phenotype;
+	}
+
 	public SubList<Phenotype> getDistinctPhenotypesSolr(final AnnotationsQueryConfig config) throws SQLException, SolrServerException {
 		final DistinctPhenotypesSolrQuery query = new DistinctPhenotypesSolrQuery(this.solr, config);
 		final QueryResponse result = query.executeQuery();
 		final SolrDocumentList results = result.getResults();
 		final List<Phenotype> phenotypes = new ArrayList<Phenotype>();
+		final LabelBatch labels = new LabelBatch(config.getPostcompositionOption());
 		for (SolrDocument item : results) {
 			final Phenotype phenotype = new Phenotype();
-			phenotype.setEntity(createBasicTerm((String)(item.getFieldValue("direct_entity")), (String)(item.getFieldValue("direct_entity_label")), config.getPostcompositionOption(), null));
-			phenotype.setQuality(createBasicTerm((String)(item.getFieldValue("direct_quality")), (String)(item.getFieldValue("direct_quality_label")), config.getPostcompositionOption(), null));
+			phenotype.setEntity(labels.createTerm((String)(item.getFieldValue("direct_entity")), (String)(item.getFieldValue("direct_entity_label")), null));
+			phenotype.setQuality(labels.createTerm((String)(item.getFieldValue("direct_quality")), (String)(item.getFieldValue("direct_quality_label")), null));
 			if (item.containsKey("direct_related_entity")) {
-				phenotype.setRelatedEntity(createBasicTerm((String)(item.getFieldValue("direct_related_entity")), (String)(item.getFieldValue("direct_related_entity_label")), config.getPostcompositionOption(), null));
+				phenotype.setRelatedEntity(labels.createTerm((String)(item.getFieldValue("direct_related_entity")), (String)(item.getFieldValue("direct_related_entity_label")), null));
 			}
 			phenotypes.add(phenotype);
 		}
-		return new SubList<Phenotype>(phenotypes, results.getNumFound());
+		labels.resolve();
+		return new SubList<Phenotype>(phenotypes, getTotal(results, config), query.getLastKey(results));
 	}
 
 	public int getCountOfDistinctPhenotypes(final AnnotationsQueryConfig config) throws SQLException {
 		//TODO this should make use of the fast Solr counts implemented in the other count method
 		final QueryBuilder query = new PhenotypeQueryBuilder(config, true);
-		return (new QueryExecutor<Integer>(this.dataSource, query) {
+		return (new QueryExecutor<Integer>(this.session, query) {
 			@Override
 			public Integer processResult(ResultSet result) throws SQLException {
 				while (result.next()) {
@@ -449,12 +621,46 @@ public class PhenoscapeDataStore {
 		return query.getCount();
 	}
 
+	/**
+	 * Counts of the distinct phenotypes matching the given constraints for every value of the given Solr field, 
+	 * retrieved in a single request.
+	 */
+	public FacetCounts getFacetCountsOfDistinctPhenotypes(String entityID, String qualityID, String relatedEntityID, String taxonID, String geneID, boolean includeParts, String field) throws SolrServerException {
+		final DistinctPhenotypesCountSolrQuery query = new DistinctPhenotypesCountSolrQuery(this.solr, entityID, qualityID, relatedEntityID, taxonID, geneID, includeParts);
+		QueryMetrics.increment("facet.solr_requests");
+		return query.getFacetCounts(field);
+	}
+
 	public SubList<TaxonAnnotation> getDistinctTaxonAnnotationsSolr(final AnnotationsQueryConfig config) throws SolrServerException, SQLException {
 		final DistinctTaxonomicAnnotationsSolrQuery query = new DistinctTaxonomicAnnotationsSolrQuery(this.solr, config);
 		final QueryResponse result = query.executeQuery();
 		final SolrDocumentList results = result.getResults();
+		return new SubList<TaxonAnnotation>(this.createTaxonAnnotations(results, config.getPostcompositionOption()), getTotal(results, config), query.getLastKey(results));
+	}
+
+	/**
+	 * Stream all distinct taxon annotations matching the query, translating the Solr documents as they 
+	 * are received. The response is read on the given executor.
+	 * @throws RejectedExecutionException If the executor has no room for the query.
+	 */
+	public CloseableIterator<TaxonAnnotation> streamDistinctTaxonAnnotationsSolr(final AnnotationsQueryConfig config, ExecutorService executor) {
+		final DistinctTaxonomicAnnotationsSolrQuery query = new DistinctTaxonomicAnnotationsSolrQuery(this.solr, config);
+		return new SolrStreamingIterator<TaxonAnnotation>(this.solr, query.createQuery(), executor, SolrStreamingIterator.DEFAULT_BATCH_SIZE, PrefetchingIterator.DEFAULT_DEPTH) {
+			@Override
+			protected List<TaxonAnnotation> translate(List<SolrDocument> documents) {
+				try {
+					return createTaxonAnnotations(documents, config.getPostcompositionOption());
+				} catch (SQLException e) {
+					throw new QueryException(e);
+				}
+			}
+		};
+	}
+
+	private List<TaxonAnnotation> createTaxonAnnotations(List<SolrDocument> documents, POSTCOMP_OPTION option) throws SQLException {
 		final List<TaxonAnnotation> annotations = new ArrayList<TaxonAnnotation>();
-		for (SolrDocument item : results) {
+		final LabelBatch labels = new LabelBatch(option);
+		for (SolrDocument item : documents) {
 			final TaxonAnnotation annotation = new TaxonAnnotation();
 			final TaxonTerm taxon = new TaxonTerm(0, null);
 			taxon.setUID((String)(item.getFieldValue("direct_taxon")));
@@ -465,17 +671,18 @@ public class PhenoscapeDataStore {
 				taxon.setRank(rank);
 			}
 			annotation.setTaxon(taxon);
-			annotation.setEntity(this.createBasicTerm((String)(item.getFieldValue("direct_entity")), (String)(item.getFieldValue("direct_entity_label")), config.getPostcompositionOption(), null));
-			annotation.setQuality(this.createBasicTerm((String)(item.getFieldValue("direct_quality")), (String)(item.getFieldValue("direct_quality_label")), config.getPostcompositionOption(), null));
+			annotation.setEntity(labels.createTerm((String)(item.getFieldValue("direct_entity")), (String)(item.getFieldValue("direct_entity_label")), null));
+			annotation.setQuality(labels.createTerm((String)(item.getFieldValue("direct_quality")), (String)(item.getFieldValue("direct_quality_label")), null));
 			if (item.containsKey("direct_related_entity")) {
-				annotation.setRelatedEntity(this.createBasicTerm((String)(item.getFieldValue("direct_related_entity")), (String)(item.getFieldValue("direct_related_entity_label")), config.getPostcompositionOption(), null));
+				annotation.setRelatedEntity(labels.createTerm((String)(item.getFieldValue("direct_related_entity")), (String)(item.getFieldValue("direct_related_entity_label")), null));
 			}            
 			annotations.add(annotation);
 		}
-		return new SubList<TaxonAnnotation>(annotations, results.getNumFound());
+		labels.resolve();
+		return annotations;
 	}
 
-	private TaxonAnnotation createTaxonAnnotation(ResultSet result, POSTCOMP_OPTION option) throws SQLException {
+	private TaxonAnnotation createTaxonAnnotation(ResultSet result, LabelBatch labels) throws SQLException {
 		final TaxonAnnotation annotation = new TaxonAnnotation();
 		final TaxonTerm taxon = new TaxonTerm(result.getInt("taxon_node_id"), null);
 		taxon.setUID(result.getString("taxon_uid"));
@@ -486,17 +693,17 @@ public class PhenoscapeDataStore {
 		}
 		taxon.setExtinct(result.getBoolean("taxon_is_extinct"));
 		annotation.setTaxon(taxon);
-		annotation.setEntity(this.createBasicTerm(result.getString("entity_uid"), result.getString("entity_label"), option, null));
-		annotation.setQuality(this.createBasicTerm(result.getString("quality_uid"), result.getString("quality_label"), option, null));
+		annotation.setEntity(labels.createTerm(result.getString("entity_uid"), result.getString("entity_label"), null));
+		annotation.setQuality(labels.createTerm(result.getString("quality_uid"), result.getString("quality_label"), null));
 		final String relatedEntityUID = result.getString("related_entity_uid");
 		if (relatedEntityUID != null) {
-			annotation.setRelatedEntity(this.createBasicTerm(relatedEntityUID, result.getString("related_entity_label"), option, null));
+			annotation.setRelatedEntity(labels.createTerm(relatedEntityUID, result.getString("related_entity_label"), null));
 		}
 		return annotation;
 	}
 
-	private TaxonAnnotation createSupportingTaxonAnnotation(ResultSet result, POSTCOMP_OPTION option) throws SQLException {
-		final TaxonAnnotation annotation = this.createTaxonAnnotation(result, option);
+	private TaxonAnnotation createSupportingTaxonAnnotation(ResultSet result, LabelBatch labels) throws SQLException {
+		final TaxonAnnotation annotation = this.createTaxonAnnotation(result, labels);
 		annotation.setPublication(new SimpleTerm(result.getString("publication_uid"), result.getString("publication_label")));
 		annotation.setOtu(new SimpleTerm(result.getString("otu_uid"), result.getString("otu_label")));
 		final Character character = new Character(null, result.getString("character_label"), result.getString("character_number"));
@@ -515,62 +722,111 @@ public class PhenoscapeDataStore {
 
 	public List<TaxonAnnotation> getSupportingTaxonomicAnnotations(final AnnotationsQueryConfig config) throws SQLException {
 		final QueryBuilder query = new SupportingTaxonomicAnnotationsQueryBuilder(config);
-		return (new QueryExecutor<List<TaxonAnnotation>>(this.dataSource, query) {
+		return (new QueryExecutor<List<TaxonAnnotation>>(this.session, query) {
 			@Override
 			public List<TaxonAnnotation> processResult(ResultSet result) throws SQLException {
 				final List<TaxonAnnotation> annotations = new ArrayList<TaxonAnnotation>();
+				final LabelBatch labels = new LabelBatch(config.getPostcompositionOption());
 				while (result.next()) {
-					annotations.add(createSupportingTaxonAnnotation(result, config.getPostcompositionOption()));
+					annotations.add(createSupportingTaxonAnnotation(result, labels));
 				}
+				labels.resolve();
 				return annotations;
 			}
 		}).executeQuery();
 	}
 
-	public List<TaxonTerm> getAnnotatedTaxa(AnnotationsQueryConfig config) throws SQLException {
-		final QueryBuilder query = new AnnotatedTaxaQueryBuilder(config, false);
-		return (new QueryExecutor<List<TaxonTerm>>(this.dataSource, query) {
+	/**
+	 * Returns a page of annotated taxa together with the total number matching the query, 
+	 * both from a single execution of the query.
+	 */
+	public SubList<TaxonTerm> getAnnotatedTaxa(final AnnotationsQueryConfig config) throws SQLException {
+		final AnnotatedTaxaQueryBuilder query = new AnnotatedTaxaQueryBuilder(config, false);
+		return (new QueryExecutor<SubList<TaxonTerm>>(this.session, query) {
 			@Override
-			public List<TaxonTerm> processResult(ResultSet result) throws SQLException {
+			public SubList<TaxonTerm> processResult(ResultSet result) throws SQLException {
 				final List<TaxonTerm> taxa = new ArrayList<TaxonTerm>();
+				long total = -1;
+				SeekKey lastKey = null;
 				while (result.next()) {
-					final TaxonTerm taxon = new TaxonTerm(result.getInt("node_id"), null);
-					taxon.setUID(result.getString("uid"));
-					taxon.setLabel(result.getString("label"));
-					taxon.setExtinct(result.getBoolean("is_extinct"));
-					if (result.getString("rank_uid") != null) {
-						final Term rank = new DefaultTerm(result.getInt("rank_node_id"), null);
-						rank.setUID(result.getString("rank_uid"));
-						rank.setLabel(result.getString("rank_label"));
-						taxon.setRank(rank);
-					}
-					if (result.getString("family_uid") != null) {
-						final TaxonTerm family = new TaxonTerm(result.getInt("family_node_id"), null);
-						family.setUID(result.getString("family_uid"));
-						family.setLabel(result.getString("family_label"));
-						family.setExtinct(result.getBoolean("family_is_extinct"));
-						taxon.setTaxonomicFamily(family);
+					if (QueryBuilder.hasTotalCount(config)) {
+						total = result.getLong(QueryBuilder.TOTAL_COUNT);
 					}
-					if (result.getString("order_uid") != null) {
-						final TaxonTerm order = new TaxonTerm(result.getInt("order_node_id"), null);
-						order.setUID(result.getString("order_uid"));
-						order.setLabel(result.getString("order_label"));
-						order.setExtinct(result.getBoolean("order_is_extinct"));
-						taxon.setTaxonomicOrder(order);
-					}
-					taxa.add(taxon);
+					taxa.add(createAnnotatedTaxon(result));
+					lastKey = query.getSeekKey(result);
 				}
-				return taxa;
+				return new SubList<TaxonTerm>(taxa, getPageTotal(total, taxa, config), lastKey);
+			}
+		}).executeQuery();
+	}
+
+	/**
+	 * Stream all annotated taxa matching the query from a single database cursor. The returned 
+	 * iterator holds a database connection until it is exhausted or closed.
+	 */
+	public CloseableIterator<TaxonTerm> streamAnnotatedTaxa(AnnotationsQueryConfig config) throws SQLException {
+		final QueryBuilder query = new AnnotatedTaxaQueryBuilder(config, false);
+		return (new StreamingQueryExecutor<TaxonTerm>(this.dataSource, query) {
+			@Override
+			public TaxonTerm processRow(ResultSet result) throws SQLException {
+				return createAnnotatedTaxon(result);
 			}
 		}).executeQuery();
 	}
 
+	private TaxonTerm createAnnotatedTaxon(ResultSet result) throws SQLException {
+		final TaxonTerm taxon = new TaxonTerm(result.getInt("node_id"), null);
+		taxon.setUID(result.getString("uid"));
+		taxon.setLabel(result.getString("label"));
+		taxon.setExtinct(result.getBoolean("is_extinct"));
+		if (result.getString("rank_uid") != null) {
+			final Term rank = new DefaultTerm(result.getInt("rank_node_id"), null);
+			rank.setUID(result.getString("rank_uid"));
+			rank.setLabel(result.getString("rank_label"));
+			taxon.setRank(rank);
+		}
+		if (result.getString("family_uid") != null) {
+			final TaxonTerm family = new TaxonTerm(result.getInt("family_node_id"), null);
+			family.setUID(result.getString("family_uid"));
+			family.setLabel(result.getString("family_label"));
+			family.setExtinct(result.getBoolean("family_is_extinct"));
+			taxon.setTaxonomicFamily(family);
+		}
+		if (result.getString("order_uid") != null) {
+			final TaxonTerm order = new TaxonTerm(result.getInt("order_node_id"), null);
+			order.setUID(result.getString("order_uid"));
+			order.setLabel(result.getString("order_label"));
+			order.setExtinct(result.getBoolean("order_is_extinct"));
+			taxon.setTaxonomicOrder(order);
+		}
+		return taxon;
+	}
+
 	public SubList<TaxonTerm> getAnnotatedTaxaSolr(final AnnotationsQueryConfig config) throws SolrServerException {
 		final AnnotatedTaxaSolrQuery query = new AnnotatedTaxaSolrQuery(this.solr, config);
 		final QueryResponse result = query.executeQuery();
 		final SolrDocumentList results = result.getResults();
+		return new SubList<TaxonTerm>(this.createAnnotatedTaxa(results), getTotal(results, config), query.getLastKey(results));
+	}
+
+	/**
+	 * Stream all annotated taxa matching the query, translating the Solr documents as they are received. 
+	 * The response is read on the given executor.
+	 * @throws RejectedExecutionException If the executor has no room for the query.
+	 */
+	public CloseableIterator<TaxonTerm> streamAnnotatedTaxaSolr(AnnotationsQueryConfig config, ExecutorService executor) {
+		final AnnotatedTaxaSolrQuery query = new AnnotatedTaxaSolrQuery(this.solr, config);
+		return new SolrStreamingIterator<TaxonTerm>(this.solr, query.createQuery(), executor, SolrStreamingIterator.DEFAULT_BATCH_SIZE, PrefetchingIterator.DEFAULT_DEPTH) {
+			@Override
+			protected List<TaxonTerm> translate(List<SolrDocument> documents) {
+				return createAnnotatedTaxa(documents);
+			}
+		};
+	}
+
+	private List<TaxonTerm> createAnnotatedTaxa(List<SolrDocument> documents) {
 		final List<TaxonTerm> taxa = new ArrayList<TaxonTerm>();
-		for (SolrDocument item : results) {
+		for (SolrDocument item : documents) {
 			final TaxonTerm taxon = new TaxonTerm(0, null);
 			taxon.setUID((String)(item.getFieldValue("id")));
 			taxon.setLabel((String)(item.getFieldValue("label")));
@@ -595,12 +851,12 @@ public class PhenoscapeDataStore {
 			} 
 			taxa.add(taxon);
 		}
-		return new SubList<TaxonTerm>(taxa, results.getNumFound());
+		return taxa;
 	}
 
 	public int getCountOfAnnotatedTaxa(AnnotationsQueryConfig config) throws SQLException {
 		final QueryBuilder query = new AnnotatedTaxaQueryBuilder(config, true);
-		return (new QueryExecutor<Integer>(this.dataSource, query) {
+		return (new QueryExecutor<Integer>(this.session, query) {
 			@Override
 			public Integer processResult(ResultSet result) throws SQLException {
 				while (result.next()) {
@@ -613,36 +869,57 @@ public class PhenoscapeDataStore {
 
 	public List<GeneAnnotation> getSupportingGenotypeAnnotations(final AnnotationsQueryConfig config) throws SQLException {
 		final QueryBuilder query = new SupportingGenotypeAnnotationsQueryBuilder(config);
-		return (new QueryExecutor<List<GeneAnnotation>>(this.dataSource, query) {
+		return (new QueryExecutor<List<GeneAnnotation>>(this.session, query) {
 			@Override
 			public List<GeneAnnotation> processResult(ResultSet result) throws SQLException {
 				final List<GeneAnnotation> annotations = new ArrayList<GeneAnnotation>();
+				final LabelBatch labels = new LabelBatch(config.getPostcompositionOption());
 				while (result.next()) {
-					annotations.add(createSupportingGenotypeAnnotation(result, config.getPostcompositionOption()));
+					annotations.add(createSupportingGenotypeAnnotation(result, labels));
 				}
+				labels.resolve();
 				return annotations;
 			}
 		}).executeQuery();
 	}
 
 	public GeneAnnotation createSupportingGenotypeAnnotation(ResultSet result, POSTCOMP_OPTION option) throws SQLException {
-		final GeneAnnotation annotation = this.createGeneAnnotation(result, option);
+		final LabelBatch labels = new LabelBatch(option);
+		final GeneAnnotation annotation = this.createSupportingGenotypeAnnotation(result, labels);
+		labels.resolve();
+		return annotation;
+	}
+
+	private GeneAnnotation createSupportingGenotypeAnnotation(ResultSet result, LabelBatch labels) throws SQLException {
+		final GeneAnnotation annotation = this.createGeneAnnotation(result, labels);
 		annotation.setGenotype(new SimpleTerm(result.getString("genotype_uid"), result.getString("genotype_label")));
 		annotation.setGenotypeClass(new SimpleTerm(result.getString("type_uid"), result.getString("type_label")));
 		annotation.setPublication(new SimpleTerm(result.getString("publication_uid"), result.getString("publication_label")));
 		return annotation;
 	}
 
-	public List<GeneAnnotation> getGeneAnnotations(final AnnotationsQueryConfig config) throws SQLException {
-		final QueryBuilder query = new GeneAnnotationsQueryBuilder(config, false);
-		return (new QueryExecutor<List<GeneAnnotation>>(this.dataSource, query) {
+	/**
+	 * Returns a page of gene annotations together with the total number matching the query, 
+	 * both from a single execution of the query.
+	 */
+	public SubList<GeneAnnotation> getGeneAnnotations(final AnnotationsQueryConfig config) throws SQLException {
+		final GeneAnnotationsQueryBuilder query = new GeneAnnotationsQueryBuilder(config, false);
+		return (new QueryExecutor<SubList<GeneAnnotation>>(this.session, query) {
 			@Override
-			public List<GeneAnnotation> processResult(ResultSet result) throws SQLException {
+			public SubList<GeneAnnotation> processResult(ResultSet result) throws SQLException {
 				final List<GeneAnnotation> annotations = new ArrayList<GeneAnnotation>();
+				long total = -1;
+				SeekKey lastKey = null;
+				final LabelBatch labels = new LabelBatch(config.getPostcompositionOption());
 				while (result.next()) {
-					annotations.add(createGeneAnnotation(result, config.getPostcompositionOption()));
+					if (QueryBuilder.hasTotalCount(config)) {
+						total = result.getLong(QueryBuilder.TOTAL_COUNT);
+					}
+					annotations.add(createGeneAnnotation(result, labels));
+					lastKey = query.getSeekKey(result);
 				}
-				return annotations;
+				labels.resolve();
+				return new SubList<GeneAnnotation>(annotations, getPageTotal(total, annotations, config), lastKey);
 			}
 		}).executeQuery();
 	}
@@ -651,41 +928,66 @@ public class PhenoscapeDataStore {
 		final DistinctGeneAnnotationsSolrQuery query = new DistinctGeneAnnotationsSolrQuery(this.solr, config);
 		final QueryResponse result = query.executeQuery();
 		final SolrDocumentList results = result.getResults();
+		return new SubList<GeneAnnotation>(this.createGeneAnnotations(results, config.getPostcompositionOption()), getTotal(results, config), query.getLastKey(results));
+	}
+
+	/**
+	 * Stream all distinct gene annotations matching the query, translating the Solr documents as they 
+	 * are received. The response is read on the given executor.
+	 * @throws RejectedExecutionException If the executor has no room for the query.
+	 */
+	public CloseableIterator<GeneAnnotation> streamGeneAnnotationsSolr(final AnnotationsQueryConfig config, ExecutorService executor) {
+		final DistinctGeneAnnotationsSolrQuery query = new DistinctGeneAnnotationsSolrQuery(this.solr, config);
+		return new SolrStreamingIterator<GeneAnnotation>(this.solr, query.createQuery(), executor, SolrStreamingIterator.DEFAULT_BATCH_SIZE, PrefetchingIterator.DEFAULT_DEPTH) {
+			@Override
+			protected List<GeneAnnotation> translate(List<SolrDocument> documents) {
+				try {
+					return createGeneAnnotations(documents, config.getPostcompositionOption());
+				} catch (SQLException e) {
+					throw new QueryException(e);
+				}
+			}
+		};
+	}
+
+	private List<GeneAnnotation> createGeneAnnotations(List<SolrDocument> documents, POSTCOMP_OPTION option) throws SQLException {
 		final List<GeneAnnotation> annotations = new ArrayList<GeneAnnotation>();
-		for (SolrDocument item : results) {
+		final LabelBatch labels = new LabelBatch(option);
+		for (SolrDocument item : documents) {
 			final GeneAnnotation annotation = new GeneAnnotation();
 			final GeneTerm gene = new GeneTerm(0, null);
 			gene.setUID((String)(item.getFieldValue("direct_gene")));
 			gene.setLabel((String)(item.getFieldValue("direct_gene_label")));
 			annotation.setGene(gene);
-			annotation.setEntity(this.createBasicTerm((String)(item.getFieldValue("direct_entity")), (String)(item.getFieldValue("direct_entity_label")), config.getPostcompositionOption(), null));
-			annotation.setQuality(this.createBasicTerm((String)(item.getFieldValue("direct_quality")), (String)(item.getFieldValue("direct_quality_label")), config.getPostcompositionOption(), null));
+			annotation.setEntity(labels.createTerm((String)(item.getFieldValue("direct_entity")), (String)(item.getFieldValue("direct_entity_label")), null));
+			annotation.setQuality(labels.createTerm((String)(item.getFieldValue("direct_quality")), (String)(item.getFieldValue("direct_quality_label")), null));
 			if (item.containsKey("direct_related_entity")) {
-				annotation.setRelatedEntity(this.createBasicTerm((String)(item.getFieldValue("direct_related_entity")), (String)(item.getFieldValue("direct_related_entity_label")), config.getPostcompositionOption(), null));
+				annotation.setRelatedEntity(labels.createTerm((String)(item.getFieldValue("direct_related_entity")), (String)(item.getFieldValue("direct_related_entity_label")), null));
 			}
 			annotations.add(annotation);
 		}
-		return new SubList<GeneAnnotation>(annotations, results.getNumFound());
+		labels.resolve();
+		return annotations;
 	}
 
-	private GeneAnnotation createGeneAnnotation(ResultSet result, POSTCOMP_OPTION option) throws SQLException {
+	private GeneAnnotation createGeneAnnotation(ResultSet result, LabelBatch labels) throws SQLException {
 		final GeneAnnotation annotation = new GeneAnnotation();
 		final GeneTerm gene = new GeneTerm(result.getInt("gene_node_id"), null);
 		gene.setUID(result.getString("gene_uid"));
 		gene.setLabel(result.getString("gene_label"));
 		annotation.setGene(gene);
-		annotation.setEntity(this.createBasicTerm(result.getString("entity_uid"), result.getString("entity_label"), option, null));
-		annotation.setQuality(this.createBasicTerm(result.getString("quality_uid"), result.getString("quality_label"), option, null));
+		annotation.setEntity(labels.createTerm(result.getString("entity_uid"), result.getString("entity_label"), null));
+		annotation.setQuality(labels.createTerm(result.getString("quality_uid"), result.getString("quality_label"), null));
 		final String relatedEntityUID = result.getString("related_entity_uid");
 		if (relatedEntityUID != null) {
-			annotation.setRelatedEntity(this.createBasicTerm(result.getString("related_entity_uid"), result.getString("related_entity_label"), option, null));    
+			annotation.setRelatedEntity(labels.createTerm(result.getString("related_entity_uid"), result.getString("related_entity_label"), null));    
 		}
 		return annotation;
 	}
 
 	public int getCountOfGeneAnnotations(AnnotationsQueryConfig config) throws SQLException {
 		final QueryBuilder query = new GeneAnnotationsQueryBuilder(config, true);
-		return (new QueryExecutor<Integer>(this.dataSource, query) {
+		return (new QueryExecutor<Integer>(this.session, query) {
 			@Override
 			public Integer processResult(ResultSet result) throws SQLException {
 				while (result.next()) {
@@ -698,7 +1000,7 @@ public class PhenoscapeDataStore {
 
 	public int getCountOfGenotypeAnnotations(AnnotationsQueryConfig config) throws SQLException {
 		final QueryBuilder query = new GenotypeAnnotationsQueryBuilder(config, true);
-		return (new QueryExecutor<Integer>(this.dataSource, query) {
+		return (new QueryExecutor<Integer>(this.session, query) {
 			@Override
 			public Integer processResult(ResultSet result) throws SQLException {
 				while (result.next()) {
@@ -709,20 +1011,30 @@ public class PhenoscapeDataStore {
 		}).executeQuery();
 	}
 
-	public List<GeneTerm> getAnnotatedGenes(AnnotationsQueryConfig config) throws SQLException {
-		final QueryBuilder query = new AnnotatedGenesQueryBuilder(config, false);
-		return (new QueryExecutor<List<GeneTerm>>(this.dataSource, query) {
+	/**
+	 * Returns a page of annotated genes together with the total number matching the query, 
+	 * both from a single execution of the query.
+	 */
+	public SubList<GeneTerm> getAnnotatedGenes(final AnnotationsQueryConfig config) throws SQLException {
+		final AnnotatedGenesQueryBuilder query = new AnnotatedGenesQueryBuilder(config, false);
+		return (new QueryExecutor<SubList<GeneTerm>>(this.session, query) {
 			@Override
-			public List<GeneTerm> processResult(ResultSet result) throws SQLException {
+			public SubList<GeneTerm> processResult(ResultSet result) throws SQLException {
 				final List<GeneTerm> genes = new ArrayList<GeneTerm>();
+				long total = -1;
+				SeekKey lastKey = null;
 				while (result.next()) {
+					if (QueryBuilder.hasTotalCount(config)) {
+						total = result.getLong(QueryBuilder.TOTAL_COUNT);
+					}
 					final GeneTerm gene = new GeneTerm(result.getInt("gene_node_id"), null);
 					gene.setUID(result.getString("gene_uid"));
 					gene.setLabel(result.getString("gene_label"));
 					gene.setFullName(result.getString("gene_full_name"));
 					genes.add(gene);
+					lastKey = query.getSeekKey(result);
 				}
-				return genes;
+				return new SubList<GeneTerm>(genes, getPageTotal(total, genes, config), lastKey);
 			}
 		}).executeQuery();
 	}
@@ -739,12 +1051,12 @@ public class PhenoscapeDataStore {
 			gene.setFullName((String)(item.getFieldValue("full_name")));
 			genes.add(gene);
 		}
-		return new SubList<GeneTerm>(genes, results.getNumFound());
+		return new SubList<GeneTerm>(genes, getTotal(results, config), query.getLastKey(results));
 	}
 
 	public int getCountOfAnnotatedGenes(AnnotationsQueryConfig config) throws SQLException {
 		final QueryBuilder query = new AnnotatedGenesQueryBuilder(config, true);
-		return (new QueryExecutor<Integer>(this.dataSource, query) {
+		return (new QueryExecutor<Integer>(this.session, query) {
 			@Override
 			public Integer processResult(ResultSet result) throws SQLException {
 				while (result.next()) {
@@ -757,7 +1069,7 @@ public class PhenoscapeDataStore {
 
 	public int getCountOfDistinctPhenotypesAnnotatedToGenes(AnnotationsQueryConfig config) throws SQLException {
 		final QueryBuilder query = new DistinctGenePhenotypesQueryBuilder(config, true);
-		return (new QueryExecutor<Integer>(this.dataSource, query) {
+		return (new QueryExecutor<Integer>(this.session, query) {
 			@Override
 			public Integer processResult(ResultSet result) throws SQLException {
 				while (result.next()) {
@@ -770,7 +1082,7 @@ public class PhenoscapeDataStore {
 
 	public int getCountOfDistinctPhenotypesAnnotatedToTaxa(AnnotationsQueryConfig config) throws SQLException {
 		final QueryBuilder query = new DistinctTaxonPhenotypesQueryBuilder(config, true);
-		return (new QueryExecutor<Integer>(this.dataSource, query) {
+		return (new QueryExecutor<Integer>(this.session, query) {
 			@Override
 			public Integer processResult(ResultSet result) throws SQLException {
 				while (result.next()) {
@@ -781,20 +1093,56 @@ public class PhenoscapeDataStore {
 		}).executeQuery();
 	}
 
-	public List<Term> getAnnotatedPublications(AnnotationsQueryConfig config) throws SQLException {
-		final QueryBuilder query = new PublicationsQueryBuilder(config, false);
-		return (new QueryExecutor<List<Term>>(this.dataSource, query) {
+	/**
+	 * Returns a page of annotated publications together with the total number matching the query, 
+	 * both from a single execution of the query.
+	 */
+	public SubList<Term> getAnnotatedPublications(final AnnotationsQueryConfig config) throws SQLException {
+		final PublicationsQueryBuilder query = new PublicationsQueryBuilder(config, false);
+		return (new QueryExecutor<SubList<Term>>(this.session, query) {
 			@Override
-			public List<Term> processResult(ResultSet result) throws SQLException {
-				final List<Term> annotations = new ArrayList<Term>();
+			public SubList<Term> processResult(ResultSet result) throws SQLException {
+				final List<Term> publications = new ArrayList<Term>();
+				long total = -1;
+				SeekKey lastKey = null;
 				while (result.next()) {
-					annotations.add(createPublicationTerm(result));
+					if (QueryBuilder.hasTotalCount(config)) {
+						total = result.getLong(QueryBuilder.TOTAL_COUNT);
+					}
+					publications.add(createPublicationTerm(result));
+					lastKey = query.getSeekKey(result);
 				}
-				return annotations;
+				return new SubList<Term>(publications, getPageTotal(total, publications, config), lastKey);
 			}
 		}).executeQuery();
 	}
 
+	/**
+	 * The total number of documents matching a Solr listing query, or -1 if the query sought after a key, 
+	 * in which case the documents before the key are not counted.
+	 */
+	private static long getTotal(SolrDocumentList results, AnnotationsQueryConfig config) {
+		return (config.getSeekAfter() != null) ? -1 : results.getNumFound();
+	}
+
+	/**
+	 * The total for a page read from a listing query which reports its full row count in the TOTAL_COUNT column. 
+	 * An unlimited query has no such column, and its page is the whole result. Returns -1 if the total can't be 
+	 * known from the page: when the query seeks after a key (it then has no such column) or when a page past the 
+	 * start of the results is empty.
+	 */
+	private static long getPageTotal(long windowCount, List<?> page, AnnotationsQueryConfig config) {
+		if (config.getSeekAfter() != null) {
+			return -1;
+		} else if (config.getLimit() == -1) {
+			return page.size();
+		} else if (page.isEmpty()) {
+			return (config.getIndex() == 0) ? 0 : -1;
+		} else {
+			return windowCount;
+		}
+	}
+
 	public SubList<Term> getAnnotatedPublicationsSolr(AnnotationsQueryConfig config) throws SQLException, SolrServerException {
 		final PublicationsSolrQuery query = new PublicationsSolrQuery(this.solr, config);
 		final QueryResponse result = query.executeQuery();
@@ -804,12 +1152,12 @@ public class PhenoscapeDataStore {
 			final Term publication = new SimpleTerm((String)(item.getFieldValue("id")), (String)(item.getFieldValue("label")));
 			publications.add(publication);
 		}
-		return new SubList<Term>(publications, results.getNumFound());
+		return new SubList<Term>(publications, getTotal(results, config), query.getLastKey(results));
 	}
 
 	public int getCountOfAnnotatedPublications(AnnotationsQueryConfig config) throws SQLException {
 		final QueryBuilder query = new PublicationsQueryBuilder(config, true);
-		return (new QueryExecutor<Integer>(this.dataSource, query) {
+		return (new QueryExecutor<Integer>(this.session, query) {
 			@Override
 			public Integer processResult(ResultSet result) throws SQLException {
 				while (result.next()) {
@@ -822,7 +1170,7 @@ public class PhenoscapeDataStore {
 
 	public List<Term> getAnnotatedCharacters(AnnotationsQueryConfig config) throws SQLException {
 		final QueryBuilder query = new CharactersQueryBuilder(config, false);
-		return (new QueryExecutor<List<Term>>(this.dataSource, query) {
+		return (new QueryExecutor<List<Term>>(this.session, query) {
 			@Override
 			public List<Term> processResult(ResultSet result) throws SQLException {
 				final List<Term> annotations = new ArrayList<Term>();
@@ -836,7 +1184,7 @@ public class PhenoscapeDataStore {
 
 	public int getCountOfAnnotatedCharacters(AnnotationsQueryConfig config) throws SQLException {
 		final QueryBuilder query = new CharactersQueryBuilder(config, true);
-		return (new QueryExecutor<Integer>(this.dataSource, query) {
+		return (new QueryExecutor<Integer>(this.session, query) {
 			@Override
 			public Integer processResult(ResultSet result) throws SQLException {
 				while (result.next()) {
@@ -855,10 +1203,8 @@ public class PhenoscapeDataStore {
 	}
 
 	public int getCountOfAllCharacters() throws SQLException {
-		final String instanceOf = String.format(QueryBuilder.NODE_S, OBO.INSTANCE_OF);
-		final String characterType = String.format(QueryBuilder.NODE_S, CDAO.CHARACTER);
-		final QueryBuilder query = new SimpleQuery(String.format("SELECT count(DISTINCT uid) FROM node JOIN link ON (link.node_id = node.node_id AND link.predicate_id = %s AND link.object_id = %s)", instanceOf, characterType));
-		return (new QueryExecutor<Integer>(this.dataSource, query) {
+		final QueryBuilder query = createInstanceCountQuery(CDAO.CHARACTER);
+		return (new QueryExecutor<Integer>(this.session, query) {
 			@Override
 			public Integer processResult(ResultSet result) throws SQLException {
 				while (result.next()) {
@@ -871,7 +1217,7 @@ public class PhenoscapeDataStore {
 
 	public int getCountOfAnnotatedCharacterStates(AnnotationsQueryConfig config) throws SQLException {
 		final QueryBuilder query = new CharacterStatesQueryBuilder(config, true);
-		return (new QueryExecutor<Integer>(this.dataSource, query) {
+		return (new QueryExecutor<Integer>(this.session, query) {
 			@Override
 			public Integer processResult(ResultSet result) throws SQLException {
 				while (result.next()) {
@@ -883,10 +1229,8 @@ public class PhenoscapeDataStore {
 	}
 
 	public int getCountOfAllCharacterStates() throws SQLException {
-		final String instanceOf = String.format(QueryBuilder.NODE_S, OBO.INSTANCE_OF);
-		final String characterStateType = String.format(QueryBuilder.NODE_S, CDAO.CHARACTER_STATE);
-		final QueryBuilder query = new SimpleQuery(String.format("SELECT count(DISTINCT uid) FROM node JOIN link ON (link.node_id = node.node_id AND link.predicate_id = %s AND link.object_id = %s)", instanceOf, characterStateType));
-		return (new QueryExecutor<Integer>(this.dataSource, query) {
+		final QueryBuilder query = createInstanceCountQuery(CDAO.CHARACTER_STATE);
+		return (new QueryExecutor<Integer>(this.session, query) {
 			@Override
 			public Integer processResult(ResultSet result) throws SQLException {
 				while (result.next()) {
@@ -898,10 +1242,8 @@ public class PhenoscapeDataStore {
 	}
 
 	public int getCountOfAllOTUs() throws SQLException {
-		final String instanceOf = String.format(QueryBuilder.NODE_S, OBO.INSTANCE_OF);
-		final String characterType = String.format(QueryBuilder.NODE_S, CDAO.OTU);
-		final QueryBuilder query = new SimpleQuery(String.format("SELECT count(DISTINCT uid) FROM node JOIN link ON (link.node_id = node.node_id AND link.predicate_id = %s AND link.object_id = %s)", instanceOf, characterType));
-		return (new QueryExecutor<Integer>(this.dataSource, query) {
+		final QueryBuilder query = createInstanceCountQuery(CDAO.OTU);
+		return (new QueryExecutor<Integer>(this.session, query) {
 			@Override
 			public Integer processResult(ResultSet result) throws SQLException {
 				while (result.next()) {
@@ -913,9 +1255,8 @@ public class PhenoscapeDataStore {
 	}
 
 	public int getCountOfAllCuratedPhenotypes() throws SQLException {
-		final String hasPhenotype = String.format(QueryBuilder.NODE_S, CDAO.HAS_PHENOTYPE);
-		final QueryBuilder query = new SimpleQuery(String.format("SELECT count(*) FROM link WHERE link.predicate_id = %s AND link.is_inferred = false", hasPhenotype));
-		return (new QueryExecutor<Integer>(this.dataSource, query) {
+		final QueryBuilder query = createCuratedPhenotypesCountQuery();
+		return (new QueryExecutor<Integer>(this.session, query) {
 			@Override
 			public Integer processResult(ResultSet result) throws SQLException {
 				while (result.next()) {
@@ -926,6 +1267,41 @@ public class PhenoscapeDataStore {
 		}).executeQuery();
 	}
 
+	/**
+	 * A query counting the distinct nodes which are instances of the given type.
+	 */
+	static QueryBuilder createInstanceCountQuery(String typeUID) {
+		final String instanceOf = String.format(QueryBuilder.NODE_S, OBO.INSTANCE_OF);
+		final String type = String.format(QueryBuilder.NODE_S, typeUID);
+		return new SimpleQuery(String.format("SELECT count(DISTINCT uid) FROM node JOIN link ON (link.node_id = node.node_id AND link.predicate_id = %s AND link.object_id = %s)", instanceOf, type));
+	}
+
+	static QueryBuilder createCuratedPhenotypesCountQuery() {
+		final String hasPhenotype = String.format(QueryBuilder.NODE_S, CDAO.HAS_PHENOTYPE);
+		return new SimpleQuery(String.format("SELECT count(*) FROM link WHERE link.predicate_id = %s AND link.is_inferred = false", hasPhenotype));
+	}
+
+	/**
+	 * Evaluate several count queries in a single round trip to the database.
+	 * @param countQueries Queries each returning a single count.
+	 * @return The counts, in the order of the given queries.
+	 */
+	public long[] getCounts(final List<QueryBuilder> countQueries) throws SQLException {
+		final QueryBuilder query = new CombinedCountQueryBuilder(countQueries);
+		return (new QueryExecutor<long[]>(this.session, query) {
+			@Override
+			public long[] processResult(ResultSet result) throws SQLException {
+				final long[] counts = new long[countQueries.size()];
+				while (result.next()) {
+					for (int i = 0; i < counts.length; i++) {
+						counts[i] = result.getLong(i + 1);
+					}
+				}
+				return counts;
+			}
+		}).executeQuery();
+	}
+
 	private Term createPublicationTerm(ResultSet result) throws SQLException {
 		final DefaultTerm term = new DefaultTerm(result.getInt("node_id"), null);
 		term.setUID(result.getString("uid"));
@@ -939,42 +1315,85 @@ public class PhenoscapeDataStore {
 			log().warn("No namespaces provided for autocomplete search. Returning empty result.");
 			return matches;
 		}
-		final List<SearchHit> sortedHits = new ArrayList<SearchHit>();
-		if (config.searchNames()) {
-			final Collection<SearchHit> nameMatches = this.queryNameMatches(config, false);
-			sortedHits.addAll(nameMatches);    
-		}
-		if (config.searchSynonyms()) {
-			final Collection<SearchHit> synonymMatches = this.querySynonymMatches(config, false);
-			sortedHits.addAll(synonymMatches);
-		}
-		Collections.sort(sortedHits, new Comparator<SearchHit>() {
-			@Override
-			public int compare(SearchHit a, SearchHit b) {
-				final boolean aStartsWithMatch = a.getMatchText().toLowerCase().startsWith(config.getSearchText().toLowerCase());
-				final boolean bStartsWithMatch = b.getMatchText().toLowerCase().startsWith(config.getSearchText().toLowerCase());
-				if (aStartsWithMatch && bStartsWithMatch) {
-					return Strings.compareNatural(a.getMatchText(), b.getMatchText());
-				} else if (aStartsWithMatch) {
-					return -1;
-				} else if (bStartsWithMatch) {
-					return 1;
-				} else {
-					return Strings.compareNatural(a.getMatchText(), b.getMatchText());
+		final SearchHitRanker ranker = new SearchHitRanker(config.getSearchText(), config.getLimit());
+		final List<SearchHit> cachedCandidates = (this.autocompleteCache != null) ? this.autocompleteCache.getCandidates(config) : null;
+		if (cachedCandidates != null) {
+			ranker.addAll(cachedCandidates, false);
+		} else {
+			final long generation = (this.autocompleteCache != null) ? this.autocompleteCache.getGeneration() : 0;
+			// hits starting with the search text always rank first, so the substring search is only needed if they do not fill the limit
+			List<SearchHit> prefixMatches = (this.autocompleteCache != null) ? this.autocompleteCache.getPrefixMatches(config) : null;
+			if (prefixMatches == null) {
+				QueryMetrics.increment("autocomplete_cache.backend_searches");
+				prefixMatches = this.findMatches(config, true);
+				if (this.autocompleteCache != null) {
+					this.autocompleteCache.putPrefixMatches(config, prefixMatches, generation);
 				}
 			}
-		});
-		if ((config.getLimit() > 0) && (sortedHits.size() > config.getLimit())) {
-			matches.addAllSearchHits(sortedHits.subList(0, config.getLimit()));
-		} else {
-			matches.addAllSearchHits(sortedHits);    
+			ranker.addAll(prefixMatches, false);
+			if (ranker.isFilledByPrefixMatches()) {
+				QueryMetrics.increment("autocomplete.prefix_only_searches");
+			} else {
+				QueryMetrics.increment("autocomplete_cache.backend_searches");
+				final List<SearchHit> candidates = this.findMatches(config, false);
+				ranker.addAll(candidates, true);
+				if (this.autocompleteCache != null) {
+					this.autocompleteCache.putCandidates(config, candidates, generation);
+				}
+			}
+		}
+		final List<SearchHit> rankedHits = ranker.getRankedHits();
+		matches.addAllSearchHits(rankedHits);
+		if (config.matchSimilar()) {
+			matches.addAllSearchHits(this.findSimilarMatches(config, rankedHits));
 		}
 		return matches;
 	}
 
+	/**
+	 * Terms with a name or synonym similar to the search text, to fill out a limited search with too few matches, or
+	 * to suggest alternatives to an unlimited search with no matches. These are only suggestions, so they are left
+	 * out if the term search index fails.
+	 */
+	private List<SearchHit> findSimilarMatches(SearchConfig config, List<SearchHit> exactHits) {
+		if ((this.termSearchIndex == null) || !this.termSearchIndex.canSearch(config.getNamespaces())) {
+			return Collections.emptyList();
+		}
+		final int wanted;
+		if (config.getLimit() > 0) {
+			wanted = config.getLimit() - exactHits.size();
+		} else {
+			wanted = exactHits.isEmpty() ? TermSearchIndex.DEFAULT_MAXIMUM_HITS : 0;
+		}
+		if (wanted < 1) {
+			return Collections.emptyList();
+		}
+		try {
+			return this.termSearchIndex.searchSimilar(config, wanted, exactHits);
+		} catch (IOException e) {
+			log().error("Error searching term index for similar matches", e);
+			return Collections.emptyList();
+		}
+	}
+
+	/**
+	 * The name and synonym matches requested by the config, from the autocomplete index if it can answer the search.
+	 */
+	private List<SearchHit> findMatches(SearchConfig config, boolean startsWith) throws SQLException {
+		final boolean useIndex = (this.autocompleteIndex != null) && this.autocompleteIndex.canSearch(config.getNamespaces());
+		final List<SearchHit> hits = new ArrayList<SearchHit>();
+		if (config.searchNames()) {
+			hits.addAll(useIndex ? this.autocompleteIndex.search(config, MatchType.NAME, startsWith) : this.queryNameMatches(config, startsWith));
+		}
+		if (config.searchSynonyms()) {
+			hits.addAll(useIndex ? this.autocompleteIndex.search(config, MatchType.SYNONYM, startsWith) : this.querySynonymMatches(config, startsWith));
+		}
+		return hits;
+	}
+
 	private List<SearchHit> queryNameMatches(SearchConfig config, boolean startsWith) throws SQLException {
 		final AutocompleteNameQueryBuilder queryBuilder = new AutocompleteNameQueryBuilder(config, startsWith);
-		final QueryExecutor<List<SearchHit>> queryExecutor = new QueryExecutor<List<SearchHit>>(this.dataSource, queryBuilder) {
+		final QueryExecutor<List<SearchHit>> queryExecutor = new QueryExecutor<List<SearchHit>>(this.session, queryBuilder) {
 			@Override
 			public List<SearchHit> processResult(ResultSet result) throws SQLException {
 				final List<SearchHit> hits = new ArrayList<SearchHit>();
@@ -990,7 +1409,7 @@ public class PhenoscapeDataStore {
 
 	private List<SearchHit> querySynonymMatches(SearchConfig config, boolean startsWith) throws SQLException {
 		final AutocompleteSynonymQueryBuilder queryBuilder = new AutocompleteSynonymQueryBuilder(config, startsWith);
-		final QueryExecutor<List<SearchHit>> queryExecutor = new QueryExecutor<List<SearchHit>>(this.dataSource, queryBuilder) {
+		final QueryExecutor<List<SearchHit>> queryExecutor = new QueryExecutor<List<SearchHit>>(this.session, queryBuilder) {
 			@Override
 			public List<SearchHit> processResult(ResultSet result) throws SQLException {
 				final List<SearchHit> hits = new ArrayList<SearchHit>();
@@ -1020,41 +1439,64 @@ public class PhenoscapeDataStore {
 		return hit;
 	}
 
-	public List<Term> getNamesForIDs(final Collection<String> ids, final POSTCOMP_OPTION option) throws SQLException {
-		final List<Term> terms = new ArrayList<Term>();
-		for (final String id : ids) {
-			final QueryBuilder query = new BulkTermNameQueryBuilder(id);
-			terms.add((new QueryExecutor<Term>(this.dataSource, query) {
+	/**
+	 * Look up the terms with the given IDs, querying at most LABEL_BATCH_SIZE of them at a time. The 
+	 * returned map is in the order of the given IDs; IDs which do not match any node are absent from it.
+	 */
+	public Map<String, Term> getNamesForIDs(final Collection<String> ids, final POSTCOMP_OPTION option) throws SQLException {
+		final Map<String, Term> foundTerms = new HashMap<String, Term>();
+		final LabelBatch labels = new LabelBatch(option);
+		final List<String> queryIDs = new ArrayList<String>();
+		for (String id : ids) {
+			final Term knownTerm = (this.labelDictionary != null) ? this.labelDictionary.getTerm(id) : null;
+			if (knownTerm != null) {
+				foundTerms.put(id, labels.createTerm(knownTerm.getUID(), knownTerm.getLabel(), knownTerm.getSource()));
+			} else {
+				queryIDs.add(id);
+			}
+		}
+		for (int start = 0; start < queryIDs.size(); start += LABEL_BATCH_SIZE) {
+			final QueryBuilder query = new BulkTermNameQueryBuilder(queryIDs.subList(start, Math.min(start + LABEL_BATCH_SIZE, queryIDs.size())));
+			(new QueryExecutor<Void>(this.session, query) {
 				@Override
-				public Term processResult(ResultSet result) throws SQLException {
+				public Void processResult(ResultSet result) throws SQLException {
 					while (result.next()) {
+						final String uid = result.getString("uid");
 						final String taxonUID = result.getString("taxon_uid");
 						if (taxonUID != null) {
 							final TaxonTerm taxon = new TaxonTerm(result.getInt("node_id"), null);
-							taxon.setUID(result.getString("uid"));
+							taxon.setUID(uid);
 							taxon.setLabel(result.getString("label"));
 							taxon.setExtinct(result.getBoolean("is_extinct"));
 							if (result.getString("rank_uid") != null) {
 								taxon.setRank(new SimpleTerm(result.getString("rank_uid"), result.getString("rank_label")));
 							}
 							taxon.setSource(new SimpleTerm(result.getString("source_uid"), result.getString("source_label")));
-							return taxon;
+							foundTerms.put(uid, taxon);
 						} else {
 							final Term source = (result.getString("source_uid") != null) ? (new SimpleTerm(result.getString("source_uid"), result.getString("source_label"))) : null;
-							final Term term = createBasicTerm(result.getString("uid"), result.getString("label"), option, source);
-							return term;
+							foundTerms.put(uid, labels.createTerm(uid, result.getString("label"), source));
 						}
 					}
 					return null;
 				}
-			}).executeQuery());
+			}).executeQuery();
+			QueryMetrics.increment("term_names.batch_queries");
+		}
+		labels.resolve();
+		final Map<String, Term> terms = new LinkedHashMap<String, Term>();
+		for (String id : ids) {
+			if (foundTerms.containsKey(id)) {
+				terms.put(id, foundTerms.get(id));
+			}
 		}
+		QueryMetrics.add("term_names.misses", ids.size() - terms.size());
 		return terms;
 	}
 
 	public LinkedTerm renderPostcomposition(final String uid) throws SQLException {
 		final QueryBuilder query = new IntersectionLinksQueryBuilder(uid);
-		return (new QueryExecutor<LinkedTerm>(this.dataSource, query) {
+		return (new QueryExecutor<LinkedTerm>(this.session, query) {
 			@Override
 			public LinkedTerm processResult(ResultSet result) throws SQLException {
 				final LinkedTerm term = new DefaultTerm(-1, null);
@@ -1072,6 +1514,10 @@ public class PhenoscapeDataStore {
 	}
 
 	public String semanticLabel(final String uid) throws SQLException {
+		if (this.labelDictionary != null) {
+			final String label = this.labelDictionary.getSemanticLabel(uid);
+			if (label != null) { return label; }
+		}
 		final QueryBuilder query = new QueryBuilder() {
 			@Override
 			protected String getQuery() {
@@ -1082,7 +1528,7 @@ public class PhenoscapeDataStore {
 				statement.setString(1, uid);
 			}            
 		};
-		return (new QueryExecutor<String>(this.dataSource, query) {
+		return (new QueryExecutor<String>(this.session, query) {
 			@Override
 			public String processResult(ResultSet result) throws SQLException {
 				while (result.next()) {
@@ -1094,6 +1540,10 @@ public class PhenoscapeDataStore {
 	}
 
 	public String simpleLabel(final String uid) throws SQLException {
+		if (this.labelDictionary != null) {
+			final String label = this.labelDictionary.getSimpleLabel(uid);
+			if (label != null) { return label; }
+		}
 		final QueryBuilder query = new QueryBuilder() {
 			@Override
 			protected String getQuery() {
@@ -1104,7 +1554,7 @@ public class PhenoscapeDataStore {
 				statement.setString(1, uid);
 			}            
 		};
-		return (new QueryExecutor<String>(this.dataSource, query) {
+		return (new QueryExecutor<String>(this.session, query) {
 			@Override
 			public String processResult(ResultSet result) throws SQLException {
 				while (result.next()) {
@@ -1139,9 +1589,97 @@ public class PhenoscapeDataStore {
 		}
 	}
 
+	/**
+	 * Look up the semantic or simple labels of the given nodes, querying at most LABEL_BATCH_SIZE UIDs at a time. 
+	 * UIDs which have no label entry are absent from the returned map.
+	 */
+	public Map<String, String> getNodeLabels(NodeLabelsQueryBuilder.LABEL label, Collection<String> uids) throws SQLException {
+		final Map<String, String> labels = new HashMap<String, String>();
+		final List<String> allUIDs = new ArrayList<String>(uids);
+		for (int start = 0; start < allUIDs.size(); start += LABEL_BATCH_SIZE) {
+			final List<String> batch = allUIDs.subList(start, Math.min(start + LABEL_BATCH_SIZE, allUIDs.size()));
+			final QueryBuilder query = new NodeLabelsQueryBuilder(label, batch);
+			(new QueryExecutor<Void>(this.session, query) {
+				@Override
+				public Void processResult(ResultSet result) throws SQLException {
+					while (result.next()) {
+						labels.put(result.getString("uid"), result.getString("label"));
+					}
+					return null;
+				}
+			}).executeQuery();
+			QueryMetrics.increment("labels.batch_queries");
+			QueryMetrics.add("labels.batched_uids", batch.size());
+		}
+		return labels;
+	}
+
+	/**
+	 * Creates the terms for a page of results, deferring the lookup of semantic or simple labels 
+	 * so that all the labels needed for the page can be fetched together by resolve(), instead of with 
+	 * one query per term. Terms for other postcomposition options are created immediately.
+	 */
+	private class LabelBatch {
+
+		private final POSTCOMP_OPTION option;
+		private final Map<String, List<LinkedTerm>> pending = new HashMap<String, List<LinkedTerm>>();
+
+		public LabelBatch(POSTCOMP_OPTION option) {
+			this.option = option;
+		}
+
+		/**
+		 * Returns a term for the given node. For the SEMANTIC_LABEL and SIMPLE_LABEL options the term has 
+		 * no label until resolve() is called.
+		 */
+		public Term createTerm(String uid, String label, Term source) throws SQLException {
+			if ((uid == null) || !(this.option.equals(POSTCOMP_OPTION.SEMANTIC_LABEL) || this.option.equals(POSTCOMP_OPTION.SIMPLE_LABEL))) {
+				return createBasicTerm(uid, label, this.option, source);
+			}
+			final LinkedTerm term = new DefaultTerm(-1, null);
+			term.setUID(uid);
+			term.setSource(source);
+			if (!this.pending.containsKey(uid)) {
+				this.pending.put(uid, new ArrayList<LinkedTerm>());
+			}
+			this.pending.get(uid).add(term);
+			return term;
+		}
+
+		/**
+		 * Fill in the labels of all terms created since the last call. As with semanticLabel() and 
+		 * simpleLabel(), a node with no label entry is labelled with its UID.
+		 */
+		public void resolve() throws SQLException {
+			if (this.pending.isEmpty()) { return; }
+			final boolean semantic = this.option.equals(POSTCOMP_OPTION.SEMANTIC_LABEL);
+			final Map<String, String> labels = new HashMap<String, String>();
+			final Set<String> unknownUIDs = new HashSet<String>();
+			for (String uid : this.pending.keySet()) {
+				final String label = (labelDictionary == null) ? null : (semantic ? labelDictionary.getSemanticLabel(uid) : labelDictionary.getSimpleLabel(uid));
+				if (label != null) {
+					labels.put(uid, label);
+				} else {
+					unknownUIDs.add(uid);
+				}
+			}
+			if (!unknownUIDs.isEmpty()) {
+				labels.putAll(getNodeLabels(semantic ? NodeLabelsQueryBuilder.LABEL.SEMANTIC : NodeLabelsQueryBuilder.LABEL.SIMPLE, unknownUIDs));
+			}
+			for (Entry<String, List<LinkedTerm>> entry : this.pending.entrySet()) {
+				final String label = labels.containsKey(entry.getKey()) ? labels.get(entry.getKey()) : entry.getKey();
+				for (LinkedTerm term : entry.getValue()) {
+					term.setLabel(label);
+				}
+			}
+			this.pending.clear();
+		}
+
+	}
+
 	public Matrix getMatrixForPublication(String pubID) throws SQLException {
 		final QueryBuilder query = new MatrixDataQueryBuilder(pubID);
-		return (new QueryExecutor<Matrix>(this.dataSource, query) {
+		return (new QueryExecutor<Matrix>(this.session, query) {
 			@Override
 			public Matrix processResult(ResultSet result) throws SQLException {
 				final Matrix matrix = new Matrix();
@@ -1169,7 +1707,7 @@ public class PhenoscapeDataStore {
 
 	public List<OTU> getOTUsForPublication(String pubID) throws SQLException {
 		final QueryBuilder query = new PublicationOTUsQueryBuilder(pubID);
-		return (new QueryExecutor<List<OTU>>(this.dataSource, query) {
+		return (new QueryExecutor<List<OTU>>(this.session, query) {
 			@Override
 			public List<OTU> processResult(ResultSet result) throws SQLException {
 				final List<OTU> otus = new ArrayList<OTU>();
@@ -1196,7 +1734,7 @@ public class PhenoscapeDataStore {
 
 	public List<Specimen> getSpecimensForOTU(String otuID) throws SQLException {
 		final QueryBuilder query = new OTUSpecimensQueryBuilder(otuID);
-		return (new QueryExecutor<List<Specimen>>(this.dataSource, query) {
+		return (new QueryExecutor<List<Specimen>>(this.session, query) {
 			@Override
 			public List<Specimen> processResult(ResultSet result) throws SQLException {
 				final List<Specimen> specimens = new ArrayList<Specimen>();
@@ -1211,8 +1749,11 @@ public class PhenoscapeDataStore {
 	}
 
 	public List<String> getChildrenUIDs(String term, String relation) throws SQLException {
+		if ((this.ontologyGraph != null) && this.ontologyGraph.supports(relation)) {
+			return this.ontologyGraph.getChildren(term, relation);
+		}
 		final QueryBuilder query = new ChildrenUIDsQueryBuilder(term, relation);
-		return (new QueryExecutor<List<String>>(this.dataSource, query) {
+		return (new QueryExecutor<List<String>>(this.session, query) {
 			@Override
 			public List<String> processResult(ResultSet result) throws SQLException {
 				final List<String> children = new ArrayList<String>();
@@ -1224,9 +1765,64 @@ public class PhenoscapeDataStore {
 		}).executeQuery();
 	}
 
+	public List<String> getParentUIDs(String term, String relation) throws SQLException {
+		if ((this.ontologyGraph != null) && this.ontologyGraph.supports(relation)) {
+			return this.ontologyGraph.getParents(term, relation);
+		}
+		final QueryBuilder query = new ParentUIDsQueryBuilder(term, relation);
+		return (new QueryExecutor<List<String>>(this.session, query) {
+			@Override
+			public List<String> processResult(ResultSet result) throws SQLException {
+				final List<String> parents = new ArrayList<String>();
+				while (result.next()) {
+					parents.add(result.getString("parent_uid"));
+				}
+				return parents;
+			}
+		}).executeQuery();
+	}
+
+	/**
+	 * All terms reachable from the given term by following the relation from child to parent.
+	 */
+	public Set<String> getAncestorUIDs(String term, String relation) throws SQLException {
+		if ((this.ontologyGraph != null) && this.ontologyGraph.supports(relation)) {
+			return new HashSet<String>(this.ontologyGraph.getAncestors(term, relation));
+		}
+		final Set<String> ancestors = new HashSet<String>();
+		final List<String> unvisited = new ArrayList<String>(Collections.singleton(term));
+		while (!unvisited.isEmpty()) {
+			for (String parent : this.getParentUIDs(unvisited.remove(unvisited.size() - 1), relation)) {
+				if (!parent.equals(term) && ancestors.add(parent)) {
+					unvisited.add(parent);
+				}
+			}
+		}
+		return ancestors;
+	}
+
+	/**
+	 * All terms from which the given term can be reached by following the relation from child to parent.
+	 */
+	public Set<String> getDescendantUIDs(String term, String relation) throws SQLException {
+		if ((this.ontologyGraph != null) && this.ontologyGraph.supports(relation)) {
+			return new HashSet<String>(this.ontologyGraph.getDescendants(term, relation));
+		}
+		final Set<String> descendants = new HashSet<String>();
+		final List<String> unvisited = new ArrayList<String>(Collections.singleton(term));
+		while (!unvisited.isEmpty()) {
+			for (String child : this.getChildrenUIDs(unvisited.remove(unvisited.size() - 1), relation)) {
+				if (!child.equals(term) && descendants.add(child)) {
+					unvisited.add(child);
+				}
+			}
+		}
+		return descendants;
+	}
+
 	public List<String> getGeneFacetChildrenUIDs(String term) throws SQLException {
 		final QueryBuilder goQuery = new GeneFacetChildrenUIDsQueryBuilder(term, false);
-		final List<String> goTerms = (new QueryExecutor<List<String>>(this.dataSource, goQuery) {
+		final List<String> goTerms = (new QueryExecutor<List<String>>(this.session, goQuery) {
 			@Override
 			public List<String> processResult(ResultSet result) throws SQLException {
 				final List<String> children = new ArrayList<String>();
@@ -1237,7 +1833,7 @@ public class PhenoscapeDataStore {
 			}
 		}).executeQuery();
 		final QueryBuilder geneQuery = new GeneFacetChildrenUIDsQueryBuilder(term, true);
-		final Set<String> genes = (new QueryExecutor<Set<String>>(this.dataSource, geneQuery) {
+		final Set<String> genes = (new QueryExecutor<Set<String>>(this.session, geneQuery) {
 			@Override
 			public Set<String> processResult(ResultSet result) throws SQLException {
 				final Set<String> children = new HashSet<String>();
@@ -1294,7 +1890,7 @@ public class PhenoscapeDataStore {
 
 	public Set<String> getSpeciesIDsWithPhenotype(String taxonID, PhenotypeSpec phenotype) throws SQLException {
 		final QueryBuilder query = new SpeciesWithPhenotypeQueryBuilder(taxonID, phenotype);
-		return (new QueryExecutor<Set<String>>(this.dataSource, query) {
+		return (new QueryExecutor<Set<String>>(this.session, query) {
 			@Override
 			public Set<String> processResult(ResultSet result) throws SQLException {
 				final Set<String> matches = new HashSet<String>();
@@ -1354,7 +1950,7 @@ public class PhenoscapeDataStore {
 	public List<Term> getQualityAttributes() throws SQLException {
 		//FIXME use vocab constants within this query
 		final QueryBuilder query = new SimpleQuery("SELECT attribute.node_id, attribute.uid, attribute.label FROM node attribute JOIN link attribute_to_slim ON (attribute_to_slim.node_id = attribute.node_id AND attribute_to_slim.predicate_id = (SELECT node_id from node where uid = 'oboInOwl:inSubset') AND attribute_to_slim.object_id = (SELECT node_id from node where uid = 'character_slim') AND is_inferred = false) WHERE attribute.source_id = (SELECT node_id FROM node WHERE uid = 'quality') ");
-		return (new QueryExecutor<List<Term>>(this.dataSource, query) {
+		return (new QueryExecutor<List<Term>>(this.session, query) {
 			@Override
 			public List<Term> processResult(ResultSet result) throws SQLException {
 				final List<Term> attributes = new ArrayList<Term>();
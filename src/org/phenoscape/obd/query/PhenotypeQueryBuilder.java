@@ -1,6 +1,7 @@
 package org.phenoscape.obd.query;
 
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -64,6 +65,9 @@ public class PhenotypeQueryBuilder extends QueryBuilder {
             }
         }
         if (!this.totalOnly) {
+            if (this.config.getSeekAfter() != null) {
+                index = this.config.getSeekAfter().fillStatement(statement, index);
+            }
             if (this.config.getLimit() != -1) {
                 statement.setInt(index++, this.config.getLimit());
                 statement.setInt(index++, this.config.getIndex());
@@ -100,11 +104,23 @@ public class PhenotypeQueryBuilder extends QueryBuilder {
         if (this.totalOnly) {
             query = "SELECT count(*) FROM (" + baseQuery + ") AS query";
         } else {
-            query = "SELECT * FROM " + "(" + baseQuery + ") AS query " + this.getJoinText() + "ORDER BY simple_label " + this.getSortText() + ((this.config.getLimit() == -1) ? "" : "LIMIT ? OFFSET ? ");
+            query = "SELECT *" + getTotalCountColumn(this.config) + " FROM " + "(" + baseQuery + ") AS query " + this.getJoinText() + this.getSeekText("simple_label", "query.node_id") + "ORDER BY simple_label " + this.getSortText() + ", query.node_id " + this.getSortText() + ((this.config.getLimit() == -1) ? "" : "LIMIT ? OFFSET ? ");
         }
         return query;
     }
 
+    /**
+     * The sort position of the current row of this query's results.
+     */
+    public SeekKey getSeekKey(ResultSet result) throws SQLException {
+        return new SeekKey(result.getString("simple_label"), result.getString("node_id"));
+    }
+
+    private String getSeekText(String sortColumn, String idColumn) {
+        final SeekKey seekAfter = this.config.getSeekAfter();
+        return (seekAfter != null) ? "WHERE " + seekAfter.getSQLCondition(sortColumn, idColumn, this.config.sortDescending()) : "";
+    }
+
     private String getSortText() {
         return this.config.sortDescending() ? "DESC " : ""; 
     }
@@ -0,0 +1,228 @@
+package org.phenoscape.obd.query;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An Iterator over results which are retrieved in chunks, which fetches the following chunks on a background
+ * thread while the items of the current chunk are being consumed, e.g. written out to a client. Each chunk is
+ * fetched by its own task, which schedules the next one only while fewer than <code>depth</code> chunks are waiting,
+ * so a pool thread is held only while a chunk is actually being fetched. When no thread is free, or the executor is
+ * unavailable or the depth is 0, the consumer fetches the chunk it needs on its own thread instead of waiting.
+ * Time the consumer spends blocked on the backend and time it spends processing items are recorded in QueryMetrics.
+ * @param <T> The type of item returned.
+ */
+public abstract class PrefetchingIterator<T> implements CloseableIterator<T> {
+
+    public static final int DEFAULT_DEPTH = Integer.getInteger("org.phenoscape.obd.prefetch-depth", 2);
+    private static final Object END = new Object();
+    private final ExecutorService executor;
+    private final int depth;
+    private final Queue<Object> chunks = new LinkedList<Object>();
+    private final Runnable fetchTask = new Runnable() {
+        @Override
+        public void run() {
+            fetchInBackground();
+        }
+    };
+    private Iterator<T> currentItems;
+    private boolean started = false;
+    private boolean finished = false;
+    private volatile boolean closed = false;
+    /**
+     * Whether a chunk is being fetched, or a task to fetch one has been submitted; guarded by chunks.
+     */
+    private boolean fetching = false;
+    /**
+     * Whether the last chunk, or a failure, has been fetched; guarded by chunks.
+     */
+    private boolean exhausted = false;
+    private long chunkStartTime;
+
+    /**
+     * @param initialChunk The first chunk of results, which has already been fetched.
+     * @param executor The executor on which following chunks are fetched, or null to fetch them on demand.
+     * @param depth The maximum number of chunks to fetch ahead of the consumer.
+     */
+    public PrefetchingIterator(List<T> initialChunk, ExecutorService executor, int depth) {
+        this.currentItems = initialChunk.iterator();
+        this.executor = (depth > 0) ? executor : null;
+        this.depth = depth;
+    }
+
+    /**
+     * Must be overridden by subclasses to retrieve the chunk following the previously retrieved one, or null if
+     * there are no more results. Calls are never concurrent, but may be made from a background thread.
+     * Checked exceptions should be wrapped in a QueryException, which will be rethrown to the consumer.
+     */
+    protected abstract List<T> fetchChunk();
+
+    @Override
+    public boolean hasNext() {
+        if (!this.started) {
+            this.start();
+        }
+        while (!this.currentItems.hasNext()) {
+            if (this.finished || this.closed) {
+                return false;
+            }
+            final long waitStart = System.nanoTime();
+            QueryMetrics.add("prefetch.write_millis", millis(waitStart - this.chunkStartTime));
+            final List<T> chunk = this.takeChunk();
+            this.chunkStartTime = System.nanoTime();
+            QueryMetrics.add("prefetch.backend_wait_millis", millis(this.chunkStartTime - waitStart));
+            if (chunk == null) {
+                this.finished = true;
+                this.currentItems = Collections.<T>emptyList().iterator();
+            } else {
+                this.currentItems = chunk.iterator();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return this.currentItems.next();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stop fetching further chunks. A fetch already in progress runs to completion, but its result is discarded.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        synchronized (this.chunks) {
+            this.chunks.clear();
+        }
+    }
+
+    private void start() {
+        this.started = true;
+        this.chunkStartTime = System.nanoTime();
+        this.scheduleFetch();
+    }
+
+    /**
+     * Submit a task to fetch the next chunk, unless one is already being fetched, enough are waiting, or the
+     * executor has no free thread.
+     */
+    private void scheduleFetch() {
+        if (this.executor == null) { return; }
+        synchronized (this.chunks) {
+            if (this.fetching || this.exhausted || this.closed || (this.chunks.size() >= this.depth)) {
+                return;
+            }
+            try {
+                this.executor.execute(this.fetchTask);
+                this.fetching = true;
+            } catch (RejectedExecutionException e) {
+                QueryMetrics.increment("prefetch.rejected");
+            }
+        }
+    }
+
+    private void fetchInBackground() {
+        Object item;
+        try {
+            final List<T> chunk = this.timedFetchChunk();
+            item = (chunk != null) ? chunk : END;
+        } catch (Throwable e) {
+            // hand any failure to the consumer so that it is never left waiting
+            item = e;
+        }
+        synchronized (this.chunks) {
+            this.fetching = false;
+            this.exhausted = !(item instanceof List<?>);
+            if (!this.closed) {
+                this.chunks.add(item);
+            }
+            this.chunks.notifyAll();
+        }
+        this.scheduleFetch();
+    }
+
+    private List<T> takeChunk() {
+        final Object item;
+        synchronized (this.chunks) {
+            while (this.chunks.isEmpty() && this.fetching) {
+                try {
+                    this.chunks.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    this.close();
+                    throw new QueryException(e);
+                }
+            }
+            if (this.chunks.isEmpty()) {
+                // nothing is being fetched in the background, so fetch the chunk here rather than wait for a thread
+                this.fetching = true;
+                item = null;
+            } else {
+                item = this.chunks.remove();
+            }
+        }
+        if (item == null) {
+            return this.fetchOnCallerThread();
+        }
+        this.scheduleFetch();
+        if (item == END) {
+            return null;
+        } else if (item instanceof Throwable) {
+            this.finished = true;
+            if (item instanceof RuntimeException) {
+                throw (RuntimeException)item;
+            } else {
+                throw new QueryException((Throwable)item);
+            }
+        } else {
+            @SuppressWarnings("unchecked")
+            final List<T> chunk = (List<T>)item;
+            return chunk;
+        }
+    }
+
+    private List<T> fetchOnCallerThread() {
+        List<T> chunk = null;
+        try {
+            chunk = this.timedFetchChunk();
+        } finally {
+            synchronized (this.chunks) {
+                this.fetching = false;
+                this.exhausted = (chunk == null);
+            }
+        }
+        this.scheduleFetch();
+        return chunk;
+    }
+
+    private List<T> timedFetchChunk() {
+        final long start = System.nanoTime();
+        try {
+            return this.fetchChunk();
+        } finally {
+            QueryMetrics.increment("prefetch.chunks");
+            QueryMetrics.add("prefetch.fetch_millis", millis(System.nanoTime() - start));
+        }
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+}
@@ -1,6 +1,7 @@
 package org.phenoscape.obd.query;
 
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
@@ -40,6 +41,9 @@ public class PublicationsQueryBuilder extends QueryBuilder {
             }
         }
         if (!this.totalOnly) {
+            if (this.config.getSeekAfter() != null) {
+                index = this.config.getSeekAfter().fillStatement(statement, index);
+            }
             statement.setInt(index++, this.config.getLimit());
             statement.setInt(index++, this.config.getIndex());
         }
@@ -64,11 +68,23 @@ public class PublicationsQueryBuilder extends QueryBuilder {
         if (this.totalOnly) {
             query = "SELECT count(*) FROM (" + baseQuery + ") AS query";
         } else {
-            query = baseQuery + "ORDER BY " + "label" + " " + this.getSortText() + "LIMIT ? OFFSET ? " ;
+            query = "SELECT *" + getTotalCountColumn(this.config) + " FROM (" + baseQuery + ") AS query " + this.getSeekText("label", "node_id") + "ORDER BY " + "label" + " " + this.getSortText() + ", node_id " + this.getSortText() + "LIMIT ? OFFSET ? " ;
         }
         return query;
     }
     
+    /**
+     * The sort position of the current row of this query's results.
+     */
+    public SeekKey getSeekKey(ResultSet result) throws SQLException {
+        return new SeekKey(result.getString("label"), result.getString("node_id"));
+    }
+
+    private String getSeekText(String sortColumn, String idColumn) {
+        final SeekKey seekAfter = this.config.getSeekAfter();
+        return (seekAfter != null) ? "WHERE " + seekAfter.getSQLCondition(sortColumn, idColumn, this.config.sortDescending()) : "";
+    }
+
     private String getSortText() {
         return this.config.sortDescending() ? "DESC " : ""; 
     }
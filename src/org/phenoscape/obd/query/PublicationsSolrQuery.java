@@ -14,6 +14,7 @@ import org.apache.solr.client.solrj.SolrQuery.ORDER;
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocumentList;
 import org.phenoscape.obd.model.PhenotypeSpec;
 import org.phenoscape.obd.query.AnnotationsQueryConfig.SORT_COLUMN;
 
@@ -33,10 +34,15 @@ public class PublicationsSolrQuery {
 
     public QueryResponse executeQuery() throws SolrServerException {
         final SolrQuery query = new SolrQuery();
-        query.setQuery(this.getMainQuery());
+        SolrFilters.apply(query, this.getFilters());
         query.setRows(this.config.getLimit());
         query.setStart(this.config.getIndex());
-        query.setSortField(COLUMNS.get(this.config.getSortColumn()), (this.config.sortDescending() ? ORDER.desc : ORDER.asc));
+        final ORDER order = this.config.sortDescending() ? ORDER.desc : ORDER.asc;
+        query.setSortField(this.getSortField(), order);
+        query.addSortField("id", order);
+        if (this.config.getSeekAfter() != null) {
+            query.addFilterQuery(SolrFilters.uncached(this.config.getSeekAfter().getSolrFilter(this.getSortField(), "id", this.config.sortDescending())));
+        }
         if (!this.config.getPhenotypes().isEmpty()) {
             this.addPhenotypeFilter(query);
         }
@@ -45,16 +51,25 @@ public class PublicationsSolrQuery {
         return this.solr.query(query);
     }
 
-    private String getMainQuery() {
-        final StringBuffer query = new StringBuffer();
-        query.append("type:\"publication\"");
+    /**
+     * The sort position of the last document in the given results, to be used as the 
+     * seek key for the following page.
+     */
+    public SeekKey getLastKey(SolrDocumentList results) {
+        return SeekKey.lastKey(results, this.getSortField(), "id");
+    }
+
+    private String getSortField() {
+        return COLUMNS.get(this.config.getSortColumn());
+    }
+
+    private List<String> getFilters() {
+        final List<String> filters = new ArrayList<String>();
+        filters.add(SolrFilters.term("type", "publication"));
         if (!this.config.getTaxonIDs().isEmpty()) {
-            query.append(" AND taxon:");
-            query.append("(");
-            query.append(StringUtils.join(CollectionUtils.collect(this.config.getTaxonIDs(), quoter), (this.config.matchAllTaxa() ? " AND " : " OR ")));
-            query.append(")");
+            filters.add(SolrFilters.terms("taxon", this.config.getTaxonIDs(), this.config.matchAllTaxa()));
         }
-        return query.toString();
+        return filters;
     }
 
     private void addPhenotypeFilter(SolrQuery query) {
@@ -96,16 +111,6 @@ public class PublicationsSolrQuery {
 
     };
 
-
-    private static Transformer quoter = new Transformer() {
-
-        @Override
-        public Object transform(Object taxonID) {
-            return String.format("\"%s\"", taxonID);
-        }
-
-    };
-
     private Logger log() {
         return Logger.getLogger(this.getClass());
     }
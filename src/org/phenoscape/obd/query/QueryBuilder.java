@@ -3,6 +3,12 @@ package org.phenoscape.obd.query;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import org.phenoscape.obd.model.DefaultTerm;
 
 /**
  * Represents an SQL query to be executed.  Subclasses can be created to provide an API 
@@ -12,6 +18,27 @@ public abstract class QueryBuilder {
     
     public static final String NODE = "(SELECT node.node_id FROM node WHERE node.uid=?)";
     public static final String NODE_S = "(SELECT node.node_id FROM node WHERE node.uid='%s')";
+    /**
+     * Name of the column some listing queries add to each row of a limited page, holding the number of rows 
+     * in the whole result before LIMIT and OFFSET are applied.
+     */
+    public static final String TOTAL_COUNT = "total_count";
+
+    /**
+     * Whether a listing query with the given configuration has the TOTAL_COUNT column. An unlimited query is 
+     * streamed by cursor, and a query seeking after a key fetches a following chunk of an export whose total is 
+     * already known; in either case a window count would make the database compute every remaining row first.
+     */
+    public static boolean hasTotalCount(AnnotationsQueryConfig config) {
+        return (config.getLimit() != -1) && (config.getSeekAfter() == null);
+    }
+
+    /**
+     * The select list entry adding the TOTAL_COUNT column, if the given configuration has one.
+     */
+    protected static String getTotalCountColumn(AnnotationsQueryConfig config) {
+        return hasTotalCount(config) ? ", count(*) OVER () AS " + TOTAL_COUNT : "";
+    }
 
     /**
      * Return the SQL query string, which may contain wildcards (?).
@@ -33,6 +60,17 @@ public abstract class QueryBuilder {
         return statement;
     }
 
+    /**
+     * Returns a PreparedStatement ready to be executed, with any parameter values 
+     * already set, reusing a statement from the given cache when one has already been prepared 
+     * for this query's SQL. The statement must be handed back to the cache rather than closed.
+     */
+    public final PreparedStatement prepareStatement(Connection connection, StatementCache cache) throws SQLException {
+        final PreparedStatement statement = cache.checkout(connection, this.getQuery());
+        this.fillStatement(statement);
+        return statement;
+    }
+
     protected String createPlaceholdersList(int count) {
         final StringBuffer buffer = new StringBuffer();
         buffer.append("(");
@@ -44,6 +82,36 @@ public abstract class QueryBuilder {
         return buffer.toString();
     }
     
+    /**
+     * Format the given values as a PostgreSQL array literal, e.g. {"a","b"}, to be bound as a single 
+     * parameter and cast to an array type, e.g. "uid = ANY(CAST(? AS TEXT[]))". The SQL then stays the 
+     * same however many values there are.
+     */
+    protected String createArrayLiteral(Collection<?> values) {
+        final StringBuffer buffer = new StringBuffer();
+        buffer.append("{");
+        final Iterator<?> iterator = values.iterator();
+        while (iterator.hasNext()) {
+            buffer.append("\"");
+            buffer.append(iterator.next().toString().replace("\\", "\\\\").replace("\"", "\\\""));
+            buffer.append("\"");
+            if (iterator.hasNext()) { buffer.append(","); }
+        }
+        buffer.append("}");
+        return buffer.toString();
+    }
+
+    /**
+     * Format the node IDs of the given terms as a PostgreSQL integer array literal, e.g. {"1","2"}.
+     */
+    protected String createNodeIDsArrayLiteral(Collection<? extends DefaultTerm> terms) {
+        final List<Integer> nodeIDs = new ArrayList<Integer>();
+        for (DefaultTerm term : terms) {
+            nodeIDs.add(term.getNodeID());
+        }
+        return this.createArrayLiteral(nodeIDs);
+    }
+
     protected String node(String uid) {
         return String.format(NODE_S, uid);
     }
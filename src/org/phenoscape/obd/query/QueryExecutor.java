@@ -10,54 +10,79 @@ import javax.sql.DataSource;
 import org.apache.log4j.Logger;
 
 /**
- * QueryExecutor encapsulates proper closing of open SQL statements and connections 
+ * QueryExecutor encapsulates proper closing of open SQL statements and connections
  * after executing a query in which SQLExceptions may be thrown.
  * @param <T> The type of object returned when processing the query result.
  */
 public abstract class QueryExecutor<T> {
 
-    private final DataSource dataSource;
+    private final QuerySession session;
+    private final boolean ownsSession;
     private final QueryBuilder builder;
 
     /**
+     * Create an executor which checks out its own Connection for each execution.
      * @param dataSource The DataSource from which to obtain the database Connection.
      * @param builder The query to be executed.
      */
     public QueryExecutor(DataSource dataSource, QueryBuilder builder) {
-        this.dataSource = dataSource;
+        this.session = new QuerySession(dataSource);
+        this.ownsSession = true;
         this.builder = builder;
     }
 
     /**
-     * Must be overridden by subclasses to process the ResultSet returned 
+     * Create an executor which runs its query on the Connection held by the given session.
+     * @param session The QuerySession providing the database Connection.
+     * @param builder The query to be executed.
+     */
+    public QueryExecutor(QuerySession session, QueryBuilder builder) {
+        this.session = session;
+        this.ownsSession = false;
+        this.builder = builder;
+    }
+
+    /**
+     * Must be overridden by subclasses to process the ResultSet returned
      * by the SQL query. The ResultSet does not need to be closed - this is handled
      * by the QueryExecutor.executeQuery() implementation.
      */
     public abstract T processResult(ResultSet result) throws SQLException;
 
     /**
-     * Execute the SQL query and return the processed results. This method 
-     * will close any Connections and Statements it may open.
+     * Execute the SQL query and return the processed results. This method
+     * will close any Statements it may open, other than those kept in the session's 
+     * StatementCache, and any Connection it checks out which is not held by a QuerySession.
      */
     public final T executeQuery() throws SQLException {
         Connection connection = null;
         try {
-            connection = this.dataSource.getConnection();
+            connection = this.session.acquire();
+            final StatementCache cache = this.session.getStatementCache(connection);
             PreparedStatement statement = null;
             ResultSet result = null;
             try {
-                statement = builder.prepareStatement(connection);
+                statement = (cache != null) ? builder.prepareStatement(connection, cache) : builder.prepareStatement(connection);
                 log().debug("Query: " + statement.toString());
                 result = statement.executeQuery();
                 return this.processResult(result);
             } finally {
-                if (statement != null) { statement.close(); }
+                if (result != null) { result.close(); }
+                if (statement != null) {
+                    if (cache != null) {
+                        // cached statements stay open for reuse on this connection
+                        cache.checkin(statement);
+                    } else {
+                        statement.close();
+                    }
+                }
             }
         } finally {
-            if (connection != null) { connection.close(); }
-        } 
+            if (connection != null) { this.session.release(connection); }
+            if (this.ownsSession) { this.session.close(); }
+        }
     }
-    
+
     private Logger log() {
         return Logger.getLogger(this.getClass());
     }
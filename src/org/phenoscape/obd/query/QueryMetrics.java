@@ -0,0 +1,70 @@
+package org.phenoscape.obd.query;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide named counters and gauges describing the work done by the query layer,
+ * such as how many database connection checkouts or statement preparations were avoided.
+ * Values are kept for the lifetime of the web application and can be read all at once
+ * via snapshot().
+ */
+public class QueryMetrics {
+
+    private static final ConcurrentMap<String, AtomicLong> VALUES = new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * Add one to the named counter.
+     */
+    public static void increment(String name) {
+        add(name, 1);
+    }
+
+    /**
+     * Add the given amount to the named counter.
+     */
+    public static void add(String name, long delta) {
+        getValue(name).addAndGet(delta);
+    }
+
+    /**
+     * Replace the current value of the named gauge.
+     */
+    public static void set(String name, long value) {
+        getValue(name).set(value);
+    }
+
+    /**
+     * Current value of the named counter or gauge, or 0 if it has never been recorded.
+     */
+    public static long get(String name) {
+        final AtomicLong value = VALUES.get(name);
+        return (value != null) ? value.get() : 0;
+    }
+
+    /**
+     * A copy of all recorded values, sorted by name.
+     */
+    public static SortedMap<String, Long> snapshot() {
+        final SortedMap<String, Long> snapshot = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : VALUES.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+        return snapshot;
+    }
+
+    private static AtomicLong getValue(String name) {
+        final AtomicLong value = VALUES.get(name);
+        if (value != null) {
+            return value;
+        }
+        final AtomicLong newValue = new AtomicLong();
+        final AtomicLong existing = VALUES.putIfAbsent(name, newValue);
+        return (existing != null) ? existing : newValue;
+    }
+
+}
@@ -0,0 +1,134 @@
+package org.phenoscape.obd.query;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A QuerySession holds one database Connection for a unit of work, such as handling a single
+ * web service request, so that every QueryExecutor run through the session shares that Connection
+ * instead of checking out its own from the pool. The Connection is obtained lazily on first use and
+ * returned to the pool by close(). Queries run through a session after it has been closed (for example
+ * while a streamed representation is written out after its resource was released) fall back to
+ * checking out and returning a Connection per query, so a closed session never holds a Connection.
+ */
+public class QuerySession {
+
+    private final DataSource dataSource;
+    private Connection connection = null;
+    private StatementCache statementCache = null;
+    private boolean closed = false;
+    private int queryCount = 0;
+    private int checkoutCount = 0;
+
+    /**
+     * @param dataSource The DataSource from which to obtain the database Connection.
+     */
+    public QuerySession(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Obtain a Connection for running one query. Every Connection acquired must be
+     * handed back to release() once the query's Statement has been closed.
+     */
+    public synchronized Connection acquire() throws SQLException {
+        this.queryCount++;
+        QueryMetrics.increment("session.queries");
+        if (this.closed) {
+            return this.checkout();
+        }
+        if (this.connection == null) {
+            this.connection = this.checkout();
+        } else {
+            QueryMetrics.increment("session.checkouts_avoided");
+        }
+        return this.connection;
+    }
+
+    /**
+     * Hand back a Connection obtained from acquire(). The session's own Connection stays open
+     * until the session is closed; any other Connection is returned to the pool immediately.
+     */
+    public synchronized void release(Connection connection) throws SQLException {
+        if ((connection != null) && (connection != this.connection)) {
+            connection.close();
+        }
+    }
+
+    /**
+     * The cache of PreparedStatements for the given Connection, if it is this session's own Connection. 
+     * Returns null for Connections which are returned to the pool after a single query.
+     */
+    public synchronized StatementCache getStatementCache(Connection connection) {
+        if ((connection == null) || (connection != this.connection)) {
+            return null;
+        }
+        if (this.statementCache == null) {
+            this.statementCache = new StatementCache();
+        }
+        return this.statementCache;
+    }
+
+    /**
+     * Return this session's Connection to the pool, closing any cached statements.
+     */
+    public synchronized void close() throws SQLException {
+        if (this.closed) { return; }
+        this.closed = true;
+        log().debug(String.format("Query session closed: %d queries, %d connection checkouts, %d checkouts avoided", this.queryCount, this.checkoutCount, this.getCheckoutsAvoided()));
+        if (this.statementCache != null) {
+            this.statementCache.close();
+            this.statementCache = null;
+        }
+        if (this.connection != null) {
+            final Connection sessionConnection = this.connection;
+            this.connection = null;
+            sessionConnection.close();
+        }
+    }
+
+    /**
+     * The DataSource this session obtains Connections from.
+     */
+    public DataSource getDataSource() {
+        return this.dataSource;
+    }
+
+    /**
+     * The number of queries run through this session.
+     */
+    public synchronized int getQueryCount() {
+        return this.queryCount;
+    }
+
+    /**
+     * The number of Connections this session has checked out of the pool.
+     */
+    public synchronized int getCheckoutCount() {
+        return this.checkoutCount;
+    }
+
+    /**
+     * The number of queries which reused the session's Connection rather than
+     * checking out their own.
+     */
+    public synchronized int getCheckoutsAvoided() {
+        return this.queryCount - this.checkoutCount;
+    }
+
+    private Connection checkout() throws SQLException {
+        final Connection newConnection = this.dataSource.getConnection();
+        this.checkoutCount++;
+        QueryMetrics.increment("session.checkouts");
+        return newConnection;
+    }
+
+    private Logger log() {
+        return Logger.getLogger(this.getClass());
+    }
+
+}
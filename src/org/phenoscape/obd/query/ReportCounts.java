@@ -0,0 +1,368 @@
+package org.phenoscape.obd.query;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.phenoscape.obd.model.Vocab.CDAO;
+
+/**
+ * Materialized counts for the report resources. Each count is keyed by the report and the filter key of its query
+ * configuration, so requests differing only in the order of their IDs, or in paging and sorting, share an entry.
+ * Computed counts are cached until the next Knowledgebase load. A count which is already being computed for
+ * another request is waited for rather than computed again, and the database counts needed by one request are
+ * evaluated together in a single statement. When a Knowledgebase is loaded, the unfiltered count for every report
+ * is computed in one such pass, so that the report pages are served without querying.
+ *
+ * Hits, misses, joins of in-flight counts and load times are counted in QueryMetrics under report_counts.*.
+ */
+public class ReportCounts implements KBRefreshListener {
+
+    /**
+     * The counts shown by the report resources.
+     */
+    public static enum COUNT {
+
+        ANNOTATED_TAXA {
+            @Override
+            QueryBuilder createQuery(AnnotationsQueryConfig config) {
+                return new AnnotatedTaxaQueryBuilder(config, true);
+            }
+        },
+        ANNOTATED_GENES {
+            @Override
+            QueryBuilder createQuery(AnnotationsQueryConfig config) {
+                return new AnnotatedGenesQueryBuilder(config, true);
+            }
+        },
+        ANNOTATED_PUBLICATIONS {
+            @Override
+            QueryBuilder createQuery(AnnotationsQueryConfig config) {
+                return new PublicationsQueryBuilder(config, true);
+            }
+        },
+        ANNOTATED_CHARACTERS {
+            @Override
+            QueryBuilder createQuery(AnnotationsQueryConfig config) {
+                return new CharactersQueryBuilder(config, true);
+            }
+        },
+        ANNOTATED_CHARACTER_STATES {
+            @Override
+            QueryBuilder createQuery(AnnotationsQueryConfig config) {
+                return new CharacterStatesQueryBuilder(config, true);
+            }
+        },
+        GENE_ANNOTATIONS {
+            @Override
+            QueryBuilder createQuery(AnnotationsQueryConfig config) {
+                return new GeneAnnotationsQueryBuilder(config, true);
+            }
+        },
+        GENOTYPE_ANNOTATIONS {
+            @Override
+            QueryBuilder createQuery(AnnotationsQueryConfig config) {
+                return new GenotypeAnnotationsQueryBuilder(config, true);
+            }
+        },
+        CURATED_TAXON_ANNOTATIONS {
+            @Override
+            QueryBuilder createQuery(AnnotationsQueryConfig config) {
+                return new CuratedTaxonomicAnnotationsQueryBuilder(config, true);
+            }
+        },
+        DISTINCT_TAXON_ANNOTATIONS {
+            @Override
+            QueryBuilder createQuery(AnnotationsQueryConfig config) {
+                return null;
+            }
+        },
+        DISTINCT_GENE_PHENOTYPES {
+            @Override
+            QueryBuilder createQuery(AnnotationsQueryConfig config) {
+                return new DistinctGenePhenotypesQueryBuilder(config, true);
+            }
+        },
+        DISTINCT_TAXON_PHENOTYPES {
+            @Override
+            QueryBuilder createQuery(AnnotationsQueryConfig config) {
+                return new DistinctTaxonPhenotypesQueryBuilder(config, true);
+            }
+        },
+        ALL_CHARACTERS(false) {
+            @Override
+            QueryBuilder createQuery(AnnotationsQueryConfig config) {
+                return PhenoscapeDataStore.createInstanceCountQuery(CDAO.CHARACTER);
+            }
+        },
+        ALL_CHARACTER_STATES(false) {
+            @Override
+            QueryBuilder createQuery(AnnotationsQueryConfig config) {
+                return PhenoscapeDataStore.createInstanceCountQuery(CDAO.CHARACTER_STATE);
+            }
+        },
+        ALL_OTUS(false) {
+            @Override
+            QueryBuilder createQuery(AnnotationsQueryConfig config) {
+                return PhenoscapeDataStore.createInstanceCountQuery(CDAO.OTU);
+            }
+        },
+        ALL_CURATED_PHENOTYPES(false) {
+            @Override
+            QueryBuilder createQuery(AnnotationsQueryConfig config) {
+                return PhenoscapeDataStore.createCuratedPhenotypesCountQuery();
+            }
+        };
+
+        private final boolean filtered;
+
+        private COUNT() {
+            this(true);
+        }
+
+        private COUNT(boolean filtered) {
+            this.filtered = filtered;
+        }
+
+        /**
+         * The database query for this count, or null if it is counted by Solr.
+         */
+        abstract QueryBuilder createQuery(AnnotationsQueryConfig config);
+
+        /**
+         * Whether this count depends on the query configuration at all.
+         */
+        public boolean isFiltered() {
+            return this.filtered;
+        }
+
+        /**
+         * Compute this count directly, without consulting any cache.
+         */
+        public long count(PhenoscapeDataStore dataStore, AnnotationsQueryConfig config) throws SQLException, SolrServerException {
+            final QueryBuilder query = this.createQuery(config);
+            if (query == null) {
+                return dataStore.getCountOfDistinctTaxonomicAnnotations(config);
+            }
+            return dataStore.getCounts(Collections.singletonList(query))[0];
+        }
+
+    }
+
+    private final DataSource dataSource;
+    private final SolrServer solr;
+    private final KBCache<String, Long> counts;
+    private final ConcurrentMap<String, PendingCount> inFlight = new ConcurrentHashMap<String, PendingCount>();
+    /**
+     * Incremented at each Knowledgebase load, so that counts begun against the previous Knowledgebase are not cached.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * @param maximumSize The number of filtered counts to keep, beyond which the least recently used are dropped.
+     */
+    public ReportCounts(DataSource dataSource, SolrServer solr, int maximumSize) {
+        this.dataSource = dataSource;
+        this.solr = solr;
+        this.counts = new KBCache<String, Long>("report_counts", maximumSize);
+    }
+
+    /**
+     * The given count for the results selected by the given configuration.
+     */
+    public long getCount(PhenoscapeDataStore dataStore, COUNT count, AnnotationsQueryConfig config) throws SQLException, SolrServerException {
+        return this.getCounts(dataStore, count, Collections.singletonList(config))[0];
+    }
+
+    /**
+     * The given count for each of the given configurations, in order. Those not already cached or being computed
+     * are evaluated together.
+     */
+    public long[] getCounts(PhenoscapeDataStore dataStore, COUNT count, List<AnnotationsQueryConfig> configs) throws SQLException, SolrServerException {
+        final List<COUNT> requestCounts = new ArrayList<COUNT>();
+        for (int i = 0; i < configs.size(); i++) {
+            requestCounts.add(count);
+        }
+        return this.evaluate(dataStore, requestCounts, configs);
+    }
+
+    @Override
+    public void knowledgebaseLoaded(Date loadDate) throws SQLException, SolrServerException {
+        this.generation.incrementAndGet();
+        this.counts.clear();
+        this.inFlight.clear();
+        final long start = System.currentTimeMillis();
+        final List<COUNT> allCounts = new ArrayList<COUNT>();
+        final List<AnnotationsQueryConfig> configs = new ArrayList<AnnotationsQueryConfig>();
+        for (COUNT count : COUNT.values()) {
+            allCounts.add(count);
+            configs.add(new AnnotationsQueryConfig());
+        }
+        final PhenoscapeDataStore dataStore = new PhenoscapeDataStore(this.dataSource, this.solr);
+        try {
+            this.evaluate(dataStore, allCounts, configs);
+        } finally {
+            dataStore.close();
+        }
+        final long millis = System.currentTimeMillis() - start;
+        QueryMetrics.set("report_counts.load_millis", millis);
+        log().info(String.format("Computed report counts for Knowledgebase of %s in %d ms", loadDate, millis));
+    }
+
+    private long[] evaluate(PhenoscapeDataStore dataStore, List<COUNT> requestCounts, List<AnnotationsQueryConfig> configs) throws SQLException, SolrServerException {
+        final long startGeneration = this.generation.get();
+        final long[] results = new long[requestCounts.size()];
+        final PendingCount[] waits = new PendingCount[results.length];
+        final List<Integer> owned = new ArrayList<Integer>();
+        final List<String> keys = new ArrayList<String>();
+        for (int i = 0; i < results.length; i++) {
+            final String key = createKey(requestCounts.get(i), configs.get(i));
+            keys.add(key);
+            final Long cached = this.counts.get(key);
+            if (cached != null) {
+                results[i] = cached;
+                continue;
+            }
+            final PendingCount pending = new PendingCount();
+            final PendingCount existing = this.inFlight.putIfAbsent(key, pending);
+            if (existing != null) {
+                QueryMetrics.increment("report_counts.joins");
+                waits[i] = existing;
+            } else {
+                waits[i] = pending;
+                owned.add(i);
+            }
+        }
+        if (!owned.isEmpty()) {
+            this.compute(dataStore, requestCounts, configs, keys, waits, owned, startGeneration);
+        }
+        for (int i = 0; i < results.length; i++) {
+            if (waits[i] != null) {
+                results[i] = waits[i].await();
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Compute the counts this request is responsible for, the database counts in a single statement, and hand
+     * the results to any other requests waiting for them.
+     */
+    private void compute(PhenoscapeDataStore dataStore, List<COUNT> requestCounts, List<AnnotationsQueryConfig> configs, List<String> keys, PendingCount[] waits, List<Integer> owned, long startGeneration) throws SQLException, SolrServerException {
+        final List<Integer> combined = new ArrayList<Integer>();
+        final List<QueryBuilder> queries = new ArrayList<QueryBuilder>();
+        final long start = System.currentTimeMillis();
+        Exception failure = null;
+        try {
+            for (Integer i : owned) {
+                final QueryBuilder query = requestCounts.get(i).createQuery(configs.get(i));
+                if (query != null) {
+                    combined.add(i);
+                    queries.add(query);
+                } else {
+                    this.complete(keys.get(i), waits[i], requestCounts.get(i).count(dataStore, configs.get(i)), startGeneration);
+                }
+            }
+            if (!queries.isEmpty()) {
+                final long[] values = dataStore.getCounts(queries);
+                for (int j = 0; j < values.length; j++) {
+                    final int i = combined.get(j);
+                    this.complete(keys.get(i), waits[i], values[j], startGeneration);
+                }
+            }
+            QueryMetrics.add("report_counts.computed", owned.size());
+            QueryMetrics.add("report_counts.compute_millis", System.currentTimeMillis() - start);
+        } catch (SQLException e) {
+            failure = e;
+            throw e;
+        } catch (SolrServerException e) {
+            failure = e;
+            throw e;
+        } catch (RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            // never leave another request waiting for a count which will not arrive
+            this.fail(keys, waits, owned, (failure != null) ? failure : new QueryException("Report count was not computed"));
+        }
+    }
+
+    private void complete(String key, PendingCount pending, long value, long startGeneration) {
+        if (this.generation.get() == startGeneration) {
+            this.counts.put(key, value);
+        }
+        pending.complete(value);
+        this.inFlight.remove(key, pending);
+    }
+
+    private void fail(List<String> keys, PendingCount[] waits, List<Integer> owned, Exception cause) {
+        for (Integer i : owned) {
+            if (!waits[i].isDone()) {
+                waits[i].fail(cause);
+                this.inFlight.remove(keys.get(i), waits[i]);
+            }
+        }
+    }
+
+    private static String createKey(COUNT count, AnnotationsQueryConfig config) {
+        return count.isFiltered() ? (count.name() + "|" + config.getFilterKey()) : count.name();
+    }
+
+    /**
+     * A count being computed by one request, which others may wait for.
+     */
+    private static class PendingCount {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile long value;
+        private volatile Exception failure = null;
+
+        public void complete(long countValue) {
+            this.value = countValue;
+            this.done.countDown();
+        }
+
+        public void fail(Exception cause) {
+            this.failure = cause;
+            this.done.countDown();
+        }
+
+        public boolean isDone() {
+            return this.done.getCount() == 0;
+        }
+
+        public long await() throws SQLException, SolrServerException {
+            try {
+                this.done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new QueryException(e);
+            }
+            if (this.failure instanceof SQLException) {
+                throw (SQLException)(this.failure);
+            } else if (this.failure instanceof SolrServerException) {
+                throw (SolrServerException)(this.failure);
+            } else if (this.failure instanceof RuntimeException) {
+                throw (RuntimeException)(this.failure);
+            }
+            return this.value;
+        }
+
+    }
+
+    private Logger log() {
+        return Logger.getLogger(this.getClass());
+    }
+
+}
@@ -15,6 +15,7 @@ public class SearchConfig {
     private boolean searchNames = true;
     private boolean searchSynonyms = false;
     private int limit = 0;
+    private boolean matchSimilar = false;
     
     /**
      * Create a search config using the provided input text.
@@ -94,4 +95,20 @@ public class SearchConfig {
         this.limit = limit;
     }
 
+    /**
+     * Returns whether terms with names or synonyms similar to, but not containing, the input text are suggested 
+     * when there are too few matches.
+     */
+    public boolean matchSimilar() {
+        return this.matchSimilar;
+    }
+
+    /**
+     * Set whether terms with names or synonyms similar to, but not containing, the input text are suggested 
+     * when there are too few matches.
+     */
+    public void setMatchSimilar(boolean matchSimilar) {
+        this.matchSimilar = matchSimilar;
+    }
+
 }
@@ -21,7 +21,11 @@ public class SearchHit {
         /**
          * The input matched a synonym of the term.
          */
-        SYNONYM
+        SYNONYM,
+        /**
+         * The input did not match, but is similar to, the term's name or one of its synonyms.
+         */
+        SIMILAR
     }
     private final String matchText;
     private final MatchType type;
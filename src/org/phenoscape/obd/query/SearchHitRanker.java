@@ -0,0 +1,184 @@
+package org.phenoscape.obd.query;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.eekboom.utils.Strings;
+
+/**
+ * Ranks autocomplete hits: those whose match text starts with the search text come first, then the rest, each group
+ * in natural order of match text, so that "fin ray 2" precedes "fin ray 10". When there is a limit, only the best
+ * <code>limit</code> hits are kept, in a heap whose root is the worst hit kept, so ranking many matches for a short
+ * search text costs little more than looking at each once.
+ *
+ * The lowercase match text and a natural-order key of collation keys and digit runs are computed once per hit,
+ * rather than on every comparison. The natural-order key of a hit is only computed if the hit might be kept. Keys
+ * order hits as Strings.compareNatural orders their match text; the few pairs the keys can't settle, where only
+ * one match text starts with a digit or the keys are equal, are compared with Strings.compareNatural itself.
+ */
+class SearchHitRanker {
+
+    private final String searchText;
+    private final int limit;
+    private final Collator collator = Collator.getInstance();
+    private final PriorityQueue<RankedHit> bestHits;
+    private final List<RankedHit> allHits;
+    private int prefixCount = 0;
+
+    /**
+     * @param searchText The text searched for.
+     * @param limit The number of hits to keep. A limit less than 1 keeps every hit.
+     */
+    public SearchHitRanker(String searchText, int limit) {
+        this.searchText = searchText.toLowerCase();
+        this.limit = limit;
+        if (limit > 0) {
+            this.bestHits = new PriorityQueue<RankedHit>(limit, Collections.reverseOrder(this.rank));
+            this.allHits = null;
+        } else {
+            this.bestHits = null;
+            this.allHits = new ArrayList<RankedHit>();
+        }
+    }
+
+    /**
+     * Consider the given hits, skipping any whose match text starts with the search text if
+     * <code>skipPrefixMatches</code> is true, as when they have already been added.
+     */
+    public void addAll(Collection<SearchHit> hits, boolean skipPrefixMatches) {
+        for (SearchHit hit : hits) {
+            final boolean isPrefix = hit.getMatchText().toLowerCase().startsWith(this.searchText);
+            if (!(isPrefix && skipPrefixMatches)) {
+                this.add(hit, isPrefix);
+            }
+        }
+    }
+
+    /**
+     * Whether enough hits starting with the search text have been found to fill the limit, so that no other hit
+     * could be among the best.
+     */
+    public boolean isFilledByPrefixMatches() {
+        return (this.limit > 0) && (this.prefixCount >= this.limit);
+    }
+
+    /**
+     * The hits kept, best first.
+     */
+    public List<SearchHit> getRankedHits() {
+        final List<RankedHit> ranked = new ArrayList<RankedHit>((this.bestHits != null) ? this.bestHits : this.allHits);
+        Collections.sort(ranked, this.rank);
+        final List<SearchHit> hits = new ArrayList<SearchHit>(ranked.size());
+        for (RankedHit rankedHit : ranked) {
+            hits.add(rankedHit.hit);
+        }
+        return hits;
+    }
+
+    private void add(SearchHit hit, boolean isPrefix) {
+        if (isPrefix) {
+            this.prefixCount++;
+        }
+        if (this.bestHits == null) {
+            this.allHits.add(new RankedHit(hit, isPrefix, this.createKey(hit.getMatchText())));
+        } else if (this.bestHits.size() < this.limit) {
+            this.bestHits.add(new RankedHit(hit, isPrefix, this.createKey(hit.getMatchText())));
+        } else {
+            final RankedHit worst = this.bestHits.peek();
+            if (worst.isPrefix && !isPrefix) {
+                // cannot displace any hit kept
+                return;
+            }
+            final RankedHit candidate = new RankedHit(hit, isPrefix, this.createKey(hit.getMatchText()));
+            if (this.rank.compare(candidate, worst) < 0) {
+                this.bestHits.poll();
+                this.bestHits.add(candidate);
+            }
+        }
+    }
+
+    /**
+     * Split the text into runs of digits, compared by numeric value, and runs of other characters, compared by
+     * the collator, in the manner of Strings.compareNatural.
+     */
+    private Object[] createKey(String text) {
+        final List<Object> parts = new ArrayList<Object>();
+        int start = 0;
+        while (start < text.length()) {
+            final boolean digits = Character.isDigit(text.charAt(start));
+            int end = start + 1;
+            while ((end < text.length()) && (Character.isDigit(text.charAt(end)) == digits)) {
+                end++;
+            }
+            final String part = text.substring(start, end);
+            if (digits) {
+                int firstNonZero = 0;
+                while ((firstNonZero < part.length()) && (part.charAt(firstNonZero) == '0')) {
+                    firstNonZero++;
+                }
+                parts.add(part.substring(firstNonZero));
+            } else {
+                parts.add(this.collator.getCollationKey(part));
+            }
+            start = end;
+        }
+        return parts.toArray();
+    }
+
+    private int compareKeys(RankedHit aHit, RankedHit bHit) {
+        final Object[] a = aHit.key;
+        final Object[] b = bHit.key;
+        for (int i = 0; (i < a.length) && (i < b.length); i++) {
+            final int result;
+            if ((a[i] instanceof String) && (b[i] instanceof String)) {
+                final String aNumber = (String)(a[i]);
+                final String bNumber = (String)(b[i]);
+                result = (aNumber.length() != bNumber.length()) ? (aNumber.length() - bNumber.length()) : aNumber.compareTo(bNumber);
+            } else if ((a[i] instanceof CollationKey) && (b[i] instanceof CollationKey)) {
+                result = ((CollationKey)(a[i])).compareTo((CollationKey)(b[i]));
+            } else {
+                // compareNatural collates a digit run against a word along with the text around it
+                return Strings.compareNatural(this.collator, aHit.hit.getMatchText(), bHit.hit.getMatchText());
+            }
+            if (result != 0) {
+                return result;
+            }
+        }
+        if ((a.length == b.length) && !aHit.hit.getMatchText().equals(bHit.hit.getMatchText())) {
+            // equal keys may differ in leading zeros, which compareNatural uses to break some ties
+            return Strings.compareNatural(this.collator, aHit.hit.getMatchText(), bHit.hit.getMatchText());
+        }
+        return a.length - b.length;
+    }
+
+    private final Comparator<RankedHit> rank = new Comparator<RankedHit>() {
+        @Override
+        public int compare(RankedHit a, RankedHit b) {
+            if (a.isPrefix != b.isPrefix) {
+                return a.isPrefix ? -1 : 1;
+            }
+            return compareKeys(a, b);
+        }
+    };
+
+    private static class RankedHit {
+
+        private final SearchHit hit;
+        private final boolean isPrefix;
+        private final Object[] key;
+
+        public RankedHit(SearchHit hit, boolean isPrefix, Object[] key) {
+            this.hit = hit;
+            this.isPrefix = isPrefix;
+            this.key = key;
+        }
+
+    }
+
+}
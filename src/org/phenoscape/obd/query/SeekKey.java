@@ -0,0 +1,135 @@
+package org.phenoscape.obd.query;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+
+/**
+ * The position of the last item of a page of sorted results: its value for the sort column plus a unique
+ * identifier used to break ties. A query given a SeekKey returns only the items which sort after it, so each
+ * following page can be found directly from the index instead of scanning and discarding all of the
+ * preceding rows as LIMIT/OFFSET (or Solr's start parameter) does. Results must be ordered by the sort
+ * column and then by the identifier, in the same direction.
+ * For SQL queries the identifier is the row's node_id; for Solr queries it is the document id. SQL rows with no
+ * single unique node_id may instead be identified by several node IDs together, compared in order.
+ */
+public class SeekKey {
+
+    private final String sortValue;
+    private final String id;
+    private final String[] ids;
+
+    /**
+     * @param sortValue The sort column value of the last item returned, which may be null.
+     * @param id The unique identifier of the last item returned.
+     */
+    public SeekKey(String sortValue, String id) {
+        this(sortValue, new String[] {id});
+    }
+
+    /**
+     * @param sortValue The sort column value of the last item returned, which may be null.
+     * @param ids The node IDs which together identify the last row returned, in the order the rows are sorted by.
+     */
+    public SeekKey(String sortValue, String[] ids) {
+        this.sortValue = sortValue;
+        this.id = ids[0];
+        this.ids = ids;
+    }
+
+    /**
+     * The key of the last document in the given Solr results, or null if there are no results.
+     */
+    public static SeekKey lastKey(SolrDocumentList results, String sortField, String idField) {
+        if (results.isEmpty()) {
+            return null;
+        }
+        final SolrDocument last = results.get(results.size() - 1);
+        final Object sortValue = last.getFirstValue(sortField);
+        return new SeekKey((sortValue != null) ? sortValue.toString() : null, last.getFirstValue(idField).toString());
+    }
+
+    public String getSortValue() {
+        return this.sortValue;
+    }
+
+    public String getID() {
+        return this.id;
+    }
+
+    /**
+     * An SQL condition selecting rows which sort after this key. PostgreSQL sorts nulls after all other
+     * values, so they come last in ascending order and first in descending order. The wildcards must
+     * be filled using fillStatement().
+     * @param sortColumn The expression the results are ordered by.
+     * @param idColumn The node_id column used to break ties, or a row of node_id columns, e.g. "(a, b)", if this
+     * key has several IDs.
+     * @param descending Whether the results are in descending order.
+     */
+    public String getSQLCondition(String sortColumn, String idColumn, boolean descending) {
+        final String after = descending ? "<" : ">";
+        final String idValue = (this.ids.length > 1) ? "(" + StringUtils.repeat("?", ", ", this.ids.length) + ")" : "?";
+        if (this.sortValue == null) {
+            if (descending) {
+                return String.format("(%s IS NOT NULL OR %s < %s) ", sortColumn, idColumn, idValue);
+            } else {
+                return String.format("(%s IS NULL AND %s > %s) ", sortColumn, idColumn, idValue);
+            }
+        }
+        final String nulls = descending ? "" : String.format(" OR %s IS NULL", sortColumn);
+        return String.format("(%s %s ? OR (%s = ? AND %s %s %s)%s) ", sortColumn, after, sortColumn, idColumn, after, idValue, nulls);
+    }
+
+    /**
+     * Set the wildcard values for the condition returned by getSQLCondition(), starting at the given
+     * parameter index.
+     * @return The index of the next parameter after those filled.
+     */
+    public int fillStatement(PreparedStatement statement, int index) throws SQLException {
+        if (this.sortValue != null) {
+            statement.setString(index++, this.sortValue);
+            statement.setString(index++, this.sortValue);
+        }
+        for (String nodeID : this.ids) {
+            statement.setInt(index++, Integer.parseInt(nodeID));
+        }
+        return index;
+    }
+
+    /**
+     * A Solr filter query selecting documents which sort after this key. This assumes that documents
+     * missing the sort field sort last in either direction, as for fields declared sortMissingLast.
+     * @param sortField The field the results are sorted by.
+     * @param idField The unique key field used to break ties.
+     * @param descending Whether the results are in descending order.
+     */
+    public String getSolrFilter(String sortField, String idField, boolean descending) {
+        final String idAfter = String.format("%s:%s", idField, range(this.id, descending));
+        final String missing = String.format("(*:* -%s:[* TO *])", sortField);
+        if (this.sortValue == null) {
+            return String.format("%s AND %s", missing, idAfter);
+        }
+        return String.format("%s:%s OR (%s:%s AND %s) OR %s", sortField, range(this.sortValue, descending), sortField, quote(this.sortValue), idAfter, missing);
+    }
+
+    private static String range(String value, boolean descending) {
+        if (descending) {
+            return String.format("[* TO %s}", quote(value));
+        } else {
+            return String.format("{%s TO *]", quote(value));
+        }
+    }
+
+    private static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    @Override
+    public String toString() {
+        return "SeekKey(" + this.sortValue + ", " + this.id + ")";
+    }
+
+}
@@ -0,0 +1,64 @@
+package org.phenoscape.obd.query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.solr.client.solrj.SolrQuery;
+
+/**
+ * Helpers for expressing query constraints as separate Solr filter queries. Solr caches the document set
+ * matched by each filter query on its own, so a constraint shared by many requests, such as a document type or
+ * a facet term, is only computed once, whereas constraints joined into the main query are recomputed with every
+ * combination. Filters do not affect ordering, since all queries here sort by field rather than by score.
+ */
+class SolrFilters {
+
+    /**
+     * The main query used when all constraints are given as filter queries.
+     */
+    static final String ALL_DOCUMENTS = "*:*";
+
+    private SolrFilters() {}
+
+    /**
+     * Match the whole index and restrict it by each of the given filters.
+     */
+    static void apply(SolrQuery query, Collection<String> filters) {
+        query.setQuery(ALL_DOCUMENTS);
+        for (String filter : filters) {
+            query.addFilterQuery(filter);
+        }
+    }
+
+    /**
+     * A filter matching documents with the given value in the given field.
+     */
+    static String term(String field, String value) {
+        return String.format("%s:%s", field, quote(value));
+    }
+
+    /**
+     * A filter matching documents with any, or all, of the given values in the given field.
+     */
+    static String terms(String field, Collection<String> values, boolean matchAll) {
+        final List<String> quoted = new ArrayList<String>();
+        for (String value : values) {
+            quoted.add(quote(value));
+        }
+        return String.format("%s:(%s)", field, StringUtils.join(quoted, matchAll ? " AND " : " OR "));
+    }
+
+    /**
+     * Mark the given filter as not worth caching, for a filter unlikely to be repeated, such as a paging bound.
+     */
+    static String uncached(String filter) {
+        return "{!cache=false}" + filter;
+    }
+
+    private static String quote(String value) {
+        return "\"" + value + "\"";
+    }
+
+}
@@ -0,0 +1,186 @@
+package org.phenoscape.obd.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.StreamingResponseCallback;
+import org.apache.solr.common.SolrDocument;
+
+/**
+ * An Iterator over the results of a Solr query which are handed over document by document as the response is
+ * parsed, using SolrJ's streaming callback, rather than once the whole response has been read into a
+ * SolrDocumentList. The response is read on a background thread and passed to the consumer in batches of
+ * <code>batchSize</code> documents, which subclasses translate into result items on the consumer's thread. At
+ * most <code>depth</code> batches wait for the consumer; beyond that the background thread stops reading the
+ * response until the consumer catches up, so a large result never has to fit in memory.
+ * @param <T> The type of item returned.
+ */
+public abstract class SolrStreamingIterator<T> implements CloseableIterator<T> {
+
+    public static final int DEFAULT_BATCH_SIZE = Integer.getInteger("org.phenoscape.obd.solr-stream-batch-size", 100);
+    private static final Object END = new Object();
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+    private final SolrServer solr;
+    private final SolrQuery query;
+    private final int batchSize;
+    private final BlockingQueue<Object> batches;
+    private Iterator<T> currentItems = Collections.<T>emptyList().iterator();
+    private boolean finished = false;
+    private volatile boolean closed = false;
+
+    /**
+     * Start reading the response on the given executor.
+     * @throws java.util.concurrent.RejectedExecutionException If the executor has no room for the query, in which
+     * case the caller should fall back to retrieving the results another way.
+     */
+    public SolrStreamingIterator(SolrServer solr, SolrQuery query, ExecutorService executor, int batchSize, int depth) {
+        this.solr = solr;
+        this.query = query;
+        this.batchSize = batchSize;
+        this.batches = new ArrayBlockingQueue<Object>(Math.max(depth, 1));
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                produceBatches();
+            }
+        });
+        QueryMetrics.increment("solr_stream.queries");
+    }
+
+    /**
+     * Must be overridden by subclasses to turn a batch of documents into result items. Called on the consumer's
+     * thread, so that any further database lookups share the consumer's connection.
+     */
+    protected abstract List<T> translate(List<SolrDocument> documents);
+
+    @Override
+    public boolean hasNext() {
+        while (!this.currentItems.hasNext()) {
+            if (this.finished || this.closed) {
+                return false;
+            }
+            final List<SolrDocument> batch = this.takeBatch();
+            if (batch == null) {
+                this.finished = true;
+            } else {
+                this.currentItems = this.translate(batch).iterator();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return this.currentItems.next();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stop reading the response. The background thread abandons the response at the next document.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        this.batches.clear();
+    }
+
+    private List<SolrDocument> takeBatch() {
+        final Object item;
+        final long start = System.nanoTime();
+        try {
+            item = this.batches.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.close();
+            throw new QueryException(e);
+        } finally {
+            QueryMetrics.add("solr_stream.wait_millis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+        if (item == END) {
+            return null;
+        } else if (item instanceof Throwable) {
+            this.finished = true;
+            throw new QueryException((Throwable)item);
+        } else {
+            @SuppressWarnings("unchecked")
+            final List<SolrDocument> batch = (List<SolrDocument>)item;
+            return batch;
+        }
+    }
+
+    private void produceBatches() {
+        final StreamingCallback callback = new StreamingCallback();
+        try {
+            this.solr.queryAndStreamResponse(this.query, callback);
+            if (!callback.batch.isEmpty()) {
+                this.put(callback.batch);
+            }
+            this.put(END);
+        } catch (StreamClosedException e) {
+            // the consumer has stopped reading
+        } catch (Throwable e) {
+            // hand any failure to the consumer so that it is never left waiting
+            this.put(e);
+        }
+    }
+
+    /**
+     * @return false if the consumer closed this iterator before the item could be handed over.
+     */
+    private boolean put(Object item) {
+        try {
+            while (!this.closed) {
+                if (this.batches.offer(item, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private class StreamingCallback extends StreamingResponseCallback {
+
+        private List<SolrDocument> batch = new ArrayList<SolrDocument>(batchSize);
+
+        @Override
+        public void streamSolrDocument(SolrDocument document) {
+            this.batch.add(document);
+            QueryMetrics.increment("solr_stream.documents");
+            if (this.batch.size() >= batchSize) {
+                if (!put(this.batch)) {
+                    throw new StreamClosedException();
+                }
+                this.batch = new ArrayList<SolrDocument>(batchSize);
+            }
+        }
+
+        @Override
+        public void streamDocListInfo(long numFound, long start, Float maxScore) {}
+
+    }
+
+    /**
+     * Thrown from the callback to stop SolrJ reading a response no one is consuming.
+     */
+    @SuppressWarnings("serial")
+    private static class StreamClosedException extends RuntimeException {}
+
+}
@@ -0,0 +1,191 @@
+package org.phenoscape.obd.query;
+
+import java.lang.reflect.InvocationTargetException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.postgresql.PGStatement;
+
+/**
+ * A bounded, least-recently-used cache of PreparedStatements for a single Connection, keyed by SQL text.
+ * Statements are checked out for one execution and checked back in afterwards instead of being closed,
+ * so that repeated queries on the same Connection skip re-parsing and, once a statement has been used
+ * serverPrepareThreshold times, run as a named server-side prepared statement which PostgreSQL plans only once.
+ * A statement which is already checked out (e.g. by a query issued while processing the results of the
+ * same query) is not shared; the caller instead gets a new statement which is closed on check-in.
+ */
+public class StatementCache {
+
+    public static final int DEFAULT_MAXIMUM_SIZE = Integer.getInteger("org.phenoscape.obd.statement-cache-size", 64);
+    public static final int DEFAULT_SERVER_PREPARE_THRESHOLD = Integer.getInteger("org.phenoscape.obd.server-prepare-threshold", 3);
+    private final int serverPrepareThreshold;
+    private final Map<String, Entry> entries;
+    private final Map<PreparedStatement, Entry> checkedOut = new HashMap<PreparedStatement, Entry>();
+    private int hits = 0;
+    private int misses = 0;
+
+    public StatementCache() {
+        this(DEFAULT_MAXIMUM_SIZE, DEFAULT_SERVER_PREPARE_THRESHOLD);
+    }
+
+    /**
+     * @param maximumSize The number of statements to keep open before evicting the least recently used.
+     * @param serverPrepareThreshold The number of uses after which a statement is switched to server-side preparation.
+     */
+    public StatementCache(final int maximumSize, int serverPrepareThreshold) {
+        this.serverPrepareThreshold = serverPrepareThreshold;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if ((this.size() > maximumSize) && !eldest.getValue().inUse) {
+                    QueryMetrics.increment("statements.evictions");
+                    eldest.getValue().close();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Obtain a PreparedStatement for the given SQL, reusing a cached one if available. The statement
+     * must be handed back to checkin() after use rather than closed.
+     */
+    public synchronized PreparedStatement checkout(Connection connection, String sql) throws SQLException {
+        final Entry cached = this.entries.get(sql);
+        if (cached != null) {
+            if (cached.inUse) {
+                // nested use of the same query - don't disturb the open result set
+                final PreparedStatement statement = connection.prepareStatement(sql);
+                this.checkedOut.put(statement, null);
+                return statement;
+            }
+            this.hits++;
+            QueryMetrics.increment("statements.cache_hits");
+            cached.statement.clearParameters();
+            cached.use(this.serverPrepareThreshold);
+            this.checkedOut.put(cached.statement, cached);
+            return cached.statement;
+        }
+        this.misses++;
+        QueryMetrics.increment("statements.cache_misses");
+        final Entry entry = new Entry(connection.prepareStatement(sql));
+        entry.use(this.serverPrepareThreshold);
+        this.entries.put(sql, entry);
+        this.checkedOut.put(entry.statement, entry);
+        return entry.statement;
+    }
+
+    /**
+     * Hand back a statement obtained from checkout(). Cached statements stay open for reuse;
+     * statements which were not cached are closed.
+     */
+    public synchronized void checkin(PreparedStatement statement) throws SQLException {
+        final Entry entry = this.checkedOut.remove(statement);
+        if (entry != null) {
+            entry.inUse = false;
+            if (entry.retired) {
+                entry.close();
+            }
+        } else {
+            statement.close();
+        }
+    }
+
+    /**
+     * Close all cached statements.
+     */
+    public synchronized void close() {
+        for (Entry entry : this.entries.values()) {
+            if (entry.inUse) {
+                // still executing - close when checked back in
+                entry.retired = true;
+            } else {
+                entry.close();
+            }
+        }
+        this.entries.clear();
+        log().debug(String.format("Statement cache closed: %d hits, %d misses", this.hits, this.misses));
+    }
+
+    public synchronized int getHitCount() {
+        return this.hits;
+    }
+
+    public synchronized int getMissCount() {
+        return this.misses;
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    private static class Entry {
+
+        private final PreparedStatement statement;
+        private int uses = 0;
+        private boolean inUse = false;
+        private boolean retired = false;
+
+        public Entry(PreparedStatement statement) {
+            this.statement = statement;
+        }
+
+        public void use(int serverPrepareThreshold) throws SQLException {
+            this.inUse = true;
+            this.uses++;
+            if (this.uses == serverPrepareThreshold) {
+                final PGStatement pgStatement = unwrap(this.statement);
+                if (pgStatement != null) {
+                    pgStatement.setPrepareThreshold(1);
+                    QueryMetrics.increment("statements.server_prepared");
+                } else {
+                    QueryMetrics.increment("statements.server_prepare_unavailable");
+                }
+            }
+        }
+
+        public void close() {
+            try {
+                this.statement.close();
+            } catch (SQLException e) {
+                Logger.getLogger(StatementCache.class).error("Error closing cached statement", e);
+            }
+        }
+
+    }
+
+    /**
+     * The PostgreSQL driver's statement underlying the given statement, or null if it can't be reached. Statements 
+     * from a pooled DataSource are wrapped by the pool; DBCP, including Tomcat's repackaged copy, exposes the 
+     * driver's statement through getInnermostDelegate, which is called reflectively so as not to depend on a 
+     * particular pool. The resource should set accessToUnderlyingConnectionAllowed, which some pools require for this.
+     */
+    static PGStatement unwrap(Statement statement) {
+        if (statement instanceof PGStatement) {
+            return (PGStatement)statement;
+        }
+        try {
+            final Object delegate = statement.getClass().getMethod("getInnermostDelegate").invoke(statement);
+            return (delegate instanceof PGStatement) ? (PGStatement)delegate : null;
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (IllegalAccessException e) {
+            return null;
+        } catch (InvocationTargetException e) {
+            return null;
+        }
+    }
+
+    private Logger log() {
+        return Logger.getLogger(this.getClass());
+    }
+
+}
@@ -0,0 +1,196 @@
+package org.phenoscape.obd.query;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+
+/**
+ * StreamingQueryExecutor runs a query through a server-side cursor and hands back its rows one at a time 
+ * through a lazy Iterator, so that very large result sets can be written out without holding them in memory 
+ * and without splitting the query into LIMIT/OFFSET chunks. The PostgreSQL driver only uses a cursor when 
+ * autocommit is off and a fetch size is set, so each execution checks out its own Connection rather than 
+ * using a QuerySession; the Connection is held until the iterator is exhausted or closed. Rows are processed in 
+ * batches, so that subclasses can complete the items of a batch together, e.g. looking up their labels in one query.
+ * @param <T> The type of object created from each row of the query result.
+ */
+public abstract class StreamingQueryExecutor<T> {
+
+    public static final int DEFAULT_FETCH_SIZE = Integer.getInteger("org.phenoscape.obd.fetch-size", 1000);
+    private final DataSource dataSource;
+    private final QueryBuilder builder;
+    private final int fetchSize;
+    private final int batchSize;
+
+    /**
+     * @param dataSource The DataSource from which to obtain the database Connection.
+     * @param builder The query to be executed.
+     */
+    public StreamingQueryExecutor(DataSource dataSource, QueryBuilder builder) {
+        this(dataSource, builder, DEFAULT_FETCH_SIZE, 1);
+    }
+
+    /**
+     * @param dataSource The DataSource from which to obtain the database Connection.
+     * @param builder The query to be executed.
+     * @param fetchSize The number of rows to pull from the cursor per round trip.
+     * @param batchSize The number of rows processed before completeBatch() is called and the batch is handed out.
+     */
+    public StreamingQueryExecutor(DataSource dataSource, QueryBuilder builder, int fetchSize, int batchSize) {
+        this.dataSource = dataSource;
+        this.builder = builder;
+        this.fetchSize = fetchSize;
+        this.batchSize = Math.max(batchSize, 1);
+    }
+
+    /**
+     * Must be overridden by subclasses to create an item from the current row of the ResultSet.
+     * Implementations must not move the cursor.
+     */
+    public abstract T processRow(ResultSet result) throws SQLException;
+
+    /**
+     * Called once the rows of a batch have been processed, before any of the batch's items are returned. 
+     * Subclasses may override this to finish creating the items together; the default does nothing.
+     */
+    protected void completeBatch() throws SQLException {}
+
+    /**
+     * Execute the SQL query and return an iterator over the processed rows. The Connection, Statement and 
+     * ResultSet are closed when the last row has been read, when an error occurs, or when the iterator is closed.
+     */
+    public final CloseableIterator<T> executeQuery() throws SQLException {
+        final Connection connection = this.dataSource.getConnection();
+        QueryMetrics.increment("streaming.queries");
+        PreparedStatement statement = null;
+        try {
+            connection.setAutoCommit(false);
+            statement = this.builder.prepareStatement(connection);
+            statement.setFetchSize(this.fetchSize);
+            log().debug("Streaming query: " + statement.toString());
+            final ResultSet result = statement.executeQuery();
+            return new ResultIterator(connection, statement, result);
+        } catch (SQLException e) {
+            try {
+                try {
+                    if (statement != null) { statement.close(); }
+                } finally {
+                    release(connection);
+                }
+            } catch (SQLException closeError) {
+                log().error("Error releasing connection after failed streamed query", closeError);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * End the read-only transaction holding the cursor and return the connection to the pool. The connection is 
+     * closed even if ending the transaction fails.
+     */
+    private static void release(Connection connection) throws SQLException {
+        try {
+            try {
+                connection.rollback();
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    private class ResultIterator implements CloseableIterator<T> {
+
+        private final Connection connection;
+        private final PreparedStatement statement;
+        private final ResultSet result;
+        private Iterator<T> batch = Collections.<T>emptyList().iterator();
+        private boolean closed = false;
+
+        public ResultIterator(Connection connection, PreparedStatement statement, ResultSet result) {
+            this.connection = connection;
+            this.statement = statement;
+            this.result = result;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!this.batch.hasNext() && !this.closed) {
+                try {
+                    this.batch = this.readBatch().iterator();
+                } catch (SQLException e) {
+                    this.close();
+                    throw new QueryException(e);
+                }
+            }
+            return this.batch.hasNext();
+        }
+
+        @Override
+        public T next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return this.batch.next();
+        }
+
+        /**
+         * Process the next batch of rows. The query is closed once its last row has been read.
+         */
+        private List<T> readBatch() throws SQLException {
+            final List<T> items = new ArrayList<T>(batchSize);
+            while (items.size() < batchSize) {
+                if (!this.result.next()) {
+                    this.close();
+                    break;
+                }
+                QueryMetrics.increment("streaming.rows");
+                items.add(processRow(this.result));
+            }
+            if (!items.isEmpty()) {
+                completeBatch();
+            }
+            return items;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            if (this.closed) { return; }
+            this.closed = true;
+            try {
+                try {
+                    try {
+                        this.result.close();
+                    } finally {
+                        this.statement.close();
+                    }
+                } finally {
+                    release(this.connection);
+                }
+            } catch (SQLException e) {
+                log().error("Error closing streamed query", e);
+            }
+        }
+
+    }
+
+    private Logger log() {
+        return Logger.getLogger(this.getClass());
+    }
+
+}
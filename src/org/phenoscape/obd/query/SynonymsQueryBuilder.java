@@ -2,25 +2,34 @@ package org.phenoscape.obd.query;
 
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
 
 import org.phenoscape.obd.model.DefaultTerm;
 
 public class SynonymsQueryBuilder extends QueryBuilder {
 
-    final DefaultTerm term;
+    final Collection<? extends DefaultTerm> terms;
 
     public SynonymsQueryBuilder(DefaultTerm term) {
-        this.term = term;
+        this(Collections.singleton(term));
+    }
+
+    /**
+     * Query for the synonyms of all the given terms at once. Each row's node_id identifies its term.
+     */
+    public SynonymsQueryBuilder(Collection<? extends DefaultTerm> terms) {
+        this.terms = terms;
     }
 
     @Override
     protected void fillStatement(PreparedStatement statement) throws SQLException {
-        statement.setInt(1, this.term.getNodeID());
+        statement.setString(1, this.createNodeIDsArrayLiteral(this.terms));
     }
 
     @Override
     protected String getQuery() {
-        return  "SELECT alias.*, type.uid AS type_uid FROM alias LEFT JOIN node type ON (alias.type_id = type.node_id) WHERE alias.node_id = ?";
+        return  "SELECT alias.*, type.uid AS type_uid FROM alias LEFT JOIN node type ON (alias.type_id = type.node_id) WHERE alias.node_id = ANY(CAST(? AS INTEGER[]))";
     }
 
 }
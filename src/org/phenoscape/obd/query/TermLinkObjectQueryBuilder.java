@@ -3,23 +3,31 @@ package org.phenoscape.obd.query;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.Collection;
+import java.util.Collections;
 
 import org.phenoscape.obd.model.DefaultTerm;
 
 public class TermLinkObjectQueryBuilder extends QueryBuilder {
 
-    final DefaultTerm term;
+    final Collection<? extends DefaultTerm> terms;
     final Collection<String> sourceNamespaces;
 
     public TermLinkObjectQueryBuilder(DefaultTerm term, Collection<String> namespaces) {
-        this.term = term;
+        this(Collections.singleton(term), namespaces);
+    }
+
+    /**
+     * Query for the links of all the given terms at once. Each row's term_node_id identifies its term.
+     */
+    public TermLinkObjectQueryBuilder(Collection<? extends DefaultTerm> terms, Collection<String> namespaces) {
+        this.terms = terms;
         this.sourceNamespaces = namespaces;
     }
 
     @Override
     protected void fillStatement(PreparedStatement statement) throws SQLException {
         int index = 0;
-        statement.setInt(++index, this.term.getNodeID());
+        statement.setString(++index, this.createNodeIDsArrayLiteral(this.terms));
         for (String namespace : this.sourceNamespaces) {
             statement.setString(++index, namespace);
         }
@@ -28,11 +36,11 @@ public class TermLinkObjectQueryBuilder extends QueryBuilder {
     @Override
     protected String getQuery() {
         final StringBuffer query = new StringBuffer();
-        query.append("SELECT relation.node_id AS relation_node_id, relation.uid AS relation_uid, relation.label AS relation_label, subject.node_id AS other_node_id, subject.uid AS other_uid, subject.label AS other_label ");
+        query.append("SELECT link.object_id AS term_node_id, relation.node_id AS relation_node_id, relation.uid AS relation_uid, relation.label AS relation_label, subject.node_id AS other_node_id, subject.uid AS other_uid, subject.label AS other_label ");
         query.append("FROM link ");
         query.append("JOIN node relation ON (relation.node_id = link.predicate_id AND relation.uid != 'disjoint_from') ");
         query.append("JOIN node subject ON (subject.node_id = link.node_id) ");
-        query.append(String.format("WHERE link.combinator = '' AND link.object_id = ? AND link.source_id IN (SELECT node_id FROM node WHERE uid IN %s)", this.createPlaceholdersList(this.sourceNamespaces.size())));
+        query.append(String.format("WHERE link.combinator = '' AND link.object_id = ANY(CAST(? AS INTEGER[])) AND link.source_id IN (SELECT node_id FROM node WHERE uid IN %s)", this.createPlaceholdersList(this.sourceNamespaces.size())));
         return query.toString();
     }
 
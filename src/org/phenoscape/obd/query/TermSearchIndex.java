@@ -0,0 +1,322 @@
+package org.phenoscape.obd.query;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.TermAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+import org.phenoscape.obd.model.DefaultTerm;
+import org.phenoscape.obd.model.SimpleTerm;
+import org.phenoscape.obd.model.Synonym.SCOPE;
+import org.phenoscape.obd.query.SearchHit.MatchType;
+
+/**
+ * A Lucene index on local disk of the names and synonyms of the terms in the searchable namespaces, used to suggest
+ * terms whose name or synonym is close to, but not the same as, the search text, such as "pectorel fin" for
+ * "pectoral fin". Each name and each synonym is a document carrying its term, namespace, obsolete flag and, for
+ * synonyms, scope. Names are weighted above exact synonyms, which are weighted above other synonyms.
+ *
+ * The index for each Knowledgebase is kept in a directory named for its load date, within the directory given by
+ * the org.phenoscape.obd.term-index-dir property. An index already built for the current Knowledgebase, for
+ * example before a restart, is reused; otherwise a KBRefreshMonitor triggers building a new one, which replaces the
+ * current one when complete. Indexes for other load dates are then deleted, except the one just replaced, which
+ * searches may still be using; it is deleted at the following load.
+ *
+ * Searches are counted in QueryMetrics as term_index.searches, and their total time as term_index.search_micros.
+ */
+public class TermSearchIndex implements KBRefreshListener {
+
+    /**
+     * The number of suggestions made when a search has no limit.
+     */
+    public static final int DEFAULT_MAXIMUM_HITS = 20;
+    private static final File INDEX_DIRECTORY = new File(System.getProperty("org.phenoscape.obd.term-index-dir", new File(System.getProperty("java.io.tmpdir"), "phenoscape-term-index").getPath()));
+    /**
+     * Minimum similarity, from 0 to 1, of an indexed word to a search word for it to match.
+     */
+    private static final float MINIMUM_SIMILARITY = 0.7f;
+    /**
+     * Number of leading characters of each word which must match exactly, which keeps fuzzy expansion cheap.
+     */
+    private static final int EXACT_PREFIX_LENGTH = 1;
+    private static final float NAME_BOOST = 2.0f;
+    private static final float EXACT_SYNONYM_BOOST = 1.5f;
+    private static final String FIELD_TEXT = "text";
+    private static final String FIELD_MATCH_TEXT = "match_text";
+    private static final String FIELD_MATCH_TYPE = "match_type";
+    private static final String FIELD_SCOPE = "scope";
+    private static final String FIELD_NODE_ID = "node_id";
+    private static final String FIELD_UID = "uid";
+    private static final String FIELD_LABEL = "label";
+    private static final String FIELD_SOURCE_ID = "source_id";
+    private static final String FIELD_SOURCE_UID = "source_uid";
+    private static final String FIELD_SOURCE_LABEL = "source_label";
+    private static final String FIELD_OBSOLETE = "obsolete";
+    private final DataSource dataSource;
+    private final Set<String> namespaces;
+    private final Analyzer analyzer = new StandardAnalyzer(Version.LUCENE_29, Collections.emptySet());
+    private volatile IndexSearcher searcher = null;
+    /**
+     * The searcher replaced at the last load, kept open until the next so that searches still using it can finish.
+     */
+    private IndexSearcher retiredSearcher = null;
+    private File currentDirectory = null;
+    private File retiredDirectory = null;
+
+    /**
+     * @param dataSource The DataSource from which to load the terms.
+     * @param namespaces The source IDs of the terms to index.
+     */
+    public TermSearchIndex(DataSource dataSource, Collection<String> namespaces) {
+        this.dataSource = dataSource;
+        this.namespaces = Collections.unmodifiableSet(new HashSet<String>(namespaces));
+    }
+
+    @Override
+    public synchronized void knowledgebaseLoaded(Date loadDate) throws SQLException, IOException {
+        final File directory = new File(INDEX_DIRECTORY, String.valueOf(loadDate.getTime()));
+        if (!IndexReader.indexExists(FSDirectory.open(directory))) {
+            this.build(loadDate, directory);
+        }
+        if (directory.equals(this.currentDirectory)) { return; }
+        if (this.retiredSearcher != null) {
+            this.retiredSearcher.close();
+        }
+        this.retiredSearcher = this.searcher;
+        this.retiredDirectory = this.currentDirectory;
+        this.searcher = new IndexSearcher(FSDirectory.open(directory), true);
+        this.currentDirectory = directory;
+        // the retired searcher may still be in use, so its index is only deleted once it is closed at the next load
+        this.deleteIndexesExcept(directory, this.retiredDirectory);
+    }
+
+    /**
+     * Whether an index has been opened and covers all of the given namespaces.
+     */
+    public boolean canSearch(Collection<String> searchNamespaces) {
+        return (this.searcher != null) && this.namespaces.containsAll(searchNamespaces);
+    }
+
+    /**
+     * Non-obsolete terms in the configured namespaces with a name or synonym, as configured, containing a word similar
+     * to each word of the search text, best first, as hits of type MatchType.SIMILAR so that they can be told apart
+     * from true matches. Returns an empty list if the index has not been opened.
+     * @param maximumHits The most hits to return.
+     * @param excluded Hits to leave out, such as those already found by exact matching, compared by term and match text.
+     */
+    public List<SearchHit> searchSimilar(SearchConfig config, int maximumHits, Collection<SearchHit> excluded) throws IOException {
+        final IndexSearcher currentSearcher = this.searcher;
+        final List<SearchHit> hits = new ArrayList<SearchHit>();
+        final List<String> words = this.analyze(config.getSearchText());
+        if ((currentSearcher == null) || words.isEmpty() || (maximumHits < 1) || config.getNamespaces().isEmpty() || !(config.searchNames() || config.searchSynonyms())) {
+            return hits;
+        }
+        final long start = System.nanoTime();
+        final BooleanQuery query = new BooleanQuery();
+        for (String word : words) {
+            query.add(new FuzzyQuery(new Term(FIELD_TEXT, word), MINIMUM_SIMILARITY, EXACT_PREFIX_LENGTH), Occur.MUST);
+        }
+        final BooleanQuery namespaceQuery = new BooleanQuery();
+        for (String namespace : config.getNamespaces()) {
+            namespaceQuery.add(new TermQuery(new Term(FIELD_SOURCE_UID, namespace)), Occur.SHOULD);
+        }
+        query.add(namespaceQuery, Occur.MUST);
+        if (!(config.searchNames() && config.searchSynonyms())) {
+            final MatchType type = config.searchNames() ? MatchType.NAME : MatchType.SYNONYM;
+            query.add(new TermQuery(new Term(FIELD_MATCH_TYPE, type.name())), Occur.MUST);
+        }
+        query.add(new TermQuery(new Term(FIELD_OBSOLETE, "true")), Occur.MUST_NOT);
+        final Set<String> excludedKeys = new HashSet<String>();
+        for (SearchHit hit : excluded) {
+            excludedKeys.add(hit.getHit().getUID() + "\t" + hit.getMatchText());
+        }
+        final TopDocs topDocs = currentSearcher.search(query, null, maximumHits + excludedKeys.size());
+        for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+            final Document document = currentSearcher.doc(scoreDoc.doc);
+            if (excludedKeys.contains(document.get(FIELD_UID) + "\t" + document.get(FIELD_MATCH_TEXT))) { continue; }
+            hits.add(this.createHit(document));
+            if (hits.size() >= maximumHits) { break; }
+        }
+        QueryMetrics.increment("term_index.searches");
+        QueryMetrics.add("term_index.search_micros", (System.nanoTime() - start) / 1000);
+        return hits;
+    }
+
+    private SearchHit createHit(Document document) {
+        final DefaultTerm term = new DefaultTerm(Integer.parseInt(document.get(FIELD_NODE_ID)), Integer.valueOf(document.get(FIELD_SOURCE_ID)));
+        term.setUID(document.get(FIELD_UID));
+        term.setLabel(document.get(FIELD_LABEL));
+        term.setSource(new SimpleTerm(document.get(FIELD_SOURCE_UID), document.get(FIELD_SOURCE_LABEL)));
+        return new SearchHit(term, document.get(FIELD_MATCH_TEXT), MatchType.SIMILAR);
+    }
+
+    private List<String> analyze(String text) throws IOException {
+        final List<String> words = new ArrayList<String>();
+        final TokenStream stream = this.analyzer.tokenStream(FIELD_TEXT, new StringReader(text));
+        final TermAttribute termAttribute = (TermAttribute)(stream.addAttribute(TermAttribute.class));
+        while (stream.incrementToken()) {
+            words.add(termAttribute.term());
+        }
+        stream.close();
+        return words;
+    }
+
+    /**
+     * Write an index of all searchable names and synonyms into a new directory, which is only given its final name
+     * once complete, so that an interrupted build is never mistaken for an index.
+     */
+    private void build(Date loadDate, File directory) throws SQLException, IOException {
+        final long start = System.currentTimeMillis();
+        final File buildDirectory = new File(INDEX_DIRECTORY, directory.getName() + ".building");
+        deleteDirectory(buildDirectory);
+        final Directory luceneDirectory = FSDirectory.open(buildDirectory);
+        final IndexWriter writer = new IndexWriter(luceneDirectory, this.analyzer, true, IndexWriter.MaxFieldLength.UNLIMITED);
+        final int[] documentCount = { 0 };
+        try {
+            final CloseableIterator<Void> rows = (new StreamingQueryExecutor<Void>(this.dataSource, new IndexedTextQueryBuilder(this.namespaces)) {
+                @Override
+                public Void processRow(ResultSet result) throws SQLException {
+                    if (result.getString("match_text") == null) { return null; }
+                    try {
+                        writer.addDocument(createDocument(result));
+                    } catch (IOException e) {
+                        throw new QueryException(e);
+                    }
+                    documentCount[0]++;
+                    return null;
+                }
+            }).executeQuery();
+            try {
+                while (rows.hasNext()) {
+                    rows.next();
+                }
+            } finally {
+                rows.close();
+            }
+            writer.optimize();
+        } finally {
+            writer.close();
+            luceneDirectory.close();
+        }
+        if (!buildDirectory.renameTo(directory)) {
+            throw new IOException("Unable to move term index into place at " + directory);
+        }
+        final long millis = System.currentTimeMillis() - start;
+        QueryMetrics.increment("term_index.builds");
+        QueryMetrics.set("term_index.build_millis", millis);
+        QueryMetrics.set("term_index.documents", documentCount[0]);
+        log().info(String.format("Built term search index of %d names and synonyms for Knowledgebase of %s in %d ms", documentCount[0], loadDate, millis));
+    }
+
+    private static Document createDocument(ResultSet result) throws SQLException {
+        final boolean isSynonym = result.getBoolean("is_synonym");
+        final String matchText = result.getString("match_text");
+        final SCOPE scope = isSynonym ? PhenoscapeDataStore.parseSynonymScope(result.getString("scope")) : null;
+        final Document document = new Document();
+        document.add(new Field(FIELD_TEXT, matchText, Field.Store.NO, Field.Index.ANALYZED));
+        document.add(new Field(FIELD_MATCH_TEXT, matchText, Field.Store.YES, Field.Index.NO));
+        document.add(new Field(FIELD_MATCH_TYPE, (isSynonym ? MatchType.SYNONYM : MatchType.NAME).name(), Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
+        if (scope != null) {
+            document.add(new Field(FIELD_SCOPE, scope.name(), Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
+        }
+        document.add(new Field(FIELD_NODE_ID, result.getString("node_id"), Field.Store.YES, Field.Index.NO));
+        document.add(new Field(FIELD_UID, result.getString("uid"), Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
+        document.add(new Field(FIELD_LABEL, (result.getString("label") != null) ? result.getString("label") : "", Field.Store.YES, Field.Index.NO));
+        document.add(new Field(FIELD_SOURCE_ID, result.getString("source_id"), Field.Store.YES, Field.Index.NO));
+        document.add(new Field(FIELD_SOURCE_UID, result.getString("source_uid"), Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
+        document.add(new Field(FIELD_SOURCE_LABEL, (result.getString("source_label") != null) ? result.getString("source_label") : "", Field.Store.YES, Field.Index.NO));
+        document.add(new Field(FIELD_OBSOLETE, String.valueOf(result.getBoolean("is_obsolete")), Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS));
+        if (!isSynonym) {
+            document.setBoost(NAME_BOOST);
+        } else if (scope == SCOPE.EXACT) {
+            document.setBoost(EXACT_SYNONYM_BOOST);
+        }
+        return document;
+    }
+
+    private void deleteIndexesExcept(File current, File retired) {
+        final File[] indexes = INDEX_DIRECTORY.listFiles();
+        if (indexes == null) { return; }
+        for (File index : indexes) {
+            if (!(index.equals(current) || index.equals(retired))) {
+                deleteDirectory(index);
+            }
+        }
+    }
+
+    private static void deleteDirectory(File directory) {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                deleteDirectory(file);
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Every name and synonym of the terms in the given namespaces, obsolete or not, one per row.
+     */
+    private static class IndexedTextQueryBuilder extends QueryBuilder {
+
+        private final Collection<String> namespaces;
+
+        public IndexedTextQueryBuilder(Collection<String> namespaces) {
+            this.namespaces = namespaces;
+        }
+
+        @Override
+        protected void fillStatement(PreparedStatement statement) throws SQLException {
+            final String namespacesArray = this.createArrayLiteral(this.namespaces);
+            statement.setString(1, namespacesArray);
+            statement.setString(2, namespacesArray);
+        }
+
+        @Override
+        protected String getQuery() {
+            final String select = "SELECT term.node_id, term.uid, term.label, term.is_obsolete, source.node_id AS source_id, source.uid AS source_uid, source.label AS source_label, ";
+            final String from = "FROM node term JOIN node source ON (term.source_id = source.node_id) ";
+            final String where = "WHERE source.uid = ANY(CAST(? AS TEXT[])) ";
+            return select + "term.label AS match_text, false AS is_synonym, NULL AS scope " + from + where +
+            "UNION ALL " +
+            select + "alias.label AS match_text, true AS is_synonym, alias.scope " + from + "JOIN alias ON (term.node_id = alias.node_id) " + where;
+        }
+
+    }
+
+    private Logger log() {
+        return Logger.getLogger(this.getClass());
+    }
+
+}
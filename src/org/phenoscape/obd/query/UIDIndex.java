@@ -0,0 +1,88 @@
+package org.phenoscape.obd.query;
+
+import java.util.List;
+
+/**
+ * A read-only mapping from node UIDs to dense int positions 0..size-1, in the order the UIDs were given.
+ * The UIDs are held in one array and indexed through an open-addressing hash table of ints, which takes
+ * far less memory than a HashMap of boxed entries when there are millions of nodes.
+ */
+class UIDIndex {
+
+    private static final int ARRAY_OVERHEAD = 16;
+    private static final int STRING_OVERHEAD = 40;
+    private final String[] uids;
+    /**
+     * Positions in uids, offset by one so that 0 marks an empty slot.
+     */
+    private final int[] slots;
+
+    /**
+     * @param uids The distinct UIDs to index. Later duplicates of a UID are never found.
+     */
+    public UIDIndex(List<String> uids) {
+        this.uids = uids.toArray(new String[uids.size()]);
+        int capacity = 16;
+        while (capacity < (this.uids.length * 2)) {
+            capacity <<= 1;
+        }
+        this.slots = new int[capacity];
+        final int mask = capacity - 1;
+        for (int i = 0; i < this.uids.length; i++) {
+            int slot = hash(this.uids[i]) & mask;
+            while (this.slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            this.slots[slot] = i + 1;
+        }
+    }
+
+    /**
+     * The position of the given UID, or -1 if it is not in the index.
+     */
+    public int indexOf(String uid) {
+        if (uid == null) { return -1; }
+        final int mask = this.slots.length - 1;
+        int slot = hash(uid) & mask;
+        while (this.slots[slot] != 0) {
+            final int index = this.slots[slot] - 1;
+            if (this.uids[index].equals(uid)) {
+                return index;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    public String getUID(int index) {
+        return this.uids[index];
+    }
+
+    public int size() {
+        return this.uids.length;
+    }
+
+    /**
+     * An estimate of the heap used by the index, including the UID strings.
+     */
+    public long getBytes() {
+        long bytes = (ARRAY_OVERHEAD + 4L * this.uids.length) + (ARRAY_OVERHEAD + 4L * this.slots.length);
+        for (String uid : this.uids) {
+            bytes += sizeOf(uid);
+        }
+        return bytes;
+    }
+
+    /**
+     * An estimate of the heap used by the given string.
+     */
+    public static long sizeOf(String value) {
+        return STRING_OVERHEAD + (2L * value.length());
+    }
+
+    private static int hash(String value) {
+        final int h = value.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+}
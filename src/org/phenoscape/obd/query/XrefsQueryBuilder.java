@@ -2,26 +2,35 @@ package org.phenoscape.obd.query;
 
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
 
 import org.phenoscape.obd.model.DefaultTerm;
 import org.phenoscape.obd.model.Vocab.OBO;
 
 public class XrefsQueryBuilder extends QueryBuilder {
 
-    final DefaultTerm term;
+    final Collection<? extends DefaultTerm> terms;
 
     public XrefsQueryBuilder(DefaultTerm term) {
-        this.term = term;
+        this(Collections.singleton(term));
+    }
+
+    /**
+     * Query for the xrefs of all the given terms at once. Each row's node_id identifies its term.
+     */
+    public XrefsQueryBuilder(Collection<? extends DefaultTerm> terms) {
+        this.terms = terms;
     }
 
     @Override
     protected void fillStatement(PreparedStatement statement) throws SQLException {
-        statement.setInt(1, this.term.getNodeID());
+        statement.setString(1, this.createNodeIDsArrayLiteral(this.terms));
     }
 
     @Override
     protected String getQuery() {
-        return  String.format("SELECT link.*, xref.uid AS xref_uid FROM link LEFT JOIN node xref ON (link.object_id = xref.node_id AND link.predicate_id = %s) WHERE link.node_id = ? AND link.is_inferred = false AND xref.node_id IS NOT NULL", this.node(OBO.HAS_DBXREF));
+        return  String.format("SELECT link.*, xref.uid AS xref_uid FROM link LEFT JOIN node xref ON (link.object_id = xref.node_id AND link.predicate_id = %s) WHERE link.node_id = ANY(CAST(? AS INTEGER[])) AND link.is_inferred = false AND xref.node_id IS NOT NULL", this.node(OBO.HAS_DBXREF));
     }
 
 }
@@ -0,0 +1,169 @@
+package org.phenoscape.ws.application;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.JarURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.solr.client.solrj.SolrServer;
+
+/**
+ * Solr running within this process, serving one core of the cores described by solr.xml in a Solr home directory.
+ *
+ * The bundled apache-solr-core needs Lucene 4.0, while the webapp's own Lucene, used by TermSearchIndex, is 2.9.3.
+ * The two can't share a class loader, so Solr and its Lucene are loaded by a separate SolrClassLoader from the jars
+ * in a Solr library directory, along with the bundled apache-solr-core. Only the SolrJ client API is shared with the
+ * webapp, so the server is used through the ordinary SolrServer interface.
+ */
+public class EmbeddedSolr {
+
+    private static final String CORE_CONTAINER_CLASS = "org.apache.solr.core.CoreContainer";
+    private static final String EMBEDDED_SERVER_CLASS = "org.apache.solr.client.solrj.embedded.EmbeddedSolrServer";
+    private final Object cores;
+    private final String coreName;
+    private final SolrServer server;
+
+    /**
+     * @param solrHome The Solr home directory, containing solr.xml and the core directories.
+     * @param libraryDirectory The directory holding the Lucene 4.0 jars, and any other jars Solr needs which the webapp doesn't have.
+     * @param coreName The name of the core to serve, or null for the default core.
+     */
+    public EmbeddedSolr(File solrHome, File libraryDirectory, String coreName) throws IOException {
+        final ClassLoader loader = SolrClassLoader.create(libraryDirectory, this.getClass().getClassLoader());
+        final Thread thread = Thread.currentThread();
+        final ClassLoader previousLoader = thread.getContextClassLoader();
+        // Solr loads its plugins and Lucene codecs through the context class loader
+        thread.setContextClassLoader(loader);
+        try {
+            final Class<?> coreContainerClass = loader.loadClass(CORE_CONTAINER_CLASS);
+            this.cores = coreContainerClass.getConstructor(String.class, File.class).newInstance(solrHome.getPath(), new File(solrHome, "solr.xml"));
+            this.coreName = (coreName != null) ? coreName : (String)(coreContainerClass.getMethod("getDefaultCoreName").invoke(this.cores));
+            final Class<?> serverClass = loader.loadClass(EMBEDDED_SERVER_CLASS);
+            this.server = (SolrServer)(serverClass.getConstructor(coreContainerClass, String.class).newInstance(this.cores, this.coreName));
+        } catch (InvocationTargetException e) {
+            throw (IOException)(new IOException("Unable to start Solr in " + solrHome).initCause(e.getCause()));
+        } catch (LinkageError e) {
+            throw (IOException)(new IOException("Unable to load Solr; " + libraryDirectory + " must hold the Lucene 4.0 jars").initCause(e));
+        } catch (Exception e) {
+            throw (IOException)(new IOException("Unable to start Solr in " + solrHome).initCause(e));
+        } finally {
+            thread.setContextClassLoader(previousLoader);
+        }
+    }
+
+    public SolrServer getServer() {
+        return this.server;
+    }
+
+    public String getCoreName() {
+        return this.coreName;
+    }
+
+    /**
+     * Close all of the cores.
+     */
+    public void shutdown() {
+        try {
+            this.cores.getClass().getMethod("shutdown").invoke(this.cores);
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to shut down Solr", e);
+        }
+    }
+
+    /**
+     * A class loader which loads Lucene and Solr from its own jars rather than from its parent, apart from the SolrJ
+     * client API and the common classes it uses, which come from the parent so that they are the webapp's own.
+     * Lucene and Solr classes missing from its jars are not looked for in the parent, so that a missing jar fails
+     * plainly rather than mixing Lucene versions.
+     */
+    static class SolrClassLoader extends URLClassLoader {
+
+        private static final String[] ISOLATED_PACKAGES = {"org.apache.lucene.", "org.apache.solr."};
+        private static final String[] SHARED_PACKAGES = {"org.apache.solr.client.solrj.", "org.apache.solr.common."};
+        private static final String[] ISOLATED_SHARED_PACKAGES = {"org.apache.solr.client.solrj.embedded."};
+
+        public SolrClassLoader(URL[] urls, ClassLoader parent) {
+            super(urls, parent);
+        }
+
+        /**
+         * A loader for the jars in the given directory, and the apache-solr-core jar of the parent class loader if it has one.
+         */
+        public static SolrClassLoader create(File libraryDirectory, ClassLoader parent) throws IOException {
+            final List<URL> urls = new ArrayList<URL>();
+            final File[] jars = libraryDirectory.listFiles(new FileFilter() {
+                public boolean accept(File file) {
+                    return file.isFile() && file.getName().endsWith(".jar");
+                }
+            });
+            if (jars == null) {
+                throw new IOException("Solr library directory not found: " + libraryDirectory);
+            }
+            for (File jar : jars) {
+                urls.add(jar.toURI().toURL());
+            }
+            final URL solrCoreJar = findJar(parent, CORE_CONTAINER_CLASS);
+            if (solrCoreJar != null) {
+                urls.add(solrCoreJar);
+            }
+            return new SolrClassLoader(urls.toArray(new URL[urls.size()]), parent);
+        }
+
+        /**
+         * The jar from which the given class loader would load the named class, or null if it wouldn't be loaded from a jar.
+         */
+        static URL findJar(ClassLoader loader, String className) throws IOException {
+            final URL classFile = loader.getResource(className.replace('.', '/') + ".class");
+            if ((classFile == null) || !"jar".equals(classFile.getProtocol())) {
+                return null;
+            }
+            try {
+                return ((JarURLConnection)(classFile.openConnection())).getJarFileURL();
+            } catch (MalformedURLException e) {
+                return null;
+            }
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!isIsolated(name)) {
+                return super.loadClass(name, resolve);
+            }
+            Class<?> loaded = this.findLoadedClass(name);
+            if (loaded == null) {
+                loaded = this.findClass(name);
+            }
+            if (resolve) {
+                this.resolveClass(loaded);
+            }
+            return loaded;
+        }
+
+        @Override
+        public URL getResource(String name) {
+            final URL resource = this.findResource(name);
+            return (resource != null) ? resource : super.getResource(name);
+        }
+
+        static boolean isIsolated(String className) {
+            return startsWithAny(className, ISOLATED_PACKAGES) && (!startsWithAny(className, SHARED_PACKAGES) || startsWithAny(className, ISOLATED_SHARED_PACKAGES));
+        }
+
+        private static boolean startsWithAny(String className, String[] packages) {
+            for (String packageName : packages) {
+                if (className.startsWith(packageName)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+    }
+
+}
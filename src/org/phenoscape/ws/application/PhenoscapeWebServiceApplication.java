@@ -1,6 +1,16 @@
 package org.phenoscape.ws.application;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
@@ -9,6 +19,18 @@ import javax.sql.DataSource;
 import org.apache.log4j.Logger;
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.impl.CommonsHttpSolrServer;
+import org.phenoscape.obd.query.AutocompleteCache;
+import org.phenoscape.obd.query.AutocompleteIndex;
+import org.phenoscape.obd.query.BackendPlanner;
+import org.phenoscape.obd.query.KBCache;
+import org.phenoscape.obd.query.KBRefreshListener;
+import org.phenoscape.obd.query.KBRefreshMonitor;
+import org.phenoscape.obd.query.KBStatistics;
+import org.phenoscape.obd.query.LabelDictionary;
+import org.phenoscape.obd.query.OntologyGraph;
+import org.phenoscape.obd.query.PhenoscapeDataStore;
+import org.phenoscape.obd.query.ReportCounts;
+import org.phenoscape.obd.query.TermSearchIndex;
 import org.phenoscape.obd.sparql.SPARQLResource;
 import org.phenoscape.ws.resource.AttributeQualitiesResource;
 import org.phenoscape.ws.resource.AutocompleteResource;
@@ -19,6 +41,7 @@ import org.phenoscape.ws.resource.GeneAnnotationsSourceResource;
 import org.phenoscape.ws.resource.GenesResource;
 import org.phenoscape.ws.resource.KBTimestampResource;
 import org.phenoscape.ws.resource.PathToRootResource;
+import org.phenoscape.ws.resource.PhenotypeFacetTree;
 import org.phenoscape.ws.resource.PhenotypeVariationResource;
 import org.phenoscape.ws.resource.PhenotypesFacetResource;
 import org.phenoscape.ws.resource.ProfileMatchResource;
@@ -26,6 +49,7 @@ import org.phenoscape.ws.resource.PublicationMatrixResource;
 import org.phenoscape.ws.resource.PublicationOTUsResource;
 import org.phenoscape.ws.resource.PublicationTermResource;
 import org.phenoscape.ws.resource.PublicationsResource;
+import org.phenoscape.ws.resource.QueryMetricsResource;
 import org.phenoscape.ws.resource.TaxaResource;
 import org.phenoscape.ws.resource.TaxonAnnotationSourceResource;
 import org.phenoscape.ws.resource.TaxonAnnotationsResource;
@@ -57,15 +81,45 @@ public class PhenoscapeWebServiceApplication extends Application {
     private static final String JNDI_KEY = "java:/comp/env/jdbc/OBD";
     public static final String DATA_SOURCE_KEY = "org.phenoscape.jndi.obd.datasource";
     private static final String SOLR_SERVER_PROPERTY = "org.phenoscape.obd.solr-uri";
+    private static final String SOLR_HOME_PROPERTY = "org.phenoscape.obd.solr-home";
+    private static final String SOLR_CORE_PROPERTY = "org.phenoscape.obd.solr-core";
+    private static final String SOLR_LIB_PROPERTY = "org.phenoscape.obd.solr-lib";
     public static final String SOLR_SERVER_KEY = "org.phenoscape.obd.solrserver";
+    public static final String PREFETCH_EXECUTOR_KEY = "org.phenoscape.obd.prefetch-executor";
+    private static final int PREFETCH_THREADS = Integer.getInteger("org.phenoscape.obd.prefetch-threads", 4);
+    public static final String KB_REFRESH_MONITOR_KEY = "org.phenoscape.obd.kb-refresh-monitor";
+    public static final String LABEL_DICTIONARY_KEY = "org.phenoscape.obd.label-dictionary";
+    public static final String ONTOLOGY_GRAPH_KEY = "org.phenoscape.obd.ontology-graph";
+    public static final String AUTOCOMPLETE_INDEX_KEY = "org.phenoscape.obd.autocomplete-index";
+    public static final String AUTOCOMPLETE_CACHE_KEY = "org.phenoscape.obd.autocomplete-cache";
+    private static final int AUTOCOMPLETE_CACHE_SIZE = Integer.getInteger("org.phenoscape.obd.autocomplete-cache-size", 500);
+    private static final int AUTOCOMPLETE_CACHE_CANDIDATES = Integer.getInteger("org.phenoscape.obd.autocomplete-cache-candidates", 2000);
+    private static final long AUTOCOMPLETE_CACHE_TTL_SECONDS = Long.getLong("org.phenoscape.obd.autocomplete-cache-ttl-seconds", 600);
+    public static final String TERM_SEARCH_INDEX_KEY = "org.phenoscape.obd.term-search-index";
+    public static final String BACKEND_PLANNER_KEY = "org.phenoscape.obd.backend-planner";
+    public static final String KB_STATISTICS_KEY = "org.phenoscape.obd.kb-statistics";
+    public static final String FACET_CACHE_KEY = "org.phenoscape.obd.facet-cache";
+    private static final int FACET_CACHE_SIZE = Integer.getInteger("org.phenoscape.obd.facet-cache-size", 1000);
+    public static final String REPORT_COUNTS_KEY = "org.phenoscape.obd.report-counts";
+    private static final int REPORT_COUNTS_SIZE = Integer.getInteger("org.phenoscape.obd.report-counts-size", 1000);
+    private static final int COMPRESSION_MINIMUM_ITEMS = Integer.getInteger("org.phenoscape.obd.compression-min-items", 50);
+    private static final int COMPRESSION_LEVEL = Integer.getInteger("org.phenoscape.obd.compression-level", 6);
+    private static final int COMPRESSION_BUFFER_SIZE = Integer.getInteger("org.phenoscape.obd.compression-buffer-size", 8192);
+    private ExecutorService prefetchExecutor = null;
+    private KBRefreshMonitor refreshMonitor = null;
+    private EmbeddedSolr embeddedSolr = null;
 
     /**
-     * Create a router holding mappings from URL patterns to the appropriate REST service to be invoked.
+     * Create a router holding mappings from URL patterns to the appropriate REST service to be invoked, behind 
+     * a filter compressing streamed responses.
      */
     @Override
     public Restlet createInboundRoot() {
         this.initializeDataSource();
         this.initializeSolrServer();
+        this.initializePrefetchExecutor();
+        this.initializeKnowledgebaseCaches();
+        this.getContext().getAttributes().put(BACKEND_PLANNER_KEY, new BackendPlanner());
         final Router router = new Router(this.getContext());
         // URL mappings
         router.attach("/term/taxon/{termID}", TaxonTermResource.class);
@@ -106,7 +160,10 @@ public class PhenoscapeWebServiceApplication extends Application {
         router.attach("/report/count/phenotypes/genes/annotated", DistinctGenePhenotypeCountsResource.class);
         router.attach("/statistics", KBStatisticsResource.class).setMatchingMode(Template.MODE_STARTS_WITH);
         router.attach("/sparql", SPARQLResource.class);
-        return router;
+        router.attach("/metrics", QueryMetricsResource.class);
+        final StreamCompressionFilter compression = new StreamCompressionFilter(this.getContext(), COMPRESSION_MINIMUM_ITEMS, COMPRESSION_LEVEL, COMPRESSION_BUFFER_SIZE);
+        compression.setNext(router);
+        return compression;
     }
 
     private void initializeDataSource() {
@@ -119,7 +176,17 @@ public class PhenoscapeWebServiceApplication extends Application {
         }
     }
     
+    /**
+     * Connect to Solr over HTTP at the configured URI, or, if a Solr home directory is configured instead, 
+     * run Solr within this process against the index in that directory. The embedded server answers queries 
+     * without HTTP or response parsing, for deployments where the index is on the same machine.
+     */
     private void initializeSolrServer() {
+        final String solrHome = System.getProperty(SOLR_HOME_PROPERTY);
+        if (solrHome != null) {
+            this.initializeEmbeddedSolrServer(solrHome);
+            return;
+        }
         try {
             final String solrURI = System.getProperty(SOLR_SERVER_PROPERTY);
             //final String solrURI = "http://localhost:8983/solr/";
@@ -130,6 +197,115 @@ public class PhenoscapeWebServiceApplication extends Application {
         }
     }
 
+    /**
+     * Load the cores described by solr.xml in the given Solr home, serving the core named by the 
+     * solr-core property, or the default core if none is named. Solr's Lucene 4.0 jars are loaded from the 
+     * directory named by the solr-lib property, or the lib directory of the Solr home if none is named.
+     */
+    private void initializeEmbeddedSolrServer(String solrHome) {
+        final File libraryDirectory = new File(System.getProperty(SOLR_LIB_PROPERTY, new File(solrHome, "lib").getPath()));
+        try {
+            this.embeddedSolr = new EmbeddedSolr(new File(solrHome), libraryDirectory, System.getProperty(SOLR_CORE_PROPERTY));
+            this.getContext().getAttributes().put(SOLR_SERVER_KEY, this.embeddedSolr.getServer());
+            log().info("Using embedded Solr core '" + this.embeddedSolr.getCoreName() + "' in " + solrHome);
+        } catch (IOException e) {
+            log().fatal("Unable to start embedded Solr server", e);
+        }
+    }
+
+    /**
+     * A bounded pool of daemon threads used to fetch the next chunk of a large result while the current one is 
+     * being written out. Tasks are handed straight to an idle thread rather than queued, so once all threads are busy
+     * further requests fetch synchronously instead of waiting behind running exports.
+     */
+    private void initializePrefetchExecutor() {
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.prefetchExecutor = new ThreadPoolExecutor(PREFETCH_THREADS, PREFETCH_THREADS, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "phenoscape-prefetch-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.getContext().getAttributes().put(PREFETCH_EXECUTOR_KEY, this.prefetchExecutor);
+    }
+
+    /**
+     * In-memory copies of Knowledgebase data, which are loaded in the background at startup and rebuilt 
+     * whenever the refresh monitor sees a new Knowledgebase load date.
+     */
+    private void initializeKnowledgebaseCaches() {
+        final DataSource dataSource = (DataSource)(this.getContext().getAttributes().get(DATA_SOURCE_KEY));
+        if (dataSource == null) { return; }
+        this.refreshMonitor = new KBRefreshMonitor(dataSource, KBRefreshMonitor.DEFAULT_POLL_SECONDS);
+        this.getContext().getAttributes().put(KB_REFRESH_MONITOR_KEY, this.refreshMonitor);
+        final LabelDictionary labelDictionary = new LabelDictionary(dataSource);
+        this.refreshMonitor.addListener(labelDictionary);
+        this.getContext().getAttributes().put(LABEL_DICTIONARY_KEY, labelDictionary);
+        final OntologyGraph ontologyGraph = new OntologyGraph(dataSource);
+        this.refreshMonitor.addListener(ontologyGraph);
+        this.getContext().getAttributes().put(ONTOLOGY_GRAPH_KEY, ontologyGraph);
+        final AutocompleteIndex autocompleteIndex = new AutocompleteIndex(dataSource, AutocompleteResource.getSearchableNamespaces());
+        this.refreshMonitor.addListener(autocompleteIndex);
+        this.getContext().getAttributes().put(AUTOCOMPLETE_INDEX_KEY, autocompleteIndex);
+        final AutocompleteCache autocompleteCache = new AutocompleteCache(AUTOCOMPLETE_CACHE_SIZE, AUTOCOMPLETE_CACHE_CANDIDATES, AUTOCOMPLETE_CACHE_TTL_SECONDS * 1000);
+        this.refreshMonitor.addListener(autocompleteCache);
+        this.getContext().getAttributes().put(AUTOCOMPLETE_CACHE_KEY, autocompleteCache);
+        final TermSearchIndex termSearchIndex = new TermSearchIndex(dataSource, AutocompleteResource.getSearchableNamespaces());
+        this.refreshMonitor.addListener(termSearchIndex);
+        this.getContext().getAttributes().put(TERM_SEARCH_INDEX_KEY, termSearchIndex);
+        final KBStatistics statistics = new KBStatistics(dataSource, (SolrServer)(this.getContext().getAttributes().get(SOLR_SERVER_KEY)));
+        this.refreshMonitor.addListener(statistics);
+        this.getContext().getAttributes().put(KB_STATISTICS_KEY, statistics);
+        final KBCache<String, String> facetCache = new KBCache<String, String>("facet_cache", FACET_CACHE_SIZE);
+        this.refreshMonitor.addListener(facetCache);
+        this.refreshMonitor.addListener(new KBRefreshListener() {
+            @Override
+            public void knowledgebaseLoaded(Date loadDate) throws Exception {
+                warmFacetCache(facetCache, labelDictionary, ontologyGraph);
+            }
+        });
+        this.getContext().getAttributes().put(FACET_CACHE_KEY, facetCache);
+        final ReportCounts reportCounts = new ReportCounts(dataSource, (SolrServer)(this.getContext().getAttributes().get(SOLR_SERVER_KEY)), REPORT_COUNTS_SIZE);
+        this.refreshMonitor.addListener(reportCounts);
+        this.getContext().getAttributes().put(REPORT_COUNTS_KEY, reportCounts);
+        this.refreshMonitor.start();
+    }
+
+    /**
+     * Compute the unconstrained top level of every phenotype facet, which is what the phenotype browser 
+     * requests first, so that it is served from the cache as soon as a new Knowledgebase is loaded.
+     */
+    private void warmFacetCache(KBCache<String, String> facetCache, LabelDictionary labelDictionary, OntologyGraph ontologyGraph) throws Exception {
+        final PhenoscapeDataStore dataStore = new PhenoscapeDataStore((DataSource)(this.getContext().getAttributes().get(DATA_SOURCE_KEY)), (SolrServer)(this.getContext().getAttributes().get(SOLR_SERVER_KEY)));
+        dataStore.setLabelDictionary(labelDictionary);
+        dataStore.setOntologyGraph(ontologyGraph);
+        final long generation = facetCache.getGeneration();
+        try {
+            for (PhenotypeFacetTree.FACET facet : PhenotypeFacetTree.FACET.values()) {
+                final PhenotypeFacetTree tree = new PhenotypeFacetTree(dataStore, facet, Collections.<String>emptyList(), null, null, null, null, null, false);
+                facetCache.put(tree.getKey(), tree.toJSON().toString(), generation);
+            }
+        } finally {
+            dataStore.close();
+        }
+    }
+
+    @Override
+    public synchronized void stop() throws Exception {
+        if (this.refreshMonitor != null) {
+            this.refreshMonitor.stop();
+        }
+        if (this.prefetchExecutor != null) {
+            this.prefetchExecutor.shutdownNow();
+        }
+        if (this.embeddedSolr != null) {
+            this.embeddedSolr.shutdown();
+        }
+        super.stop();
+    }
+
     private Logger log() {
         return Logger.getLogger(this.getClass());
     }
@@ -0,0 +1,82 @@
+package org.phenoscape.ws.application;
+
+import org.phenoscape.obd.query.QueryMetrics;
+import org.phenoscape.ws.representation.StreamableTextRepresentation;
+import org.restlet.Context;
+import org.restlet.Request;
+import org.restlet.Response;
+import org.restlet.data.Dimension;
+import org.restlet.data.Encoding;
+import org.restlet.data.Preference;
+import org.restlet.routing.Filter;
+
+/**
+ * Compresses streamed responses with gzip or deflate, according to the Accept-Encoding of the request. Only
+ * StreamableTextRepresentations are compressed, since they carry the large TSV and JSON exports, and they are
+ * compressed incrementally as their items are written. Responses expected to contain fewer items than the
+ * configured minimum are sent uncompressed, counted in QueryMetrics as compression.skipped_small; responses
+ * whose size isn't known in advance are always compressed.
+ */
+public class StreamCompressionFilter extends Filter {
+
+    private final int minimumItems;
+    private final int level;
+    private final int bufferSize;
+
+    /**
+     * @param minimumItems The fewest items a response is expected to contain for it to be compressed.
+     * @param level The deflater compression level, from 1 to 9.
+     * @param bufferSize The size of the buffer holding compressed data before it is sent.
+     */
+    public StreamCompressionFilter(Context context, int minimumItems, int level, int bufferSize) {
+        super(context);
+        this.minimumItems = minimumItems;
+        this.level = level;
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    protected void afterHandle(Request request, Response response) {
+        if (!(response.getEntity() instanceof StreamableTextRepresentation)) { return; }
+        final StreamableTextRepresentation entity = (StreamableTextRepresentation)(response.getEntity());
+        // the response depends on Accept-Encoding whether or not this one is compressed
+        response.getDimensions().add(Dimension.ENCODING);
+        final Encoding encoding = this.choosePreferredEncoding(request);
+        if (encoding == null) { return; }
+        if ((entity.getExpectedItemCount() > -1) && (entity.getExpectedItemCount() < this.minimumItems)) {
+            QueryMetrics.increment("compression.skipped_small");
+            return;
+        }
+        entity.setCompression(encoding, this.level, this.bufferSize);
+    }
+
+    /**
+     * The supported encoding most preferred by the client, preferring gzip when equally acceptable, or null
+     * if the client accepts neither gzip nor deflate.
+     */
+    private Encoding choosePreferredEncoding(Request request) {
+        float gzipQuality = -1;
+        float deflateQuality = -1;
+        float anyQuality = -1;
+        for (Preference<Encoding> preference : request.getClientInfo().getAcceptedEncodings()) {
+            if (Encoding.GZIP.equals(preference.getMetadata())) {
+                gzipQuality = preference.getQuality();
+            } else if (Encoding.DEFLATE.equals(preference.getMetadata())) {
+                deflateQuality = preference.getQuality();
+            } else if (Encoding.ALL.equals(preference.getMetadata())) {
+                anyQuality = preference.getQuality();
+            }
+        }
+        // encodings not named explicitly are covered by "*"
+        if (gzipQuality < 0) { gzipQuality = anyQuality; }
+        if (deflateQuality < 0) { deflateQuality = anyQuality; }
+        if ((gzipQuality > 0) && (gzipQuality >= deflateQuality)) {
+            return Encoding.GZIP;
+        } else if (deflateQuality > 0) {
+            return Encoding.DEFLATE;
+        } else {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,141 @@
+package org.phenoscape.ws.representation;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.phenoscape.obd.query.QueryMetrics;
+import org.restlet.data.Encoding;
+
+/**
+ * Compresses the output of a streamed representation with gzip or deflate as it is written, so that compressed
+ * data is sent as soon as each block fills rather than after the whole response has been produced. finish() must
+ * be called once writing is complete; it writes any remaining compressed data, releases the deflater, and records
+ * QueryMetrics for the response: bytes before and after compression under compression.uncompressed_bytes and
+ * compression.compressed_bytes, their overall ratio as compression.ratio_percent, and time spent compressing
+ * under compression.deflate_micros. The underlying stream is not closed.
+ */
+class CompressingOutputStream extends FilterOutputStream {
+
+    private static final byte[] GZIP_HEADER = {0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+    private final Encoding encoding;
+    private final Deflater deflater;
+    private final CountingOutputStream compressed;
+    private final CRC32 crc = new CRC32();
+    private long uncompressedBytes = 0;
+    private long deflateNanos = 0;
+
+    /**
+     * @param out The stream to receive compressed data.
+     * @param encoding Encoding.GZIP or Encoding.DEFLATE.
+     * @param level The deflater compression level, from 1 to 9.
+     * @param bufferSize The size of the buffer holding compressed data before it is written to the underlying stream.
+     */
+    public CompressingOutputStream(OutputStream out, Encoding encoding, int level, int bufferSize) throws IOException {
+        this(new CountingOutputStream(out), encoding, new Deflater(level, Encoding.GZIP.equals(encoding)), bufferSize);
+    }
+
+    private CompressingOutputStream(CountingOutputStream compressed, Encoding encoding, Deflater deflater, int bufferSize) throws IOException {
+        super(new DeflaterOutputStream(compressed, deflater, bufferSize));
+        this.compressed = compressed;
+        this.encoding = encoding;
+        this.deflater = deflater;
+        if (this.isGzip()) {
+            // the deflater writes raw deflate data, which gzip frames with its own header and trailer
+            compressed.write(GZIP_HEADER);
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        final long start = System.nanoTime();
+        this.out.write(b);
+        this.deflateNanos += System.nanoTime() - start;
+        this.uncompressedBytes++;
+        if (this.isGzip()) { this.crc.update(b); }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        final long start = System.nanoTime();
+        this.out.write(b, off, len);
+        this.deflateNanos += System.nanoTime() - start;
+        this.uncompressedBytes += len;
+        if (this.isGzip()) { this.crc.update(b, off, len); }
+    }
+
+    /**
+     * Write the remaining compressed data, and the gzip trailer if needed, to the underlying stream.
+     */
+    public void finish() throws IOException {
+        try {
+            final long start = System.nanoTime();
+            ((DeflaterOutputStream)this.out).finish();
+            this.deflateNanos += System.nanoTime() - start;
+            if (this.isGzip()) {
+                this.writeIntLE((int)this.crc.getValue());
+                this.writeIntLE((int)this.uncompressedBytes);
+            }
+            this.compressed.flush();
+        } finally {
+            this.deflater.end();
+            this.recordMetrics();
+        }
+    }
+
+    /**
+     * Closes only the compression, leaving the underlying stream open.
+     */
+    @Override
+    public void close() throws IOException {
+        this.finish();
+    }
+
+    private boolean isGzip() {
+        return Encoding.GZIP.equals(this.encoding);
+    }
+
+    private void writeIntLE(int value) throws IOException {
+        this.compressed.write(value & 0xff);
+        this.compressed.write((value >> 8) & 0xff);
+        this.compressed.write((value >> 16) & 0xff);
+        this.compressed.write((value >> 24) & 0xff);
+    }
+
+    private void recordMetrics() {
+        QueryMetrics.increment("compression.responses." + this.encoding.getName());
+        QueryMetrics.add("compression.uncompressed_bytes", this.uncompressedBytes);
+        QueryMetrics.add("compression.compressed_bytes", this.compressed.count);
+        QueryMetrics.add("compression.deflate_micros", this.deflateNanos / 1000);
+        final long totalUncompressed = QueryMetrics.get("compression.uncompressed_bytes");
+        if (totalUncompressed > 0) {
+            QueryMetrics.set("compression.ratio_percent", (QueryMetrics.get("compression.compressed_bytes") * 100) / totalUncompressed);
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long count = 0;
+
+        public CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.out.write(b);
+            this.count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.out.write(b, off, len);
+            this.count += len;
+        }
+
+    }
+
+}
@@ -0,0 +1,15 @@
+package org.phenoscape.ws.representation;
+
+import java.io.IOException;
+
+/**
+ * Writes one kind of data item to a JSONStreamWriter, for use with StreamableJSONRepresentation.
+ */
+public interface JSONSerializer<T> {
+
+    /**
+     * Write the item as a single JSON value.
+     */
+    public void write(T item, JSONStreamWriter json) throws IOException;
+
+}
@@ -0,0 +1,213 @@
+package org.phenoscape.ws.representation;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Writes JSON text directly to a Writer, without building a JSONObject tree first. Values are written as they
+ * are given, so a streamed item costs no more memory than its own fields. Strings are escaped in the same way
+ * as JSONObject.quote, so the output is interchangeable with that of org.json, apart from key order.
+ *
+ * Calls must be properly nested: each object() or array() closed by endObject() or endArray(), and each value
+ * within an object preceded by key(). Commas are inserted as needed. As with JSONObject.put, a key given a null
+ * String or Object value is omitted, while JSONObject.NULL is written as null.
+ */
+public class JSONStreamWriter {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private final Writer writer;
+    /**
+     * Whether the container at each depth already has a member, and so needs a comma before the next.
+     */
+    private boolean[] hasMember = new boolean[16];
+    private int depth = 0;
+    private String pendingKey = null;
+
+    public JSONStreamWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    public JSONStreamWriter object() throws IOException {
+        this.beginValue();
+        this.writer.write('{');
+        this.push();
+        return this;
+    }
+
+    public JSONStreamWriter endObject() throws IOException {
+        this.pendingKey = null;
+        this.depth--;
+        this.writer.write('}');
+        return this;
+    }
+
+    public JSONStreamWriter array() throws IOException {
+        this.beginValue();
+        this.writer.write('[');
+        this.push();
+        return this;
+    }
+
+    public JSONStreamWriter endArray() throws IOException {
+        this.depth--;
+        this.writer.write(']');
+        return this;
+    }
+
+    /**
+     * Name the next value written within the current object. The key is only written along with that value,
+     * so that it can be dropped if the value is null.
+     */
+    public JSONStreamWriter key(String key) {
+        this.pendingKey = key;
+        return this;
+    }
+
+    public JSONStreamWriter value(String value) throws IOException {
+        if (value == null) {
+            this.pendingKey = null;
+            return this;
+        }
+        this.beginValue();
+        this.writeQuoted(value);
+        return this;
+    }
+
+    public JSONStreamWriter value(boolean value) throws IOException {
+        this.beginValue();
+        this.writer.write(value ? "true" : "false");
+        return this;
+    }
+
+    public JSONStreamWriter value(long value) throws IOException {
+        this.beginValue();
+        this.writer.write(Long.toString(value));
+        return this;
+    }
+
+    /**
+     * Write a value of any type org.json accepts, including JSONObject and JSONArray. Nested JSONObjects and
+     * JSONArrays are written with their own write method.
+     */
+    public JSONStreamWriter value(Object value) throws IOException {
+        if (value == null) {
+            this.pendingKey = null;
+        } else if (JSONObject.NULL.equals(value)) {
+            this.beginValue();
+            this.writer.write("null");
+        } else if (value instanceof String) {
+            this.value((String)value);
+        } else if (value instanceof Boolean) {
+            this.value(((Boolean)value).booleanValue());
+        } else if ((value instanceof Long) || (value instanceof Integer) || (value instanceof Short) || (value instanceof Byte)) {
+            this.value(((Number)value).longValue());
+        } else {
+            this.beginValue();
+            try {
+                if (value instanceof JSONObject) {
+                    ((JSONObject)value).write(this.writer);
+                } else if (value instanceof JSONArray) {
+                    ((JSONArray)value).write(this.writer);
+                } else if (value instanceof Number) {
+                    this.writer.write(JSONObject.numberToString((Number)value));
+                } else {
+                    this.writeQuoted(value.toString());
+                }
+            } catch (JSONException e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Write each key and value of the given JSONObject as members of the current object.
+     */
+    public JSONStreamWriter members(JSONObject json) throws IOException {
+        try {
+            for (Iterator<?> keys = json.keys(); keys.hasNext();) {
+                final String key = keys.next().toString();
+                this.key(key).value(json.get(key));
+            }
+        } catch (JSONException e) {
+            throw new IOException(e.getMessage());
+        }
+        return this;
+    }
+
+    /**
+     * Write the separator and pending key, if any, which must precede a value at the current position.
+     */
+    private void beginValue() throws IOException {
+        if (this.depth > 0) {
+            if (this.hasMember[this.depth - 1]) {
+                this.writer.write(',');
+            } else {
+                this.hasMember[this.depth - 1] = true;
+            }
+        }
+        if (this.pendingKey != null) {
+            this.writeQuoted(this.pendingKey);
+            this.writer.write(':');
+            this.pendingKey = null;
+        }
+    }
+
+    private void push() {
+        if (this.depth == this.hasMember.length) {
+            final boolean[] expanded = new boolean[this.depth * 2];
+            System.arraycopy(this.hasMember, 0, expanded, 0, this.depth);
+            this.hasMember = expanded;
+        }
+        this.hasMember[this.depth] = false;
+        this.depth++;
+    }
+
+    /**
+     * Write the string in quotes, escaped as by JSONObject.quote. Runs of characters needing no escape are
+     * written straight from the string rather than copied.
+     */
+    private void writeQuoted(String text) throws IOException {
+        this.writer.write('"');
+        int runStart = 0;
+        char previous = 0;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            final String escape;
+            switch (c) {
+            case '\\': escape = "\\\\"; break;
+            case '"': escape = "\\\""; break;
+            case '/': escape = (previous == '<') ? "\\/" : null; break;
+            case '\b': escape = "\\b"; break;
+            case '\t': escape = "\\t"; break;
+            case '\n': escape = "\\n"; break;
+            case '\f': escape = "\\f"; break;
+            case '\r': escape = "\\r"; break;
+            default: escape = null;
+            }
+            final boolean unicodeEscape = (escape == null) && ((c < ' ') || ((c >= 0x80) && (c < 0xa0)) || ((c >= 0x2000) && (c < 0x2100)));
+            if ((escape != null) || unicodeEscape) {
+                this.writer.write(text, runStart, i - runStart);
+                if (escape != null) {
+                    this.writer.write(escape);
+                } else {
+                    this.writer.write("\\u");
+                    this.writer.write(HEX[(c >> 12) & 0xf]);
+                    this.writer.write(HEX[(c >> 8) & 0xf]);
+                    this.writer.write(HEX[(c >> 4) & 0xf]);
+                    this.writer.write(HEX[c & 0xf]);
+                }
+                runStart = i + 1;
+            }
+            previous = c;
+        }
+        this.writer.write(text, runStart, text.length() - runStart);
+        this.writer.write('"');
+    }
+
+}
@@ -12,19 +12,28 @@ import org.restlet.data.MediaType;
  * A Representation which can be used for very large datasets without requiring that the full dataset is 
  * in memory all at once.  The provided Iterator can be implemented to retrieve data items on demand. The 
  * data items are represented as a root-level JSON array by default, but the array can be wrapped in an outer 
- * JSON object if a key is provided.   
+ * JSON object if a key is provided.  Data items can be provided as JSON objects, or as any type along with 
+ * a JSONSerializer which writes each item directly to the output.
  * @author Jim Balhoff
  */
 public class StreamableJSONRepresentation extends StreamableTextRepresentation {
 
     private final String key;
     private final JSONObject otherValues;
+    private final JSONSerializer<Object> serializer;
+    private JSONStreamWriter itemWriter;
     private static final String SEPARATOR = "," + System.getProperty("line.separator"); 
+    private static final JSONSerializer<Object> JSON_OBJECT_SERIALIZER = new JSONSerializer<Object>() {
+        @Override
+        public void write(Object item, JSONStreamWriter json) throws IOException {
+            json.value(item);
+        }
+    };
 
     /**
      * Create a Representation for the JSON objects provided by the given Iterator.
-     * @param items The JSON objects to be written to the output. toString will be called on each item 
-     * as it is written to the output, which will be in the form of a JSON array.
+     * @param items The JSON objects to be written to the output. Each item is written out as it is 
+     * reached, and the output will be in the form of a JSON array.
      */
     public StreamableJSONRepresentation(Iterator<? extends JSONObject> items) {
         this(items, null);
@@ -32,8 +41,8 @@ public class StreamableJSONRepresentation extends StreamableTextRepresentation {
 
     /**
      * Create a Representation for the JSON objects provided by the given Iterator.
-     * @param items The JSON objects to be written to the output. toString will be called on each item 
-     * as it is written to the output.
+     * @param items The JSON objects to be written to the output. Each item is written out as it is 
+     * reached.
      * @param key If a key is provided, the output will be a JSON object with the JSON array 
      * representing the data items included as the value for this key.
      */
@@ -43,8 +52,8 @@ public class StreamableJSONRepresentation extends StreamableTextRepresentation {
 
     /**
      * Create a Representation for the JSON objects provided by the given Iterator.
-     * @param items The JSON objects to be written to the output. toString will be called on each item 
-     * as it is written to the output.
+     * @param items The JSON objects to be written to the output. Each item is written out as it is 
+     * reached.
      * @param key If a key is provided, the output will be a JSON object with the JSON array 
      * representing the data items included as the value for this key.
      * @param otherValues A JSON object containing other keys and values which should be included in the output 
@@ -52,26 +61,47 @@ public class StreamableJSONRepresentation extends StreamableTextRepresentation {
      * Any data in this JSON object will not benefit from the streaming used for the iterated data items. 
      */
     public StreamableJSONRepresentation(Iterator<? extends JSONObject> items, String key, JSONObject otherValues) {
+        this(items, JSON_OBJECT_SERIALIZER, key, otherValues);
+    }
+
+    /**
+     * Create a Representation for the data items provided by the given Iterator.
+     * @param items The data items to be written to the output.
+     * @param serializer Writes each item to the output as it is reached, without an intermediate JSON object.
+     * @param key If a key is provided, the output will be a JSON object with the JSON array 
+     * representing the data items included as the value for this key.
+     * @param otherValues A JSON object containing other keys and values which should be included in the output 
+     * JSON object. These keys and values will be written before the key containing the JSON array of data items. 
+     */
+    @SuppressWarnings("unchecked")
+    public <T> StreamableJSONRepresentation(Iterator<? extends T> items, JSONSerializer<? super T> serializer, String key, JSONObject otherValues) {
         super(items, MediaType.APPLICATION_JSON);
         this.key = key;
         this.otherValues = otherValues;
+        // only ever given items from the iterator, which are of type T
+        this.serializer = (JSONSerializer<Object>)serializer;
         this.setCharacterSet(CharacterSet.UTF_8); //this should be the default for JSON
     }
 
     @Override
     public void write(Writer writer) throws IOException {
+        final JSONStreamWriter json = new JSONStreamWriter(writer);
         if (this.key != null) {
-            final String json = this.otherValues.toString();
-            final String openEndedJSON = json.substring(0, json.lastIndexOf("}"));
-            writer.append(openEndedJSON);
-            writer.append(", ");
-            writer.append(JSONObject.quote(this.key));
-            writer.append(":");
+            json.object();
+            json.members(this.otherValues);
+            json.key(this.key);
         }
-        writer.write("[");
+        json.array();
+        // items are written at the top level of their own writer, since the item separator supplies the commas
+        this.itemWriter = new JSONStreamWriter(writer);
         super.write(writer);
-        writer.write("]");
-        if (this.key != null) { writer.write("}"); }
+        json.endArray();
+        if (this.key != null) { json.endObject(); }
+    }
+
+    @Override
+    protected void writeItem(Object item, Writer writer) throws IOException {
+        this.serializer.write(item, this.itemWriter);
     }
 
     /**
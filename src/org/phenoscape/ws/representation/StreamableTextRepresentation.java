@@ -1,20 +1,31 @@
 package org.phenoscape.ws.representation;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.util.Iterator;
 
+import org.apache.log4j.Logger;
+import org.restlet.data.Encoding;
 import org.restlet.data.MediaType;
 import org.restlet.representation.WriterRepresentation;
 
 /**
  * A Representation which can be used for very large datasets without requiring that the full dataset is 
  * in memory as a String all at once.  The provided Iterator can be implemented to retrieve data items on demand.  
+ * If the Iterator is also Closeable (for instance when it reads from an open database cursor), it is closed once 
+ * the output has been written, or when the Representation is released without being written.  The output can 
+ * be compressed as it is written by calling setCompression.
  * @author Jim Balhoff
  */
 public class StreamableTextRepresentation extends WriterRepresentation {
 
     private final Iterator<? extends Object> items;
+    private long expectedItemCount = -1;
+    private Encoding compression = null;
+    private int compressionLevel;
+    private int compressionBufferSize;
     private static final String SEPARATOR = System.getProperty("line.separator"); 
 
     /**
@@ -37,16 +48,76 @@ public class StreamableTextRepresentation extends WriterRepresentation {
         this.items = items;
     }
 
+    /**
+     * The number of items the Iterator is expected to provide, or -1 if unknown.
+     */
+    public long getExpectedItemCount() {
+        return this.expectedItemCount;
+    }
+
+    /**
+     * Set the number of items the Iterator is expected to provide, if known, so that small outputs need not be compressed.
+     */
+    public void setExpectedItemCount(long count) {
+        this.expectedItemCount = count;
+    }
+
+    /**
+     * Compress the output with the given encoding as it is written. 
+     * @param encoding Encoding.GZIP or Encoding.DEFLATE.
+     * @param level The deflater compression level, from 1 to 9.
+     * @param bufferSize The size of the buffer holding compressed data before it is sent.
+     */
+    public void setCompression(Encoding encoding, int level, int bufferSize) {
+        this.compression = encoding;
+        this.compressionLevel = level;
+        this.compressionBufferSize = bufferSize;
+        this.getEncodings().clear();
+        this.getEncodings().add(encoding);
+    }
+
+    @Override
+    public void write(OutputStream outputStream) throws IOException {
+        if (this.compression == null) {
+            super.write(outputStream);
+            return;
+        }
+        final CompressingOutputStream compressingStream = new CompressingOutputStream(outputStream, this.compression, this.compressionLevel, this.compressionBufferSize);
+        try {
+            super.write(compressingStream);
+        } finally {
+            compressingStream.finish();
+        }
+    }
+
     @Override
     public void write(Writer writer) throws IOException {
-        while (this.items.hasNext()) {
-            writer.write(this.items.next().toString());
-            if (this.items.hasNext()) {
-                writer.write(this.getItemSeparator());   
+        try {
+            while (this.items.hasNext()) {
+                this.writeItem(this.items.next(), writer);
+                if (this.items.hasNext()) {
+                    writer.write(this.getItemSeparator());   
+                }
             }
+        } finally {
+            // also reached if the client disconnects partway through
+            this.closeItems();
         }
     }
 
+    @Override
+    public void release() {
+        this.closeItems();
+        super.release();
+    }
+
+    /**
+     * Write a single item to the output. Writes the result of toString by default.
+     */
+    protected void writeItem(Object item, Writer writer) throws IOException {
+        writer.write(item.toString());
+    }
+
     /**
      * Get the String which will be inserted between each output item. Returns 
      * System.getProperty("line.separator") by default.
@@ -55,4 +126,14 @@ public class StreamableTextRepresentation extends WriterRepresentation {
         return SEPARATOR;
     }
 
+    private void closeItems() {
+        if (this.items instanceof Closeable) {
+            try {
+                ((Closeable)(this.items)).close();
+            } catch (IOException e) {
+                Logger.getLogger(this.getClass()).error("Error closing streamed items", e);
+            }
+        }
+    }
+
 }
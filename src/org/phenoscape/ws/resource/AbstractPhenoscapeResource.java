@@ -1,12 +1,17 @@
 package org.phenoscape.ws.resource;
 
+import java.io.IOException;
+import java.sql.SQLException;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import javax.sql.DataSource;
 
 import org.apache.log4j.Logger;
 import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -15,10 +20,21 @@ import org.phenoscape.obd.model.PhenotypeSpec;
 import org.phenoscape.obd.model.Relationship;
 import org.phenoscape.obd.model.Term;
 import org.phenoscape.obd.query.AnnotationsQueryConfig;
+import org.phenoscape.obd.query.AutocompleteCache;
+import org.phenoscape.obd.query.AutocompleteIndex;
+import org.phenoscape.obd.query.BackendPlanner;
+import org.phenoscape.obd.query.KBCache;
+import org.phenoscape.obd.query.KBStatistics;
+import org.phenoscape.obd.query.LabelDictionary;
+import org.phenoscape.obd.query.OntologyGraph;
 import org.phenoscape.obd.query.PhenoscapeDataStore;
 import org.phenoscape.obd.query.QueryException;
+import org.phenoscape.obd.query.ReportCounts;
+import org.phenoscape.obd.query.TermSearchIndex;
 import org.phenoscape.ws.application.PhenoscapeWebServiceApplication;
+import org.phenoscape.ws.representation.JSONStreamWriter;
 import org.restlet.data.Reference;
+import org.restlet.resource.ResourceException;
 import org.restlet.resource.ServerResource;
 
 /**
@@ -35,10 +51,30 @@ public class AbstractPhenoscapeResource extends ServerResource {
     protected PhenoscapeDataStore getDataStore() {
         if (this.dataStore == null) {
             this.dataStore = new PhenoscapeDataStore(this.getDataSource(), this.getSolrServer());
+            this.dataStore.setLabelDictionary(this.getLabelDictionary());
+            this.dataStore.setOntologyGraph(this.getOntologyGraph());
+            this.dataStore.setAutocompleteIndex(this.getAutocompleteIndex());
+            this.dataStore.setAutocompleteCache(this.getAutocompleteCache());
+            this.dataStore.setTermSearchIndex(this.getTermSearchIndex());
         }
         return this.dataStore;
     }
 
+    /**
+     * Return the data store's database connection to the pool once the request has been handled.
+     */
+    @Override
+    protected void doRelease() throws ResourceException {
+        if (this.dataStore != null) {
+            try {
+                this.dataStore.close();
+            } catch (SQLException e) {
+                log().error("Error closing database connection", e);
+            }
+        }
+        super.doRelease();
+    }
+
     /**
      * Return first value of the given query parameter, decoded, or null if not present.
      */
@@ -201,6 +237,33 @@ public class AbstractPhenoscapeResource extends ServerResource {
         return json;
     }
 
+    /**
+     * Write the fields of the basic JSON representation of a term, as created by createBasicJSONTerm, into the 
+     * object currently open in the given writer. Callers open and close the object, so that they can add fields.
+     */
+    protected void writeBasicJSONTerm(Term term, JSONStreamWriter json) throws IOException {
+        json.key("id").value(term.getUID());
+        if ((term.getLabel() == null) && (term instanceof LinkedTerm)) {
+            final LinkedTerm linkedTerm = (LinkedTerm)term;
+            if (!linkedTerm.getSubjectLinks().isEmpty()) {
+                json.key("parents").array();
+                for (Relationship relationship : linkedTerm.getSubjectLinks()) {
+                    json.object();
+                    json.key("target").object();
+                    this.writeBasicJSONTerm(relationship.getOther(), json);
+                    json.endObject();
+                    json.key("relation").object();
+                    this.writeBasicJSONTerm(relationship.getPredicate(), json);
+                    json.endObject();
+                    json.endObject();
+                }
+                json.endArray();
+            }
+        } else {
+            json.key("name").value(term.getLabel());
+        }
+    }
+
     private JSONArray translateRelationships(Set<Relationship> relationships) throws JSONException {
         final JSONArray links = new JSONArray();
         for (Relationship relationship : relationships) {
@@ -223,6 +286,114 @@ public class AbstractPhenoscapeResource extends ServerResource {
         return (SolrServer)(this.getContext().getAttributes().get(PhenoscapeWebServiceApplication.SOLR_SERVER_KEY));
     }
 
+    /**
+     * Retrieve the executor used for fetching results in the background from the application context.
+     */
+    protected ExecutorService getPrefetchExecutor() {
+        return (ExecutorService)(this.getContext().getAttributes().get(PhenoscapeWebServiceApplication.PREFETCH_EXECUTOR_KEY));
+    }
+
+    /**
+     * Retrieve the in-memory dictionary of node labels from the application context. It may not yet have been loaded.
+     */
+    protected LabelDictionary getLabelDictionary() {
+        return (LabelDictionary)(this.getContext().getAttributes().get(PhenoscapeWebServiceApplication.LABEL_DICTIONARY_KEY));
+    }
+
+    /**
+     * Retrieve the in-memory ontology graph from the application context. It may not yet have been loaded.
+     */
+    protected OntologyGraph getOntologyGraph() {
+        return (OntologyGraph)(this.getContext().getAttributes().get(PhenoscapeWebServiceApplication.ONTOLOGY_GRAPH_KEY));
+    }
+
+    /**
+     * Retrieve the in-memory index of term names and synonyms from the application context. It may not yet have been loaded.
+     */
+    protected AutocompleteIndex getAutocompleteIndex() {
+        return (AutocompleteIndex)(this.getContext().getAttributes().get(PhenoscapeWebServiceApplication.AUTOCOMPLETE_INDEX_KEY));
+    }
+
+    /**
+     * Retrieve the cache of recent autocomplete candidates from the application context.
+     */
+    protected AutocompleteCache getAutocompleteCache() {
+        return (AutocompleteCache)(this.getContext().getAttributes().get(PhenoscapeWebServiceApplication.AUTOCOMPLETE_CACHE_KEY));
+    }
+
+    /**
+     * Retrieve the Lucene index used for similar-term suggestions from the application context. It may not yet have been opened.
+     */
+    protected TermSearchIndex getTermSearchIndex() {
+        return (TermSearchIndex)(this.getContext().getAttributes().get(PhenoscapeWebServiceApplication.TERM_SEARCH_INDEX_KEY));
+    }
+
+    /**
+     * Retrieve the Knowledgebase summary counts computed at load time from the application context. This is null if 
+     * the application has no Knowledgebase connection.
+     */
+    protected KBStatistics getKBStatistics() {
+        return (KBStatistics)(this.getContext().getAttributes().get(PhenoscapeWebServiceApplication.KB_STATISTICS_KEY));
+    }
+
+    /**
+     * Retrieve the planner which chooses between the database and Solr for listing queries from the application context.
+     */
+    protected BackendPlanner getBackendPlanner() {
+        return (BackendPlanner)(this.getContext().getAttributes().get(PhenoscapeWebServiceApplication.BACKEND_PLANNER_KEY));
+    }
+
+    /**
+     * Retrieve the cache of computed phenotype facets from the application context. This is null if the 
+     * application has no Knowledgebase connection.
+     */
+    @SuppressWarnings("unchecked")
+    protected KBCache<String, String> getFacetCache() {
+        return (KBCache<String, String>)(this.getContext().getAttributes().get(PhenoscapeWebServiceApplication.FACET_CACHE_KEY));
+    }
+
+    /**
+     * Retrieve the materialized counts for the report resources from the application context. This is null if the 
+     * application has no Knowledgebase connection.
+     */
+    protected ReportCounts getReportCounts() {
+        return (ReportCounts)(this.getContext().getAttributes().get(PhenoscapeWebServiceApplication.REPORT_COUNTS_KEY));
+    }
+
+    /**
+     * The given report count for the given query, from the materialized counts if available.
+     */
+    protected long getReportCount(ReportCounts.COUNT count, AnnotationsQueryConfig config) throws SQLException, SolrServerException {
+        final ReportCounts reportCounts = this.getReportCounts();
+        if (reportCounts != null) {
+            return reportCounts.getCount(this.getDataStore(), count, config);
+        }
+        return count.count(this.getDataStore(), config);
+    }
+
+    /**
+     * The given report count for each of the given queries, in order, evaluated together where they are not 
+     * already materialized.
+     */
+    protected long[] getReportCount(ReportCounts.COUNT count, List<AnnotationsQueryConfig> configs) throws SQLException, SolrServerException {
+        final ReportCounts reportCounts = this.getReportCounts();
+        if (reportCounts != null) {
+            return reportCounts.getCounts(this.getDataStore(), count, configs);
+        }
+        final long[] counts = new long[configs.size()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = count.count(this.getDataStore(), configs.get(i));
+        }
+        return counts;
+    }
+
+    /**
+     * The given report count, for counts which do not depend on a query.
+     */
+    protected long getReportCount(ReportCounts.COUNT count) throws SQLException, SolrServerException {
+        return this.getReportCount(count, new AnnotationsQueryConfig());
+    }
+
     protected Logger log() {
         return Logger.getLogger(this.getClass());
     }
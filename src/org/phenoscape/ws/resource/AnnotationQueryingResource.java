@@ -1,5 +1,6 @@
 package org.phenoscape.ws.resource;
 
+import java.io.IOException;
 import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -9,10 +10,17 @@ import java.util.Map;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.phenoscape.obd.model.SubList;
+import org.phenoscape.obd.model.Term;
 import org.phenoscape.obd.query.AnnotationsQueryConfig;
 import org.phenoscape.obd.query.AnnotationsQueryConfig.SORT_COLUMN;
+import org.phenoscape.obd.query.CloseableIterator;
+import org.phenoscape.obd.query.PrefetchingIterator;
 import org.phenoscape.obd.query.PhenoscapeDataStore.POSTCOMP_OPTION;
 import org.phenoscape.obd.query.QueryException;
+import org.phenoscape.obd.query.SeekKey;
+import org.phenoscape.ws.representation.JSONSerializer;
+import org.phenoscape.ws.representation.JSONStreamWriter;
 import org.phenoscape.ws.representation.StreamableJSONRepresentation;
 import org.phenoscape.ws.representation.StreamableTextRepresentation;
 import org.restlet.data.MediaType;
@@ -78,11 +86,25 @@ public abstract class AnnotationQueryingResource<T> extends AbstractPhenoscapeRe
     @Get("json")
     public Representation getJSONRepresentation() {
         try {
-            final Iterator<JSONObject> items = this.translateToJSON(this.queryForItems());
-            final long total = this.queryForItemsCount(this.createInitialQueryConfig());
+            final AnnotationsQueryConfig config = this.createInitialQueryConfig();
+            final Iterator<T> items;
+            final long total;
+            if (this.isFullExport()) {
+                // counted first, so that a failure can't leave a streamed cursor open
+                total = this.queryForItemsCount(this.createInitialQueryConfig());
+                items = this.queryForItems(config);
+            } else {
+                // the first chunk's query also reports the total, saving a separate count query
+                final SubList<T> initialResults = this.queryForItemsSubset(config);
+                items = this.queryForRemainingItems(config, initialResults);
+                total = (initialResults.getTotal() > -1) ? initialResults.getTotal() : this.queryForItemsCount(this.createInitialQueryConfig());
+            }
             final JSONObject otherValues = new JSONObject();
             otherValues.put("total", total);
-            return new StreamableJSONRepresentation(items, this.getItemsKey(), otherValues);
+            final StreamableJSONRepresentation representation = new StreamableJSONRepresentation(items, this.createJSONSerializer(), this.getItemsKey(), otherValues);
+            final long remaining = Math.max(total - this.index, 0);
+            representation.setExpectedItemCount((this.limit > 0) ? Math.min(this.limit, remaining) : remaining);
+            return representation;
         } catch (JSONException e) {
             this.log().error("Error creating JSON object", e);
             this.setStatus(Status.SERVER_ERROR_INTERNAL, e);
@@ -105,7 +127,7 @@ public abstract class AnnotationQueryingResource<T> extends AbstractPhenoscapeRe
     @Get("tsv")
     public Representation getTabDelimitedRepresentation() {
         try {
-            final Iterator<String> items = this.translateToText(this.queryForItems());
+            final Iterator<String> items = this.translateToText(this.queryForItems(this.createInitialQueryConfig()));
             return new StreamableTextRepresentation(items, MediaType.TEXT_TSV);
         } catch (JSONException e) {
             this.log().error("Invalid annotation query", e);
@@ -126,32 +148,51 @@ public abstract class AnnotationQueryingResource<T> extends AbstractPhenoscapeRe
         }
     }
 
-    protected final Iterator<JSONObject> translateToJSON(final Iterator<T> items) {
-        return new Iterator<JSONObject>() {
-            @Override
-            public boolean hasNext() {
-                return items.hasNext();
-            }
-            @Override
-            public JSONObject next() {
-                try {
-                    return translateToJSON(items.next());
-                } catch (JSONException e) {
-                    log().error("Could not create JSON object from annotation", e);
-                    return new JSONObject();
-                }
-            }
+    private JSONSerializer<T> createJSONSerializer() {
+        return new JSONSerializer<T>() {
             @Override
-            public void remove() {
-                items.remove();
+            public void write(T item, JSONStreamWriter json) throws IOException {
+                writeJSON(item, json);
             }
         };
     }
 
+    /**
+     * Write the JSON representation of an item directly to the output. By default this writes the object created 
+     * by translateToJSON; subclasses which stream large results should override it to write the item's fields 
+     * without building an intermediate JSONObject.
+     */
+    protected void writeJSON(T item, JSONStreamWriter json) throws IOException {
+        try {
+            json.value(this.translateToJSON(item));
+        } catch (JSONException e) {
+            this.log().error("Could not create JSON object from annotation", e);
+            json.object().endObject();
+        }
+    }
+
     protected abstract JSONObject translateToJSON(T item) throws JSONException;
 
+    /**
+     * Write the entity, quality and optional related entity of a phenotype as fields of the object currently 
+     * open in the given writer.
+     */
+    protected void writePhenotypeFields(Term entity, Term quality, Term relatedEntity, JSONStreamWriter json) throws IOException {
+        json.key("entity").object();
+        this.writeBasicJSONTerm(entity, json);
+        json.endObject();
+        json.key("quality").object();
+        this.writeBasicJSONTerm(quality, json);
+        json.endObject();
+        if (relatedEntity != null) {
+            json.key("related_entity").object();
+            this.writeBasicJSONTerm(relatedEntity, json);
+            json.endObject();
+        }
+    }
+
     protected final Iterator<String> translateToText(final Iterator<T> items) {
-        return new Iterator<String>() {
+        return new CloseableIterator<String>() {
             @Override
             public boolean hasNext() {
                 return items.hasNext();
@@ -164,51 +205,66 @@ public abstract class AnnotationQueryingResource<T> extends AbstractPhenoscapeRe
             public void remove() {
                 items.remove();
             }
+            @Override
+            public void close() {
+                closeItems(items);
+            }
         };
     }
 
     protected abstract String translateToText(T item);
 
     /**
-     * @throws JSONException
      * @throws SQLException
      * @throws QueryException
      * @throws SolrServerException 
      */
-    protected final Iterator<T> queryForItems() throws JSONException, SQLException, QueryException, SolrServerException {
-        final AnnotationsQueryConfig config = this.createInitialQueryConfig();
-        final List<T> initialResults = this.queryForItemsSubset(config);
-        return new Iterator<T>() {
-            private Iterator<T> currentItems = initialResults.iterator();
+    protected final Iterator<T> queryForItems(AnnotationsQueryConfig config) throws SQLException, QueryException, SolrServerException {
+        if (this.isFullExport()) {
+            // complete result set requested - read it from one cursor if the subclass supports that
+            config.setLimit(-1);
+            final Iterator<T> streamedItems = this.streamItems(config);
+            if (streamedItems != null) {
+                return streamedItems;
+            }
+            config.setLimit(QUERY_LIMIT);
+        }
+        return this.queryForRemainingItems(config, this.queryForItemsSubset(config));
+    }
+
+    /**
+     * Returns an iterator over the given first chunk of results followed by the chunks after it. Following 
+     * chunks are fetched in the background while earlier ones are being written out.
+     */
+    private Iterator<T> queryForRemainingItems(final AnnotationsQueryConfig config, final SubList<T> initialResults) {
+        return new PrefetchingIterator<T>(initialResults.getList(), this.getPrefetchExecutor(), PrefetchingIterator.DEFAULT_DEPTH) {
+            private SeekKey lastKey = initialResults.getLastKey();
             private int gotten = QUERY_LIMIT;
-            private boolean stop = initialResults.size() < QUERY_LIMIT;
+            private boolean stop = initialResults.getList().size() < QUERY_LIMIT;
             @Override
-            public boolean hasNext() {
-                if (this.currentItems.hasNext()) {
-                    return true; 
-                } else if (this.needMore()) {
-                    config.setIndex(config.getIndex() + QUERY_LIMIT);
-                    try {
-                        List<T> nextResults = queryForItemsSubset(config);
-                        this.gotten += QUERY_LIMIT;
-                        this.stop = nextResults.size() < QUERY_LIMIT;
-                        this.currentItems = nextResults.iterator();
-                        return this.currentItems.hasNext();
-                    } catch (SQLException e) {
-                        throw new QueryException(e);
-                    } catch (SolrServerException e) {
-                        throw new QueryException(e);
-                    }
+            protected List<T> fetchChunk() {
+                if (!this.needMore()) {
+                    return null;
+                }
+                if (this.lastKey != null) {
+                    // seek past the previous chunk rather than skipping over it again
+                    config.setSeekAfter(this.lastKey);
+                    config.setIndex(0);
                 } else {
-                    return false;
+                    config.setIndex(config.getIndex() + QUERY_LIMIT);
+                }
+                try {
+                    final SubList<T> nextResults = queryForItemsSubset(config);
+                    this.gotten += QUERY_LIMIT;
+                    this.stop = nextResults.getList().size() < QUERY_LIMIT;
+                    this.lastKey = nextResults.getLastKey();
+                    return nextResults.getList();
+                } catch (SQLException e) {
+                    throw new QueryException(e);
+                } catch (SolrServerException e) {
+                    throw new QueryException(e);
                 }
             }
-            @Override
-            public T next() {
-                return this.currentItems.next();
-            }
-            @Override
-            public void remove() {}
             private boolean needMore() {
                 if (stop) {
                     return false;
@@ -221,10 +277,34 @@ public abstract class AnnotationQueryingResource<T> extends AbstractPhenoscapeRe
         };
     }
     
-    protected abstract List<T> queryForItemsSubset(AnnotationsQueryConfig config) throws SQLException, SolrServerException;
+    /**
+     * Return all items matching the query as a single stream, for requests which ask for the complete result set.
+     * Subclasses which can read the whole result from one database cursor should override this; the default 
+     * returns null, in which case the results are fetched in chunks using queryForItemsSubset. 
+     * @param config A query configuration with no limit.
+     */
+    protected Iterator<T> streamItems(AnnotationsQueryConfig config) throws SQLException {
+        return null;
+    }
+
+    private boolean isFullExport() {
+        return (this.limit < 1) && (this.index == 0);
+    }
+
+    /**
+     * Return one chunk of the items matching the query. If the returned SubList has a last key, the following 
+     * chunk is requested by seeking after that key instead of by advancing the index.
+     */
+    protected abstract SubList<T> queryForItemsSubset(AnnotationsQueryConfig config) throws SQLException, SolrServerException;
 
     protected abstract long queryForItemsCount(AnnotationsQueryConfig config) throws SQLException, SolrServerException;
 
+    private void closeItems(Iterator<T> items) {
+        if (items instanceof CloseableIterator<?>) {
+            ((CloseableIterator<?>)items).close();
+        }
+    }
+
     private AnnotationsQueryConfig createInitialQueryConfig() throws JSONException, QueryException {
         final AnnotationsQueryConfig config = this.initializeQueryConfig(this.query);
         config.setPostcompositionOption(this.postcompOption);
@@ -36,6 +36,7 @@ public class AutocompleteResource extends AbstractPhenoscapeResource {
 
     private boolean matchName = true;
     private boolean matchSynonym = false;
+    private boolean matchSimilar = false;
     private String searchText = null;
     private int limit = 0;
     private final Set<String> searchNamespaces = new HashSet<String>();
@@ -67,6 +68,21 @@ public class AutocompleteResource extends AbstractPhenoscapeResource {
     static {
         matchTypes.put(MatchType.NAME, "name");
         matchTypes.put(MatchType.SYNONYM, "syn");
+        matchTypes.put(MatchType.SIMILAR, "similar");
+    }
+
+    /**
+     * The source IDs of all the namespaces which can be searched, whether chosen by ontology or by term type.
+     */
+    public static Set<String> getSearchableNamespaces() {
+        final Set<String> namespaces = new HashSet<String>();
+        for (String[] prefixNamespaces : prefixes.values()) {
+            namespaces.addAll(Arrays.asList(prefixNamespaces));
+        }
+        for (String[] typeNamespaces : termTypes.values()) {
+            namespaces.addAll(Arrays.asList(typeNamespaces));
+        }
+        return namespaces;
     }
 
     @Override
@@ -75,6 +91,7 @@ public class AutocompleteResource extends AbstractPhenoscapeResource {
         this.searchText = this.getFirstQueryValue("text");
         this.matchName = this.getBooleanQueryValue("name", this.matchName);
         this.matchSynonym = this.getBooleanQueryValue("syn", this.matchSynonym);
+        this.matchSimilar = this.getBooleanQueryValue("similar", this.matchSimilar);
         this.limit = this.getIntegerQueryValue("limit", this.limit);
         final String prefixChoices = this.getFirstQueryValue("ontology");
         if (prefixChoices != null) { this.parsePrefixChoices(prefixChoices); }
@@ -145,6 +162,7 @@ public class AutocompleteResource extends AbstractPhenoscapeResource {
         final SearchConfig config = new SearchConfig(this.searchText);
         config.setSearchNames(this.matchName);
         config.setSearchSynonyms(this.matchSynonym);
+        config.setMatchSimilar(this.matchSimilar);
         config.setLimit(this.limit);
         if (this.searchNamespaces.isEmpty()) {
             config.addAllNamespaces(this.flatten(prefixes.values()));
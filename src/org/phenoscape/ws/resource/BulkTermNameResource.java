@@ -3,8 +3,8 @@ package org.phenoscape.ws.resource;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.List;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -16,6 +16,7 @@ import org.phenoscape.obd.model.Relationship;
 import org.phenoscape.obd.model.TaxonTerm;
 import org.phenoscape.obd.model.Term;
 import org.phenoscape.obd.query.PhenoscapeDataStore.POSTCOMP_OPTION;
+import org.phenoscape.ws.representation.StreamableJSONRepresentation;
 import org.restlet.data.Status;
 import org.restlet.ext.json.JsonRepresentation;
 import org.restlet.representation.Representation;
@@ -47,8 +48,18 @@ public class BulkTermNameResource extends AbstractPhenoscapeResource {
             }
             if (input.has("ids")) {
                 final Set<String> ids = this.extractIDs(input.getJSONArray("ids"));
-                final JSONObject output = this.translate(this.getDataStore().getNamesForIDs(ids, this.postCompOption));
-                return new JsonRepresentation(output);
+                final Map<String, Term> terms = this.getDataStore().getNamesForIDs(ids, this.postCompOption);
+                final JSONArray missing = new JSONArray();
+                for (String id : ids) {
+                    if (!terms.containsKey(id)) {
+                        missing.put(id);
+                    }
+                }
+                final JSONObject otherValues = new JSONObject();
+                otherValues.put("missing", missing);
+                final StreamableJSONRepresentation representation = new StreamableJSONRepresentation(this.translate(terms.values().iterator()), "terms", otherValues);
+                representation.setExpectedItemCount(terms.size());
+                return representation;
             } else {
                 throw new JSONException("Invalid JSON contents");
             }
@@ -68,21 +79,33 @@ public class BulkTermNameResource extends AbstractPhenoscapeResource {
     }
 
     private Set<String> extractIDs(JSONArray jsonIDs) throws JSONException {
-        final Set<String> ids = new HashSet<String>();
+        final Set<String> ids = new LinkedHashSet<String>();
         for (int i = 0; i < jsonIDs.length(); i++) {
             ids.add(jsonIDs.getString(i));
         }
         return ids;
     }
 
-    private JSONObject translate(List<Term> terms) throws JSONException {
-        final JSONObject json = new JSONObject();
-        final JSONArray jsonTerms = new JSONArray();
-        for (Term term : terms) {
-            jsonTerms.put(this.translate(term));
-        }
-        json.put("terms", jsonTerms);
-        return json;
+    private Iterator<JSONObject> translate(final Iterator<Term> terms) {
+        return new Iterator<JSONObject>() {
+            @Override
+            public boolean hasNext() {
+                return terms.hasNext();
+            }
+            @Override
+            public JSONObject next() {
+                try {
+                    return translate(terms.next());
+                } catch (JSONException e) {
+                    log().error("Could not create JSON object from term", e);
+                    return new JSONObject();
+                }
+            }
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
     }
 
     private JSONObject translate(Term term) throws JSONException {
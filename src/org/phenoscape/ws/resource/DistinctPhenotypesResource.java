@@ -1,16 +1,20 @@
 package org.phenoscape.ws.resource;
 
+import java.io.IOException;
 import java.sql.SQLException;
 import java.util.HashMap;
-import java.util.List;
+import java.util.Iterator;
 import java.util.Map;
 
 import org.apache.solr.client.solrj.SolrServerException;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.phenoscape.obd.model.Phenotype;
+import org.phenoscape.obd.model.SubList;
 import org.phenoscape.obd.query.AnnotationsQueryConfig;
 import org.phenoscape.obd.query.AnnotationsQueryConfig.SORT_COLUMN;
+import org.phenoscape.obd.query.BackendPlanner;
+import org.phenoscape.ws.representation.JSONStreamWriter;
 
 public class DistinctPhenotypesResource extends AnnotationQueryingResource<Phenotype> {
 
@@ -35,6 +39,13 @@ public class DistinctPhenotypesResource extends AnnotationQueryingResource<Pheno
         return json;
     }
 
+    @Override
+    protected void writeJSON(Phenotype phenotype, JSONStreamWriter json) throws IOException {
+        json.object();
+        this.writePhenotypeFields(phenotype.getEntity(), phenotype.getQuality(), phenotype.getRelatedEntity(), json);
+        json.endObject();
+    }
+
     @Override
     protected String translateToText(Phenotype item) {
         final StringBuffer buffer = new StringBuffer();
@@ -54,14 +65,51 @@ public class DistinctPhenotypesResource extends AnnotationQueryingResource<Pheno
     }
 
     @Override
-    protected List<Phenotype> queryForItemsSubset(AnnotationsQueryConfig config) throws SQLException, SolrServerException {
-        return this.getDataStore().getDistinctPhenotypesSolr(config).getList();
+    protected Iterator<Phenotype> streamItems(AnnotationsQueryConfig config) throws SQLException {
+        if (config.includeInferredAnnotations()) {
+            // the SQL phenotype query only covers asserted taxon annotations
+            return null;
+        }
+        return this.getDataStore().streamDistinctPhenotypes(config);
+    }
+
+    @Override
+    protected SubList<Phenotype> queryForItemsSubset(AnnotationsQueryConfig config) throws SQLException, SolrServerException {
+        return this.getBackendPlanner().execute("phenotypes", config, new BackendPlanner.Route<SubList<Phenotype>>() {
+            @Override
+            protected SubList<Phenotype> querySQL(AnnotationsQueryConfig config) throws SQLException {
+                return getDataStore().getDistinctPhenotypes(config);
+            }
+            @Override
+            protected SubList<Phenotype> querySolr(AnnotationsQueryConfig config) throws SQLException, SolrServerException {
+                return getDataStore().getDistinctPhenotypesSolr(config);
+            }
+            @Override
+            protected boolean isEquivalentInSQL(AnnotationsQueryConfig config) {
+                // the SQL query orders phenotypes by node ID rather than label, and only covers asserted taxon annotations
+                return false;
+            }
+        });
     }
 
     @Override
     protected long queryForItemsCount(AnnotationsQueryConfig config) throws SQLException, SolrServerException {
         config.setLimit(0);
-        return this.getDataStore().getDistinctPhenotypesSolr(config).getTotal();
+        return this.getBackendPlanner().execute("phenotypes_count", config, new BackendPlanner.Route<Long>() {
+            @Override
+            protected Long querySQL(AnnotationsQueryConfig config) throws SQLException {
+                return Long.valueOf(getDataStore().getCountOfDistinctPhenotypes(config));
+            }
+            @Override
+            protected Long querySolr(AnnotationsQueryConfig config) throws SQLException, SolrServerException {
+                return Long.valueOf(getDataStore().getDistinctPhenotypesSolr(config).getTotal());
+            }
+            @Override
+            protected boolean isEquivalentInSQL(AnnotationsQueryConfig config) {
+                // the SQL query orders phenotypes by node ID rather than label, and only covers asserted taxon annotations
+                return false;
+            }
+        });
     }
 
     @Override
@@ -1,16 +1,20 @@
 package org.phenoscape.ws.resource;
 
+import java.io.IOException;
 import java.sql.SQLException;
 import java.util.HashMap;
-import java.util.List;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.solr.client.solrj.SolrServerException;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.phenoscape.obd.model.GeneAnnotation;
+import org.phenoscape.obd.model.SubList;
 import org.phenoscape.obd.query.AnnotationsQueryConfig;
 import org.phenoscape.obd.query.AnnotationsQueryConfig.SORT_COLUMN;
+import org.phenoscape.ws.representation.JSONStreamWriter;
 
 public class GeneAnnotationsResource extends AnnotationQueryingResource<GeneAnnotation> {
 
@@ -38,6 +42,16 @@ public class GeneAnnotationsResource extends AnnotationQueryingResource<GeneAnno
         return json;
     }
 
+    @Override
+    protected void writeJSON(GeneAnnotation annotation, JSONStreamWriter json) throws IOException {
+        json.object();
+        json.key("gene").object();
+        this.writeBasicJSONTerm(annotation.getGene(), json);
+        json.endObject();
+        this.writePhenotypeFields(annotation.getEntity(), annotation.getQuality(), annotation.getRelatedEntity(), json);
+        json.endObject();
+    }
+
     @Override
     protected String translateToText(GeneAnnotation annotation) {
         final StringBuffer buffer = new StringBuffer();
@@ -82,8 +96,17 @@ public class GeneAnnotationsResource extends AnnotationQueryingResource<GeneAnno
     }
 
     @Override
-    protected List<GeneAnnotation> queryForItemsSubset(AnnotationsQueryConfig config) throws SQLException, SolrServerException {
-        return this.getDataStore().getGeneAnnotationsSolr(config).getList();
+    protected Iterator<GeneAnnotation> streamItems(AnnotationsQueryConfig config) {
+        try {
+            return this.getDataStore().streamGeneAnnotationsSolr(config, this.getPrefetchExecutor());
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+    }
+
+    @Override
+    protected SubList<GeneAnnotation> queryForItemsSubset(AnnotationsQueryConfig config) throws SQLException, SolrServerException {
+        return this.getDataStore().getGeneAnnotationsSolr(config);
     }
 
 }
@@ -2,15 +2,16 @@ package org.phenoscape.ws.resource;
 
 import java.sql.SQLException;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import org.apache.solr.client.solrj.SolrServerException;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.phenoscape.obd.model.GeneTerm;
+import org.phenoscape.obd.model.SubList;
 import org.phenoscape.obd.query.AnnotationsQueryConfig;
 import org.phenoscape.obd.query.AnnotationsQueryConfig.SORT_COLUMN;
+import org.phenoscape.obd.query.BackendPlanner;
 
 public class GenesResource extends AnnotationQueryingResource<GeneTerm> {
 
@@ -33,12 +34,41 @@ public class GenesResource extends AnnotationQueryingResource<GeneTerm> {
     @Override
     protected long queryForItemsCount(AnnotationsQueryConfig config) throws SQLException, SolrServerException {
         config.setLimit(0);
-        return this.getDataStore().getAnnotatedGenesSolr(config).getTotal();
+        return this.getBackendPlanner().execute("genes_count", config, new BackendPlanner.Route<Long>() {
+            @Override
+            protected Long querySQL(AnnotationsQueryConfig config) throws SQLException {
+                return Long.valueOf(getDataStore().getCountOfAnnotatedGenes(config));
+            }
+            @Override
+            protected Long querySolr(AnnotationsQueryConfig config) throws SQLException, SolrServerException {
+                return Long.valueOf(getDataStore().getAnnotatedGenesSolr(config).getTotal());
+            }
+            @Override
+            protected boolean isEquivalentInSQL(AnnotationsQueryConfig config) {
+                // the Solr query doesn't restrict by gene
+                return config.getGeneIDs().isEmpty();
+            }
+        });
     }
 
     @Override
-    protected List<GeneTerm> queryForItemsSubset(AnnotationsQueryConfig config) throws SQLException, SolrServerException {
-        return this.getDataStore().getAnnotatedGenesSolr(config).getList();
+    protected SubList<GeneTerm> queryForItemsSubset(AnnotationsQueryConfig config) throws SQLException, SolrServerException {
+        return this.getBackendPlanner().execute("genes", config, new BackendPlanner.Route<SubList<GeneTerm>>() {
+            @Override
+            protected SubList<GeneTerm> querySQL(AnnotationsQueryConfig config) throws SQLException {
+                return getDataStore().getAnnotatedGenes(config);
+            }
+            @Override
+            protected SubList<GeneTerm> querySolr(AnnotationsQueryConfig config) throws SQLException, SolrServerException {
+                return getDataStore().getAnnotatedGenesSolr(config);
+            }
+            @Override
+            protected boolean isEquivalentInSQL(AnnotationsQueryConfig config) {
+                // the backends break ties between equal labels differently, and collate labels differently, so a
+                // client paging through the listing could see rows repeated or skipped if pages came from both
+                return false;
+            }
+        });
     }
 
     @Override
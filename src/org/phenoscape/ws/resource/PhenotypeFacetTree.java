@@ -0,0 +1,177 @@
+package org.phenoscape.ws.resource;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.phenoscape.obd.query.EntityFaceter;
+import org.phenoscape.obd.query.FacetCounts;
+import org.phenoscape.obd.query.GeneFaceter;
+import org.phenoscape.obd.query.PhenoscapeDataStore;
+import org.phenoscape.obd.query.QualityFaceter;
+import org.phenoscape.obd.query.RelatedEntityFaceter;
+import org.phenoscape.obd.query.TaxonFaceter;
+
+/**
+ * Computes the phenotype counts shown for one facet of the phenotype browser: the count at each term along
+ * the requested path, and a partitioning of the counts below the last term of the path, all under the
+ * constraints given for the other facets.
+ */
+public class PhenotypeFacetTree {
+
+    public static enum FACET { ENTITY, QUALITY, RELATED_ENTITY, TAXON, GENE }
+    private final static int MINIMUM_SIZE = 5;
+    private final static int MAXIMUM_SIZE = 20;
+    /**
+     * Whether to get the counts for all terms of a facet from a single Solr facet request, rather than
+     * with one request per term.
+     */
+    private final static boolean SINGLE_REQUEST_COUNTS = !Boolean.getBoolean("org.phenoscape.obd.facet-count-per-term");
+    private final PhenoscapeDataStore dataStore;
+    private final FACET facet;
+    private final List<String> facetPath;
+    private final String entityID;
+    private final String qualityID;
+    private final String relatedEntityID;
+    private final String taxonID;
+    private final String geneID;
+    private final boolean traverseEntitiesByPart;
+    private FacetCounts facetCounts = null;
+
+    public PhenotypeFacetTree(PhenoscapeDataStore dataStore, FACET facet, List<String> facetPath, String entityID, String qualityID, String relatedEntityID, String taxonID, String geneID, boolean traverseEntitiesByPart) {
+        this.dataStore = dataStore;
+        this.facet = facet;
+        this.facetPath = (facetPath != null) ? facetPath : Collections.<String>emptyList();
+        this.entityID = entityID;
+        this.qualityID = qualityID;
+        this.relatedEntityID = relatedEntityID;
+        this.taxonID = taxonID;
+        this.geneID = geneID;
+        this.traverseEntitiesByPart = traverseEntitiesByPart;
+    }
+
+    /**
+     * A string identifying the facet, constraints and path of this tree, for use as a cache key. Trees
+     * with equal keys have the same content for a given Knowledgebase.
+     */
+    public String getKey() {
+        final List<String> parts = new ArrayList<String>();
+        parts.add(this.facet.name());
+        parts.add(StringUtils.defaultString(this.entityID));
+        parts.add(StringUtils.defaultString(this.qualityID));
+        parts.add(StringUtils.defaultString(this.relatedEntityID));
+        parts.add(StringUtils.defaultString(this.taxonID));
+        parts.add(StringUtils.defaultString(this.geneID));
+        parts.add(String.valueOf(this.traverseEntitiesByPart));
+        parts.add(StringUtils.join(this.facetPath, ","));
+        return StringUtils.join(parts, "|");
+    }
+
+    public JSONObject toJSON() throws JSONException, SQLException, SolrServerException {
+        final JSONObject json = new JSONObject();
+        final List<JSONObject> pathItems = new ArrayList<JSONObject>();
+        final JSONObject any = new JSONObject();
+        any.put("count", this.getPhenotypeCount(null));
+        pathItems.add(any);
+        for (String termID : this.facetPath) {
+            final JSONObject current = new JSONObject();
+            current.put("id", termID);
+            current.put("count", this.getPhenotypeCount(termID));
+            pathItems.add(current);
+        }
+        final Map<String, Integer> childrenCounts = this.facetPath.isEmpty() ? this.getFacetedPhenotypeCount(null) : this.getFacetedPhenotypeCount(this.facetPath.get(this.facetPath.size() - 1));
+        final List<JSONObject> children = new ArrayList<JSONObject>();
+        for (Entry<String, Integer> entry : childrenCounts.entrySet()) {
+            final JSONObject child = new JSONObject();
+            child.put("id", entry.getKey());
+            child.put("count", entry.getValue());
+            children.add(child);
+        }
+        pathItems.get(pathItems.size() - 1).put("children", children);
+        json.put("facet", pathItems);
+        return json;
+    }
+
+    private int getPhenotypeCount(String focalTermID) throws SolrServerException {
+        if (SINGLE_REQUEST_COUNTS) {
+            final FacetCounts counts = this.getFacetCounts();
+            return (focalTermID == null) ? counts.getTotal() : counts.getCount(focalTermID);
+        }
+        final int count;
+        switch(this.facet) {
+        case ENTITY: count = this.dataStore.getCountOfDistinctPhenotypes(focalTermID, this.qualityID, this.relatedEntityID, this.taxonID, this.geneID, this.traverseEntitiesByPart); break;
+        case QUALITY: count = this.dataStore.getCountOfDistinctPhenotypes(this.entityID, focalTermID, this.relatedEntityID, this.taxonID, this.geneID, this.traverseEntitiesByPart); break;
+        case RELATED_ENTITY: count = this.dataStore.getCountOfDistinctPhenotypes(this.entityID, this.qualityID, focalTermID, this.taxonID, this.geneID, this.traverseEntitiesByPart); break;
+        case TAXON: count = this.dataStore.getCountOfDistinctPhenotypes(this.entityID, this.qualityID, this.relatedEntityID, focalTermID, this.geneID, this.traverseEntitiesByPart); break;
+        case GENE: count = this.dataStore.getCountOfDistinctPhenotypes(this.entityID, this.qualityID, this.relatedEntityID, this.taxonID, focalTermID, this.traverseEntitiesByPart); break;
+        default: count = -1; //should never happen
+        }
+        return count;
+    }
+
+    /**
+     * Counts for every term of the requested facet under the other constraints, retrieved from Solr on first use.
+     * The facet's Solr field holds each phenotype's terms along with all their superclasses.
+     */
+    private FacetCounts getFacetCounts() throws SolrServerException {
+        if (this.facetCounts == null) {
+            final String field;
+            switch(this.facet) {
+            case ENTITY: field = this.traverseEntitiesByPart ? "entity" : "entity_strict_inheres_in"; break;
+            case QUALITY: field = "quality"; break;
+            case RELATED_ENTITY: field = "related_entity"; break;
+            case TAXON: field = "taxon_asserted"; break;
+            case GENE: field = "gene"; break;
+            default: field = null; //should never happen
+            }
+            this.facetCounts = this.dataStore.getFacetCountsOfDistinctPhenotypes(this.entityID, this.qualityID, this.relatedEntityID, this.taxonID, this.geneID, this.traverseEntitiesByPart, field);
+        }
+        return this.facetCounts;
+    }
+
+    private Map<String, Integer> getFacetedPhenotypeCount(String focalTermID) throws SQLException, SolrServerException {
+        final Map<String, Integer> counts;
+        switch(this.facet) {
+        case ENTITY: counts = (new EntityFaceter(this.dataStore, MINIMUM_SIZE, MAXIMUM_SIZE, this.traverseEntitiesByPart) {
+            @Override
+            protected int getDataCount(String focalTermUID) throws SolrServerException {
+                return getPhenotypeCount(focalTermUID);
+            }
+        }).facetTerm(focalTermID); break;
+        case QUALITY: counts = (new QualityFaceter(this.dataStore, MINIMUM_SIZE, MAXIMUM_SIZE) {
+            @Override
+            protected int getDataCount(String focalTermUID) throws SolrServerException {
+                return getPhenotypeCount(focalTermUID);
+            }
+        }).facetTerm(focalTermID); break;
+        case RELATED_ENTITY: counts = (new RelatedEntityFaceter(this.dataStore, MINIMUM_SIZE, MAXIMUM_SIZE) {
+            @Override
+            protected int getDataCount(String focalTermUID) throws SolrServerException {
+                return getPhenotypeCount(focalTermUID);
+            }
+        }).facetTerm(focalTermID); break;
+        case TAXON: counts = (new TaxonFaceter(this.dataStore, MINIMUM_SIZE, MAXIMUM_SIZE) {
+            @Override
+            protected int getDataCount(String focalTermUID) throws SolrServerException {
+                return getPhenotypeCount(focalTermUID);
+            }
+        }).facetTerm(focalTermID); break;
+        case GENE: counts = (new GeneFaceter(this.dataStore, MINIMUM_SIZE, MAXIMUM_SIZE) {
+            @Override
+            protected int getDataCount(String focalTermUID) throws SolrServerException {
+                return getPhenotypeCount(focalTermUID);
+            }
+        }).facetTerm(focalTermID); break;
+        default: counts = null; //should never happen
+        }
+        return counts;
+    }
+
+}
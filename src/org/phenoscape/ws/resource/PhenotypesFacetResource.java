@@ -1,22 +1,16 @@
 package org.phenoscape.ws.resource;
 
 import java.sql.SQLException;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 
 import org.apache.solr.client.solrj.SolrServerException;
 import org.json.JSONException;
-import org.json.JSONObject;
-import org.phenoscape.obd.query.EntityFaceter;
-import org.phenoscape.obd.query.GeneFaceter;
-import org.phenoscape.obd.query.QualityFaceter;
-import org.phenoscape.obd.query.RelatedEntityFaceter;
-import org.phenoscape.obd.query.TaxonFaceter;
+import org.phenoscape.obd.query.KBCache;
+import org.phenoscape.ws.resource.PhenotypeFacetTree.FACET;
 import org.restlet.data.Reference;
 import org.restlet.data.Status;
 import org.restlet.ext.json.JsonRepresentation;
@@ -26,9 +20,6 @@ import org.restlet.resource.ResourceException;
 
 public class PhenotypesFacetResource extends AbstractPhenoscapeResource {
 
-    private final static int MINIMUM_SIZE = 5;
-    private final static int MAXIMUM_SIZE = 20;
-    private static enum FACET { ENTITY, QUALITY, RELATED_ENTITY, TAXON, GENE }
     private static final Map<String, FACET> uriToFacet = new HashMap<String, FACET>();
     static {
         uriToFacet.put("entity", FACET.ENTITY);
@@ -75,27 +66,18 @@ public class PhenotypesFacetResource extends AbstractPhenoscapeResource {
     @Get("json")
     public Representation getJSONRepresentation() throws JSONException {
         try {
-            final JSONObject json = new JSONObject();
-            final List<JSONObject> pathItems = new ArrayList<JSONObject>();
-            final JSONObject any = new JSONObject();
-            any.put("count", this.getPhenotypeCount(null));
-            pathItems.add(any);
-            for (String termID : this.facetPath) {
-                final JSONObject current = new JSONObject();
-                current.put("id", termID);
-                current.put("count", this.getPhenotypeCount(termID));
-                pathItems.add(current);
+            final PhenotypeFacetTree tree = new PhenotypeFacetTree(this.getDataStore(), this.facet, this.facetPath, this.entityID, this.qualityID, this.relatedEntityID, this.taxonID, this.geneID, this.traverseEntitiesByPart);
+            final KBCache<String, String> cache = this.getFacetCache();
+            final String key = tree.getKey();
+            String json = (cache != null) ? cache.get(key) : null;
+            if (json == null) {
+                // taken before computing, so that a tree computed across a Knowledgebase load isn't cached
+                final long generation = (cache != null) ? cache.getGeneration() : 0;
+                json = tree.toJSON().toString();
+                if (cache != null) {
+                    cache.put(key, json, generation);
+                }
             }
-            final Map<String, Integer> childrenCounts = this.facetPath.isEmpty() ? this.getFacetedPhenotypeCount(null) : this.getFacetedPhenotypeCount(this.facetPath.get(this.facetPath.size() - 1));
-            final List<JSONObject> children = new ArrayList<JSONObject>();
-            for (Entry<String, Integer> entry : childrenCounts.entrySet()) {
-                final JSONObject child = new JSONObject();
-                child.put("id", entry.getKey());
-                child.put("count", entry.getValue());
-                children.add(child);
-            }
-            pathItems.get(pathItems.size() - 1).put("children", children);
-            json.put("facet", pathItems);
             return new JsonRepresentation(json);
         }
         catch (JSONException e) {
@@ -114,57 +96,6 @@ public class PhenotypesFacetResource extends AbstractPhenoscapeResource {
         } 
     }
 
-    private int getPhenotypeCount(String focalTermID) throws SolrServerException {
-        final int count;
-        switch(this.facet) {
-        case ENTITY: count = this.getDataStore().getCountOfDistinctPhenotypes(focalTermID, this.qualityID, this.relatedEntityID, this.taxonID, this.geneID, this.traverseEntitiesByPart); break;
-        case QUALITY: count = this.getDataStore().getCountOfDistinctPhenotypes(this.entityID, focalTermID, this.relatedEntityID, this.taxonID, this.geneID, this.traverseEntitiesByPart); break;
-        case RELATED_ENTITY: count = this.getDataStore().getCountOfDistinctPhenotypes(this.entityID, this.qualityID, focalTermID, this.taxonID, this.geneID, this.traverseEntitiesByPart); break;
-        case TAXON: count = this.getDataStore().getCountOfDistinctPhenotypes(this.entityID, this.qualityID, this.relatedEntityID, focalTermID, this.geneID, this.traverseEntitiesByPart); break;
-        case GENE: count = this.getDataStore().getCountOfDistinctPhenotypes(this.entityID, this.qualityID, this.relatedEntityID, this.taxonID, focalTermID, this.traverseEntitiesByPart); break;
-        default: count = -1; //should never happen
-        }
-        return count;
-    }
-    
-    private Map<String, Integer> getFacetedPhenotypeCount(String focalTermID) throws SQLException, SolrServerException {
-        final Map<String, Integer> counts;
-        switch(this.facet) {
-        case ENTITY: counts = (new EntityFaceter(this.getDataStore(), MINIMUM_SIZE, MAXIMUM_SIZE, this.traverseEntitiesByPart) {
-            @Override
-            protected int getDataCount(String focalTermUID) throws SolrServerException {
-                return this.getDataStore().getCountOfDistinctPhenotypes(focalTermUID, qualityID, relatedEntityID, taxonID, geneID, traverseEntitiesByPart);
-            }
-        }).facetTerm(focalTermID); break;
-        case QUALITY: counts = (new QualityFaceter(this.getDataStore(), MINIMUM_SIZE, MAXIMUM_SIZE) {
-            @Override
-            protected int getDataCount(String focalTermUID) throws SolrServerException {
-                return this.getDataStore().getCountOfDistinctPhenotypes(entityID, focalTermUID, relatedEntityID, taxonID, geneID, traverseEntitiesByPart);
-            }
-        }).facetTerm(focalTermID); break; 
-        case RELATED_ENTITY: counts = (new RelatedEntityFaceter(this.getDataStore(), MINIMUM_SIZE, MAXIMUM_SIZE) {
-            @Override
-            protected int getDataCount(String focalTermUID) throws SolrServerException {
-                return this.getDataStore().getCountOfDistinctPhenotypes(entityID, qualityID, focalTermUID, taxonID, geneID, traverseEntitiesByPart);
-            }
-        }).facetTerm(focalTermID); break;
-        case TAXON: counts = (new TaxonFaceter(this.getDataStore(), MINIMUM_SIZE, MAXIMUM_SIZE) {
-            @Override
-            protected int getDataCount(String focalTermUID) throws SolrServerException {
-                return this.getDataStore().getCountOfDistinctPhenotypes(entityID, qualityID, relatedEntityID, focalTermUID, geneID, traverseEntitiesByPart);
-            }
-        }).facetTerm(focalTermID); break;
-        case GENE: counts = (new GeneFaceter(this.getDataStore(), MINIMUM_SIZE, MAXIMUM_SIZE) {
-            @Override
-            protected int getDataCount(String focalTermUID) throws SolrServerException {
-                return this.getDataStore().getCountOfDistinctPhenotypes(entityID, qualityID, relatedEntityID, taxonID, focalTermUID, traverseEntitiesByPart);
-            }
-        }).facetTerm(focalTermID); break;
-        default: counts = null; //should never happen
-        }
-        return counts;
-    }
-
     private List<String> parsePathParameter(String pathParameter) {
         return Arrays.asList(pathParameter.split(","));
     }
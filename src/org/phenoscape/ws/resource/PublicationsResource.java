@@ -2,15 +2,16 @@ package org.phenoscape.ws.resource;
 
 import java.sql.SQLException;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import org.apache.solr.client.solrj.SolrServerException;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.phenoscape.obd.model.SubList;
 import org.phenoscape.obd.model.Term;
 import org.phenoscape.obd.query.AnnotationsQueryConfig;
 import org.phenoscape.obd.query.AnnotationsQueryConfig.SORT_COLUMN;
+import org.phenoscape.obd.query.BackendPlanner;
 
 public class PublicationsResource extends AnnotationQueryingResource<Term> {
     
@@ -22,12 +23,36 @@ public class PublicationsResource extends AnnotationQueryingResource<Term> {
     @Override
     protected long queryForItemsCount(AnnotationsQueryConfig config) throws SQLException, SolrServerException {
         config.setLimit(0);
-        return this.getDataStore().getAnnotatedPublicationsSolr(config).getTotal();
+        return this.getBackendPlanner().execute("publications_count", config, new BackendPlanner.Route<Long>() {
+            @Override
+            protected Long querySQL(AnnotationsQueryConfig config) throws SQLException {
+                return Long.valueOf(getDataStore().getCountOfAnnotatedPublications(config));
+            }
+            @Override
+            protected Long querySolr(AnnotationsQueryConfig config) throws SQLException, SolrServerException {
+                return Long.valueOf(getDataStore().getAnnotatedPublicationsSolr(config).getTotal());
+            }
+        });
     }
 
     @Override
-    protected List<Term> queryForItemsSubset(AnnotationsQueryConfig config) throws SQLException, SolrServerException {
-        return this.getDataStore().getAnnotatedPublicationsSolr(config).getList();
+    protected SubList<Term> queryForItemsSubset(AnnotationsQueryConfig config) throws SQLException, SolrServerException {
+        return this.getBackendPlanner().execute("publications", config, new BackendPlanner.Route<SubList<Term>>() {
+            @Override
+            protected SubList<Term> querySQL(AnnotationsQueryConfig config) throws SQLException {
+                return getDataStore().getAnnotatedPublications(config);
+            }
+            @Override
+            protected SubList<Term> querySolr(AnnotationsQueryConfig config) throws SQLException, SolrServerException {
+                return getDataStore().getAnnotatedPublicationsSolr(config);
+            }
+            @Override
+            protected boolean isEquivalentInSQL(AnnotationsQueryConfig config) {
+                // the backends break ties between equal labels differently, and collate labels differently, so a
+                // client paging through the listing could see rows repeated or skipped if pages came from both
+                return false;
+            }
+        });
     }
 
     @Override
@@ -0,0 +1,33 @@
+package org.phenoscape.ws.resource;
+
+import java.util.Map.Entry;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.phenoscape.obd.query.QueryMetrics;
+import org.restlet.data.Status;
+import org.restlet.ext.json.JsonRepresentation;
+import org.restlet.representation.Representation;
+import org.restlet.resource.Get;
+
+/**
+ * Reports the current values of the query layer's performance counters.
+ */
+public class QueryMetricsResource extends AbstractPhenoscapeResource {
+
+    @Get("json")
+    public Representation getJSONRepresentation() {
+        try {
+            final JSONObject json = new JSONObject();
+            for (Entry<String, Long> entry : QueryMetrics.snapshot().entrySet()) {
+                json.put(entry.getKey(), entry.getValue().longValue());
+            }
+            return new JsonRepresentation(json);
+        } catch (JSONException e) {
+            log().error("Error creating JSON object for metrics", e);
+            this.setStatus(Status.SERVER_ERROR_INTERNAL, e);
+            return null;
+        }
+    }
+
+}
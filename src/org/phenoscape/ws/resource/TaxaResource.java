@@ -1,16 +1,21 @@
 package org.phenoscape.ws.resource;
 
+import java.io.IOException;
 import java.sql.SQLException;
 import java.util.HashMap;
-import java.util.List;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.solr.client.solrj.SolrServerException;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.phenoscape.obd.model.SubList;
 import org.phenoscape.obd.model.TaxonTerm;
 import org.phenoscape.obd.query.AnnotationsQueryConfig;
 import org.phenoscape.obd.query.AnnotationsQueryConfig.SORT_COLUMN;
+import org.phenoscape.obd.query.BackendPlanner;
+import org.phenoscape.ws.representation.JSONStreamWriter;
 
 public class TaxaResource extends AnnotationQueryingResource<TaxonTerm> {
     
@@ -24,14 +29,55 @@ public class TaxaResource extends AnnotationQueryingResource<TaxonTerm> {
     @Override
     protected long queryForItemsCount(AnnotationsQueryConfig config) throws SQLException, SolrServerException {
         config.setLimit(0);
-        return this.getDataStore().getAnnotatedTaxaSolr(config).getTotal();
-        //return this.getDataStore().getCountOfAnnotatedTaxa(config);
+        return this.getBackendPlanner().execute("taxa_count", config, new BackendPlanner.Route<Long>() {
+            @Override
+            protected Long querySQL(AnnotationsQueryConfig config) throws SQLException {
+                return Long.valueOf(getDataStore().getCountOfAnnotatedTaxa(config));
+            }
+            @Override
+            protected Long querySolr(AnnotationsQueryConfig config) throws SQLException, SolrServerException {
+                return Long.valueOf(getDataStore().getAnnotatedTaxaSolr(config).getTotal());
+            }
+            @Override
+            protected boolean isEquivalentInSQL(AnnotationsQueryConfig config) {
+                // the SQL query can only match any of several taxa
+                return !(config.matchAllTaxa() && (config.getTaxonIDs().size() > 1));
+            }
+        });
     }
 
     @Override
-    protected List<TaxonTerm> queryForItemsSubset(AnnotationsQueryConfig config) throws SQLException, SolrServerException {
-        //return this.getDataStore().getAnnotatedTaxa(config);
-        return this.getDataStore().getAnnotatedTaxaSolr(config).getList();
+    protected Iterator<TaxonTerm> streamItems(AnnotationsQueryConfig config) throws SQLException {
+        try {
+            return this.getDataStore().streamAnnotatedTaxaSolr(config, this.getPrefetchExecutor());
+        } catch (RejectedExecutionException e) {
+            if (config.matchAllTaxa() && (config.getTaxonIDs().size() > 1)) {
+                // the SQL query can only match any of several taxa - read the Solr results in chunks instead
+                return null;
+            }
+            // no background thread available to read the Solr response - use a database cursor instead
+            return this.getDataStore().streamAnnotatedTaxa(config);
+        }
+    }
+
+    @Override
+    protected SubList<TaxonTerm> queryForItemsSubset(AnnotationsQueryConfig config) throws SQLException, SolrServerException {
+        return this.getBackendPlanner().execute("taxa", config, new BackendPlanner.Route<SubList<TaxonTerm>>() {
+            @Override
+            protected SubList<TaxonTerm> querySQL(AnnotationsQueryConfig config) throws SQLException {
+                return getDataStore().getAnnotatedTaxa(config);
+            }
+            @Override
+            protected SubList<TaxonTerm> querySolr(AnnotationsQueryConfig config) throws SQLException, SolrServerException {
+                return getDataStore().getAnnotatedTaxaSolr(config);
+            }
+            @Override
+            protected boolean isEquivalentInSQL(AnnotationsQueryConfig config) {
+                // the backends break ties between equal labels differently, and collate labels differently, so a
+                // client paging through the listing could see rows repeated or skipped if pages came from both
+                return false;
+            }
+        });
     }
 
     @Override
@@ -55,6 +101,31 @@ public class TaxaResource extends AnnotationQueryingResource<TaxonTerm> {
         return json;    
     }
 
+    @Override
+    protected void writeJSON(TaxonTerm taxon, JSONStreamWriter json) throws IOException {
+        json.object();
+        this.writeBasicJSONTerm(taxon, json);
+        json.key("extinct").value(taxon.isExtinct());
+        if (taxon.getRank() != null) {
+            json.key("rank").object();
+            this.writeBasicJSONTerm(taxon.getRank(), json);
+            json.endObject();
+        }
+        if (taxon.getTaxonomicFamily() != null) {
+            json.key("family").object();
+            this.writeBasicJSONTerm(taxon.getTaxonomicFamily(), json);
+            json.key("extinct").value(taxon.getTaxonomicFamily().isExtinct());
+            json.endObject();
+        }
+        if (taxon.getTaxonomicOrder() != null) {
+            json.key("order").object();
+            this.writeBasicJSONTerm(taxon.getTaxonomicOrder(), json);
+            json.key("extinct").value(taxon.getTaxonomicOrder().isExtinct());
+            json.endObject();
+        }
+        json.endObject();
+    }
+
     @Override
     protected String translateToText(TaxonTerm taxon) {
         final StringBuffer buffer = new StringBuffer();
@@ -1,16 +1,20 @@
 package org.phenoscape.ws.resource;
 
+import java.io.IOException;
 import java.sql.SQLException;
 import java.util.HashMap;
-import java.util.List;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.solr.client.solrj.SolrServerException;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.phenoscape.obd.model.SubList;
 import org.phenoscape.obd.model.TaxonAnnotation;
 import org.phenoscape.obd.query.AnnotationsQueryConfig;
 import org.phenoscape.obd.query.AnnotationsQueryConfig.SORT_COLUMN;
+import org.phenoscape.ws.representation.JSONStreamWriter;
 
 public class TaxonAnnotationsResource extends AnnotationQueryingResource<TaxonAnnotation> {
 
@@ -30,8 +34,17 @@ public class TaxonAnnotationsResource extends AnnotationQueryingResource<TaxonAn
     }
 
     @Override
-    protected List<TaxonAnnotation> queryForItemsSubset(AnnotationsQueryConfig config) throws SQLException, SolrServerException {
-        return this.getDataStore().getDistinctTaxonAnnotationsSolr(config).getList();
+    protected Iterator<TaxonAnnotation> streamItems(AnnotationsQueryConfig config) {
+        try {
+            return this.getDataStore().streamDistinctTaxonAnnotationsSolr(config, this.getPrefetchExecutor());
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+    }
+
+    @Override
+    protected SubList<TaxonAnnotation> queryForItemsSubset(AnnotationsQueryConfig config) throws SQLException, SolrServerException {
+        return this.getDataStore().getDistinctTaxonAnnotationsSolr(config);
     }
 
     @Override
@@ -55,6 +68,22 @@ public class TaxonAnnotationsResource extends AnnotationQueryingResource<TaxonAn
         return json;    
     }
 
+    @Override
+    protected void writeJSON(TaxonAnnotation annotation, JSONStreamWriter json) throws IOException {
+        json.object();
+        json.key("taxon").object();
+        this.writeBasicJSONTerm(annotation.getTaxon(), json);
+        json.key("extinct").value(annotation.getTaxon().isExtinct());
+        if (annotation.getTaxon().getRank() != null) {
+            json.key("rank").object();
+            this.writeBasicJSONTerm(annotation.getTaxon().getRank(), json);
+            json.endObject();
+        }
+        json.endObject();
+        this.writePhenotypeFields(annotation.getEntity(), annotation.getQuality(), annotation.getRelatedEntity(), json);
+        json.endObject();
+    }
+
     @Override
     protected String translateToText(TaxonAnnotation annotation) {
         final StringBuffer buffer = new StringBuffer();
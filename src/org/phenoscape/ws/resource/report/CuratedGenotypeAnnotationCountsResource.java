@@ -2,10 +2,12 @@ package org.phenoscape.ws.resource.report;
 
 import java.sql.SQLException;
 
+import org.apache.solr.client.solrj.SolrServerException;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.phenoscape.obd.query.AnnotationsQueryConfig;
 import org.phenoscape.obd.query.GeneAnnotationsQueryConfig;
+import org.phenoscape.obd.query.ReportCounts;
 import org.phenoscape.ws.resource.AbstractPhenoscapeResource;
 import org.restlet.data.CharacterSet;
 import org.restlet.data.Language;
@@ -37,13 +39,17 @@ public class CuratedGenotypeAnnotationCountsResource extends AbstractPhenoscapeR
                final StringBuffer result = new StringBuffer();
                result.append("Genotype Annotations");
                result.append(System.getProperty("line.separator"));
-               result.append(this.getDataStore().getCountOfGenotypeAnnotations(this.config));
+               result.append(this.getReportCount(ReportCounts.COUNT.GENOTYPE_ANNOTATIONS, this.config));
                result.append(System.getProperty("line.separator"));
                return new StringRepresentation(result.toString(), MediaType.TEXT_TSV, Language.DEFAULT, CharacterSet.UTF_8);
            } catch (SQLException e) {
                log().error("Error querying genotype annotation counts", e);
                this.setStatus(Status.SERVER_ERROR_INTERNAL, e);
                return null;
+           } catch (SolrServerException e) {
+               log().error("Error querying genotype annotation counts", e);
+               this.setStatus(Status.SERVER_ERROR_INTERNAL, e);
+               return null;
            }
        }
        
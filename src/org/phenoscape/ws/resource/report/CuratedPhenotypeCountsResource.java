@@ -2,6 +2,8 @@ package org.phenoscape.ws.resource.report;
 
 import java.sql.SQLException;
 
+import org.apache.solr.client.solrj.SolrServerException;
+import org.phenoscape.obd.query.ReportCounts;
 import org.phenoscape.ws.resource.AbstractPhenoscapeResource;
 import org.restlet.data.CharacterSet;
 import org.restlet.data.Language;
@@ -19,13 +21,17 @@ public class CuratedPhenotypeCountsResource extends AbstractPhenoscapeResource {
             final StringBuffer result = new StringBuffer();
             result.append("Count of curated phenotypes");
             result.append(System.getProperty("line.separator"));
-            result.append(this.getDataStore().getCountOfAllCuratedPhenotypes());
+            result.append(this.getReportCount(ReportCounts.COUNT.ALL_CURATED_PHENOTYPES));
             result.append(System.getProperty("line.separator"));
             return new StringRepresentation(result.toString(), MediaType.TEXT_TSV, Language.DEFAULT, CharacterSet.UTF_8);
         } catch (SQLException e) {
             log().error("Error querying phenotype counts", e);
             this.setStatus(Status.SERVER_ERROR_INTERNAL, e);
             return null;
+        } catch (SolrServerException e) {
+            log().error("Error querying phenotype counts", e);
+            this.setStatus(Status.SERVER_ERROR_INTERNAL, e);
+            return null;
         }
     }
     
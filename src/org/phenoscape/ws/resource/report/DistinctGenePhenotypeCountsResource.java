@@ -2,9 +2,11 @@ package org.phenoscape.ws.resource.report;
 
 import java.sql.SQLException;
 
+import org.apache.solr.client.solrj.SolrServerException;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.phenoscape.obd.query.AnnotationsQueryConfig;
+import org.phenoscape.obd.query.ReportCounts;
 import org.phenoscape.ws.resource.AbstractPhenoscapeResource;
 import org.restlet.data.CharacterSet;
 import org.restlet.data.Language;
@@ -36,13 +38,17 @@ public class DistinctGenePhenotypeCountsResource extends AbstractPhenoscapeResou
                final StringBuffer result = new StringBuffer();
                result.append("Gene Phenotypes");
                result.append(System.getProperty("line.separator"));
-               result.append(this.getDataStore().getCountOfDistinctPhenotypesAnnotatedToGenes(this.config));
+               result.append(this.getReportCount(ReportCounts.COUNT.DISTINCT_GENE_PHENOTYPES, this.config));
                result.append(System.getProperty("line.separator"));
                return new StringRepresentation(result.toString(), MediaType.TEXT_TSV, Language.DEFAULT, CharacterSet.UTF_8);
            } catch (SQLException e) {
                log().error("Error querying gene phenotype counts", e);
                this.setStatus(Status.SERVER_ERROR_INTERNAL, e);
                return null;
+           } catch (SolrServerException e) {
+               log().error("Error querying gene phenotype counts", e);
+               this.setStatus(Status.SERVER_ERROR_INTERNAL, e);
+               return null;
            }
        }
        
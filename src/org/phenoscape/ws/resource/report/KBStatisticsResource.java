@@ -1,11 +1,13 @@
 package org.phenoscape.ws.resource.report;
 
 import java.sql.SQLException;
+import java.util.Map;
+import java.util.Map.Entry;
 
 import org.apache.solr.client.solrj.SolrServerException;
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.phenoscape.obd.query.AnnotationsQueryConfig;
+import org.phenoscape.obd.query.KBStatistics;
 import org.phenoscape.ws.resource.AbstractPhenoscapeResource;
 import org.restlet.data.Status;
 import org.restlet.ext.json.JsonRepresentation;
@@ -33,22 +35,21 @@ public class KBStatisticsResource extends AbstractPhenoscapeResource {
 		}
 	}
 
+	/**
+	 * The counts computed for the current Knowledgebase when it was loaded, or computed now if that has not yet happened.
+	 */
 	private JSONObject queryStatistics() throws JSONException, SQLException, SolrServerException {
 		//e.g. The Knowledgebase currently contains 333,987 phenotype statements about 2310 taxa, 
 		//sourced from 51 publications. as well as 11,267 phenotype statements about 2953 genes
-		final AnnotationsQueryConfig defaultConfig = new AnnotationsQueryConfig();
-		defaultConfig.setLimit(0);
+		final KBStatistics snapshot = this.getKBStatistics();
+		Map<String, Long> statistics = (snapshot != null) ? snapshot.getStatistics() : null;
+		if (statistics == null) {
+			statistics = this.getDataStore().getKnowledgebaseStatistics();
+		}
 		final JSONObject json = new JSONObject();
-		final int genesCount = this.getDataStore().getCountOfAnnotatedGenes(defaultConfig);
-		final int geneAnnotationsCount = this.getDataStore().getCountOfGeneAnnotations(defaultConfig);
-		final int taxaCount = this.getDataStore().getCountOfAnnotatedTaxa(defaultConfig);
-		final long taxonAnnotationsCount = this.getDataStore().getCountOfCuratedTaxonomicAnnotations(defaultConfig);
-		final int annotatedPublicationsCount = this.getDataStore().getCountOfAnnotatedPublications(defaultConfig);
-		json.put("annotated_genes", genesCount);
-		json.put("gene_annotations", geneAnnotationsCount);
-		json.put("annotated_taxa", taxaCount);
-		json.put("taxon_annotations", taxonAnnotationsCount);
-		json.put("annotated_publications", annotatedPublicationsCount);
+		for (Entry<String, Long> statistic : statistics.entrySet()) {
+			json.put(statistic.getKey(), statistic.getValue());
+		}
 		return json;
 	}
 
@@ -1,12 +1,16 @@
 package org.phenoscape.ws.resource.report;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
+import org.apache.solr.client.solrj.SolrServerException;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.phenoscape.obd.model.Term;
 import org.phenoscape.obd.model.Vocab.TTO;
 import org.phenoscape.obd.query.AnnotationsQueryConfig;
+import org.phenoscape.obd.query.ReportCounts;
 import org.phenoscape.ws.resource.AbstractPhenoscapeResource;
 import org.restlet.data.CharacterSet;
 import org.restlet.data.Language;
@@ -43,15 +47,20 @@ public class PublicationCountsResource extends AbstractPhenoscapeResource {
                 result.append(taxon.getLabel());
             }
             result.append(System.getProperty("line.separator"));
-            result.append(this.getDataStore().getCountOfAnnotatedPublications(this.config));
+            final List<AnnotationsQueryConfig> configs = new ArrayList<AnnotationsQueryConfig>();
+            configs.add(this.config);
             for (String taxonID : TTO.HIGHER_LEVEL_TAXA) {
-                result.append("\t");
                 final AnnotationsQueryConfig taxonConfig = this.copyConfig(this.config);
                 if (!taxonConfig.getTaxonIDs().contains(taxonID)) {
                     taxonConfig.addTaxonID(taxonID);    
                 }
-                final int count = this.getDataStore().getCountOfAnnotatedPublications(taxonConfig);
-                result.append(count);
+                configs.add(taxonConfig);
+            }
+            final long[] counts = this.getReportCount(ReportCounts.COUNT.ANNOTATED_PUBLICATIONS, configs);
+            result.append(counts[0]);
+            for (int i = 1; i < counts.length; i++) {
+                result.append("\t");
+                result.append(counts[i]);
             }
             result.append(System.getProperty("line.separator"));
             return new StringRepresentation(result.toString(), MediaType.TEXT_TSV, Language.DEFAULT, CharacterSet.UTF_8);
@@ -59,6 +68,10 @@ public class PublicationCountsResource extends AbstractPhenoscapeResource {
             log().error("Error querying publication counts", e);
             this.setStatus(Status.SERVER_ERROR_INTERNAL, e);
             return null;
+        } catch (SolrServerException e) {
+            log().error("Error querying publication counts", e);
+            this.setStatus(Status.SERVER_ERROR_INTERNAL, e);
+            return null;
         }
     }
     
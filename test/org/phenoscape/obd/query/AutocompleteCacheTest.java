@@ -0,0 +1,108 @@
+package org.phenoscape.obd.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+import org.phenoscape.obd.model.DefaultTerm;
+import org.phenoscape.obd.query.SearchHit.MatchType;
+
+public class AutocompleteCacheTest {
+
+    private static final List<String> NAMES = Arrays.asList("vertebra", "vertebra 2", "vertebral column", "ventral fin", "vomer", "caudal vertebra");
+
+    @Test
+    public void prefixMatchesNarrowLaterKeystrokes() {
+        final AutocompleteCache cache = new AutocompleteCache(100, 1000, 60000);
+        cache.putPrefixMatches(config("ve"), matches("ve", false), cache.getGeneration());
+        assertNull(cache.getCandidates(config("ver")));
+        assertEquals(Arrays.asList("vertebra", "vertebra 2", "vertebral column"), texts(cache.getPrefixMatches(config("ver"))));
+        assertEquals(Arrays.asList("vertebral column"), texts(cache.getPrefixMatches(config("vertebral"))));
+        assertNull(cache.getPrefixMatches(config("v")));
+    }
+
+    @Test
+    public void completeCandidatesAnswerBoth() {
+        final AutocompleteCache cache = new AutocompleteCache(100, 1000, 60000);
+        cache.putCandidates(config("vert"), matches("vert", true), cache.getGeneration());
+        // prefix matches found later don't replace the complete candidates
+        cache.putPrefixMatches(config("vert"), matches("vert", false), cache.getGeneration());
+        assertEquals(Arrays.asList("vertebra", "vertebra 2", "vertebral column", "caudal vertebra"), texts(cache.getCandidates(config("verte"))));
+        assertEquals(Arrays.asList("vertebra", "vertebra 2", "vertebral column"), texts(cache.getPrefixMatches(config("verte"))));
+        assertEquals(Arrays.asList("vertebra", "vertebra 2", "vertebral column", "caudal vertebra"), texts(cache.getCandidates(config("vert"))));
+    }
+
+    @Test
+    public void completeCandidatesReplacePrefixMatches() {
+        final AutocompleteCache cache = new AutocompleteCache(100, 1000, 60000);
+        cache.putPrefixMatches(config("vert"), matches("vert", false), cache.getGeneration());
+        cache.putCandidates(config("ve"), matches("ve", true), cache.getGeneration());
+        // the complete candidates of the shorter text are used, rather than the prefix matches of the longer
+        assertEquals(Arrays.asList("vertebra", "vertebra 2", "vertebral column", "caudal vertebra"), texts(cache.getCandidates(config("verte"))));
+    }
+
+    @Test
+    public void matchesFoundBeforeALoadAreNotRemembered() {
+        final AutocompleteCache cache = new AutocompleteCache(100, 1000, 60000);
+        final long generation = cache.getGeneration();
+        cache.knowledgebaseLoaded(new Date());
+        cache.putPrefixMatches(config("ve"), matches("ve", false), generation);
+        assertNull(cache.getPrefixMatches(config("ver")));
+    }
+
+    @Test
+    public void typingIsAnsweredAfterTheFirstKeystrokes() {
+        final AutocompleteCache cache = new AutocompleteCache(100, 1000, 60000);
+        final String typed = "vertebral";
+        int answered = 0;
+        for (int length = 1; length <= typed.length(); length++) {
+            final String text = typed.substring(0, length);
+            // as getAutocompleteMatches looks up the prefix matches of each keystroke
+            final SearchConfig config = config(text);
+            List<SearchHit> prefixMatches = cache.getPrefixMatches(config);
+            if (prefixMatches == null) {
+                prefixMatches = matches(text, false);
+                cache.putPrefixMatches(config, prefixMatches, cache.getGeneration());
+            } else {
+                answered++;
+            }
+            assertEquals(matches(text, false).size(), prefixMatches.size());
+        }
+        assertEquals(typed.length() - 1, answered);
+    }
+
+    private static SearchConfig config(String text) {
+        final SearchConfig config = new SearchConfig(text);
+        config.addNamespace("TAO");
+        return config;
+    }
+
+    private static List<SearchHit> matches(String text, boolean contains) {
+        final List<SearchHit> hits = new ArrayList<SearchHit>();
+        for (String name : NAMES) {
+            if (contains ? name.contains(text) : name.startsWith(text)) {
+                final DefaultTerm term = new DefaultTerm(hits.size(), null);
+                term.setUID("TAO:" + hits.size());
+                term.setLabel(name);
+                hits.add(new SearchHit(term, name, MatchType.NAME));
+            }
+        }
+        return hits;
+    }
+
+    private static List<String> texts(List<SearchHit> hits) {
+        if (hits == null) { return Collections.emptyList(); }
+        final List<String> texts = new ArrayList<String>();
+        for (SearchHit hit : hits) {
+            texts.add(hit.getMatchText());
+        }
+        return texts;
+    }
+
+}
@@ -0,0 +1,135 @@
+package org.phenoscape.obd.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PrefetchingIteratorTest {
+
+    private ExecutorService executor;
+
+    @Before
+    public void createExecutor() {
+        this.executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+    }
+
+    @After
+    public void shutdownExecutor() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void chunksAreReturnedInOrder() {
+        assertEquals(numbers(0, 10), drain(new CountingIterator(this.executor, 2, 10)));
+    }
+
+    @Test
+    public void busyPoolFetchesOnTheCallersThread() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        // a long export holding the only thread
+        this.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        try {
+            final CountingIterator items = new CountingIterator(this.executor, 2, 10);
+            assertEquals(numbers(0, 10), drain(items));
+            assertEquals(Collections.singletonList(Thread.currentThread()), items.fetchingThreads);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void eachChunkIsFetchedByItsOwnTask() {
+        final CountingIterator first = new CountingIterator(this.executor, 2, 10);
+        final CountingIterator second = new CountingIterator(this.executor, 2, 10);
+        // neither iterator holds the only thread while the other is read
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Integer.valueOf(i), first.next());
+            assertEquals(Integer.valueOf(i), second.next());
+        }
+        assertTrue(!first.hasNext() && !second.hasNext());
+    }
+
+    @Test
+    public void failuresAreRethrownToTheConsumer() {
+        final PrefetchingIterator<Integer> items = new PrefetchingIterator<Integer>(Arrays.asList(0), this.executor, 2) {
+            @Override
+            protected List<Integer> fetchChunk() {
+                throw new IllegalStateException("backend failed");
+            }
+        };
+        assertEquals(Integer.valueOf(0), items.next());
+        try {
+            items.hasNext();
+            fail("The failure should reach the consumer");
+        } catch (IllegalStateException e) {
+            assertEquals("backend failed", e.getMessage());
+        }
+    }
+
+    private static List<Integer> drain(PrefetchingIterator<Integer> items) {
+        final List<Integer> result = new ArrayList<Integer>();
+        while (items.hasNext()) {
+            result.add(items.next());
+        }
+        return result;
+    }
+
+    private static List<Integer> numbers(int from, int to) {
+        final List<Integer> numbers = new ArrayList<Integer>();
+        for (int i = from; i < to; i++) {
+            numbers.add(i);
+        }
+        return numbers;
+    }
+
+    /**
+     * Returns the numbers up to a limit one at a time, after the first, recording the threads that fetched them.
+     */
+    private static class CountingIterator extends PrefetchingIterator<Integer> {
+
+        private final int count;
+        private int next = 1;
+        private final List<Thread> fetchingThreads = Collections.synchronizedList(new ArrayList<Thread>());
+
+        public CountingIterator(ExecutorService executor, int depth, int count) {
+            super(Arrays.asList(0), executor, depth);
+            this.count = count;
+        }
+
+        @Override
+        protected List<Integer> fetchChunk() {
+            if (this.next >= this.count) {
+                return null;
+            }
+            if (!this.fetchingThreads.contains(Thread.currentThread())) {
+                this.fetchingThreads.add(Thread.currentThread());
+            }
+            return Collections.singletonList(this.next++);
+        }
+
+    }
+
+}
@@ -0,0 +1,91 @@
+package org.phenoscape.obd.query;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.phenoscape.obd.model.DefaultTerm;
+import org.phenoscape.obd.query.SearchHit.MatchType;
+
+import com.eekboom.utils.Strings;
+
+public class SearchHitRankerTest {
+
+    private static final String ALPHABET = "aAb -(0019\u00e9";
+
+    @Test
+    public void hitsStartingWithTheSearchTextComeFirst() {
+        final SearchHitRanker ranker = new SearchHitRanker("fin", 0);
+        ranker.addAll(Arrays.asList(hit("pectoral fin"), hit("fin ray 10"), hit("fin ray 2")), false);
+        assertEquals(Arrays.asList("fin ray 2", "fin ray 10", "pectoral fin"), matchTexts(ranker.getRankedHits()));
+    }
+
+    @Test
+    public void aDigitRunAgainstAWordIsCollated() {
+        // the collator puts punctuation before digits, so "(fin)" precedes "2 fin" as with compareNatural
+        assertOrderedAsCompareNatural("(fin)", "2 fin");
+        assertOrderedAsCompareNatural("-fin", "10");
+        assertOrderedAsCompareNatural("fin 01", "fin 1");
+    }
+
+    @Test
+    public void orderMatchesCompareNatural() {
+        final Random random = new Random(20);
+        for (int i = 0; i < 20000; i++) {
+            assertOrderedAsCompareNatural(randomText(random), randomText(random));
+        }
+    }
+
+    @Test
+    public void limitKeepsTheBestByCompareNatural() {
+        final Random random = new Random(21);
+        for (int i = 0; i < 2000; i++) {
+            final String a = randomText(random);
+            final String b = randomText(random);
+            final SearchHitRanker ranker = new SearchHitRanker("~", 1);
+            ranker.addAll(Arrays.asList(hit(a), hit(b)), false);
+            final String best = (Strings.compareNatural(a, b) <= 0) ? a : b;
+            if (Strings.compareNatural(a, b) != 0) {
+                assertEquals(a + " / " + b, best, ranker.getRankedHits().get(0).getMatchText());
+            }
+        }
+    }
+
+    private static void assertOrderedAsCompareNatural(String a, String b) {
+        final int expected = Strings.compareNatural(a, b);
+        if (expected == 0) { return; }
+        final SearchHitRanker ranker = new SearchHitRanker("~", 0);
+        ranker.addAll(Arrays.asList(hit(a), hit(b)), false);
+        final List<String> ranked = matchTexts(ranker.getRankedHits());
+        assertEquals(a + " / " + b, (expected < 0) ? Arrays.asList(a, b) : Arrays.asList(b, a), ranked);
+    }
+
+    private static String randomText(Random random) {
+        final StringBuilder text = new StringBuilder();
+        final int length = random.nextInt(7);
+        for (int i = 0; i < length; i++) {
+            text.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return text.toString();
+    }
+
+    private static SearchHit hit(String matchText) {
+        final DefaultTerm term = new DefaultTerm(1, null);
+        term.setUID("TAO:1");
+        term.setLabel(matchText);
+        return new SearchHit(term, matchText, MatchType.NAME);
+    }
+
+    private static List<String> matchTexts(List<SearchHit> hits) {
+        final List<String> texts = new ArrayList<String>();
+        for (SearchHit hit : hits) {
+            texts.add(hit.getMatchText());
+        }
+        return texts;
+    }
+
+}
@@ -0,0 +1,36 @@
+package org.phenoscape.obd.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.phenoscape.obd.query.AnnotationsQueryConfig.SORT_COLUMN;
+
+public class SeekKeyTest {
+
+    @Test
+    public void singleIDCondition() {
+        final SeekKey key = new SeekKey("Danio rerio", "42");
+        assertEquals("(label > ? OR (label = ? AND node_id > ?) OR label IS NULL) ", key.getSQLCondition("label", "node_id", false));
+        assertEquals("(label < ? OR (label = ? AND node_id < ?)) ", key.getSQLCondition("label", "node_id", true));
+    }
+
+    @Test
+    public void severalIDsAreComparedAsARow() {
+        final SeekKey key = new SeekKey("shh", new String[] {"42", "7"});
+        assertEquals("(label > ? OR (label = ? AND (a, b) > (?, ?)) OR label IS NULL) ", key.getSQLCondition("label", "(a, b)", false));
+        assertEquals("(label IS NOT NULL OR (a, b) < (?, ?)) ", new SeekKey(null, new String[] {"42", "7"}).getSQLCondition("label", "(a, b)", true));
+    }
+
+    @Test
+    public void geneAnnotationChunksSeekAfterTheGeneAndPhenotype() {
+        final AnnotationsQueryConfig config = new AnnotationsQueryConfig();
+        config.setSortColumn(SORT_COLUMN.GENE);
+        config.setLimit(1000);
+        config.setSeekAfter(new SeekKey("shh", new String[] {"42", "7"}));
+        final String query = new GeneAnnotationsQueryBuilder(config, false).getQuery();
+        assertTrue(query.contains("(query.gene_node_id, query.phenotype_node_id) > (?, ?)"));
+        assertTrue(query.contains("ORDER BY sort_label , query.gene_node_id , query.phenotype_node_id LIMIT"));
+    }
+
+}
@@ -0,0 +1,77 @@
+package org.phenoscape.obd.query;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.response.FacetField;
+import org.apache.solr.client.solrj.response.FacetField.Count;
+import org.junit.Test;
+import org.phenoscape.ws.application.EmbeddedSolr;
+import org.phenoscape.ws.application.EmbeddedSolrTest;
+
+/**
+ * Compares the throughput of phenotype counts for combinations of entity and taxon, as made while faceting, with
+ * the constraints joined into the main query as before and with each constraint as a separate filter query. Runs
+ * only against an embedded core configured as for EmbeddedSolrTest; results are printed, so use ant verbose-test
+ * to see them.
+ */
+public class SolrFiltersBenchmark {
+
+    private static final int TERMS_PER_FIELD = 20;
+
+    @Test
+    public void compareJoinedQueryWithFilterQueries() throws Exception {
+        final EmbeddedSolr embedded = EmbeddedSolrTest.startConfiguredSolr();
+        try {
+            final SolrServer solr = embedded.getServer();
+            final List<SolrQuery> filtered = new ArrayList<SolrQuery>();
+            final List<SolrQuery> joined = new ArrayList<SolrQuery>();
+            for (String entity : topValues(solr, "entity")) {
+                for (String taxon : topValues(solr, "taxon_asserted")) {
+                    final SolrQuery query = new DistinctPhenotypesCountSolrQuery(solr, entity, null, null, taxon, null, true).createQuery();
+                    filtered.add(query);
+                    joined.add(new SolrQuery(StringUtils.join(query.getFilterQueries(), " AND ")).setRows(0));
+                }
+            }
+            final List<Long> joinedCounts = new ArrayList<Long>();
+            final List<Long> filteredCounts = new ArrayList<Long>();
+            final long joinedMillis = time(solr, joined, joinedCounts);
+            final long filteredMillis = time(solr, filtered, filteredCounts);
+            assertEquals(joinedCounts, filteredCounts);
+            System.out.println(joined.size() + " phenotype counts with constraints joined in q: " + joinedMillis + " ms, " + perSecond(joined.size(), joinedMillis) + " per second");
+            System.out.println(filtered.size() + " phenotype counts with constraints as fq: " + filteredMillis + " ms, " + perSecond(filtered.size(), filteredMillis) + " per second");
+        } finally {
+            embedded.shutdown();
+        }
+    }
+
+    private static List<String> topValues(SolrServer solr, String field) throws Exception {
+        final SolrQuery query = new SolrQuery(SolrFilters.term("type", "phenotype")).setRows(0).setFacet(true).addFacetField(field).setFacetLimit(TERMS_PER_FIELD).setFacetMinCount(1);
+        final List<String> values = new ArrayList<String>();
+        final FacetField facetField = solr.query(query).getFacetField(field);
+        if ((facetField != null) && (facetField.getValues() != null)) {
+            for (Count count : facetField.getValues()) {
+                values.add(count.getName());
+            }
+        }
+        return values;
+    }
+
+    private static long time(SolrServer solr, List<SolrQuery> queries, List<Long> counts) throws Exception {
+        final long start = System.nanoTime();
+        for (SolrQuery query : queries) {
+            counts.add(solr.query(query).getResults().getNumFound());
+        }
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    private static long perSecond(int count, long millis) {
+        return (millis > 0) ? (count * 1000L / millis) : count;
+    }
+
+}
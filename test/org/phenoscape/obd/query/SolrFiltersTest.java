@@ -0,0 +1,60 @@
+package org.phenoscape.obd.query;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.junit.Test;
+
+public class SolrFiltersTest {
+
+    @Test
+    public void termIsQuoted() {
+        assertEquals("entity:\"TAO:0000108\"", SolrFilters.term("entity", "TAO:0000108"));
+    }
+
+    @Test
+    public void termsMatchAnyOrAll() {
+        assertEquals("subtaxon_of:(\"TTO:1\" OR \"TTO:2\")", SolrFilters.terms("subtaxon_of", Arrays.asList("TTO:1", "TTO:2"), false));
+        assertEquals("subtaxon_of:(\"TTO:1\" AND \"TTO:2\")", SolrFilters.terms("subtaxon_of", Arrays.asList("TTO:1", "TTO:2"), true));
+        assertEquals("gene:(\"ZFIN:1\")", SolrFilters.terms("gene", Arrays.asList("ZFIN:1"), true));
+    }
+
+    @Test
+    public void uncachedAddsLocalParam() {
+        assertEquals("{!cache=false}id:{\"a\" TO *]", SolrFilters.uncached("id:{\"a\" TO *]"));
+    }
+
+    @Test
+    public void applyMatchesAllAndAddsEachFilter() {
+        final SolrQuery query = new SolrQuery();
+        SolrFilters.apply(query, Arrays.asList("type:\"phenotype\"", "quality:\"PATO:1\""));
+        assertEquals(SolrFilters.ALL_DOCUMENTS, query.getQuery());
+        assertArrayEquals(new String[] {"type:\"phenotype\"", "quality:\"PATO:1\""}, query.getFilterQueries());
+    }
+
+    @Test
+    public void phenotypeCountConstraintsAreSeparateFilters() {
+        final SolrQuery query = new DistinctPhenotypesCountSolrQuery(null, "TAO:1", "PATO:1", null, "TTO:1", null, false).createQuery();
+        assertEquals(SolrFilters.ALL_DOCUMENTS, query.getQuery());
+        assertArrayEquals(new String[] {"type:\"phenotype\"", "taxon_asserted:\"TTO:1\"", "entity_strict_inheres_in:\"TAO:1\"", "quality:\"PATO:1\""}, query.getFilterQueries());
+        assertEquals(Integer.valueOf(0), query.getRows());
+    }
+
+    @Test
+    public void seekBoundIsNotCached() {
+        final AnnotationsQueryConfig config = new AnnotationsQueryConfig();
+        config.setSortColumn(AnnotationsQueryConfig.SORT_COLUMN.TAXON);
+        config.addTaxonID("TTO:1");
+        config.addTaxonID("TTO:2");
+        config.setMatchAllTaxa(true);
+        final SeekKey key = new SeekKey("Danio", "TTO:3");
+        config.setSeekAfter(key);
+        final SolrQuery query = new AnnotatedTaxaSolrQuery(null, config).createQuery();
+        assertEquals(SolrFilters.ALL_DOCUMENTS, query.getQuery());
+        assertArrayEquals(new String[] {"type:\"taxon\"", "subtaxon_of:(\"TTO:1\" AND \"TTO:2\")", "{!cache=false}" + key.getSolrFilter("label", "id", false)}, query.getFilterQueries());
+    }
+
+}
@@ -0,0 +1,103 @@
+package org.phenoscape.obd.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.junit.Test;
+
+public class StreamingQueryExecutorTest {
+
+    @Test
+    public void batchesAreCompletedBeforeTheirItemsAreReturned() throws SQLException {
+        final FakeDatabase database = new FakeDatabase(7);
+        final List<String> events = new ArrayList<String>();
+        final CloseableIterator<Integer> rows = new StreamingQueryExecutor<Integer>(database.getDataSource(), new FakeQuery(), 1000, 3) {
+            @Override
+            public Integer processRow(ResultSet result) throws SQLException {
+                events.add("row " + result.getInt(1));
+                return result.getInt(1);
+            }
+            @Override
+            protected void completeBatch() {
+                events.add("batch");
+            }
+        }.executeQuery();
+        while (rows.hasNext()) {
+            events.add("next " + rows.next());
+        }
+        assertEquals(Arrays.asList(
+                "row 1", "row 2", "row 3", "batch", "next 1", "next 2", "next 3",
+                "row 4", "row 5", "row 6", "batch", "next 4", "next 5", "next 6",
+                "row 7", "batch", "next 7"), events);
+        assertTrue(database.closed);
+    }
+
+    private static class FakeQuery extends QueryBuilder {
+
+        @Override
+        protected String getQuery() {
+            return "SELECT n FROM numbers";
+        }
+
+        @Override
+        protected void fillStatement(PreparedStatement statement) {}
+
+    }
+
+    /**
+     * A DataSource, with its connection, statement and result, whose one query returns the numbers from 1 up to a count.
+     */
+    private static class FakeDatabase implements InvocationHandler {
+
+        private final int count;
+        private int row = 0;
+        private boolean closed = false;
+
+        public FakeDatabase(int count) {
+            this.count = count;
+        }
+
+        public DataSource getDataSource() {
+            return (DataSource)(this.proxy(DataSource.class));
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            final String name = method.getName();
+            if (name.equals("getConnection")) {
+                return this.proxy(Connection.class);
+            } else if (name.equals("prepareStatement")) {
+                return this.proxy(PreparedStatement.class);
+            } else if (name.equals("executeQuery")) {
+                return this.proxy(ResultSet.class);
+            } else if (name.equals("next")) {
+                this.row++;
+                return Boolean.valueOf(this.row <= this.count);
+            } else if (name.equals("getInt")) {
+                return Integer.valueOf(this.row);
+            } else if (name.equals("close") && (proxy instanceof Connection)) {
+                this.closed = true;
+            }
+            return null;
+        }
+
+        private Object proxy(Class<?> type) {
+            return Proxy.newProxyInstance(this.getClass().getClassLoader(), new Class<?>[] {type}, this);
+        }
+
+    }
+
+}
@@ -0,0 +1,69 @@
+package org.phenoscape.obd.query;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.phenoscape.obd.query.AnnotationsQueryConfig.SORT_COLUMN;
+
+/**
+ * Checks that listing queries only count the whole result for limited pages, since unlimited ones are streamed,
+ * and not for the following chunks of an export, which seek after the previous chunk's last key.
+ */
+public class TotalCountColumnTest {
+
+    @Test
+    public void phenotypePagesAreCounted() {
+        assertTrue(new PhenotypeQueryBuilder(config(20), false).getQuery().contains(QueryBuilder.TOTAL_COUNT));
+        assertFalse(new PhenotypeQueryBuilder(config(-1), false).getQuery().contains(QueryBuilder.TOTAL_COUNT));
+    }
+
+    @Test
+    public void annotatedTaxaPagesAreCounted() {
+        assertTrue(new AnnotatedTaxaQueryBuilder(config(20), false).getQuery().contains(QueryBuilder.TOTAL_COUNT));
+        assertFalse(new AnnotatedTaxaQueryBuilder(config(-1), false).getQuery().contains(QueryBuilder.TOTAL_COUNT));
+    }
+
+    @Test
+    public void annotatedGenesPagesAreCounted() {
+        assertTrue(new AnnotatedGenesQueryBuilder(sortedByGene(config(20)), false).getQuery().contains(QueryBuilder.TOTAL_COUNT));
+    }
+
+    @Test
+    public void publicationsPagesAreCounted() {
+        assertTrue(new PublicationsQueryBuilder(config(20), false).getQuery().contains(QueryBuilder.TOTAL_COUNT));
+    }
+
+    @Test
+    public void geneAnnotationPagesAreCounted() {
+        assertTrue(new GeneAnnotationsQueryBuilder(sortedByGene(config(20)), false).getQuery().contains(QueryBuilder.TOTAL_COUNT));
+        assertFalse(new GeneAnnotationsQueryBuilder(sortedByGene(seekingConfig()), false).getQuery().contains(QueryBuilder.TOTAL_COUNT));
+    }
+
+    @Test
+    public void seekedChunksAreNotCounted() {
+        assertFalse(new PhenotypeQueryBuilder(seekingConfig(), false).getQuery().contains(QueryBuilder.TOTAL_COUNT));
+        assertFalse(new AnnotatedTaxaQueryBuilder(seekingConfig(), false).getQuery().contains(QueryBuilder.TOTAL_COUNT));
+        assertFalse(new AnnotatedGenesQueryBuilder(sortedByGene(seekingConfig()), false).getQuery().contains(QueryBuilder.TOTAL_COUNT));
+        assertFalse(new PublicationsQueryBuilder(seekingConfig(), false).getQuery().contains(QueryBuilder.TOTAL_COUNT));
+    }
+
+    private static AnnotationsQueryConfig seekingConfig() {
+        final AnnotationsQueryConfig config = config(1000);
+        config.setSeekAfter(new SeekKey("Danio rerio", "42"));
+        return config;
+    }
+
+    private static AnnotationsQueryConfig sortedByGene(AnnotationsQueryConfig config) {
+        config.setSortColumn(SORT_COLUMN.GENE);
+        return config;
+    }
+
+    private static AnnotationsQueryConfig config(int limit) {
+        final AnnotationsQueryConfig config = new AnnotationsQueryConfig();
+        config.setSortColumn(SORT_COLUMN.TAXON);
+        config.setLimit(limit);
+        return config;
+    }
+
+}
@@ -0,0 +1,55 @@
+package org.phenoscape.ws.application;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeNotNull;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.impl.CommonsHttpSolrServer;
+import org.junit.Test;
+import org.phenoscape.obd.query.AnnotatedTaxaSolrQuery;
+import org.phenoscape.obd.query.AnnotationsQueryConfig;
+
+/**
+ * Compares the time for a page of annotated taxa from embedded Solr and from Solr over HTTP, serving the same
+ * index. Runs only when both org.phenoscape.obd.solr-home and org.phenoscape.obd.solr-uri are set; results are
+ * printed, so use ant verbose-test to see them.
+ */
+public class EmbeddedSolrBenchmark {
+
+    private static final int WARMUP_QUERIES = 50;
+    private static final int QUERIES = 500;
+
+    @Test
+    public void compareEmbeddedWithHTTP() throws Exception {
+        final String solrURI = System.getProperty("org.phenoscape.obd.solr-uri");
+        assumeNotNull(solrURI);
+        final EmbeddedSolr embedded = EmbeddedSolrTest.startConfiguredSolr();
+        try {
+            final SolrServer http = new CommonsHttpSolrServer(solrURI);
+            final AnnotationsQueryConfig config = new AnnotationsQueryConfig();
+            config.setSortColumn(AnnotationsQueryConfig.SORT_COLUMN.TAXON);
+            config.setLimit(20);
+            final SolrQuery query = new AnnotatedTaxaSolrQuery(null, config).createQuery();
+            assertEquals(http.query(query).getResults().getNumFound(), embedded.getServer().query(query).getResults().getNumFound());
+            final long httpMicros = time(http, query);
+            final long embeddedMicros = time(embedded.getServer(), query);
+            System.out.println("Annotated taxa page over HTTP: " + httpMicros + " microseconds per query");
+            System.out.println("Annotated taxa page from embedded Solr: " + embeddedMicros + " microseconds per query");
+        } finally {
+            embedded.shutdown();
+        }
+    }
+
+    private static long time(SolrServer solr, SolrQuery query) throws Exception {
+        for (int i = 0; i < WARMUP_QUERIES; i++) {
+            solr.query(query);
+        }
+        final long start = System.nanoTime();
+        for (int i = 0; i < QUERIES; i++) {
+            solr.query(query);
+        }
+        return (System.nanoTime() - start) / 1000 / QUERIES;
+    }
+
+}
@@ -0,0 +1,122 @@
+package org.phenoscape.ws.application;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.common.SolrDocument;
+import org.junit.Test;
+
+/**
+ * Tests that embedded Solr gets its own Lucene, apart from the webapp's. The tests against a real index run only
+ * when the org.phenoscape.obd.solr-home property names a Solr home, with the Lucene 4.0 jars in its lib directory
+ * or in the directory named by org.phenoscape.obd.solr-lib, e.g. ant test -Dorg.phenoscape.obd.solr-home=...
+ */
+public class EmbeddedSolrTest {
+
+    private static final File WEB_LIB = new File("WebContent/WEB-INF/lib");
+
+    @Test
+    public void onlyTheClientAPIIsShared() {
+        assertTrue(EmbeddedSolr.SolrClassLoader.isIsolated("org.apache.lucene.index.IndexReader"));
+        assertTrue(EmbeddedSolr.SolrClassLoader.isIsolated("org.apache.solr.core.CoreContainer"));
+        assertTrue(EmbeddedSolr.SolrClassLoader.isIsolated("org.apache.solr.client.solrj.embedded.EmbeddedSolrServer"));
+        assertFalse(EmbeddedSolr.SolrClassLoader.isIsolated("org.apache.solr.client.solrj.SolrServer"));
+        assertFalse(EmbeddedSolr.SolrClassLoader.isIsolated("org.apache.solr.common.SolrDocument"));
+        assertFalse(EmbeddedSolr.SolrClassLoader.isIsolated("org.apache.log4j.Logger"));
+    }
+
+    @Test
+    public void luceneIsLoadedFromTheSolrJars() throws Exception {
+        final ClassLoader loader = new EmbeddedSolr.SolrClassLoader(new URL[] {new File(WEB_LIB, "lucene-core-2.9.3.jar").toURI().toURL(), this.solrCoreJar()}, this.getClass().getClassLoader());
+        final Class<?> isolatedReader = loader.loadClass(IndexReader.class.getName());
+        assertNotSame(IndexReader.class, isolatedReader);
+        assertSame(loader, isolatedReader.getClassLoader());
+        assertSame(SolrDocument.class, loader.loadClass(SolrDocument.class.getName()));
+        final Class<?> server = loader.loadClass("org.apache.solr.client.solrj.embedded.EmbeddedSolrServer");
+        assertSame(loader, server.getClassLoader());
+        assertSame(SolrServer.class, server.getSuperclass());
+    }
+
+    @Test(expected = ClassNotFoundException.class)
+    public void missingLuceneClassesAreNotTakenFromTheWebapp() throws Exception {
+        final ClassLoader loader = new EmbeddedSolr.SolrClassLoader(new URL[] {new File(WEB_LIB, "lucene-core-2.9.3.jar").toURI().toURL()}, this.getClass().getClassLoader());
+        // in the webapp's lucene-snowball, but not in the loader's jars
+        loader.loadClass("org.apache.lucene.analysis.snowball.SnowballAnalyzer");
+    }
+
+    @Test
+    public void libraryJarsAndSolrCoreAreOnTheLoaderPath() throws Exception {
+        final File libraryDirectory = new File(System.getProperty("java.io.tmpdir"), "embedded-solr-test-" + System.nanoTime());
+        assertTrue(libraryDirectory.mkdir());
+        final File jar = new File(libraryDirectory, "lucene-core.jar");
+        try {
+            assertTrue(jar.createNewFile());
+            final List<URL> urls = Arrays.asList(EmbeddedSolr.SolrClassLoader.create(libraryDirectory, this.getClass().getClassLoader()).getURLs());
+            assertEquals(2, urls.size());
+            assertTrue(urls.contains(jar.toURI().toURL()));
+            assertTrue(urls.contains(this.solrCoreJar()));
+        } finally {
+            jar.delete();
+            libraryDirectory.delete();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void missingLibraryDirectoryFails() throws Exception {
+        EmbeddedSolr.SolrClassLoader.create(new File("no-such-solr-lib"), this.getClass().getClassLoader());
+    }
+
+    @Test(expected = IOException.class)
+    public void solrWithoutItsLuceneFailsToStart() throws Exception {
+        final File libraryDirectory = new File(System.getProperty("java.io.tmpdir"), "embedded-solr-test-" + System.nanoTime());
+        assertTrue(libraryDirectory.mkdir());
+        try {
+            new EmbeddedSolr(libraryDirectory, libraryDirectory, null);
+        } finally {
+            libraryDirectory.delete();
+        }
+    }
+
+    @Test
+    public void embeddedServerAnswersQueries() throws Exception {
+        final EmbeddedSolr solr = startConfiguredSolr();
+        try {
+            final long total = solr.getServer().query(new SolrQuery("*:*").setRows(0)).getResults().getNumFound();
+            assertTrue(total >= 0);
+        } finally {
+            solr.shutdown();
+        }
+    }
+
+    /**
+     * Embedded Solr as configured by the org.phenoscape.obd.solr-home, solr-lib and solr-core properties; the
+     * calling test is skipped if no Solr home is configured.
+     */
+    public static EmbeddedSolr startConfiguredSolr() throws IOException {
+        final String solrHome = System.getProperty("org.phenoscape.obd.solr-home");
+        assumeNotNull(solrHome);
+        final File libraryDirectory = new File(System.getProperty("org.phenoscape.obd.solr-lib", new File(solrHome, "lib").getPath()));
+        return new EmbeddedSolr(new File(solrHome), libraryDirectory, System.getProperty("org.phenoscape.obd.solr-core"));
+    }
+
+    private URL solrCoreJar() throws IOException {
+        final URL jar = EmbeddedSolr.SolrClassLoader.findJar(this.getClass().getClassLoader(), "org.apache.solr.core.CoreContainer");
+        assertNotNull(jar);
+        return jar;
+    }
+
+}
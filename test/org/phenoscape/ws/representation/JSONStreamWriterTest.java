@@ -0,0 +1,91 @@
+package org.phenoscape.ws.representation;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class JSONStreamWriterTest {
+
+    @Test
+    public void everyCharacterIsQuotedAsByJSONObject() throws IOException {
+        for (char c = 0; c < 0x2200; c++) {
+            final String text = "a" + c + "b";
+            assertEquals("character " + Integer.toHexString(c), JSONObject.quote(text), quoted(text));
+        }
+    }
+
+    @Test
+    public void stringsAreQuotedAsByJSONObject() throws IOException {
+        final String[] texts = {"", "pectoral fin", "\"quoted\"", "back\\slash", "</script>", "a/b", "</", "line\nbreak\ttab\r\f\b",
+                "\u0000\u001f\u007f\u0080\u009f\u00a0", "\u2028\u2029", "caf\u00e9", "\ud83d\udc1f", "\\\"</\n"};
+        for (String text : texts) {
+            assertEquals(JSONObject.quote(text), quoted(text));
+        }
+    }
+
+    @Test
+    public void nestedValuesMatchOrgJSON() throws Exception {
+        final JSONObject expected = new JSONObject();
+        expected.put("name", "fin");
+        expected.put("extinct", true);
+        expected.put("count", 42);
+        expected.put("nothing", JSONObject.NULL);
+        expected.put("ratio", 0.5);
+        expected.put("list", new JSONArray().put("a").put(1));
+        final StringWriter out = new StringWriter();
+        final JSONStreamWriter json = new JSONStreamWriter(out);
+        json.object();
+        json.key("name").value("fin");
+        json.key("missing").value((String)null);
+        json.key("extinct").value(true);
+        json.key("count").value(42);
+        json.key("nothing").value(JSONObject.NULL);
+        json.key("ratio").value(Double.valueOf(0.5));
+        json.key("list").array().value("a").value(1).endArray();
+        json.endObject();
+        assertEquals(expected.toString(), new JSONObject(out.toString()).toString());
+    }
+
+    @Test
+    public void membersAreCopied() throws Exception {
+        final JSONObject members = new JSONObject();
+        members.put("total", 3);
+        members.put("label", "a \"b\"");
+        final StringWriter out = new StringWriter();
+        new JSONStreamWriter(out).object().members(members).endObject();
+        assertEquals(members.toString(), new JSONObject(out.toString()).toString());
+    }
+
+    @Test
+    public void deeplyNestedArraysAreClosed() throws IOException {
+        final StringWriter out = new StringWriter();
+        final JSONStreamWriter json = new JSONStreamWriter(out);
+        for (int i = 0; i < 40; i++) {
+            json.array().value(i);
+        }
+        for (int i = 0; i < 40; i++) {
+            json.endArray();
+        }
+        final StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            expected.append("[").append(i).append(",");
+        }
+        expected.setLength(expected.length() - 1);
+        for (int i = 0; i < 40; i++) {
+            expected.append("]");
+        }
+        assertEquals(expected.toString(), out.toString());
+    }
+
+    private static String quoted(String text) throws IOException {
+        final StringWriter out = new StringWriter();
+        new JSONStreamWriter(out).value(text);
+        return out.toString();
+    }
+
+}
@@ -0,0 +1,126 @@
+package org.phenoscape.ws.resource;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONException;
+import org.junit.Test;
+import org.phenoscape.obd.model.DefaultTerm;
+import org.phenoscape.obd.model.TaxonAnnotation;
+import org.phenoscape.obd.model.TaxonTerm;
+import org.phenoscape.ws.representation.JSONStreamWriter;
+
+/**
+ * Compares the memory allocated and time taken per row to write taxon annotations as JSON, by building a
+ * JSONObject for each with translateToJSON, as before, and by streaming each with writeJSON. Allocation is
+ * measured with the HotSpot ThreadMXBean, and the benchmark is skipped on JVMs without it. Results are printed,
+ * so use ant verbose-test to see them.
+ */
+public class JSONStreamingBenchmark {
+
+    private static final int ROWS = 20000;
+    private static final int WARMUP_ROUNDS = 5;
+
+    @Test
+    public void compareAllocationPerRow() throws Exception {
+        final java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean)threads;
+        assumeTrue(allocation.isThreadAllocatedMemorySupported());
+        allocation.setThreadAllocatedMemoryEnabled(true);
+        final TaxonAnnotationsResource resource = new TaxonAnnotationsResource();
+        final List<TaxonAnnotation> rows = createRows();
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            writeTrees(resource, rows);
+            writeStreamed(resource, rows);
+        }
+        final long threadID = Thread.currentThread().getId();
+        long start = System.nanoTime();
+        long allocated = allocation.getThreadAllocatedBytes(threadID);
+        writeTrees(resource, rows);
+        final long treeNanos = System.nanoTime() - start;
+        final long treeBytes = allocation.getThreadAllocatedBytes(threadID) - allocated;
+        start = System.nanoTime();
+        allocated = allocation.getThreadAllocatedBytes(threadID);
+        writeStreamed(resource, rows);
+        final long streamedNanos = System.nanoTime() - start;
+        final long streamedBytes = allocation.getThreadAllocatedBytes(threadID) - allocated;
+        System.out.println("JSONObject per row: " + (treeBytes / ROWS) + " bytes, " + (treeNanos / ROWS) + " ns per row");
+        System.out.println("Streamed with writeJSON: " + (streamedBytes / ROWS) + " bytes, " + (streamedNanos / ROWS) + " ns per row");
+        assertTrue(streamedBytes < treeBytes);
+    }
+
+    private static void writeTrees(TaxonAnnotationsResource resource, List<TaxonAnnotation> rows) throws IOException, JSONException {
+        final Writer writer = new DiscardingWriter();
+        writer.write('[');
+        boolean first = true;
+        for (TaxonAnnotation row : rows) {
+            if (!first) { writer.write(','); }
+            first = false;
+            resource.translateToJSON(row).write(writer);
+        }
+        writer.write(']');
+    }
+
+    private static void writeStreamed(TaxonAnnotationsResource resource, List<TaxonAnnotation> rows) throws IOException {
+        final JSONStreamWriter json = new JSONStreamWriter(new DiscardingWriter());
+        json.array();
+        for (TaxonAnnotation row : rows) {
+            resource.writeJSON(row, json);
+        }
+        json.endArray();
+    }
+
+    private static List<TaxonAnnotation> createRows() {
+        final List<TaxonAnnotation> rows = new ArrayList<TaxonAnnotation>();
+        for (int i = 0; i < ROWS; i++) {
+            final TaxonAnnotation annotation = new TaxonAnnotation();
+            final TaxonTerm taxon = new TaxonTerm(i, null);
+            taxon.setUID("TTO:" + i);
+            taxon.setLabel("Taxon " + i);
+            taxon.setExtinct((i % 2) == 0);
+            taxon.setRank(term("TAXRANK:0000006", "species"));
+            annotation.setTaxon(taxon);
+            annotation.setEntity(term("TAO:" + (i % 500), "anatomical structure " + (i % 500)));
+            annotation.setQuality(term("PATO:" + (i % 50), "quality " + (i % 50)));
+            if ((i % 3) == 0) {
+                annotation.setRelatedEntity(term("TAO:" + (i % 70), "related structure " + (i % 70)));
+            }
+            rows.add(annotation);
+        }
+        return rows;
+    }
+
+    private static DefaultTerm term(String uid, String label) {
+        final DefaultTerm term = new DefaultTerm(0, null);
+        term.setUID(uid);
+        term.setLabel(label);
+        return term;
+    }
+
+    private static class DiscardingWriter extends Writer {
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {}
+
+        @Override
+        public void write(int c) {}
+
+        @Override
+        public void write(String text, int offset, int length) {}
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+
+    }
+
+}
@@ -0,0 +1,134 @@
+package org.phenoscape.ws.resource;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.phenoscape.obd.model.DefaultTerm;
+import org.phenoscape.obd.model.GeneAnnotation;
+import org.phenoscape.obd.model.GeneTerm;
+import org.phenoscape.obd.model.Phenotype;
+import org.phenoscape.obd.model.Relationship;
+import org.phenoscape.obd.model.TaxonAnnotation;
+import org.phenoscape.obd.model.TaxonTerm;
+import org.phenoscape.ws.representation.JSONStreamWriter;
+
+/**
+ * Checks that each resource which streams its items with writeJSON writes the same JSON as its translateToJSON.
+ */
+public class StreamedJSONTest {
+
+    private int nextNodeID = 1;
+
+    @Test
+    public void taxonAnnotations() throws Exception {
+        final TaxonAnnotation annotation = new TaxonAnnotation();
+        annotation.setTaxon(this.taxon("TTO:1", "Danio \"rerio\"", true));
+        annotation.getTaxon().setRank(this.term("TAXRANK:0000006", "species"));
+        annotation.setEntity(this.term("TAO:0000108", "fin"));
+        annotation.setQuality(this.term("PATO:0000587", "decreased size"));
+        annotation.setRelatedEntity(this.term("TAO:0001173", "dorsal fin"));
+        assertStreamedAsTranslated(new TaxonAnnotationsResource(), annotation);
+        final TaxonAnnotation postcomposed = new TaxonAnnotation();
+        postcomposed.setTaxon(this.taxon("TTO:2", "Esox lucius", false));
+        postcomposed.setEntity(this.postcomposedTerm());
+        postcomposed.setQuality(this.term("PATO:0000462", "absent"));
+        assertStreamedAsTranslated(new TaxonAnnotationsResource(), postcomposed);
+    }
+
+    @Test
+    public void geneAnnotations() throws Exception {
+        final GeneAnnotation annotation = new GeneAnnotation();
+        final GeneTerm gene = new GeneTerm(this.nextNodeID++, null);
+        gene.setUID("ZFIN:ZDB-GENE-1");
+        gene.setLabel("shha");
+        annotation.setGene(gene);
+        annotation.setEntity(this.postcomposedTerm());
+        annotation.setQuality(this.term("PATO:0000587", "decreased size"));
+        assertStreamedAsTranslated(new GeneAnnotationsResource(), annotation);
+    }
+
+    @Test
+    public void phenotypes() throws Exception {
+        final Phenotype phenotype = new Phenotype();
+        phenotype.setEntity(this.term("TAO:0000108", "fin"));
+        phenotype.setQuality(this.term("PATO:0000001", null));
+        assertStreamedAsTranslated(new DistinctPhenotypesResource(), phenotype);
+        phenotype.setRelatedEntity(this.term("TAO:0001173", "</dorsal fin>\n"));
+        assertStreamedAsTranslated(new DistinctPhenotypesResource(), phenotype);
+    }
+
+    @Test
+    public void taxa() throws Exception {
+        final TaxonTerm taxon = this.taxon("TTO:1", "Danio rerio", false);
+        assertStreamedAsTranslated(new TaxaResource(), taxon);
+        taxon.setRank(this.term("TAXRANK:0000006", "species"));
+        taxon.setTaxonomicFamily(this.taxon("TTO:10", "Cyprinidae", false));
+        taxon.setTaxonomicOrder(this.taxon("TTO:100", "Cypriniformes", true));
+        assertStreamedAsTranslated(new TaxaResource(), taxon);
+    }
+
+    private static <T> void assertStreamedAsTranslated(AnnotationQueryingResource<T> resource, T item) throws Exception {
+        final StringWriter out = new StringWriter();
+        resource.writeJSON(item, new JSONStreamWriter(out));
+        assertEquals(canonical(new JSONObject(resource.translateToJSON(item).toString())), canonical(new JSONObject(out.toString())));
+    }
+
+    /**
+     * The value with each JSONObject as a map sorted by key, so that values can be compared regardless of key order.
+     */
+    private static Object canonical(Object value) throws Exception {
+        if (value instanceof JSONObject) {
+            final JSONObject json = (JSONObject)value;
+            final Map<String, Object> map = new TreeMap<String, Object>();
+            for (Iterator<?> keys = json.keys(); keys.hasNext();) {
+                final String key = keys.next().toString();
+                map.put(key, canonical(json.get(key)));
+            }
+            return map;
+        } else if (value instanceof JSONArray) {
+            final JSONArray array = (JSONArray)value;
+            final List<Object> list = new ArrayList<Object>();
+            for (int i = 0; i < array.length(); i++) {
+                list.add(canonical(array.get(i)));
+            }
+            return list;
+        } else {
+            return value;
+        }
+    }
+
+    private DefaultTerm term(String uid, String label) {
+        final DefaultTerm term = new DefaultTerm(this.nextNodeID++, null);
+        term.setUID(uid);
+        term.setLabel(label);
+        return term;
+    }
+
+    private TaxonTerm taxon(String uid, String label, boolean extinct) {
+        final TaxonTerm taxon = new TaxonTerm(this.nextNodeID++, null);
+        taxon.setUID(uid);
+        taxon.setLabel(label);
+        taxon.setExtinct(extinct);
+        return taxon;
+    }
+
+    /**
+     * An unlabelled term defined by its links, which is written with its parents.
+     */
+    private DefaultTerm postcomposedTerm() {
+        final DefaultTerm term = this.term("TAO:0000108^OBO_REL:part_of(TAO:0001173)", null);
+        term.addSubjectLink(new Relationship(this.term("OBO_REL:is_a", "is_a"), this.term("TAO:0000108", "fin")));
+        term.addSubjectLink(new Relationship(this.term("OBO_REL:part_of", "part of"), this.term("TAO:0001173", "dorsal fin")));
+        return term;
+    }
+
+}